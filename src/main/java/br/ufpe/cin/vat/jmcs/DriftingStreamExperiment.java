@@ -0,0 +1,157 @@
+package br.ufpe.cin.vat.jmcs;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import br.ufpe.cin.vat.jmcs.neighbors.WekaNeighborIndex;
+import br.ufpe.cin.vat.jmcs.selection.dynamic.NearestNeighborsBasedDS;
+import br.ufpe.cin.vat.jmcs.selection.dynamic.OverallLocalAccuracyDCS;
+import br.ufpe.cin.vat.jmcs.selection.dynamic.SelectionWindow;
+import br.ufpe.cin.vat.jmcs.utils.Labels;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.neighboursearch.KDTree;
+
+/**
+ * Measures how fast a Dynamic Selection technique keeps up with a synthetic
+ * drifting stream (a rotating hyperplane), testing on each instance before
+ * learning from it. The selection data set is either left as built, updated
+ * in place with a sliding window, or rebuilt from the same window after each
+ * label arrives.
+ */
+public final class DriftingStreamExperiment
+{
+    public enum UpdateMode
+    {
+        STATIC, UPDATE, REBUILD
+    }
+
+    private static final int NUM_ATTRIBUTES = 5;
+    private static final int POOL_SIZE = 10;
+
+    /**
+     * Generates a stream labeled by a hyperplane whose normal rotates a
+     * little after each instance.
+     */
+    public static Instances generateStream(int size, double drift, long seed)
+    {
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        for (int a = 0; a < NUM_ATTRIBUTES; a++) {
+            attributes.add(new Attribute("x" + a));
+        }
+        ArrayList<String> classes = new ArrayList<String>();
+        classes.add("negative");
+        classes.add("positive");
+        attributes.add(new Attribute("class", classes));
+        Instances stream = new Instances("Hyperplane", attributes, size);
+        stream.setClassIndex(NUM_ATTRIBUTES);
+        Random random = new Random(seed);
+        double[] weights = new double[NUM_ATTRIBUTES];
+        double[] directions = new double[NUM_ATTRIBUTES];
+        for (int a = 0; a < NUM_ATTRIBUTES; a++) {
+            weights[a] = random.nextDouble();
+            directions[a] = random.nextBoolean() ? 1 : -1;
+        }
+        for (int n = 0; n < size; n++) {
+            double[] values = new double[NUM_ATTRIBUTES + 1];
+            double sum = 0;
+            double threshold = 0;
+            for (int a = 0; a < NUM_ATTRIBUTES; a++) {
+                values[a] = random.nextDouble();
+                sum += weights[a] * values[a];
+                threshold += weights[a] / 2;
+                weights[a] += directions[a] * drift;
+                if (weights[a] < 0 || weights[a] > 1) {
+                    directions[a] = -directions[a];
+                }
+            }
+            values[NUM_ATTRIBUTES] = sum > threshold ? 1 : 0;
+            stream.add(new DenseInstance(1.0, values));
+        }
+        return stream;
+    }
+
+    public static Classifier[] generatePool(Instances train) throws Exception
+    {
+        Classifier[] pool = new Classifier[POOL_SIZE];
+        pool[0] = new NaiveBayes();
+        for (int c = 1; c < POOL_SIZE; c++) {
+            RandomTree tree = new RandomTree();
+            tree.setSeed(c);
+            tree.setMaxDepth(4);
+            pool[c] = tree;
+        }
+        for (Classifier classifier : pool) classifier.buildClassifier(train);
+        return pool;
+    }
+
+    /**
+     * Tests on each instance of the stream after the first
+     * <code>window + window / 2</code> ones. The first window trains the pool
+     * and the next half window builds the selection data set, which the
+     * stream fills up before the sliding window starts evicting instances.
+     * @param batch - How many evictions must be due before they are carried
+     * out.
+     * @return The prequential accuracy and the throughput, in instances per
+     * second.
+     */
+    public static double[] evaluate(Instances stream, int window, int batch,
+            UpdateMode mode) throws Exception
+    {
+        Instances train = new Instances(stream, 0, window);
+        Instances selection = new Instances(stream, window, window / 2);
+        Classifier[] pool = generatePool(train);
+        NearestNeighborsBasedDS selector = new OverallLocalAccuracyDCS();
+        selector.setNeighborIndex(new WekaNeighborIndex(new KDTree()));
+        SelectionWindow sliding = new SelectionWindow(window, 0);
+        sliding.setEvictionBatch(batch);
+        selector.setSelectionWindow(sliding);
+        selector.setClassifiers(pool);
+        selector.buildClassifier(selection);
+        double agree = 0;
+        int tested = 0;
+        long start = System.nanoTime();
+        for (int n = window + window / 2; n < stream.size(); n++) {
+            Instance instance = stream.get(n);
+            double pred = selector.classifyInstance(instance);
+            if (Labels.Equals(pred, instance.classValue())) agree++;
+            tested++;
+            switch (mode) {
+            case UPDATE:
+                selector.update(instance);
+                break;
+            case REBUILD:
+                selection.add(instance);
+                if (selection.size() - window >= batch) {
+                    while (selection.size() > window) selection.delete(0);
+                }
+                selector.buildClassifier(selection);
+                break;
+            case STATIC:
+            default:
+                break;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new double[] { agree / tested, tested / seconds };
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 6000;
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        double drift = args.length > 2 ? Double.parseDouble(args[2]) : 0.001;
+        int batch = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        Instances stream = generateStream(size, drift, 100);
+        System.out.println("mode;accuracy;instances per second");
+        for (UpdateMode mode : UpdateMode.values()) {
+            double[] result = evaluate(stream, window, batch, mode);
+            System.out.println(mode + ";" + result[0] + ";" + result[1]);
+        }
+    }
+}
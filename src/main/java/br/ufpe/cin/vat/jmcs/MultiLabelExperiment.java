@@ -183,6 +183,14 @@ public final class MultiLabelExperiment
 
     public static double[] evaluate(String filePath, MultiLabelAlgorithm alg,
             Double threshold, Integer classIndex) throws Exception
+    {
+        return evaluate(filePath, alg, new Double[] { threshold },
+                        classIndex)[0];
+    }
+
+    public static double[][] evaluate(String filePath,
+            MultiLabelAlgorithm alg, Double[] thresholds, Integer classIndex)
+            throws Exception
     {
         DataSource source = new DataSource(filePath);
         Instances instances = source.getDataSet();
@@ -195,7 +203,7 @@ public final class MultiLabelExperiment
         Random rand2 = new Random(400);
         instances.randomize(rand);
         instances.stratify(10);
-        double[] accuracies = new double[10];
+        double[][] accuracies = new double[thresholds.length][10];
         for (int i = 0; i < 10; i++) {
             // split outter cross val
             Instances trainVal = instances.trainCV(10, i);
@@ -212,18 +220,20 @@ public final class MultiLabelExperiment
                         "ERROR! Classifier is null");
                 classifier.buildClassifier(train);
             }
-            DynamicSelection selector = prepareSelector(train, validation,
-                                                        initialPool, alg,
-                                                        threshold);
-            // test it
-            double agree = 0;
-            for (int j = 0; j < test.size(); j++)
-            {
-                double pred = selector.classifyInstance(test.instance(j));
-                double actual = test.get(j).classValue();
-                if (Labels.Equals(pred, actual)) agree++;
+            // every threshold is swept in a single pass over the test set
+            MultiLabelDES selector = (MultiLabelDES) prepareSelector(
+                    train, validation, initialPool, alg, null);
+            double[][] predictions = selector.sweepThresholds(test,
+                                                              thresholds);
+            for (int t = 0; t < thresholds.length; t++) {
+                double agree = 0;
+                for (int j = 0; j < test.size(); j++)
+                {
+                    double actual = test.get(j).classValue();
+                    if (Labels.Equals(predictions[t][j], actual)) agree++;
+                }
+                accuracies[t][i] = agree / test.size();
             }
-            accuracies[i] = agree / test.size();
         }
         return accuracies;
     }
@@ -264,15 +274,13 @@ public final class MultiLabelExperiment
                 classIndex = null;
             }
             System.out.print(file.getName() + ";");
-            int count = 0;
-            for (Double threshold : thresholds) {
-                double[] accuracies = evaluate(filepath, alg, threshold,
-                                               classIndex);
-                double mean = Statistics.Mean(accuracies);
-                double std = Statistics.StandardDeviation(accuracies, mean);
+            double[][] accuracies = evaluate(filepath, alg, thresholds,
+                                             classIndex);
+            for (int t = 0; t < thresholds.length; t++) {
+                double mean = Statistics.Mean(accuracies[t]);
+                double std = Statistics.StandardDeviation(accuracies[t], mean);
                 System.out.print(mean + ";" + std);
-                count++;
-                if (count < thresholds.length) {
+                if (t + 1 < thresholds.length) {
                     System.out.print(";");
                 }
             }
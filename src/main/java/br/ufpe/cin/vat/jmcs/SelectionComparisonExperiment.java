@@ -1,28 +1,44 @@
 package br.ufpe.cin.vat.jmcs;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
+import br.ufpe.cin.vat.jmcs.combination.Combiners;
+import br.ufpe.cin.vat.jmcs.neighbors.HnswNeighborIndex;
+import br.ufpe.cin.vat.jmcs.neighbors.SharedNeighborIndex;
+import br.ufpe.cin.vat.jmcs.neighbors.WekaNeighborIndex;
+import br.ufpe.cin.vat.jmcs.selection.dynamic.ClusteringBasedDS;
 import br.ufpe.cin.vat.jmcs.selection.dynamic.DynamicSelection;
 import br.ufpe.cin.vat.jmcs.selection.dynamic.DynamicSelectionDCS;
 import br.ufpe.cin.vat.jmcs.selection.dynamic.DynamicVoting;
 import br.ufpe.cin.vat.jmcs.selection.dynamic.DynamicVotingSelectionDES;
+import br.ufpe.cin.vat.jmcs.selection.dynamic.IndexedMLkNN;
 import br.ufpe.cin.vat.jmcs.selection.dynamic.KNORAEliminateDES;
 import br.ufpe.cin.vat.jmcs.selection.dynamic.LocalClassAccuracyDCS;
 import br.ufpe.cin.vat.jmcs.selection.dynamic.MCBBasedDCS;
 import br.ufpe.cin.vat.jmcs.selection.dynamic.MultiLabelDES;
+import br.ufpe.cin.vat.jmcs.selection.dynamic.NearestNeighborsBasedDS;
 import br.ufpe.cin.vat.jmcs.selection.dynamic.OverallLocalAccuracyDCS;
+import br.ufpe.cin.vat.jmcs.selection.dynamic.OverproduceAndSelect;
+import br.ufpe.cin.vat.jmcs.selection.dynamic.ParallelBinaryRelevance;
 import br.ufpe.cin.vat.jmcs.utils.Labels;
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
 import br.ufpe.cin.vat.jmcs.utils.Statistics;
 import mulan.classifier.lazy.MLkNN;
 import mulan.classifier.transformation.CalibratedLabelRanking;
 import weka.classifiers.Classifier;
 import weka.classifiers.MultipleClassifiersCombiner;
+import weka.classifiers.functions.Logistic;
 import weka.classifiers.meta.Vote;
 import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.converters.ConverterUtils.DataSource;
+import weka.core.neighboursearch.BallTree;
 
 public final class SelectionComparisonExperiment
 {
@@ -46,16 +62,16 @@ public final class SelectionComparisonExperiment
         @Override
         public double classifyInstance(Instance instance) throws Exception
         {
-            this.combiner.setClassifiers(this.classifiers);
-            return this.combiner.classifyInstance(instance);
+            return Combiners.Classify(this.combiner, instance,
+                                      this.classifiers, null);
         }
 
         @Override
         public double[] distributionForInstance(Instance instance)
                 throws Exception
         {
-            this.combiner.setClassifiers(this.classifiers);
-            return this.combiner.distributionForInstance(instance);
+            return Combiners.Distribution(this.combiner, instance,
+                                          this.classifiers, null);
         }
 
         @Override
@@ -82,22 +98,63 @@ public final class SelectionComparisonExperiment
 
     public enum SelectionAlgorithm
     {
-        MLKNN, CLR, OLA, LCA, DV, DS, DVS, KNORAE, MCB, MV
+        MLKNN, CLR, BR, OLA, LCA, DV, DS, DVS, KNORAE, MCB, MV, CLUSTER_OLA,
+        CLUSTER_KNORAE
     }
 
     private static final double MULTILABEL_THRESHOLD = 0.7;
 
+    private static final int CLUSTERS = 10;
+
     public static DynamicSelection prepareSelector(Instances train,
             Instances validation, Classifier[] classifiers,
             SelectionAlgorithm alg) throws Exception
+    {
+        return prepareSelector(train, validation, classifiers, alg, false);
+    }
+
+    public static DynamicSelection prepareSelector(Instances train,
+            Instances validation, Classifier[] classifiers,
+            SelectionAlgorithm alg, boolean approximate) throws Exception
+    {
+        return prepareSelector(train, validation, classifiers, alg,
+                               approximate, 0);
+    }
+
+    /**
+     * Prepares the selector, pruning the pool down to the given number of
+     * members (by DSEL accuracy and diversity) before it is built, unless the
+     * size is 0.
+     */
+    public static DynamicSelection prepareSelector(Instances train,
+            Instances validation, Classifier[] classifiers,
+            SelectionAlgorithm alg, boolean approximate, int pruneSize)
+            throws Exception
+    {
+        return prepareSelector(train, validation, classifiers, alg,
+                               approximate, pruneSize, null);
+    }
+
+    /**
+     * Prepares the selector, searching its neighbors (if any) in the given
+     * index, which is shared with the other selectors built over the same
+     * validation set, unless it is null.
+     */
+    public static DynamicSelection prepareSelector(Instances train,
+            Instances validation, Classifier[] classifiers,
+            SelectionAlgorithm alg, boolean approximate, int pruneSize,
+            SharedNeighborIndex shared) throws Exception
     {
         DynamicSelection selector;
         switch (alg) {
         case MLKNN:
             MultiLabelDES mlknn = new MultiLabelDES();
             mlknn.setThreshold(MULTILABEL_THRESHOLD);
-            MLkNN knn = new MLkNN(10, 1);
-            mlknn.setMultiLabelAlgorithm(knn);
+            if (shared != null) {
+                mlknn.setMultiLabelAlgorithm(new IndexedMLkNN(shared, 10, 1));
+            } else {
+                mlknn.setMultiLabelAlgorithm(new MLkNN(10, 1));
+            }
             selector = mlknn;
             break;
         case CLR:
@@ -107,6 +164,17 @@ public final class SelectionComparisonExperiment
             mlclr.setMultiLabelAlgorithm(clr);
             selector = mlclr;
             break;
+        case BR:
+            MultiLabelDES mlbr = new MultiLabelDES();
+            mlbr.setThreshold(MULTILABEL_THRESHOLD);
+            // one logistic model per pool member, trained on every core
+            PoolEvaluator trainer = new PoolEvaluator(
+                    ForkJoinPool.commonPool());
+            ParallelBinaryRelevance br = new ParallelBinaryRelevance(
+                    new Logistic(), trainer);
+            mlbr.setMultiLabelAlgorithm(br);
+            selector = mlbr;
+            break;
         case LCA:
             selector = new LocalClassAccuracyDCS();
             break;
@@ -128,18 +196,91 @@ public final class SelectionComparisonExperiment
         case MV:
             selector = new MajorVotingNoSelection();
             break;
+        case CLUSTER_OLA:
+            selector = new ClusteringBasedDS(ClusteringBasedDS.Rule.OLA,
+                                             CLUSTERS);
+            break;
+        case CLUSTER_KNORAE:
+            selector = new ClusteringBasedDS(ClusteringBasedDS.Rule.KNORAE,
+                                             CLUSTERS);
+            break;
         case OLA:
         default:
             selector = new OverallLocalAccuracyDCS();
             break;
         }
+        if (approximate && selector instanceof NearestNeighborsBasedDS) {
+            ((NearestNeighborsBasedDS) selector).setNeighborIndex(
+                    new HnswNeighborIndex());
+        } else if (shared != null &&
+                   selector instanceof NearestNeighborsBasedDS) {
+            ((NearestNeighborsBasedDS) selector).setNeighborIndex(shared);
+        }
+        if (pruneSize > 0) {
+            selector = new OverproduceAndSelect(selector, pruneSize);
+        }
         selector.setClassifiers(classifiers);
         selector.buildClassifier(validation);
         return selector;
     }
 
+    /**
+     * Whether the given algorithm searches a region of competence, so its
+     * accuracy may change with an approximate neighbor search.
+     */
+    public static boolean isNeighborsBased(SelectionAlgorithm alg)
+    {
+        switch (alg) {
+        case OLA:
+        case LCA:
+        case DV:
+        case DS:
+        case DVS:
+        case KNORAE:
+        case MCB:
+            return true;
+        default:
+            return false;
+        }
+    }
+
     public static double[] evaluate(String filePath, SelectionAlgorithm alg,
             Integer classIndex) throws Exception
+    {
+        return evaluate(filePath, alg, classIndex, false);
+    }
+
+    public static double[] evaluate(String filePath, SelectionAlgorithm alg,
+            Integer classIndex, boolean approximate) throws Exception
+    {
+        return evaluate(filePath, alg, classIndex, approximate, 0, null);
+    }
+
+    /**
+     * Runs the 10-fold evaluation, optionally pruning the pool before the
+     * selector is built.
+     * @param latencies - Output array which will hold the mean time, in
+     * milliseconds, taken to classify a test instance in each fold, or null.
+     * @return The accuracy of each fold.
+     */
+    public static double[] evaluate(String filePath, SelectionAlgorithm alg,
+            Integer classIndex, boolean approximate, int pruneSize,
+            double[] latencies) throws Exception
+    {
+        return evaluate(filePath, alg, classIndex, approximate, pruneSize,
+                        latencies, null);
+    }
+
+    /**
+     * Runs the 10-fold evaluation, also measuring how long the selector takes
+     * to be built.
+     * @param buildTimes - Output array which will hold the time, in
+     * milliseconds, taken to build the selector in each fold, or null.
+     * @return The accuracy of each fold.
+     */
+    public static double[] evaluate(String filePath, SelectionAlgorithm alg,
+            Integer classIndex, boolean approximate, int pruneSize,
+            double[] latencies, double[] buildTimes) throws Exception
     {
         DataSource source = new DataSource(filePath);
         Instances instances = source.getDataSet();
@@ -170,38 +311,143 @@ public final class SelectionComparisonExperiment
                         "ERROR! Classifier is null");
                 classifier.buildClassifier(train);
             }
+            long built = System.nanoTime();
             DynamicSelection selector = prepareSelector(train, validation,
-                                                        initialPool, alg);
+                                                        initialPool, alg,
+                                                        approximate,
+                                                        pruneSize);
+            if (buildTimes != null) {
+                buildTimes[i] = (System.nanoTime() - built) / 1e6;
+            }
             // test it
             double agree = 0;
+            long start = System.nanoTime();
             for (int j = 0; j < test.size(); j++)
             {
                 double pred = selector.classifyInstance(test.instance(j));
                 double actual = test.get(j).classValue();
                 if (Labels.Equals(pred, actual)) agree++;
             }
+            if (latencies != null) {
+                latencies[i] = (System.nanoTime() - start) / 1e6 /
+                               test.size();
+            }
             accuracies[i] = agree / test.size();
         }
         return accuracies;
     }
 
+    /**
+     * Runs the 10-fold evaluation of several algorithms at once. In each
+     * fold, the pool is trained once and a single neighbor index is built
+     * over the validation set, which every selector searching neighbors
+     * shares, so each test instance is searched once for each number of
+     * neighbors.
+     * @return The accuracy of each algorithm (first index) in each fold.
+     */
+    public static double[][] evaluate(String filePath,
+            SelectionAlgorithm[] algorithms, Integer classIndex)
+            throws Exception
+    {
+        DataSource source = new DataSource(filePath);
+        Instances instances = source.getDataSet();
+        if (classIndex == null) {
+            instances.setClassIndex(instances.numAttributes() - 1);
+        } else {
+            instances.setClassIndex(classIndex);
+        }
+        Random rand  = new Random(100);
+        Random rand2 = new Random(400);
+        instances.randomize(rand);
+        instances.stratify(10);
+        double[][] accuracies = new double[algorithms.length][10];
+        for (int i = 0; i < 10; i++) {
+            // split outter cross val
+            Instances trainVal = instances.trainCV(10, i);
+            Instances test  = instances.testCV(10, i);
+            // split inner val
+            trainVal.randomize(rand2);
+            trainVal.stratify(10);
+            Instances train = trainVal.trainCV(10, 0);
+            Instances validation = trainVal.testCV(10, 0);
+            // generate and train
+            Classifier[] initialPool = MultiLabelExperiment
+                                             .generateInitialPool(train.size());
+            for (Classifier classifier : initialPool) {
+                classifier.buildClassifier(train);
+            }
+            SharedNeighborIndex shared = new SharedNeighborIndex(
+                    new WekaNeighborIndex(new BallTree()));
+            shared.build(validation);
+            for (int a = 0; a < algorithms.length; a++) {
+                DynamicSelection selector = prepareSelector(train,
+                        validation, initialPool, algorithms[a], false, 0,
+                        shared);
+                double agree = 0;
+                for (int j = 0; j < test.size(); j++) {
+                    double pred = selector.classifyInstance(test.get(j));
+                    double actual = test.get(j).classValue();
+                    if (Labels.Equals(pred, actual)) agree++;
+                }
+                accuracies[a][i] = agree / test.size();
+            }
+        }
+        return accuracies;
+    }
+
     public static void main(String[] args) throws Exception
     {
         if (args.length < 1) {
-            System.out.println("USAGE: arg1 = datasets folder filepath.");
+            System.out.println("USAGE: arg1 = datasets folder filepath; " +
+                               "next args (optional) = ann, to also report " +
+                               "the accuracy with an approximate (HNSW) " +
+                               "region of competence; prune=N, to also " +
+                               "report the accuracy and latency with the " +
+                               "pool pruned to N members; timing, to also " +
+                               "report the time taken to build each " +
+                               "selector and to classify an instance; " +
+                               "shared, to also report the accuracy with " +
+                               "a neighbor index shared by the selectors " +
+                               "of each fold; br, to also compare the " +
+                               "parallel binary relevance meta-learner; " +
+                               "clustering, to also compare the " +
+                               "clustering-based selectors.");
             return;
         }
+        boolean approximate = false;
+        int pruneSize = 0;
+        boolean timing = false;
+        boolean shared = false;
+        boolean binaryRelevance = false;
+        boolean clustering = false;
+        for (int a = 1; a < args.length; a++) {
+            if (args[a].equals("ann")) approximate = true;
+            if (args[a].equals("timing")) timing = true;
+            if (args[a].equals("shared")) shared = true;
+            if (args[a].equals("br")) binaryRelevance = true;
+            if (args[a].equals("clustering")) clustering = true;
+            if (args[a].startsWith("prune=")) {
+                pruneSize = Integer.parseInt(args[a].substring(6));
+            }
+        }
         File folder = new File(args[0]);
         if (!folder.isDirectory()) {
             System.out.println("The path " + args[0] + " is not a folder!");
             return;
         }
-        SelectionAlgorithm[] algorithms = new SelectionAlgorithm[]
-                { SelectionAlgorithm.MLKNN, SelectionAlgorithm.CLR,
-                  SelectionAlgorithm.OLA, SelectionAlgorithm.LCA,
-                  SelectionAlgorithm.DV, SelectionAlgorithm.DS,
-                  SelectionAlgorithm.DVS, SelectionAlgorithm.KNORAE,
-                  SelectionAlgorithm.MCB, SelectionAlgorithm.MV };
+        List<SelectionAlgorithm> compared = new ArrayList<SelectionAlgorithm>(
+                Arrays.asList(SelectionAlgorithm.MLKNN, SelectionAlgorithm.CLR,
+                              SelectionAlgorithm.OLA, SelectionAlgorithm.LCA,
+                              SelectionAlgorithm.DV, SelectionAlgorithm.DS,
+                              SelectionAlgorithm.DVS, SelectionAlgorithm.KNORAE,
+                              SelectionAlgorithm.MCB, SelectionAlgorithm.MV));
+        if (binaryRelevance) compared.add(2, SelectionAlgorithm.BR);
+        if (clustering) {
+            compared.add(SelectionAlgorithm.CLUSTER_OLA);
+            compared.add(SelectionAlgorithm.CLUSTER_KNORAE);
+        }
+        SelectionAlgorithm[] algorithms =
+                compared.toArray(new SelectionAlgorithm[compared.size()]);
         // CSV header
         System.out.print("file name;");
         for (int i = 0; i < algorithms.length; i++) {
@@ -210,6 +456,38 @@ public final class SelectionComparisonExperiment
             System.out.print(";");
             System.out.print(algorithms[i].toString());
             System.out.print(" (std)");
+            if (approximate) {
+                System.out.print(";");
+                System.out.print(algorithms[i].toString());
+                System.out.print(" (ANN mean)");
+                System.out.print(";");
+                System.out.print(algorithms[i].toString());
+                System.out.print(" (ANN - exact)");
+            }
+            if (timing) {
+                System.out.print(";");
+                System.out.print(algorithms[i].toString());
+                System.out.print(" (build ms)");
+                System.out.print(";");
+                System.out.print(algorithms[i].toString());
+                System.out.print(" (query ms)");
+            }
+            if (shared) {
+                System.out.print(";");
+                System.out.print(algorithms[i].toString());
+                System.out.print(" (shared mean)");
+            }
+            if (pruneSize > 0) {
+                System.out.print(";");
+                System.out.print(algorithms[i].toString());
+                System.out.print(" (latency ms)");
+                System.out.print(";");
+                System.out.print(algorithms[i].toString());
+                System.out.print(" (pruned mean)");
+                System.out.print(";");
+                System.out.print(algorithms[i].toString());
+                System.out.print(" (pruned latency ms)");
+            }
             if (i + 1 < algorithms.length) {
                 System.out.print(";");
             }
@@ -225,12 +503,46 @@ public final class SelectionComparisonExperiment
                 classIndex = null;
             }
             System.out.print(file.getName() + ";");
+            // the shared runs train the pool once per fold for every
+            // algorithm, so they are done before the others
+            double[][] sharedAccuracies = !shared ? null :
+                    evaluate(filepath, algorithms, classIndex);
             int count = 0;
             for (SelectionAlgorithm algorithm : algorithms) {
-                double[] accuracies = evaluate(filepath, algorithm, classIndex);
+                double[] latencies = new double[10];
+                double[] buildTimes = new double[10];
+                double[] accuracies = evaluate(filepath, algorithm, classIndex,
+                                               false, 0, latencies,
+                                               buildTimes);
                 double mean = Statistics.Mean(accuracies);
                 double std = Statistics.StandardDeviation(accuracies, mean);
                 System.out.print(mean + ";" + std);
+                if (approximate) {
+                    double approximateMean = mean;
+                    if (isNeighborsBased(algorithm)) {
+                        approximateMean = Statistics.Mean(evaluate(
+                                filepath, algorithm, classIndex, true));
+                    }
+                    System.out.print(";" + approximateMean + ";" +
+                                     (approximateMean - mean));
+                }
+                if (timing) {
+                    System.out.print(";" + Statistics.Mean(buildTimes) + ";" +
+                                     Statistics.Mean(latencies));
+                }
+                if (shared) {
+                    System.out.print(";" + Statistics.Mean(
+                            sharedAccuracies[count]));
+                }
+                if (pruneSize > 0) {
+                    double[] prunedLatencies = new double[10];
+                    double prunedMean = Statistics.Mean(evaluate(
+                            filepath, algorithm, classIndex, false, pruneSize,
+                            prunedLatencies));
+                    System.out.print(";" + Statistics.Mean(latencies) + ";" +
+                                     prunedMean + ";" +
+                                     Statistics.Mean(prunedLatencies));
+                }
                 count++;
                 if (count < algorithms.length) {
                     System.out.print(";");
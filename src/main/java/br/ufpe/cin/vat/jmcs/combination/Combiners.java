@@ -0,0 +1,596 @@
+/* Combiners.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.combination;
+
+import java.util.Arrays;
+
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
+import weka.classifiers.Classifier;
+import weka.classifiers.MultipleClassifiersCombiner;
+import weka.classifiers.meta.Vote;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Utility class for combining, over primitive matrices, the answers a pool of
+ * classifiers gave to a batch of instances, instead of handing each selected
+ * sub ensemble to a WEKA combiner.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public final class Combiners
+{
+    /**
+     * Checks whether the given combiner is an unweighted {@link Vote} using
+     * the average rule, which is what
+     * {@link #Average(Classifier[], Instances, int[][], int[])} reproduces for
+     * nominal classes. A {@link WeightedVote} is not, since it weights each
+     * member.
+     * @param combiner - The combiner configured in a selection technique.
+     * @return Whether the combiner can be replaced by the average kernel.
+     * @since 0.1
+     */
+    public static boolean IsAverageVote(MultipleClassifiersCombiner combiner)
+    {
+        return combiner != null && combiner.getClass() == Vote.class &&
+               VoteRule(combiner) == Vote.AVERAGE_RULE;
+    }
+
+    /**
+     * Retrieves the combination rule of the given combiner, if it is a
+     * {@link Vote} or a {@link WeightedVote} without pre-built classifiers,
+     * which is what {@link #Combine(int, double[][], int[], int, double[],
+     * double[])} reproduces for nominal classes.
+     * @param combiner - The combiner configured in a selection technique.
+     * @return The ID of the rule (e.g.,
+     * <code>Vote.MAJORITY_VOTING_RULE</code>), or -1 if the combiner cannot be
+     * replaced by the kernel.
+     * @since 0.1
+     */
+    public static int VoteRule(MultipleClassifiersCombiner combiner)
+    {
+        if (combiner == null) return -1;
+        Class<?> type = combiner.getClass();
+        if (type != Vote.class && type != WeightedVote.class) return -1;
+        Vote vote = (Vote) combiner;
+        if (vote.getPreBuiltClassifiers().length > 0) return -1;
+        return vote.getCombinationRule().getSelectedTag().getID();
+    }
+
+    /**
+     * Averages, for each instance of the batch, the distributions of the
+     * classifiers selected for it. Each classifier is run over the batch at
+     * most once, and only if it was selected for some instance.
+     * @param pool - The pool of classifiers.
+     * @param instances - The batch of instances.
+     * @param selections - The indexes, in the pool, of the classifiers
+     * selected for each instance, in the order they should be combined.
+     * @param sizes - How many entries of each selection are used.
+     * @return The combined class distribution of each instance.
+     * @throws Exception - In case any of the selected classifiers cannot
+     * classify one of the instances.
+     * @since 0.1
+     */
+    public static double[][] Average(Classifier[] pool, Instances instances,
+            int[][] selections, int[] sizes) throws Exception
+    {
+        return Average(pool, instances, selections, sizes,
+                       new PoolEvaluator());
+    }
+
+    /**
+     * Averages, for each instance of the batch, the distributions of the
+     * classifiers selected for it, running the pool through the given
+     * evaluator. Each classifier is run over the batch at most once, and only
+     * if it was selected for some instance.
+     * @param pool - The pool of classifiers.
+     * @param instances - The batch of instances.
+     * @param selections - The indexes, in the pool, of the classifiers
+     * selected for each instance, in the order they should be combined.
+     * @param sizes - How many entries of each selection are used.
+     * @param evaluator - Runs the members of the pool.
+     * @return The combined class distribution of each instance.
+     * @throws Exception - In case any of the selected classifiers cannot
+     * classify one of the instances.
+     * @since 0.1
+     */
+    public static double[][] Average(Classifier[] pool, Instances instances,
+            int[][] selections, int[] sizes, PoolEvaluator evaluator)
+            throws Exception
+    {
+        return Average(pool, instances, selections, sizes, null, evaluator);
+    }
+
+    /**
+     * Averages, for each instance of the batch, the distributions of the
+     * classifiers selected for it as
+     * {@link #Average(Classifier[], Instances, int[][], int[], PoolEvaluator)}
+     * does, over a pool whose members may be answered by others which behave
+     * identically. Only the members which answer for themselves are run.
+     * @param pool - The pool of classifiers.
+     * @param instances - The batch of instances.
+     * @param selections - The indexes, in the pool, of the classifiers
+     * selected for each instance, in the order they should be combined.
+     * @param sizes - How many entries of each selection are used.
+     * @param representatives - The position of the member which answers for
+     * each member of the pool, or null if every member answers for itself.
+     * @param evaluator - Runs the members of the pool.
+     * @return The combined class distribution of each instance.
+     * @throws Exception - In case any of the selected classifiers cannot
+     * classify one of the instances.
+     * @since 0.1
+     */
+    public static double[][] Average(Classifier[] pool, Instances instances,
+            int[][] selections, int[] sizes, int[] representatives,
+            PoolEvaluator evaluator) throws Exception
+    {
+        boolean[] used = new boolean[pool.length];
+        for (int i = 0; i < instances.size(); i++) {
+            for (int s = 0; s < sizes[i]; s++) {
+                int c = selections[i][s];
+                used[representatives == null ? c : representatives[c]] = true;
+            }
+        }
+        double[][][] distributions = evaluator.distributions(pool, used,
+                                                             instances);
+        if (representatives != null) {
+            for (int c = 0; c < pool.length; c++) {
+                distributions[c] = distributions[representatives[c]];
+            }
+        }
+        double[][] combined = new double[instances.size()]
+                                        [instances.numClasses()];
+        for (int i = 0; i < instances.size(); i++) {
+            Average(distributions, i, selections[i], sizes[i], combined[i]);
+        }
+        return combined;
+    }
+
+    /**
+     * Averages the distributions of the selected classifiers for a single
+     * instance of a batch, the same way {@link Vote} does for nominal classes.
+     * @param distributions - The distributions given by each classifier of the
+     * pool (first index) for each instance of the batch (second index).
+     * @param instance - The position of the instance in the batch.
+     * @param selected - The indexes of the selected classifiers.
+     * @param size - How many entries of <code>selected</code> are used.
+     * @param result - Output array, with one position per class.
+     * @since 0.1
+     */
+    public static void Average(double[][][] distributions, int instance,
+            int[] selected, int size, double[] result)
+    {
+        Arrays.fill(result, 0.0);
+        for (int s = 0; s < size; s++) {
+            double[] distribution = distributions[selected[s]][instance];
+            for (int j = 0; j < distribution.length; j++) {
+                result[j] += distribution[j];
+            }
+        }
+        NormalizeAsVote(result);
+    }
+
+    /**
+     * Combines, for a nominal class, the distributions the selected members
+     * of a pool gave a single instance, with the given rule of {@link Vote}.
+     * Nothing is allocated and no classifier is run, so the distributions the
+     * selection step computed can be combined as they are. With equal
+     * weights, the result is the one <code>Vote</code> gives for the selected
+     * members, in the same order, except for the median rule, which
+     * <code>Vote</code> only defines for numeric classes: here, each class
+     * gets the median of the members' probabilities for it. Otherwise, each
+     * member counts as many times as its weight: the average and majority
+     * rules weight its probabilities and votes, the product rule raises its
+     * probabilities to the weight, the maximum and minimum rules scale them,
+     * and the median rule takes the weighted median.
+     * @param rule - The ID of the rule (e.g., <code>Vote.AVERAGE_RULE</code>).
+     * @param distributions - The distribution given by each member of the
+     * pool. Those of unselected members are not read, and may be null.
+     * @param selected - The indexes, in the pool, of the selected members, in
+     * the order they should be combined.
+     * @param size - How many entries of <code>selected</code> are used.
+     * @param weights - The non-negative weight of each selected member, in
+     * selection order, or null for equal weights.
+     * @param result - Output array, with one position per class.
+     * @throws IllegalArgumentException - In case the rule is unknown.
+     * @since 0.1
+     */
+    public static void Combine(int rule, double[][] distributions,
+            int[] selected, int size, double[] weights, double[] result)
+    {
+        switch (rule) {
+        case Vote.AVERAGE_RULE:
+            Arrays.fill(result, 0.0);
+            for (int s = 0; s < size; s++) {
+                double weight = weights == null ? 1.0 : weights[s];
+                double[] distribution = distributions[selected[s]];
+                for (int j = 0; j < result.length; j++) {
+                    result[j] += weight * distribution[j];
+                }
+            }
+            break;
+        case Vote.PRODUCT_RULE:
+            Arrays.fill(result, 1.0);
+            for (int s = 0; s < size; s++) {
+                double[] distribution = distributions[selected[s]];
+                if (Utils.sum(distribution) <= 0) continue;
+                double weight = weights == null ? 1.0 : weights[s];
+                for (int j = 0; j < result.length; j++) {
+                    result[j] *= weight == 1.0 ? distribution[j] :
+                                 Math.pow(distribution[j], weight);
+                }
+            }
+            break;
+        case Vote.MAX_RULE:
+        case Vote.MIN_RULE:
+            Arrays.fill(result, 0.0);
+            for (int s = 0; s < size; s++) {
+                double weight = weights == null ? 1.0 : weights[s];
+                double[] distribution = distributions[selected[s]];
+                for (int j = 0; j < result.length; j++) {
+                    double value = weight * distribution[j];
+                    if (s == 0 || (rule == Vote.MAX_RULE ? result[j] < value :
+                                                           result[j] > value)) {
+                        result[j] = value;
+                    }
+                }
+            }
+            break;
+        case Vote.MEDIAN_RULE:
+            for (int j = 0; j < result.length; j++) {
+                result[j] = WeightedMedian(distributions, selected, size,
+                                           weights, j);
+            }
+            break;
+        case Vote.MAJORITY_VOTING_RULE:
+            Majority(distributions, selected, size, weights, result);
+            return;
+        default:
+            throw new IllegalArgumentException("Unknown combination rule " +
+                                               rule + ".");
+        }
+        NormalizeAsVote(result);
+    }
+
+    /**
+     * Gives the votes of the selected members to the classes they find the
+     * most likely (all of them, when several tie), and the whole support to
+     * the class with the most votes. Ties between classes are broken by the
+     * average distribution, as {@link Vote} does.
+     */
+    private static void Majority(double[][] distributions, int[] selected,
+            int size, double[] weights, double[] result)
+    {
+        Arrays.fill(result, 0.0);
+        for (int s = 0; s < size; s++) {
+            double[] distribution = distributions[selected[s]];
+            int best = 0;
+            for (int j = 1; j < distribution.length; j++) {
+                if (distribution[j] > distribution[best]) best = j;
+            }
+            if (distribution[best] <= 0) continue;
+            double weight = weights == null ? 1.0 : weights[s];
+            for (int j = 0; j < distribution.length; j++) {
+                if (distribution[j] == distribution[best]) {
+                    result[j] += weight;
+                }
+            }
+        }
+        int winner = 0;
+        boolean tie = false;
+        for (int j = 1; j < result.length; j++) {
+            if (result[j] > result[winner]) {
+                winner = j;
+                tie = false;
+            } else if (result[j] == result[winner]) {
+                tie = true;
+            }
+        }
+        if (result[winner] == 0) return;
+        if (tie) {
+            Combine(Vote.AVERAGE_RULE, distributions, selected, size, weights,
+                    result);
+            winner = Utils.maxIndex(result);
+        }
+        Arrays.fill(result, 0.0);
+        result[winner] = 1.0;
+    }
+
+    /**
+     * Finds the smallest probability of the given class, among the selected
+     * members, whose members and smaller ones hold at least half the total
+     * weight. When they hold exactly half, the median lies halfway to the next
+     * probability, as with an even number of equally weighted members.
+     */
+    private static double WeightedMedian(double[][] distributions,
+            int[] selected, int size, double[] weights, int j)
+    {
+        double total = 0;
+        for (int s = 0; s < size; s++) {
+            total += weights == null ? 1.0 : weights[s];
+        }
+        if (total <= 0) return 0.0;
+        double half = total / 2;
+        double median = Double.POSITIVE_INFINITY;
+        boolean exact = false;
+        for (int s = 0; s < size; s++) {
+            double value = distributions[selected[s]][j];
+            if (value >= median) continue;
+            double below = 0;
+            for (int o = 0; o < size; o++) {
+                if (distributions[selected[o]][j] <= value) {
+                    below += weights == null ? 1.0 : weights[o];
+                }
+            }
+            if (below >= half) {
+                median = value;
+                exact = below == half;
+            }
+        }
+        if (!exact) return median;
+        double next = Double.POSITIVE_INFINITY;
+        for (int s = 0; s < size; s++) {
+            double value = distributions[selected[s]][j];
+            if (value > median && value < next) next = value;
+        }
+        return next == Double.POSITIVE_INFINITY ? median :
+               (median + next) / 2;
+    }
+
+    /**
+     * Combines the given sub ensemble for a single instance without changing
+     * the classifiers (or weights) configured in the combiner, so several
+     * threads can share it. Votes over nominal classes are computed directly,
+     * with any of their rules and, for a {@link WeightedVote}, the given
+     * weights; an average WeightedVote otherwise receives the weights
+     * explicitly, and any other combiner is configured and run while holding
+     * its lock.
+     * @param combiner - The combiner configured in a selection technique.
+     * @param instance - The instance to be classified.
+     * @param ensemble - The selected classifiers.
+     * @param weights - The weight of each selected classifier, or null if the
+     * selection is not weighted.
+     * @return The combined class distribution.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public static double[] Distribution(MultipleClassifiersCombiner combiner,
+            Instance instance, Classifier[] ensemble, double[] weights)
+            throws Exception
+    {
+        return Distribution(combiner, instance, ensemble, weights,
+                            new PoolEvaluator());
+    }
+
+    /**
+     * Combines the given sub ensemble for a single instance as
+     * {@link #Distribution(MultipleClassifiersCombiner, Instance,
+     * Classifier[], double[])} does, running the sub ensemble through the
+     * given evaluator whenever the combination is computed directly.
+     * @param combiner - The combiner configured in a selection technique.
+     * @param instance - The instance to be classified.
+     * @param ensemble - The selected classifiers.
+     * @param weights - The weight of each selected classifier, or null if the
+     * selection is not weighted.
+     * @param evaluator - Runs the selected classifiers.
+     * @return The combined class distribution.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public static double[] Distribution(MultipleClassifiersCombiner combiner,
+            Instance instance, Classifier[] ensemble, double[] weights,
+            PoolEvaluator evaluator) throws Exception
+    {
+        return Distribution(combiner,
+                            new QueryContext(instance, ensemble, evaluator),
+                            Identity(ensemble.length), ensemble.length,
+                            weights);
+    }
+
+    /**
+     * Combines the selected members of the pool for the instance of a query
+     * as {@link #Distribution(MultipleClassifiersCombiner, Instance,
+     * Classifier[], double[])} does. Whenever the combination is computed
+     * directly, the distributions are read from the query context, so the
+     * members the selection step already ran are not run again.
+     * @param combiner - The combiner configured in a selection technique.
+     * @param context - The answers of the pool for the instance.
+     * @param selected - The indexes, in the pool, of the selected classifiers.
+     * @param size - How many entries of <code>selected</code> are used.
+     * @param weights - The weight of each selected classifier, or null if the
+     * selection is not weighted.
+     * @return The combined class distribution.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public static double[] Distribution(MultipleClassifiersCombiner combiner,
+            QueryContext context, int[] selected, int size, double[] weights)
+            throws Exception
+    {
+        Instance instance = context.getInstance();
+        int rule = VoteRule(combiner);
+        if (rule >= 0 && instance.classAttribute().isNominal()) {
+            // only a WeightedVote weights its members, as it would if run
+            double[] adjusted = weights == null ||
+                    !(combiner instanceof WeightedVote) ? null :
+                    ((WeightedVote) combiner).adjustWeights(weights);
+            double[][] distributions = context.distributionMatrix(selected,
+                                                                  size);
+            double[] result = new double[instance.numClasses()];
+            Combine(rule, distributions, selected, size, adjusted, result);
+            return result;
+        }
+        Classifier[] ensemble = Ensemble(context, selected, size);
+        if (rule == Vote.AVERAGE_RULE && combiner instanceof WeightedVote) {
+            return ((WeightedVote) combiner).distributionForInstance(
+                    instance, ensemble, weights);
+        }
+        synchronized (combiner) {
+            Configure(combiner, ensemble, weights);
+            return combiner.distributionForInstance(instance);
+        }
+    }
+
+    /**
+     * Classifies a single instance with the given sub ensemble without
+     * changing the classifiers (or weights) configured in the combiner, as
+     * {@link #Distribution(MultipleClassifiersCombiner, Instance,
+     * Classifier[], double[])} does.
+     * @param combiner - The combiner configured in a selection technique.
+     * @param instance - The instance to be classified.
+     * @param ensemble - The selected classifiers.
+     * @param weights - The weight of each selected classifier, or null if the
+     * selection is not weighted.
+     * @return The predicted class value.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public static double Classify(MultipleClassifiersCombiner combiner,
+            Instance instance, Classifier[] ensemble, double[] weights)
+            throws Exception
+    {
+        return Classify(combiner, instance, ensemble, weights,
+                        new PoolEvaluator());
+    }
+
+    /**
+     * Classifies a single instance with the given sub ensemble as
+     * {@link #Classify(MultipleClassifiersCombiner, Instance, Classifier[],
+     * double[])} does, running the sub ensemble through the given evaluator
+     * whenever the combination is computed directly.
+     * @param combiner - The combiner configured in a selection technique.
+     * @param instance - The instance to be classified.
+     * @param ensemble - The selected classifiers.
+     * @param weights - The weight of each selected classifier, or null if the
+     * selection is not weighted.
+     * @param evaluator - Runs the selected classifiers.
+     * @return The predicted class value.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public static double Classify(MultipleClassifiersCombiner combiner,
+            Instance instance, Classifier[] ensemble, double[] weights,
+            PoolEvaluator evaluator) throws Exception
+    {
+        return Classify(combiner,
+                        new QueryContext(instance, ensemble, evaluator),
+                        Identity(ensemble.length), ensemble.length, weights);
+    }
+
+    /**
+     * Classifies the instance of a query with the selected members of the
+     * pool as {@link #Distribution(MultipleClassifiersCombiner, QueryContext,
+     * int[], int, double[])} combines them.
+     * @param combiner - The combiner configured in a selection technique.
+     * @param context - The answers of the pool for the instance.
+     * @param selected - The indexes, in the pool, of the selected classifiers.
+     * @param size - How many entries of <code>selected</code> are used.
+     * @param weights - The weight of each selected classifier, or null if the
+     * selection is not weighted.
+     * @return The predicted class value.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public static double Classify(MultipleClassifiersCombiner combiner,
+            QueryContext context, int[] selected, int size, double[] weights)
+            throws Exception
+    {
+        Instance instance = context.getInstance();
+        if (VoteRule(combiner) >= 0 && instance.classAttribute().isNominal()) {
+            return Classify(Distribution(combiner, context, selected, size,
+                                         weights));
+        }
+        Classifier[] ensemble = Ensemble(context, selected, size);
+        if (VoteRule(combiner) == Vote.AVERAGE_RULE &&
+            combiner instanceof WeightedVote) {
+            return ((WeightedVote) combiner).classifyInstance(
+                    instance, ensemble, weights);
+        }
+        synchronized (combiner) {
+            Configure(combiner, ensemble, weights);
+            return combiner.classifyInstance(instance);
+        }
+    }
+
+    /**
+     * Retrieves the selected classifiers of the pool.
+     */
+    private static Classifier[] Ensemble(QueryContext context, int[] selected,
+            int size)
+    {
+        Classifier[] pool = context.getClassifiers();
+        Classifier[] ensemble = new Classifier[size];
+        for (int s = 0; s < size; s++) ensemble[s] = pool[selected[s]];
+        return ensemble;
+    }
+
+    /**
+     * Selects every member of a pool of the given size, in pool order.
+     */
+    private static int[] Identity(int size)
+    {
+        int[] selected = new int[size];
+        for (int s = 0; s < size; s++) selected[s] = s;
+        return selected;
+    }
+
+    /**
+     * Hands the sub ensemble, and its weights when the combiner takes any, to
+     * the combiner.
+     */
+    private static void Configure(MultipleClassifiersCombiner combiner,
+            Classifier[] ensemble, double[] weights)
+    {
+        combiner.setClassifiers(ensemble);
+        if (weights != null && combiner instanceof WeightedVote) {
+            ((WeightedVote) combiner).setClassifiersWeights(weights);
+        }
+    }
+
+    /**
+     * Normalizes a summed distribution the way {@link Vote} does: once in the
+     * average rule and, once more, before returning it.
+     */
+    private static void NormalizeAsVote(double[] distribution)
+    {
+        if (Utils.sum(distribution) > 0) Utils.normalize(distribution);
+        if (Utils.sum(distribution) > 0) Utils.normalize(distribution);
+    }
+
+    /**
+     * Picks the class of a combined distribution the same way {@link Vote}
+     * does for nominal classes.
+     * @param distribution - The combined class distribution.
+     * @return The most likely class, or a missing value if no class got any
+     * support.
+     * @since 0.1
+     */
+    public static double Classify(double[] distribution)
+    {
+        int index = Utils.maxIndex(distribution);
+        return distribution[index] == 0 ? Utils.missingValue() : index;
+    }
+}
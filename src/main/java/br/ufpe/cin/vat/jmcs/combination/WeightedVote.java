@@ -1,5 +1,6 @@
 package br.ufpe.cin.vat.jmcs.combination;
 
+import weka.classifiers.Classifier;
 import weka.classifiers.meta.Vote;
 import weka.core.Instance;
 import weka.core.SelectedTag;
@@ -67,7 +68,13 @@ public class WeightedVote extends Vote
         return this.m_preBuiltClassifiersWeights;
     }
 
-    private double[] adjustWeights(double[] weights) {
+    /**
+     * Checks the given weights and shifts them so each is at least 1.
+     * @param weights - The weights, as given to
+     * {@link #setClassifiersWeights(double[])}.
+     * @return The weights the members are actually combined with.
+     */
+    double[] adjustWeights(double[] weights) {
         double[] newWeights = new double[weights.length];
         for (int i = 0; i < weights.length; i++) {
             if (weights[i] < 0) {
@@ -157,18 +164,76 @@ public class WeightedVote extends Vote
     
     protected double[] distributionForInstanceAverage(Instance instance)
         throws Exception
+    {
+        return this.average(instance, this.m_Classifiers,
+                            this.m_classifierWeights);
+    }
+
+    /**
+     * Combines the given classifiers with the given weights without touching
+     * the classifiers and weights configured in this combiner, so several
+     * threads can share it.
+     * @param instance - The instance to be classified.
+     * @param classifiers - The classifiers to be combined.
+     * @param weights - The weight of each classifier, as they would be given
+     * to {@link #setClassifiersWeights(double[])}, or null for equal weights.
+     * @return The combined class distribution.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     */
+    public double[] distributionForInstance(Instance instance,
+            Classifier[] classifiers, double[] weights) throws Exception
+    {
+        double[] probs = this.average(instance, classifiers,
+                                      weights == null ? new double[0] :
+                                      this.adjustWeights(weights));
+        // the same final normalization done by Vote.distributionForInstance
+        if (!instance.classAttribute().isNumeric() && Utils.sum(probs) > 0) {
+            Utils.normalize(probs);
+        }
+        return probs;
+    }
+
+    /**
+     * Classifies the instance by combining the given classifiers with the
+     * given weights, without touching the classifiers and weights configured
+     * in this combiner, so several threads can share it.
+     * @param instance - The instance to be classified.
+     * @param classifiers - The classifiers to be combined.
+     * @param weights - The weight of each classifier, as they would be given
+     * to {@link #setClassifiersWeights(double[])}, or null for equal weights.
+     * @return The predicted class value, or a missing value if no class got
+     * any support.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     */
+    public double classifyInstance(Instance instance, Classifier[] classifiers,
+            double[] weights) throws Exception
+    {
+        double[] dist = this.distributionForInstance(instance, classifiers,
+                                                     weights);
+        if (instance.classAttribute().isNominal()) {
+            int index = Utils.maxIndex(dist);
+            return dist[index] == 0 ? Utils.missingValue() : index;
+        }
+        if (instance.classAttribute().isNumeric()) return dist[0];
+        return Utils.missingValue();
+    }
+
+    private double[] average(Instance instance, Classifier[] classifiers,
+            double[] classifierWeights) throws Exception
     {
         double[] probs = new double[instance.numClasses()];
 
         double weightSum = 0;
-        for (int i = 0; i < this.m_Classifiers.length; i++) {
-            double[] dist = getClassifier(i).distributionForInstance(instance);
+        for (int i = 0; i < classifiers.length; i++) {
+            double[] dist = classifiers[i].distributionForInstance(instance);
             if (!instance.classAttribute().isNumeric()
                 || !Utils.isMissingValue(dist[0])) {
-                double weight = i < this.m_classifierWeights.length ?
-                                this.m_classifierWeights[i] : 1.0;
+                double weight = i < classifierWeights.length ?
+                                classifierWeights[i] : 1.0;
                 for (int j = 0; j < dist.length; j++) {
-                    probs[j] += dist[j];
+                    probs[j] += weight * dist[j];
                 }
                 weightSum += weight;
             }
@@ -182,7 +247,7 @@ public class WeightedVote extends Vote
                 double weight = i < this.m_preBuiltClassifiersWeights.length ?
                                 this.m_preBuiltClassifiersWeights[i] : 1.0;
                 for (int j = 0; j < dist.length; j++) {
-                    probs[j] += dist[j];
+                    probs[j] += weight * dist[j];
                 }
                 weightSum += weight;
             }
@@ -0,0 +1,241 @@
+/* AutoNeighborIndex.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.neighboursearch.BallTree;
+import weka.core.neighboursearch.CoverTree;
+import weka.core.neighboursearch.KDTree;
+
+/**
+ * Neighbor index that picks its search algorithm when it is built. Small data
+ * sets are always searched linearly, with a {@link FlatNeighborIndex}.
+ * Otherwise, every candidate algorithm that suits the data set's
+ * dimensionality is built and timed over a few queries taken from the data
+ * set itself, after an untimed warmup query, and the fastest one is kept.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class AutoNeighborIndex implements NeighborIndex
+{
+    /**
+     * The data set size up to which the linear search is used without any
+     * calibration.
+     */
+    private int linearSearchSize;
+
+    /**
+     * The number of dimensions above which KD-Trees are not considered.
+     */
+    private int kdTreeMaxDimensions;
+
+    /**
+     * The number of queries used for timing each candidate.
+     */
+    private int calibrationQueries;
+
+    /**
+     * The number of neighbors searched in each calibration query.
+     */
+    private int calibrationK;
+
+    /**
+     * The index picked in the last build.
+     */
+    private NeighborIndex chosen;
+
+    /**
+     * Creates a new index with the default calibration settings.
+     * @since 0.1
+     */
+    public AutoNeighborIndex()
+    {
+        this.linearSearchSize = 256;
+        this.kdTreeMaxDimensions = 16;
+        this.calibrationQueries = 32;
+        this.calibrationK = 10;
+    }
+
+    /**
+     * Retrieves the data set size up to which the linear search is used
+     * without any calibration.
+     * @return The maximum size for the linear search to be used directly.
+     */
+    public int getLinearSearchSize()
+    {
+        return this.linearSearchSize;
+    }
+
+    /**
+     * Configures the data set size up to which the linear search is used
+     * without any calibration.
+     * @param size - The maximum size for the linear search to be used
+     * directly.
+     */
+    public void setLinearSearchSize(int size)
+    {
+        this.linearSearchSize = size;
+    }
+
+    /**
+     * Retrieves the number of dimensions above which KD-Trees are not
+     * considered.
+     * @return The maximum dimensionality for KD-Trees.
+     */
+    public int getKDTreeMaxDimensions()
+    {
+        return this.kdTreeMaxDimensions;
+    }
+
+    /**
+     * Configures the number of dimensions above which KD-Trees are not
+     * considered.
+     * @param dimensions - The maximum dimensionality for KD-Trees.
+     */
+    public void setKDTreeMaxDimensions(int dimensions)
+    {
+        this.kdTreeMaxDimensions = dimensions;
+    }
+
+    /**
+     * Retrieves the number of queries used for timing each candidate.
+     * @return The number of calibration queries.
+     */
+    public int getCalibrationQueries()
+    {
+        return this.calibrationQueries;
+    }
+
+    /**
+     * Configures the number of queries used for timing each candidate.
+     * @param queries - The number of calibration queries.
+     */
+    public void setCalibrationQueries(int queries)
+    {
+        this.calibrationQueries = queries;
+    }
+
+    /**
+     * Retrieves the number of neighbors searched in each calibration query.
+     * @return The number of neighbors per calibration query.
+     */
+    public int getCalibrationK()
+    {
+        return this.calibrationK;
+    }
+
+    /**
+     * Configures the number of neighbors searched in each calibration query.
+     * It should match the number of neighbors used by the selector.
+     * @param k - The number of neighbors per calibration query.
+     */
+    public void setCalibrationK(int k)
+    {
+        this.calibrationK = k;
+    }
+
+    /**
+     * Retrieves the index picked in the last build.
+     * @return The index actually carrying out the searches, or null if this
+     * index was not built yet.
+     */
+    public NeighborIndex getChosen()
+    {
+        return this.chosen;
+    }
+
+    /**
+     * Creates the candidate indexes suitable for the given data set.
+     * @param instances - The data set to be indexed.
+     * @return The candidate indexes, not built yet.
+     */
+    protected List<NeighborIndex> createCandidates(Instances instances)
+    {
+        List<NeighborIndex> candidates = new ArrayList<NeighborIndex>(4);
+        candidates.add(new FlatNeighborIndex());
+        if (instances.size() <= this.linearSearchSize) return candidates;
+        int dimensions = 0;
+        boolean numeric = true;
+        for (int a = 0; a < instances.numAttributes(); a++) {
+            if (a == instances.classIndex()) continue;
+            dimensions++;
+            if (!instances.attribute(a).isNumeric()) numeric = false;
+        }
+        if (numeric && dimensions <= this.kdTreeMaxDimensions) {
+            candidates.add(new WekaNeighborIndex(new KDTree()));
+        }
+        candidates.add(new WekaNeighborIndex(new CoverTree()));
+        candidates.add(new WekaNeighborIndex(new BallTree()));
+        return candidates;
+    }
+
+    @Override
+    public void build(Instances instances) throws Exception
+    {
+        List<NeighborIndex> candidates = this.createCandidates(instances);
+        int queries = Math.min(this.calibrationQueries, instances.size());
+        if (candidates.size() == 1 || queries < 1) {
+            this.chosen = candidates.get(0);
+            this.chosen.build(instances);
+            return;
+        }
+        int stride = instances.size() / queries;
+        Neighborhood result = new Neighborhood(this.calibrationK);
+        NeighborIndex best = null;
+        long bestTime = Long.MAX_VALUE;
+        for (NeighborIndex candidate : candidates) {
+            candidate.build(instances);
+            // warm the candidate up, so lazy setup is not timed
+            candidate.search(instances.get(0), this.calibrationK, result);
+            long start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                Instance query = instances.get(q * stride);
+                candidate.search(query, this.calibrationK, result);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (elapsed < bestTime) {
+                bestTime = elapsed;
+                best = candidate;
+            }
+        }
+        this.chosen = best;
+    }
+
+    @Override
+    public boolean add(Instance instance) throws Exception
+    {
+        return this.chosen != null && this.chosen.add(instance);
+    }
+
+    @Override
+    public void search(Instance target, int k, Neighborhood result)
+            throws Exception
+    {
+        this.chosen.search(target, k, result);
+    }
+
+    @Override
+    public int size()
+    {
+        return this.chosen == null ? 0 : this.chosen.size();
+    }
+}
@@ -0,0 +1,422 @@
+/* FlatNeighborIndex.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+import java.util.Arrays;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Exact nearest neighbor search over the normalized features of the indexed
+ * data set, stored row after row in a single contiguous array. Distances
+ * follow WEKA's normalized <code>EuclideanDistance</code> (the default
+ * distance of WEKA's search algorithms), so the neighbors found are the same,
+ * but the search only writes to the given {@link Neighborhood} and allocates
+ * nothing per query.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class FlatNeighborIndex implements NeighborIndex
+{
+    /**
+     * Number of indexed instances.
+     */
+    private int size;
+
+    /**
+     * Number of features of each instance (the class is not a feature).
+     */
+    private int dimensions;
+
+    /**
+     * Positions of the features among the data set's attributes.
+     */
+    private int[] attributes;
+
+    /**
+     * Whether each feature is nominal.
+     */
+    private boolean[] nominal;
+
+    /**
+     * Lowest value of each numeric feature in the indexed data set.
+     */
+    private double[] minimums;
+
+    /**
+     * Range of each numeric feature in the indexed data set.
+     */
+    private double[] widths;
+
+    /**
+     * The normalized features, one row of {@link #dimensions} values per
+     * instance. Missing values are stored as NaN.
+     */
+    private double[] data;
+
+    /**
+     * Whether there are nominal features or missing values, in which case the
+     * general (slower) difference between values is needed.
+     */
+    private boolean general;
+
+    /**
+     * Buffer for the normalized features of the instance being searched.
+     */
+    private final ThreadLocal<double[]> queries;
+
+    /**
+     * Creates a new, empty index.
+     * @since 0.1
+     */
+    public FlatNeighborIndex()
+    {
+        this.size = 0;
+        this.dimensions = 0;
+        this.data = new double[0];
+        this.queries = new ThreadLocal<double[]>();
+    }
+
+    @Override
+    public void build(Instances instances) throws Exception
+    {
+        int numAttributes = instances.numAttributes();
+        this.dimensions = instances.classIndex() >= 0 ? numAttributes - 1 :
+                                                        numAttributes;
+        this.attributes = new int[this.dimensions];
+        this.nominal = new boolean[this.dimensions];
+        this.minimums = new double[this.dimensions];
+        this.widths = new double[this.dimensions];
+        this.general = false;
+        int d = 0;
+        for (int a = 0; a < numAttributes; a++) {
+            if (a == instances.classIndex()) continue;
+            this.attributes[d] = a;
+            this.nominal[d] = instances.attribute(a).isNominal();
+            if (this.nominal[d]) this.general = true;
+            d++;
+        }
+        this.size = instances.size();
+        for (d = 0; d < this.dimensions; d++) {
+            double min = Double.NaN;
+            double max = Double.NaN;
+            for (int n = 0; n < this.size; n++) {
+                double value = instances.get(n).value(this.attributes[d]);
+                if (Utils.isMissingValue(value)) continue;
+                if (Double.isNaN(min) || value < min) min = value;
+                if (Double.isNaN(max) || value > max) max = value;
+            }
+            this.minimums[d] = min;
+            this.widths[d] = max - min;
+        }
+        this.data = new double[this.size * this.dimensions];
+        for (int n = 0; n < this.size; n++) {
+            this.normalize(instances.get(n), this.data, n * this.dimensions);
+        }
+        for (double value : this.data) {
+            if (Double.isNaN(value)) this.general = true;
+        }
+        this.queries.remove();
+    }
+
+    /**
+     * Writes the normalized features of an instance into a buffer.
+     * @param instance - The instance to be normalized.
+     * @param buffer - Where to write the normalized features.
+     * @param offset - The position of the first feature in the buffer.
+     * @return Whether any of the features is missing.
+     */
+    private boolean normalize(Instance instance, double[] buffer, int offset)
+    {
+        boolean missing = false;
+        for (int d = 0; d < this.dimensions; d++) {
+            double value = instance.value(this.attributes[d]);
+            if (Utils.isMissingValue(value)) {
+                buffer[offset + d] = Double.NaN;
+                missing = true;
+            } else if (this.nominal[d]) {
+                buffer[offset + d] = value;
+            } else if (Double.isNaN(this.minimums[d]) || this.widths[d] == 0) {
+                buffer[offset + d] = 0;
+            } else {
+                buffer[offset + d] = (value - this.minimums[d]) /
+                                     this.widths[d];
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Adds the instance when it lies within the ranges of the indexed
+     * numeric features, which then stay the same. Otherwise, every instance
+     * would have to be normalized again, so the index must be rebuilt.
+     */
+    @Override
+    public boolean add(Instance instance) throws Exception
+    {
+        for (int d = 0; d < this.dimensions; d++) {
+            double value = instance.value(this.attributes[d]);
+            if (this.nominal[d] || Utils.isMissingValue(value)) continue;
+            if (Double.isNaN(this.minimums[d]) || value < this.minimums[d] ||
+                value > this.minimums[d] + this.widths[d]) {
+                return false;
+            }
+        }
+        int offset = this.size * this.dimensions;
+        if (offset + this.dimensions > this.data.length) {
+            this.data = Arrays.copyOf(this.data, Math.max(
+                    2 * this.data.length, offset + this.dimensions));
+        }
+        if (this.normalize(instance, this.data, offset)) this.general = true;
+        this.size++;
+        return true;
+    }
+
+    @Override
+    public void search(Instance target, int k, Neighborhood result)
+            throws Exception
+    {
+        double[] query = this.queries.get();
+        if (query == null || query.length != this.dimensions) {
+            query = new double[this.dimensions];
+            this.queries.set(query);
+        }
+        boolean general = this.normalize(target, query, 0) || this.general;
+        int capacity = Math.min(Math.min(k, result.indexes.length), this.size);
+        if (capacity < 1) {
+            result.size = 0;
+            return;
+        }
+        int[] indexes = result.indexes;
+        double[] distances = result.distances;
+        // distances[0..count) is a max-heap of squared distances
+        int count = 0;
+        for (int n = 0; n < this.size; n++) {
+            double cutOff = count < capacity ? Double.POSITIVE_INFINITY :
+                                               distances[0];
+            double distance = this.squaredDistance(query, n, general, cutOff);
+            if (count < capacity) {
+                siftUp(indexes, distances, count, n, distance);
+                count++;
+            } else if (distance < distances[0]) {
+                siftDown(indexes, distances, count, n, distance);
+            }
+        }
+        // heap sort: nearest first
+        for (int end = count - 1; end > 0; end--) {
+            int index = indexes[end];
+            double distance = distances[end];
+            indexes[end] = indexes[0];
+            distances[end] = distances[0];
+            siftDown(indexes, distances, end, index, distance);
+        }
+        for (int i = 0; i < count; i++) {
+            distances[i] = Math.sqrt(distances[i]);
+        }
+        result.size = count;
+    }
+
+    /**
+     * Retrieves the number of features of each indexed instance.
+     * @return The length of a normalized row.
+     */
+    int dimensions()
+    {
+        return this.dimensions;
+    }
+
+    /**
+     * Checks whether the indexed data has nominal features or missing values.
+     * @return Whether the general difference between values is needed.
+     */
+    boolean isGeneral()
+    {
+        return this.general;
+    }
+
+    /**
+     * Writes the normalized features of an instance to be searched.
+     * @param target - The instance to be normalized.
+     * @param buffer - Where to write the {@link #dimensions()} features.
+     * @return Whether the general difference between values is needed to
+     * compare the instance with the indexed ones.
+     */
+    boolean normalizeQuery(Instance target, double[] buffer)
+    {
+        return this.normalize(target, buffer, 0) || this.general;
+    }
+
+    /**
+     * Copies the normalized features of an indexed instance.
+     * @param row - The position of the indexed instance.
+     * @param buffer - Where to write the {@link #dimensions()} features.
+     */
+    void copyRow(int row, double[] buffer)
+    {
+        System.arraycopy(this.data, row * this.dimensions, buffer, 0,
+                         this.dimensions);
+    }
+
+    /**
+     * Squared distance between normalized features and an indexed instance.
+     * The sum is abandoned as soon as it exceeds the cut off value.
+     * @param query - The normalized features.
+     * @param row - The position of the indexed instance.
+     * @param general - Whether nominal features or missing values may occur.
+     * @param cutOff - The distance beyond which the instance is useless.
+     * @return The squared distance, or a value greater than the cut off.
+     */
+    double squaredDistance(double[] query, int row, boolean general,
+            double cutOff)
+    {
+        return general ? this.generalDistance(query, row, cutOff)
+                       : this.numericDistance(query, row, cutOff);
+    }
+
+    /**
+     * Squared distance between the query and an indexed instance when all the
+     * features are numeric and none is missing. The sum is abandoned as soon
+     * as it exceeds the cut off value.
+     * @param query - The normalized features of the query.
+     * @param row - The position of the indexed instance.
+     * @param cutOff - The distance beyond which the instance is useless.
+     * @return The squared distance, or a value greater than the cut off.
+     */
+    private double numericDistance(double[] query, int row, double cutOff)
+    {
+        double[] data = this.data;
+        int offset = row * this.dimensions;
+        int d = 0;
+        double sum = 0;
+        for (; d + 4 <= this.dimensions; d += 4) {
+            double d0 = query[d] - data[offset + d];
+            double d1 = query[d + 1] - data[offset + d + 1];
+            double d2 = query[d + 2] - data[offset + d + 2];
+            double d3 = query[d + 3] - data[offset + d + 3];
+            sum += d0 * d0;
+            sum += d1 * d1;
+            sum += d2 * d2;
+            sum += d3 * d3;
+            if (sum > cutOff) return sum;
+        }
+        for (; d < this.dimensions; d++) {
+            double diff = query[d] - data[offset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Squared distance between the query and an indexed instance, handling
+     * nominal features and missing values as WEKA's
+     * <code>EuclideanDistance</code> does.
+     * @param query - The normalized features of the query.
+     * @param row - The position of the indexed instance.
+     * @param cutOff - The distance beyond which the instance is useless.
+     * @return The squared distance, or a value greater than the cut off.
+     */
+    private double generalDistance(double[] query, int row, double cutOff)
+    {
+        int offset = row * this.dimensions;
+        double sum = 0;
+        for (int d = 0; d < this.dimensions; d++) {
+            double value1 = query[d];
+            double value2 = this.data[offset + d];
+            double diff;
+            if (this.nominal[d]) {
+                diff = Double.isNaN(value1) || Double.isNaN(value2) ||
+                       (int) value1 != (int) value2 ? 1.0 : 0.0;
+            } else if (Double.isNaN(value1) && Double.isNaN(value2)) {
+                diff = 1.0;
+            } else if (Double.isNaN(value1) || Double.isNaN(value2)) {
+                diff = Double.isNaN(value1) ? value2 : value1;
+                if (diff < 0.5) diff = 1.0 - diff;
+            } else {
+                diff = value1 - value2;
+            }
+            sum += diff * diff;
+            if (sum > cutOff) return sum;
+        }
+        return sum;
+    }
+
+    /**
+     * Inserts an element at the end of a max-heap.
+     */
+    private static void siftUp(int[] indexes, double[] distances, int count,
+            int index, double distance)
+    {
+        int i = count;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!greater(distance, index, distances[parent], indexes[parent])) {
+                break;
+            }
+            indexes[i] = indexes[parent];
+            distances[i] = distances[parent];
+            i = parent;
+        }
+        indexes[i] = index;
+        distances[i] = distance;
+    }
+
+    /**
+     * Replaces the root of a max-heap with the given element.
+     */
+    private static void siftDown(int[] indexes, double[] distances, int count,
+            int index, double distance)
+    {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= count) break;
+            if (child + 1 < count &&
+                greater(distances[child + 1], indexes[child + 1],
+                        distances[child], indexes[child])) {
+                child++;
+            }
+            if (!greater(distances[child], indexes[child], distance, index)) {
+                break;
+            }
+            indexes[i] = indexes[child];
+            distances[i] = distances[child];
+            i = child;
+        }
+        indexes[i] = index;
+        distances[i] = distance;
+    }
+
+    /**
+     * Orders the neighbors by distance and, among equally distant ones, by
+     * position in the indexed data set.
+     */
+    private static boolean greater(double distance1, int index1,
+            double distance2, int index2)
+    {
+        return distance1 > distance2 ||
+               (distance1 == distance2 && index1 > index2);
+    }
+
+    @Override
+    public int size()
+    {
+        return this.size;
+    }
+}
@@ -0,0 +1,774 @@
+/* HnswNeighborIndex.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Approximate nearest neighbor search through a Hierarchical Navigable Small
+ * World (HNSW) graph, as proposed by Malkov &amp; Yashunin (2018). It trades
+ * a little recall for search times that grow roughly with the logarithm of
+ * the data set size, and it is meant for selection data sets too large, or
+ * with too many dimensions, for the exact searches. The recall is tuned
+ * through {@link #setM(int)}, {@link #setEfConstruction(int)} and
+ * {@link #setEfSearch(int)}. Distances are the same as the ones of the
+ * {@link FlatNeighborIndex}. The graph is built with several threads; it is
+ * only reproducible when built with a single one. Instances added after the
+ * build are inserted in the graph one at a time.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class HnswNeighborIndex implements NeighborIndex
+{
+    /**
+     * Maximum number of links of each node above the bottom layer.
+     */
+    private int m;
+
+    /**
+     * Size of the dynamic candidate list while inserting nodes.
+     */
+    private int efConstruction;
+
+    /**
+     * Size of the dynamic candidate list while searching.
+     */
+    private int efSearch;
+
+    /**
+     * Number of threads used to build the graph.
+     */
+    private int numThreads;
+
+    /**
+     * Seed for drawing the layer of each node.
+     */
+    private long seed;
+
+    /**
+     * Draws the layer of each node, from the seed on each build.
+     */
+    private Random random;
+
+    /**
+     * Storage of the normalized features and distance function.
+     */
+    private final FlatNeighborIndex vectors;
+
+    /**
+     * The top layer of each node.
+     */
+    private int[] levels;
+
+    /**
+     * The links of each node in each of its layers. The first position of a
+     * list holds how many links it has.
+     */
+    private int[][][] links;
+
+    /**
+     * Locks guarding the links of each node while the graph is built.
+     */
+    private Object[] locks;
+
+    /**
+     * The node from which every search starts.
+     */
+    private volatile int entryPoint;
+
+    /**
+     * The top layer of the entry point.
+     */
+    private volatile int maxLevel;
+
+    /**
+     * Lock guarding the entry point while the graph is built.
+     */
+    private final Object entryLock;
+
+    /**
+     * Whether the graph is being built, so its links must be read under lock.
+     */
+    private volatile boolean building;
+
+    /**
+     * Buffers used by the searches of each thread.
+     */
+    private final ThreadLocal<SearchContext> contexts;
+
+    /**
+     * Creates a new, empty index with the default parameters.
+     * @since 0.1
+     */
+    public HnswNeighborIndex()
+    {
+        this.m = 16;
+        this.efConstruction = 100;
+        this.efSearch = 50;
+        this.numThreads = Runtime.getRuntime().availableProcessors();
+        this.seed = 1;
+        this.random = new Random(this.seed);
+        this.vectors = new FlatNeighborIndex();
+        this.levels = new int[0];
+        this.links = new int[0][][];
+        this.locks = new Object[0];
+        this.entryPoint = -1;
+        this.maxLevel = -1;
+        this.entryLock = new Object();
+        this.building = false;
+        this.contexts = new ThreadLocal<SearchContext>();
+    }
+
+    /**
+     * Retrieves the maximum number of links of each node above the bottom
+     * layer (the bottom layer allows twice as many).
+     * @return The M parameter.
+     */
+    public int getM()
+    {
+        return this.m;
+    }
+
+    /**
+     * Configures the maximum number of links of each node above the bottom
+     * layer. Higher values improve the recall at the cost of memory and build
+     * time. It only takes effect on the next build.
+     * @param m - The M parameter.
+     */
+    public void setM(int m)
+    {
+        if (m < 2) {
+            throw new IllegalArgumentException(
+                    String.format("M must be at least 2. (%d < 2)", m));
+        }
+        this.m = m;
+    }
+
+    /**
+     * Retrieves the size of the dynamic candidate list while inserting nodes.
+     * @return The efConstruction parameter.
+     */
+    public int getEfConstruction()
+    {
+        return this.efConstruction;
+    }
+
+    /**
+     * Configures the size of the dynamic candidate list while inserting nodes.
+     * It only takes effect on the next build.
+     * @param ef - The efConstruction parameter.
+     */
+    public void setEfConstruction(int ef)
+    {
+        this.efConstruction = ef;
+    }
+
+    /**
+     * Retrieves the size of the dynamic candidate list while searching.
+     * @return The efSearch parameter.
+     */
+    public int getEfSearch()
+    {
+        return this.efSearch;
+    }
+
+    /**
+     * Configures the size of the dynamic candidate list while searching.
+     * Higher values improve the recall at the cost of search time. Searches
+     * never use less than the number of neighbors requested.
+     * @param ef - The efSearch parameter.
+     */
+    public void setEfSearch(int ef)
+    {
+        this.efSearch = ef;
+    }
+
+    /**
+     * Retrieves the number of threads used to build the graph.
+     * @return The number of threads.
+     */
+    public int getNumThreads()
+    {
+        return this.numThreads;
+    }
+
+    /**
+     * Configures the number of threads used to build the graph.
+     * @param numThreads - The number of threads.
+     */
+    public void setNumThreads(int numThreads)
+    {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Retrieves the seed for drawing the layer of each node.
+     * @return The random seed.
+     */
+    public long getSeed()
+    {
+        return this.seed;
+    }
+
+    /**
+     * Configures the seed for drawing the layer of each node.
+     * @param seed - The random seed.
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    @Override
+    public void build(Instances instances) throws Exception
+    {
+        this.building = true;
+        try {
+            this.buildGraph(instances);
+        } finally {
+            this.building = false;
+        }
+    }
+
+    /**
+     * Indexes the given data set and inserts every instance in the graph.
+     */
+    private void buildGraph(Instances instances) throws Exception
+    {
+        this.vectors.build(instances);
+        int size = this.vectors.size();
+        this.levels = new int[size];
+        this.links = new int[size][][];
+        this.locks = new Object[size];
+        this.entryPoint = -1;
+        this.maxLevel = -1;
+        this.contexts.remove();
+        this.random = new Random(this.seed);
+        for (int n = 0; n < size; n++) this.createNode(n);
+        if (size == 0) return;
+        this.insert(0);
+        if (this.numThreads <= 1 || size < 2 * this.numThreads) {
+            for (int n = 1; n < size; n++) this.insert(n);
+            return;
+        }
+        final AtomicInteger next = new AtomicInteger(1);
+        final int total = size;
+        ExecutorService executor = Executors.newFixedThreadPool(
+                this.numThreads);
+        try {
+            List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+            for (int t = 0; t < this.numThreads; t++) {
+                tasks.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int n = next.getAndIncrement(); n < total;
+                             n = next.getAndIncrement()) {
+                            HnswNeighborIndex.this.insert(n);
+                        }
+                        // the threads of the pool are discarded
+                        HnswNeighborIndex.this.contexts.remove();
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> task : tasks) task.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Draws the top layer of a node and allocates its links.
+     */
+    private void createNode(int node)
+    {
+        double levelMultiplier = 1 / Math.log(this.m);
+        this.levels[node] = (int) (-Math.log(1 - this.random.nextDouble()) *
+                                   levelMultiplier);
+        this.links[node] = new int[this.levels[node] + 1][];
+        for (int l = 0; l <= this.levels[node]; l++) {
+            this.links[node][l] = new int[1 + this.maxLinks(l)];
+        }
+        this.locks[node] = new Object();
+    }
+
+    /**
+     * Inserts the instance in the graph when it lies within the ranges of
+     * the indexed numeric features, as the {@link FlatNeighborIndex} which
+     * stores them requires. Insertions run in the calling thread, and must
+     * not run while the index is searched.
+     */
+    @Override
+    public boolean add(Instance instance) throws Exception
+    {
+        if (!this.vectors.add(instance)) return false;
+        int node = this.vectors.size() - 1;
+        if (node == this.levels.length) {
+            int capacity = Math.max(2 * node, 16);
+            this.levels = Arrays.copyOf(this.levels, capacity);
+            this.links = Arrays.copyOf(this.links, capacity);
+            this.locks = Arrays.copyOf(this.locks, capacity);
+        }
+        this.createNode(node);
+        this.insert(node);
+        return true;
+    }
+
+    /**
+     * Maximum number of links of a node in the given layer.
+     */
+    private int maxLinks(int level)
+    {
+        return level == 0 ? 2 * this.m : this.m;
+    }
+
+    /**
+     * Retrieves the search buffers of the current thread.
+     */
+    private SearchContext context()
+    {
+        SearchContext context = this.contexts.get();
+        if (context == null ||
+            context.visited.length < this.vectors.size()) {
+            context = new SearchContext(this.levels.length,
+                                        this.vectors.dimensions(),
+                                        2 * this.m);
+            this.contexts.set(context);
+        }
+        return context;
+    }
+
+    /**
+     * Copies the links of a node in a layer to the given buffer.
+     * @return The number of links copied.
+     */
+    private int copyLinks(int node, int level, int[] buffer)
+    {
+        if (!this.building) {
+            int[] list = this.links[node][level];
+            System.arraycopy(list, 1, buffer, 0, list[0]);
+            return list[0];
+        }
+        synchronized (this.locks[node]) {
+            int[] list = this.links[node][level];
+            int count = list[0];
+            System.arraycopy(list, 1, buffer, 0, count);
+            return count;
+        }
+    }
+
+    /**
+     * Inserts an indexed instance in the graph.
+     * @param node - The position of the instance.
+     */
+    private void insert(int node)
+    {
+        SearchContext context = this.context();
+        double[] query = context.query;
+        this.vectors.copyRow(node, query);
+        boolean general = this.vectors.isGeneral();
+        int level = this.levels[node];
+        int entry;
+        int top;
+        synchronized (this.entryLock) {
+            entry = this.entryPoint;
+            top = this.maxLevel;
+            if (entry < 0) {
+                this.entryPoint = node;
+                this.maxLevel = level;
+                return;
+            }
+        }
+        double entryDistance = this.vectors.squaredDistance(
+                query, entry, general, Double.POSITIVE_INFINITY);
+        for (int l = top; l > level; l--) {
+            entry = this.greedySearch(context, query, general, entry, l);
+            entryDistance = context.greedyDistance;
+        }
+        for (int l = Math.min(level, top); l >= 0; l--) {
+            this.searchLayer(context, query, general, entry, entryDistance,
+                             this.efConstruction, l);
+            int found = context.sortResults();
+            int selected = this.selectNeighbors(context, general,
+                    context.sortedIds, context.sortedDistances, found, this.m,
+                    context.selected);
+            synchronized (this.locks[node]) {
+                int[] list = this.links[node][l];
+                System.arraycopy(context.selected, 0, list, 1, selected);
+                list[0] = selected;
+            }
+            for (int s = 0; s < selected; s++) {
+                int neighbor = context.selected[s];
+                this.connect(context, general, neighbor, node, l);
+            }
+            entry = context.sortedIds[0];
+            entryDistance = context.sortedDistances[0];
+        }
+        if (level > top) {
+            synchronized (this.entryLock) {
+                if (level > this.maxLevel) {
+                    this.maxLevel = level;
+                    this.entryPoint = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a link from <code>node</code> to <code>neighbor</code> in the given
+     * layer, pruning the links of <code>node</code> if it has too many.
+     */
+    private void connect(SearchContext context, boolean general, int node,
+            int neighbor, int level)
+    {
+        synchronized (this.locks[node]) {
+            int[] list = this.links[node][level];
+            int count = list[0];
+            int maxLinks = this.maxLinks(level);
+            if (count < maxLinks) {
+                list[1 + count] = neighbor;
+                list[0] = count + 1;
+                return;
+            }
+            double[] vector = context.other;
+            this.vectors.copyRow(node, vector);
+            int[] ids = context.pruneIds;
+            double[] distances = context.pruneDistances;
+            for (int i = 0; i < count; i++) {
+                ids[i] = list[1 + i];
+            }
+            ids[count] = neighbor;
+            for (int i = 0; i <= count; i++) {
+                distances[i] = this.vectors.squaredDistance(
+                        vector, ids[i], general, Double.POSITIVE_INFINITY);
+            }
+            sort(ids, distances, count + 1);
+            int kept = this.selectNeighbors(context, general, ids, distances,
+                                            count + 1, maxLinks,
+                                            context.pruned);
+            System.arraycopy(context.pruned, 0, list, 1, kept);
+            list[0] = kept;
+        }
+    }
+
+    /**
+     * Picks the neighbors of a node out of candidates sorted by distance,
+     * skipping the candidates closer to an already picked neighbor than to
+     * the node itself, so links spread in every direction.
+     * @return The number of neighbors picked.
+     */
+    private int selectNeighbors(SearchContext context, boolean general,
+            int[] ids, double[] distances, int count, int maxLinks,
+            int[] selected)
+    {
+        int picked = 0;
+        double[] vector = context.candidate;
+        for (int i = 0; i < count && picked < maxLinks; i++) {
+            this.vectors.copyRow(ids[i], vector);
+            boolean good = true;
+            for (int j = 0; j < picked; j++) {
+                double distance = this.vectors.squaredDistance(
+                        vector, selected[j], general, distances[i]);
+                if (distance < distances[i]) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) selected[picked++] = ids[i];
+        }
+        return picked;
+    }
+
+    /**
+     * Walks greedily towards the query in the given layer.
+     * @return The node closest to the query found; its distance is left in
+     * the context.
+     */
+    private int greedySearch(SearchContext context, double[] query,
+            boolean general, int entry, int level)
+    {
+        double best = this.vectors.squaredDistance(
+                query, entry, general, Double.POSITIVE_INFINITY);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int count = this.copyLinks(entry, level, context.linkBuffer);
+            for (int i = 0; i < count; i++) {
+                int neighbor = context.linkBuffer[i];
+                double distance = this.vectors.squaredDistance(
+                        query, neighbor, general, best);
+                if (distance < best) {
+                    best = distance;
+                    entry = neighbor;
+                    changed = true;
+                }
+            }
+        }
+        context.greedyDistance = best;
+        return entry;
+    }
+
+    /**
+     * Searches the <code>ef</code> nodes closest to the query in the given
+     * layer, leaving them in the context's result heap.
+     */
+    private void searchLayer(SearchContext context, double[] query,
+            boolean general, int entry, double entryDistance, int ef,
+            int level)
+    {
+        int epoch = context.nextEpoch();
+        int[] visited = context.visited;
+        Heap candidates = context.candidates;
+        Heap results = context.results;
+        candidates.clear();
+        results.clear();
+        visited[entry] = epoch;
+        candidates.push(entry, entryDistance);
+        results.push(entry, entryDistance);
+        while (candidates.size > 0) {
+            double distance = candidates.topDistance();
+            if (results.size >= ef && distance > results.topDistance()) break;
+            int current = candidates.pop();
+            int count = this.copyLinks(current, level, context.linkBuffer);
+            for (int i = 0; i < count; i++) {
+                int neighbor = context.linkBuffer[i];
+                if (visited[neighbor] == epoch) continue;
+                visited[neighbor] = epoch;
+                double bound = results.size >= ef ? results.topDistance() :
+                                                    Double.POSITIVE_INFINITY;
+                double d = this.vectors.squaredDistance(query, neighbor,
+                                                        general, bound);
+                if (d < bound) {
+                    candidates.push(neighbor, d);
+                    results.push(neighbor, d);
+                    if (results.size > ef) results.pop();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void search(Instance target, int k, Neighborhood result)
+            throws Exception
+    {
+        int entry = this.entryPoint;
+        int capacity = Math.min(Math.min(k, result.indexes.length),
+                                this.vectors.size());
+        if (entry < 0 || capacity < 1) {
+            result.size = 0;
+            return;
+        }
+        SearchContext context = this.context();
+        double[] query = context.query;
+        boolean general = this.vectors.normalizeQuery(target, query);
+        for (int l = this.maxLevel; l > 0; l--) {
+            entry = this.greedySearch(context, query, general, entry, l);
+        }
+        double entryDistance = this.vectors.squaredDistance(
+                query, entry, general, Double.POSITIVE_INFINITY);
+        this.searchLayer(context, query, general, entry, entryDistance,
+                         Math.max(this.efSearch, capacity), 0);
+        int found = Math.min(context.sortResults(), capacity);
+        for (int i = 0; i < found; i++) {
+            result.indexes[i] = context.sortedIds[i];
+            result.distances[i] = Math.sqrt(context.sortedDistances[i]);
+        }
+        result.size = found;
+    }
+
+    @Override
+    public int size()
+    {
+        return this.vectors.size();
+    }
+
+    /**
+     * Sorts the first <code>count</code> ids by their distances, nearest
+     * first (insertion sort, as the lists are short).
+     */
+    private static void sort(int[] ids, double[] distances, int count)
+    {
+        for (int i = 1; i < count; i++) {
+            int id = ids[i];
+            double distance = distances[i];
+            int j = i - 1;
+            while (j >= 0 && distances[j] > distance) {
+                ids[j + 1] = ids[j];
+                distances[j + 1] = distances[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            distances[j + 1] = distance;
+        }
+    }
+
+    /**
+     * Binary heap of nodes keyed by distance, growing as needed.
+     */
+    private static class Heap
+    {
+        private final boolean max;
+        private int[] ids;
+        private double[] distances;
+        private int size;
+
+        Heap(boolean max, int capacity)
+        {
+            this.max = max;
+            this.ids = new int[capacity];
+            this.distances = new double[capacity];
+            this.size = 0;
+        }
+
+        void clear()
+        {
+            this.size = 0;
+        }
+
+        double topDistance()
+        {
+            return this.distances[0];
+        }
+
+        private boolean before(double distance1, double distance2)
+        {
+            return this.max ? distance1 > distance2 : distance1 < distance2;
+        }
+
+        void push(int id, double distance)
+        {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, 2 * this.size);
+                this.distances = Arrays.copyOf(this.distances,
+                                                         2 * this.size);
+            }
+            int i = this.size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!this.before(distance, this.distances[parent])) break;
+                this.ids[i] = this.ids[parent];
+                this.distances[i] = this.distances[parent];
+                i = parent;
+            }
+            this.ids[i] = id;
+            this.distances[i] = distance;
+        }
+
+        int pop()
+        {
+            int top = this.ids[0];
+            int id = this.ids[--this.size];
+            double distance = this.distances[this.size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= this.size) break;
+                if (child + 1 < this.size &&
+                    this.before(this.distances[child + 1],
+                                this.distances[child])) {
+                    child++;
+                }
+                if (!this.before(this.distances[child], distance)) break;
+                this.ids[i] = this.ids[child];
+                this.distances[i] = this.distances[child];
+                i = child;
+            }
+            this.ids[i] = id;
+            this.distances[i] = distance;
+            return top;
+        }
+    }
+
+    /**
+     * Buffers reused by the searches and insertions of a single thread.
+     */
+    private static class SearchContext
+    {
+        final int[] visited;
+        int epoch;
+        final double[] query;
+        final double[] other;
+        final double[] candidate;
+        final int[] linkBuffer;
+        final int[] selected;
+        final int[] pruned;
+        final int[] pruneIds;
+        final double[] pruneDistances;
+        final Heap candidates;
+        final Heap results;
+        int[] sortedIds;
+        double[] sortedDistances;
+        double greedyDistance;
+
+        SearchContext(int size, int dimensions, int maxLinks)
+        {
+            this.visited = new int[size];
+            this.epoch = 0;
+            this.query = new double[dimensions];
+            this.other = new double[dimensions];
+            this.candidate = new double[dimensions];
+            this.linkBuffer = new int[maxLinks];
+            this.selected = new int[maxLinks];
+            this.pruned = new int[maxLinks + 1];
+            this.pruneIds = new int[maxLinks + 1];
+            this.pruneDistances = new double[maxLinks + 1];
+            this.candidates = new Heap(false, 64);
+            this.results = new Heap(true, 64);
+            this.sortedIds = new int[64];
+            this.sortedDistances = new double[64];
+        }
+
+        int nextEpoch()
+        {
+            if (++this.epoch == Integer.MAX_VALUE) {
+                Arrays.fill(this.visited, 0);
+                this.epoch = 1;
+            }
+            return this.epoch;
+        }
+
+        /**
+         * Empties the result heap into the sorted arrays, nearest first.
+         * @return The number of results.
+         */
+        int sortResults()
+        {
+            int count = this.results.size;
+            if (this.sortedIds.length < count) {
+                this.sortedIds = new int[count];
+                this.sortedDistances = new double[count];
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                this.sortedDistances[i] = this.results.topDistance();
+                this.sortedIds[i] = this.results.pop();
+            }
+            return count;
+        }
+    }
+}
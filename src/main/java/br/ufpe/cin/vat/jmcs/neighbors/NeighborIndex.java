@@ -0,0 +1,92 @@
+/* NeighborIndex.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Interface for the nearest neighbor search structures used to find the
+ * region of competence of a test instance inside the selection data set
+ * (DSEL). Neighbors are always reported by their position in the data set the
+ * index was built with. Once built, an index may be searched by several
+ * threads at once.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public interface NeighborIndex
+{
+    /**
+     * Indexes the given data set, discarding any previously indexed data.
+     * @param instances - The data set to be searched.
+     * @throws Exception - In case the data set cannot be indexed.
+     * @since 0.1
+     */
+    void build(Instances instances) throws Exception;
+
+    /**
+     * Indexes one more instance, at position <code>size()</code>, without
+     * rebuilding the index. By default, indexes cannot grow this way.
+     * @param instance - The instance to be added. It must have the same
+     * attributes as the data set the index was built with.
+     * @return Whether the instance was added. If not, the index is left
+     * untouched and must be built again with the whole data set.
+     * @throws Exception - In case the instance cannot be indexed.
+     * @since 0.1
+     */
+    default boolean add(Instance instance) throws Exception
+    {
+        return false;
+    }
+
+    /**
+     * Searches the k nearest neighbors of the given instance.
+     * @param target - The instance whose neighbors are needed.
+     * @param k - The number of neighbors to search for.
+     * @param result - Where the neighbors will be written, nearest first. At
+     * most <code>min(k, result.indexes.length)</code> neighbors are written.
+     * @throws Exception - In case the search fails.
+     * @since 0.1
+     */
+    void search(Instance target, int k, Neighborhood result) throws Exception;
+
+    /**
+     * Searches the k nearest neighbors of every instance of a batch. By
+     * default, each instance is searched on its own.
+     * @param targets - The instances whose neighbors are needed.
+     * @param k - The number of neighbors to search for.
+     * @param results - Where the neighbors of each target will be written, in
+     * the same order as the targets. Targets whose result is null are skipped.
+     * @throws Exception - In case the search fails.
+     * @since 0.1
+     */
+    default void search(Instances targets, int k, Neighborhood[] results)
+            throws Exception
+    {
+        for (int t = 0; t < targets.size(); t++) {
+            if (results[t] != null) this.search(targets.get(t), k, results[t]);
+        }
+    }
+
+    /**
+     * Retrieves the number of indexed instances.
+     * @return The size of the indexed data set.
+     * @since 0.1
+     */
+    int size();
+}
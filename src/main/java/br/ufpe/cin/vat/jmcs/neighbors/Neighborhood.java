@@ -0,0 +1,55 @@
+/* Neighborhood.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+/**
+ * The region of competence of a test instance: the positions of its nearest
+ * neighbors in the selection data set (DSEL), nearest first, together with
+ * their distances to the test instance.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class Neighborhood
+{
+    /**
+     * The positions of the neighbors in the selection data set.
+     */
+    public final int[] indexes;
+
+    /**
+     * The distances from the test instance to each of the neighbors.
+     */
+    public final double[] distances;
+
+    /**
+     * How many entries of the arrays are filled.
+     */
+    public int size;
+
+    /**
+     * Creates an empty neighborhood able to hold up to the given number of
+     * neighbors.
+     * @param capacity - The maximum number of neighbors.
+     */
+    public Neighborhood(int capacity)
+    {
+        this.indexes = new int[capacity];
+        this.distances = new double[capacity];
+        this.size = 0;
+    }
+}
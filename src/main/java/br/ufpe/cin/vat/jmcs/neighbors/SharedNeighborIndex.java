@@ -0,0 +1,265 @@
+/* SharedNeighborIndex.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Neighbor index meant to be handed to every selector built over the same
+ * selection data set (DSEL), such as the region of competence selectors and
+ * the <code>IndexedMLkNN</code> meta-learner. Building it again over the data
+ * set it already holds does nothing, so the wrapped index is built once, and
+ * the neighbors found for each query are remembered for each k, so a test
+ * instance is searched once no matter how many selectors ask for it. Queries
+ * are told apart by the values of their attributes, leaving the class out.
+ * Selectors sharing an index must not be updated, since each of them would
+ * change the indexed data set under the others.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class SharedNeighborIndex implements NeighborIndex
+{
+    /**
+     * The index which carries out the searches.
+     */
+    private final NeighborIndex index;
+
+    /**
+     * The number of remembered queries above which the memory is cleared.
+     */
+    private final int capacity;
+
+    /**
+     * The neighbors found for each remembered query.
+     */
+    private final ConcurrentHashMap<Query, Neighborhood> found;
+
+    /**
+     * The data set the index was last built with, or null.
+     */
+    private Instances instances;
+
+    /**
+     * The size of that data set when the index was built.
+     */
+    private int builtSize;
+
+    /**
+     * Creates a shared index which remembers up to 65536 queries.
+     * @param index - The index which carries out the searches.
+     * @since 0.1
+     */
+    public SharedNeighborIndex(NeighborIndex index)
+    {
+        this(index, 1 << 16);
+    }
+
+    /**
+     * Creates a shared index which remembers up to the given number of
+     * queries. Once it is reached, every query is forgotten.
+     * @param index - The index which carries out the searches.
+     * @param capacity - The number of queries remembered.
+     * @since 0.1
+     */
+    public SharedNeighborIndex(NeighborIndex index, int capacity)
+    {
+        this.index = index;
+        this.capacity = capacity;
+        this.found = new ConcurrentHashMap<Query, Neighborhood>();
+    }
+
+    /**
+     * Retrieves the index which carries out the searches. Searching it
+     * directly bypasses the remembered queries.
+     * @return The wrapped index.
+     * @since 0.1
+     */
+    public NeighborIndex getIndex()
+    {
+        return this.index;
+    }
+
+    /**
+     * Retrieves the data set the index was last built with. Neighbors are
+     * reported by their position in it.
+     * @return The indexed data set, or null if the index was not built yet.
+     * @since 0.1
+     */
+    public Instances getInstances()
+    {
+        return this.instances;
+    }
+
+    /**
+     * Retrieves the number of queries currently remembered.
+     * @return The number of (query, k) pairs whose neighbors are known.
+     * @since 0.1
+     */
+    public int numRemembered()
+    {
+        return this.found.size();
+    }
+
+    /**
+     * Builds the wrapped index, unless it already holds the given data set
+     * (the same object, with the same size) from a previous build.
+     */
+    @Override
+    public synchronized void build(Instances instances) throws Exception
+    {
+        if (instances == this.instances &&
+            instances.size() == this.builtSize) {
+            return;
+        }
+        this.found.clear();
+        this.index.build(instances);
+        this.instances = instances;
+        this.builtSize = instances.size();
+    }
+
+    /**
+     * Adds the instance through the wrapped index and forgets every query,
+     * since any of them may have the new instance as a neighbor.
+     */
+    @Override
+    public synchronized boolean add(Instance instance) throws Exception
+    {
+        if (!this.index.add(instance)) return false;
+        this.found.clear();
+        this.instances = null;
+        return true;
+    }
+
+    @Override
+    public void search(Instance target, int k, Neighborhood result)
+            throws Exception
+    {
+        Query query = new Query(target, k);
+        Neighborhood known = this.found.get(query);
+        if (known != null) {
+            Copy(known, result);
+            return;
+        }
+        this.index.search(target, k, result);
+        this.remember(query, result);
+    }
+
+    /**
+     * Answers the remembered queries on their own and searches the others in
+     * a single batch of the wrapped index.
+     */
+    @Override
+    public void search(Instances targets, int k, Neighborhood[] results)
+            throws Exception
+    {
+        Query[] queries = new Query[targets.size()];
+        Neighborhood[] missing = new Neighborhood[targets.size()];
+        boolean any = false;
+        for (int t = 0; t < targets.size(); t++) {
+            if (results[t] == null) continue;
+            queries[t] = new Query(targets.get(t), k);
+            Neighborhood known = this.found.get(queries[t]);
+            if (known != null) {
+                Copy(known, results[t]);
+            } else {
+                missing[t] = results[t];
+                any = true;
+            }
+        }
+        if (!any) return;
+        this.index.search(targets, k, missing);
+        for (int t = 0; t < targets.size(); t++) {
+            if (missing[t] != null) this.remember(queries[t], missing[t]);
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return this.index.size();
+    }
+
+    /**
+     * Keeps a copy of the neighbors found for the given query.
+     */
+    private void remember(Query query, Neighborhood result)
+    {
+        if (this.found.size() >= this.capacity) this.found.clear();
+        Neighborhood copy = new Neighborhood(result.size);
+        Copy(result, copy);
+        this.found.put(query, copy);
+    }
+
+    /**
+     * Copies the neighbors of one neighborhood into another, up to the
+     * capacity of the latter.
+     */
+    private static void Copy(Neighborhood from, Neighborhood to)
+    {
+        int size = Math.min(from.size, to.indexes.length);
+        System.arraycopy(from.indexes, 0, to.indexes, 0, size);
+        System.arraycopy(from.distances, 0, to.distances, 0, size);
+        to.size = size;
+    }
+
+    /**
+     * A search told apart by the attribute values of its target, without the
+     * class, and the number of neighbors asked for.
+     */
+    private static final class Query
+    {
+        private final double[] values;
+
+        private final int k;
+
+        private final int hash;
+
+        Query(Instance target, int k)
+        {
+            int classIndex = target.dataset() == null ? -1 :
+                             target.classIndex();
+            int size = target.numAttributes() - (classIndex < 0 ? 0 : 1);
+            this.values = new double[size];
+            int v = 0;
+            for (int a = 0; a < target.numAttributes(); a++) {
+                if (a != classIndex) this.values[v++] = target.value(a);
+            }
+            this.k = k;
+            this.hash = 31 * Arrays.hashCode(this.values) + k;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Query)) return false;
+            Query query = (Query) other;
+            return this.k == query.k && Arrays.equals(this.values,
+                                                      query.values);
+        }
+    }
+}
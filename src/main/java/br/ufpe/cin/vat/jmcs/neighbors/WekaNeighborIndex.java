@@ -0,0 +1,128 @@
+/* WekaNeighborIndex.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.neighboursearch.KDTree;
+import weka.core.neighboursearch.LinearNNSearch;
+import weka.core.neighboursearch.NearestNeighbourSearch;
+
+/**
+ * Adapter that exposes any WEKA nearest neighbor search algorithm (such as
+ * <code>LinearNNSearch</code>, <code>KDTree</code>, <code>CoverTree</code> or
+ * <code>BallTree</code>) as a {@link NeighborIndex}.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class WekaNeighborIndex implements NeighborIndex
+{
+    /**
+     * The WEKA algorithm that carries out the search.
+     */
+    private final NearestNeighbourSearch search;
+
+    /**
+     * Number of indexed instances.
+     */
+    private int size;
+
+    /**
+     * Creates a new adapter around the given WEKA search algorithm.
+     * @param search - The algorithm to carry out the search.
+     * @since 0.1
+     */
+    public WekaNeighborIndex(NearestNeighbourSearch search)
+    {
+        this.search = search;
+        this.size = 0;
+    }
+
+    /**
+     * Retrieves the WEKA algorithm that carries out the search.
+     * @return The wrapped search algorithm.
+     * @since 0.1
+     */
+    public NearestNeighbourSearch getSearch()
+    {
+        return this.search;
+    }
+
+    @Override
+    public void build(Instances instances) throws Exception
+    {
+        // Distance functions ignore the weights, so they are used to tag each
+        // copy with its position in the original data set.
+        Instances tagged = new Instances(instances);
+        for (int n = 0; n < tagged.size(); n++) {
+            tagged.get(n).setWeight(n);
+        }
+        this.search.setInstances(tagged);
+        this.size = tagged.size();
+    }
+
+    /**
+     * Adds the instance through the WEKA algorithm's own update, which keeps
+     * the attribute ranges of the distance function up to date. Only
+     * <code>LinearNNSearch</code> and <code>KDTree</code> are updated this
+     * way; the other algorithms cannot add instances (or, as the BallTree,
+     * fail to), so they must be rebuilt.
+     */
+    @Override
+    public boolean add(Instance instance) throws Exception
+    {
+        if (!(this.search instanceof LinearNNSearch) &&
+            !(this.search instanceof KDTree)) {
+            return false;
+        }
+        synchronized (this.search) {
+            Instances instances = this.search.getInstances();
+            instances.add(instance);
+            Instance tagged = instances.lastInstance();
+            tagged.setWeight(this.size);
+            this.search.update(tagged);
+            this.size++;
+        }
+        return true;
+    }
+
+    @Override
+    public void search(Instance target, int k, Neighborhood result)
+            throws Exception
+    {
+        // WEKA keeps the distances of the last search inside the algorithm, so
+        // they are copied out before another thread can search.
+        synchronized (this.search) {
+            Instances neighbors = this.search.kNearestNeighbours(target, k);
+            double[] distances = this.search.getDistances();
+            int size = Math.min(Math.min(k, result.indexes.length),
+                                neighbors.size());
+            for (int i = 0; i < size; i++) {
+                result.indexes[i] = (int) neighbors.get(i).weight();
+                result.distances[i] = distances[i];
+            }
+            result.size = size;
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return this.size;
+    }
+}
@@ -0,0 +1,65 @@
+/* AbstractDynamicSelection.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
+
+/**
+ * Base class of the Dynamic Selection techniques which run their own
+ * selection stage, holding the consensus gate which lets a query skip it.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public abstract class AbstractDynamicSelection implements DynamicSelection
+{
+    /**
+     * Decides whether the pool agrees enough to skip the selection stage, or
+     * null to always run it.
+     */
+    private ConsensusGate consensusGate;
+
+    @Override
+    public ConsensusGate getConsensusGate()
+    {
+        return this.consensusGate;
+    }
+
+    @Override
+    public void setConsensusGate(ConsensusGate gate)
+    {
+        this.consensusGate = gate;
+    }
+
+    /**
+     * Checks the given consensus gate for a single query.
+     * @param gate - The gate to be checked, or null if the query must go
+     * through the selection stage.
+     * @param context - The answers of the pool for the query. Every member of
+     * the pool is run, unless the gate is null.
+     * @return The position of the first classifier which predicted the
+     * consensus class, or -1 if the selection stage must run.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    protected static int Consensus(ConsensusGate gate, QueryContext context)
+            throws Exception
+    {
+        return gate == null ? -1 : gate.consensus(context.labels());
+    }
+}
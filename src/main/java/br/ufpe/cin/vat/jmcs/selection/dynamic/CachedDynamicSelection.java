@@ -0,0 +1,359 @@
+/* CachedDynamicSelection.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import weka.classifiers.Classifier;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Wrapper around any Dynamic Selection technique that remembers the answers
+ * given to recently seen feature vectors, so exact duplicates skip the
+ * region of competence, the selection and the combination altogether. The
+ * cache is bounded and evicts the least recently used entries; it is split in
+ * independently locked segments so it can be shared by several threads. It
+ * is emptied whenever the pool or the selection data set change.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class CachedDynamicSelection implements DynamicSelection
+{
+    /**
+     * Largest number of independently locked segments of the cache.
+     */
+    private static final int SEGMENTS = 16;
+
+    /**
+     * The wrapped Dynamic Selection technique.
+     */
+    private final DynamicSelection selector;
+
+    /**
+     * The segments of the cache, picked by the hash of the features.
+     */
+    private final Segment[] segments;
+
+    /**
+     * Incremented whenever the cache is invalidated, so answers computed
+     * before that are not stored.
+     */
+    private final AtomicLong generation;
+
+    /**
+     * The number of answers served from the cache.
+     */
+    private final AtomicLong hits;
+
+    /**
+     * The number of answers computed by the wrapped technique.
+     */
+    private final AtomicLong misses;
+
+    /**
+     * The number of entries dropped to respect the capacity.
+     */
+    private final AtomicLong evictions;
+
+    /**
+     * Wraps the given technique with a cache holding up to the given number
+     * of feature vectors. The capacity is split among the segments, so no
+     * more than that many entries are ever held.
+     * @param selector - The Dynamic Selection technique to be cached.
+     * @param capacity - The maximum number of cached feature vectors.
+     * @since 0.1
+     */
+    public CachedDynamicSelection(DynamicSelection selector, int capacity)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "The capacity must be positive. (%d < 1)", capacity));
+        }
+        this.selector = selector;
+        // a power of two, so segments are picked by masking the hash
+        int numSegments = Integer.highestOneBit(Math.min(capacity, SEGMENTS));
+        this.segments = new Segment[numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            int segmentCapacity = capacity / numSegments +
+                                  (s < capacity % numSegments ? 1 : 0);
+            this.segments[s] = new Segment(segmentCapacity);
+        }
+        this.generation = new AtomicLong();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Retrieves the wrapped Dynamic Selection technique.
+     * @return The cached technique.
+     * @since 0.1
+     */
+    public DynamicSelection getSelector()
+    {
+        return this.selector;
+    }
+
+    /**
+     * Retrieves how many answers were served from the cache.
+     * @return The number of cache hits.
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * Retrieves how many answers had to be computed.
+     * @return The number of cache misses.
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * Retrieves how many entries were dropped to respect the capacity.
+     * @return The number of evictions.
+     */
+    public long getEvictions()
+    {
+        return this.evictions.get();
+    }
+
+    /**
+     * Retrieves how many feature vectors are currently cached.
+     * @return The number of cached entries.
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Drops every cached answer.
+     * @since 0.1
+     */
+    public void invalidate()
+    {
+        this.generation.incrementAndGet();
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public void setClassifiers(Classifier[] classifiers)
+    {
+        this.invalidate();
+        this.selector.setClassifiers(classifiers);
+    }
+
+    /**
+     * Retrieves the consensus gate of the wrapped technique.
+     */
+    @Override
+    public ConsensusGate getConsensusGate()
+    {
+        return this.selector.getConsensusGate();
+    }
+
+    /**
+     * Configures the consensus gate of the wrapped technique, dropping every
+     * cached answer. The queries the gate lets through are cached as well.
+     */
+    @Override
+    public void setConsensusGate(ConsensusGate gate)
+    {
+        this.invalidate();
+        this.selector.setConsensusGate(gate);
+    }
+
+    @Override
+    public Classifier[] getClassifiers()
+    {
+        return this.selector.getClassifiers();
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception
+    {
+        this.invalidate();
+        this.selector.buildClassifier(data);
+        this.invalidate();
+    }
+
+    @Override
+    public double classifyInstance(Instance instance) throws Exception
+    {
+        Key key = new Key(instance);
+        Segment segment = this.segmentFor(key);
+        synchronized (segment) {
+            Answer answer = segment.get(key);
+            if (answer != null && answer.hasLabel) {
+                this.hits.incrementAndGet();
+                return answer.label;
+            }
+        }
+        this.misses.incrementAndGet();
+        long generation = this.generation.get();
+        double label = this.selector.classifyInstance(instance);
+        synchronized (segment) {
+            if (generation == this.generation.get()) {
+                Answer answer = segment.answerFor(key);
+                answer.label = label;
+                answer.hasLabel = true;
+            }
+        }
+        return label;
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception
+    {
+        Key key = new Key(instance);
+        Segment segment = this.segmentFor(key);
+        synchronized (segment) {
+            Answer answer = segment.get(key);
+            if (answer != null && answer.distribution != null) {
+                this.hits.incrementAndGet();
+                return answer.distribution.clone();
+            }
+        }
+        this.misses.incrementAndGet();
+        long generation = this.generation.get();
+        double[] distribution = this.selector.distributionForInstance(instance);
+        synchronized (segment) {
+            if (generation == this.generation.get()) {
+                segment.answerFor(key).distribution = distribution.clone();
+            }
+        }
+        return distribution;
+    }
+
+    @Override
+    public Capabilities getCapabilities()
+    {
+        return this.selector.getCapabilities();
+    }
+
+    /**
+     * Picks the segment responsible for the given key.
+     */
+    private Segment segmentFor(Key key)
+    {
+        int hash = key.hash ^ (key.hash >>> 16);
+        return this.segments[hash & (this.segments.length - 1)];
+    }
+
+    /**
+     * The feature values of an instance (its class value is ignored).
+     */
+    private static final class Key
+    {
+        private final double[] values;
+        private final int hash;
+
+        Key(Instance instance)
+        {
+            int classIndex = instance.classIndex();
+            int numAttributes = instance.numAttributes();
+            this.values = new double[classIndex >= 0 ? numAttributes - 1 :
+                                                       numAttributes];
+            int v = 0;
+            for (int a = 0; a < numAttributes; a++) {
+                if (a != classIndex) this.values[v++] = instance.value(a);
+            }
+            this.hash = Arrays.hashCode(this.values);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return this.hash == key.hash &&
+                   Arrays.equals(this.values, key.values);
+        }
+    }
+
+    /**
+     * The answers already given for a feature vector.
+     */
+    private static final class Answer
+    {
+        boolean hasLabel;
+        double label;
+        double[] distribution;
+    }
+
+    /**
+     * A bounded, least recently used, part of the cache.
+     */
+    private final class Segment extends LinkedHashMap<Key, Answer>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity)
+        {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        Answer answerFor(Key key)
+        {
+            Answer answer = this.get(key);
+            if (answer == null) {
+                answer = new Answer();
+                this.put(key, answer);
+            }
+            return answer;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Answer> eldest)
+        {
+            if (this.size() > this.capacity) {
+                CachedDynamicSelection.this.evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
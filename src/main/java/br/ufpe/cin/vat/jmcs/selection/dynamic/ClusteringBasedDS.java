@@ -0,0 +1,493 @@
+/* ClusteringBasedDS.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import br.ufpe.cin.vat.jmcs.combination.Combiners;
+import br.ufpe.cin.vat.jmcs.utils.Enumerables;
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
+import weka.classifiers.Classifier;
+import weka.classifiers.MultipleClassifiersCombiner;
+import weka.classifiers.meta.Vote;
+import weka.clusterers.SimpleKMeans;
+import weka.core.Capabilities;
+import weka.core.DenseInstance;
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Dynamic Selection technique whose regions of competence are the clusters
+ * of the selection data set (DSEL), found by k-means when the technique is
+ * built, instead of the k nearest neighbors of each test instance. The
+ * selection rule (OLA, DS or KNORA Eliminate) is applied to each cluster
+ * once, at build time, so a query only looks up its nearest centroid and runs
+ * the members precomputed for it. It trades some accuracy for a selection
+ * cost that does not grow with the size of the selection data set. When a
+ * consensus gate fires, the whole pool is combined instead.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class ClusteringBasedDS extends AbstractDynamicSelection
+    implements DynamicEnsembleSelection
+{
+    /**
+     * The selection rules that can be applied to each cluster.
+     */
+    public enum Rule
+    {
+        /**
+         * The member with the highest accuracy in the cluster, as in Overall
+         * Local Accuracy (OLA).
+         */
+        OLA,
+        /**
+         * The member with the lowest distance-weighted error in the cluster,
+         * as in the Dynamic Selection of Puuronen et al (1999).
+         */
+        DS,
+        /**
+         * The members correct on every instance of the cluster, or of its
+         * largest part grown from the instance nearest to the centroid, as in
+         * KNORA Eliminate.
+         */
+        KNORAE
+    }
+
+    /**
+     * The set of classifiers in the original pool.
+     */
+    private Classifier[] classifiers;
+
+    /**
+     * The way the sub ensembles selected by KNORA Eliminate are combined.
+     */
+    private MultipleClassifiersCombiner combiner;
+
+    /**
+     * The rule applied to each cluster.
+     */
+    private Rule rule;
+
+    /**
+     * The number of clusters.
+     */
+    private int numClusters;
+
+    /**
+     * The seed of the k-means initialization.
+     */
+    private int seed;
+
+    /**
+     * Runs the members of the pool for each query.
+     */
+    private PoolEvaluator poolEvaluator;
+
+    /**
+     * The clustering of the selection data set, over its features only.
+     */
+    private SimpleKMeans clusterer;
+
+    /**
+     * The header of the features given to the clusterer.
+     */
+    private Instances features;
+
+    /**
+     * The members selected for each cluster.
+     */
+    private int[][] selections;
+
+    /**
+     * The positions of every member of the pool, combined when the consensus
+     * gate fires.
+     */
+    private int[] wholePool;
+
+    /**
+     * Creates a new instance which applies OLA to 10 clusters.
+     * @since 0.1
+     */
+    public ClusteringBasedDS()
+    {
+        this(Rule.OLA, 10);
+    }
+
+    /**
+     * Creates a new instance which applies the given rule to the given number
+     * of clusters.
+     * @param rule - The selection rule applied to each cluster.
+     * @param numClusters - The number of clusters of the selection data set.
+     * @since 0.1
+     */
+    public ClusteringBasedDS(Rule rule, int numClusters)
+    {
+        this.classifiers = new Classifier[0];
+        this.combiner = new Vote();
+        this.rule = rule;
+        this.numClusters = numClusters;
+        this.seed = 10;
+        this.poolEvaluator = new PoolEvaluator();
+    }
+
+    /**
+     * Retrieves the selection rule applied to each cluster.
+     * @return The selection rule.
+     * @since 0.1
+     */
+    public Rule getRule()
+    {
+        return this.rule;
+    }
+
+    /**
+     * Configures the selection rule applied to each cluster. It only takes
+     * effect on the next call to <code>buildClassifier</code>.
+     * @param rule - The selection rule.
+     * @since 0.1
+     */
+    public void setRule(Rule rule)
+    {
+        this.rule = rule;
+    }
+
+    /**
+     * Retrieves the number of clusters of the selection data set.
+     * @return The number of clusters.
+     * @since 0.1
+     */
+    public int getNumClusters()
+    {
+        return this.numClusters;
+    }
+
+    /**
+     * Configures the number of clusters of the selection data set. More
+     * clusters give smaller, more local, regions of competence. It only
+     * takes effect on the next call to <code>buildClassifier</code>.
+     * @param numClusters - The number of clusters.
+     * @since 0.1
+     */
+    public void setNumClusters(int numClusters)
+    {
+        this.numClusters = numClusters;
+    }
+
+    /**
+     * Retrieves the seed of the k-means initialization.
+     * @return The seed.
+     * @since 0.1
+     */
+    public int getSeed()
+    {
+        return this.seed;
+    }
+
+    /**
+     * Configures the seed of the k-means initialization.
+     * @param seed - The seed.
+     * @since 0.1
+     */
+    public void setSeed(int seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Retrieves the evaluator which runs the members of the pool for each
+     * query.
+     * @return The pool evaluator.
+     * @since 0.1
+     */
+    public PoolEvaluator getPoolEvaluator()
+    {
+        return this.poolEvaluator;
+    }
+
+    /**
+     * Configures the evaluator which runs the members of the pool for each
+     * query. By default, the pool runs serially.
+     * @param evaluator - The pool evaluator.
+     * @since 0.1
+     */
+    public void setPoolEvaluator(PoolEvaluator evaluator)
+    {
+        this.poolEvaluator = evaluator;
+    }
+
+    /**
+     * Retrieves the members selected for a cluster when the technique was
+     * built.
+     * @param cluster - The index of the cluster.
+     * @return The positions of the selected members in the pool. The array
+     * belongs to the technique and must not be modified.
+     * @since 0.1
+     */
+    public int[] getSelection(int cluster)
+    {
+        return this.selections[cluster];
+    }
+
+    @Override
+    public void setClassifiers(Classifier[] classifiers)
+    {
+        this.classifiers = classifiers;
+    }
+
+    @Override
+    public Classifier[] getClassifiers()
+    {
+        return this.classifiers;
+    }
+
+    @Override
+    public void setCombiner(MultipleClassifiersCombiner combiner)
+    {
+        this.combiner = combiner;
+    }
+
+    @Override
+    public MultipleClassifiersCombiner getCombiner()
+    {
+        return this.combiner;
+    }
+
+    @Override
+    public void buildClassifier(Instances selectionInstances) throws Exception
+    {
+        if (this.classifiers.length < 1) {
+            throw new IllegalStateException("You can't call buildClassifier " +
+                "before configuring the initial pool.");
+        }
+        this.wholePool = new int[this.classifiers.length];
+        for (int c = 0; c < this.wholePool.length; c++) this.wholePool[c] = c;
+        this.features = new Instances(selectionInstances, 0);
+        this.features.setClassIndex(-1);
+        this.features.deleteAttributeAt(selectionInstances.classIndex());
+        Instances data = new Instances(this.features,
+                                       selectionInstances.size());
+        for (Instance instance : selectionInstances) {
+            data.add(this.toFeatures(instance));
+        }
+        this.clusterer = new SimpleKMeans();
+        this.clusterer.setNumClusters(
+                Math.max(1, Math.min(this.numClusters, data.size())));
+        this.clusterer.setSeed(this.seed);
+        this.clusterer.setPreserveInstancesOrder(true);
+        // the missing values filter cannot be shared by concurrent queries
+        this.clusterer.setDontReplaceMissingValues(true);
+        this.clusterer.buildClusterer(data);
+        int[] assignments = this.clusterer.getAssignments();
+        double[] labels = new double[selectionInstances.size()];
+        for (int n = 0; n < labels.length; n++) {
+            labels[n] = selectionInstances.get(n).classValue();
+        }
+        OracleMatrix oracle = OracleMatrix.build(
+                PredictionMatrix.build(this.classifiers, selectionInstances,
+                                       this.poolEvaluator),
+                labels);
+        Instances centroids = this.clusterer.getClusterCentroids();
+        DistanceFunction distance = this.clusterer.getDistanceFunction();
+        int clusters = centroids.size();
+        int[] sizes = new int[clusters];
+        for (int assignment : assignments) sizes[assignment]++;
+        int[][] members = new int[clusters][];
+        double[][] distances = new double[clusters][];
+        for (int k = 0; k < clusters; k++) {
+            members[k] = new int[sizes[k]];
+            distances[k] = new double[sizes[k]];
+            sizes[k] = 0;
+        }
+        for (int n = 0; n < assignments.length; n++) {
+            int k = assignments[n];
+            members[k][sizes[k]] = n;
+            distances[k][sizes[k]++] = distance.distance(
+                    centroids.get(k), data.get(n));
+        }
+        this.selections = new int[clusters][];
+        for (int k = 0; k < clusters; k++) {
+            this.selections[k] = this.select(oracle, members[k],
+                                             distances[k]);
+        }
+    }
+
+    @Override
+    public Classifier[] selectClassifiers(Instance testInstance)
+            throws Exception
+    {
+        int[] selected = this.selections[this.cluster(testInstance)];
+        Classifier[] ensemble = new Classifier[selected.length];
+        for (int s = 0; s < selected.length; s++) {
+            ensemble[s] = this.classifiers[selected[s]];
+        }
+        return ensemble;
+    }
+
+    @Override
+    public double classifyInstance(Instance testInstance) throws Exception
+    {
+        QueryContext context = new QueryContext(
+                testInstance, this.classifiers, this.poolEvaluator);
+        int[] selected = this.select(context);
+        if (this.rule != Rule.KNORAE && selected != this.wholePool) {
+            return context.label(selected[0]);
+        }
+        return Combiners.Classify(this.combiner, context, selected,
+                                  selected.length, null);
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance testInstance)
+            throws Exception
+    {
+        QueryContext context = new QueryContext(
+                testInstance, this.classifiers, this.poolEvaluator);
+        int[] selected = this.select(context);
+        if (this.rule != Rule.KNORAE && selected != this.wholePool) {
+            return context.distribution(selected[0]);
+        }
+        return Combiners.Distribution(this.combiner, context, selected,
+                                      selected.length, null);
+    }
+
+    /**
+     * Picks the members selected for the cluster of the test instance, or the
+     * whole pool if the consensus gate fires.
+     */
+    private int[] select(QueryContext context) throws Exception
+    {
+        if (Consensus(this.getConsensusGate(), context) >= 0) {
+            return this.wholePool;
+        }
+        return this.selections[this.cluster(context.getInstance())];
+    }
+
+    @Override
+    public Capabilities getCapabilities()
+    {
+        throw new UnsupportedOperationException(
+                "getCapabilities is not implemented for the class " +
+                ClusteringBasedDS.class.getName());
+    }
+
+    /**
+     * Finds the cluster whose centroid is nearest to the test instance.
+     */
+    private int cluster(Instance testInstance) throws Exception
+    {
+        if (this.selections == null) {
+            throw new IllegalStateException("You can't classify instances " +
+                "before calling buildClassifier.");
+        }
+        return this.clusterer.clusterInstance(this.toFeatures(testInstance));
+    }
+
+    /**
+     * Copies the feature values of an instance, leaving its class out.
+     */
+    private Instance toFeatures(Instance instance)
+    {
+        double[] values = new double[this.features.numAttributes()];
+        int classIndex = instance.classIndex();
+        int v = 0;
+        for (int a = 0; a < instance.numAttributes(); a++) {
+            if (a != classIndex) values[v++] = instance.value(a);
+        }
+        Instance features = new DenseInstance(instance.weight(), values);
+        features.setDataset(this.features);
+        return features;
+    }
+
+    /**
+     * Applies the selection rule to a cluster.
+     * @param members - The positions of the cluster's instances in the
+     * selection data set.
+     * @param distances - The distance of each of them to the centroid.
+     * @return The positions of the selected classifiers in the pool.
+     */
+    private int[] select(OracleMatrix oracle, int[] members,
+            double[] distances)
+    {
+        int poolSize = this.classifiers.length;
+        switch (this.rule) {
+        case DS:
+            double[] weightedErrors = new double[poolSize];
+            for (int c = 0; c < poolSize; c++) {
+                for (int m = 0; m < members.length; m++) {
+                    if (!oracle.isCorrect(members[m], c)) {
+                        weightedErrors[c] += distances[m];
+                    }
+                }
+            }
+            return new int[] {
+                Enumerables.MinIndex(weightedErrors, poolSize) };
+        case KNORAE:
+            return this.eliminate(oracle, members, distances);
+        case OLA:
+        default:
+            int[] correct = new int[poolSize];
+            oracle.countCorrect(members, members.length, correct);
+            return new int[] { Enumerables.MaxIndex(correct, poolSize) };
+        }
+    }
+
+    /**
+     * Selects the members correct on every instance of the largest part of
+     * the cluster, grown from the instance nearest to its centroid, or the
+     * whole pool if no member is correct on that instance.
+     */
+    private int[] eliminate(OracleMatrix oracle, int[] members,
+            double[] distances)
+    {
+        Integer[] order = new Integer[members.length];
+        for (int m = 0; m < members.length; m++) order[m] = m;
+        final double[] keys = distances;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(keys[first], keys[second]);
+            }
+        });
+        long[] mask = new long[oracle.wordsPerRow()];
+        long[] candidates = new long[oracle.wordsPerRow()];
+        oracle.selectAll(mask);
+        int regionSize = 0;
+        for (int m = 0; m < members.length; m++) {
+            if (!oracle.intersect(members[order[m]], mask, candidates)) break;
+            long[] aux = mask;
+            mask = candidates;
+            candidates = aux;
+            regionSize++;
+        }
+        int poolSize = this.classifiers.length;
+        int[] selected = new int[poolSize];
+        int size = 0;
+        if (regionSize > 0) {
+            for (int c = 0; c < poolSize; c++) {
+                if ((mask[c >>> 6] & (1L << c)) != 0) selected[size++] = c;
+            }
+        } else {
+            for (int c = 0; c < poolSize; c++) selected[size++] = c;
+        }
+        return Arrays.copyOf(selected, size);
+    }
+}
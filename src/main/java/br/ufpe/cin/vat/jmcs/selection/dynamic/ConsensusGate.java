@@ -0,0 +1,182 @@
+/* ConsensusGate.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.ufpe.cin.vat.jmcs.utils.Labels;
+
+/**
+ * Decides whether the pool agrees enough on a test instance for the Dynamic
+ * Selection technique to skip its selection stage (the region of competence
+ * search, or the multi-label meta-learner) and answer with the pool's
+ * consensus instead. The gate fires when at least a given fraction of the
+ * pool predicts the same class; a fraction of 1 requires the pool to be
+ * unanimous. It also counts how many queries it saw and how many of them it
+ * let through, and may be shared by several threads.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class ConsensusGate
+{
+    /**
+     * The smallest fraction of the pool which must agree for the gate to fire.
+     */
+    private final double fraction;
+
+    /**
+     * The number of queries the gate checked.
+     */
+    private final AtomicLong queries;
+
+    /**
+     * The number of checked queries which skipped the selection stage.
+     */
+    private final AtomicLong fired;
+
+    /**
+     * Creates a gate which fires only when the pool is unanimous.
+     * @since 0.1
+     */
+    public ConsensusGate()
+    {
+        this(1.0);
+    }
+
+    /**
+     * Creates a gate which fires when at least the given fraction of the pool
+     * agrees.
+     * @param fraction - The smallest agreeing fraction of the pool, greater
+     * than 0 and at most 1.
+     * @since 0.1
+     */
+    public ConsensusGate(double fraction)
+    {
+        if (!(fraction > 0.0 && fraction <= 1.0)) {
+            throw new IllegalArgumentException(String.format(
+                    "The fraction must be in (0, 1]. (%f)", fraction));
+        }
+        this.fraction = fraction;
+        this.queries = new AtomicLong();
+        this.fired = new AtomicLong();
+    }
+
+    /**
+     * Retrieves the smallest fraction of the pool which must agree for the
+     * gate to fire.
+     * @return The agreement fraction.
+     * @since 0.1
+     */
+    public double getFraction()
+    {
+        return this.fraction;
+    }
+
+    /**
+     * Checks whether the gate only fires for unanimous pools.
+     * @return Whether the agreement fraction is 1.
+     * @since 0.1
+     */
+    public boolean isUnanimous()
+    {
+        return this.fraction == 1.0;
+    }
+
+    /**
+     * Looks for the consensus of the pool on a test instance, the class most
+     * classifiers predicted. The gate fires if that class is predicted by at
+     * least the agreement fraction of the pool and by more classifiers than
+     * any other class, so a fraction of 0.5 or less never answers with a
+     * tied or minority class.
+     * @param labels - The class each classifier of the pool predicted for the
+     * test instance.
+     * @return The position of the first classifier which predicted the
+     * consensus class, or -1 if the pool does not agree enough.
+     * @since 0.1
+     */
+    public int consensus(double[] labels)
+    {
+        this.queries.incrementAndGet();
+        int needed = Math.max(1,
+                (int) Math.ceil(this.fraction * labels.length - 1e-9));
+        // the first classifier which predicted each distinct class, and how
+        // many classifiers predicted it
+        int[] first = new int[labels.length];
+        int[] votes = new int[labels.length];
+        int classes = 0;
+        for (int i = 0; i < labels.length; i++) {
+            int c = 0;
+            while (c < classes && !Labels.Equals(labels[first[c]], labels[i])) {
+                c++;
+            }
+            if (c == classes) first[classes++] = i;
+            votes[c]++;
+        }
+        int plurality = -1;
+        boolean tied = false;
+        for (int c = 0; c < classes; c++) {
+            if (plurality < 0 || votes[c] > votes[plurality]) {
+                plurality = c;
+                tied = false;
+            } else if (votes[c] == votes[plurality]) {
+                tied = true;
+            }
+        }
+        if (plurality < 0 || tied || votes[plurality] < needed) return -1;
+        this.fired.incrementAndGet();
+        return first[plurality];
+    }
+
+    /**
+     * Retrieves how many queries the gate checked.
+     * @return The number of checked queries.
+     */
+    public long getQueries()
+    {
+        return this.queries.get();
+    }
+
+    /**
+     * Retrieves how many queries skipped the selection stage.
+     * @return The number of times the gate fired.
+     */
+    public long getFired()
+    {
+        return this.fired.get();
+    }
+
+    /**
+     * Retrieves the fraction of the checked queries which skipped the
+     * selection stage.
+     * @return The firing rate, or 0 if no query was checked yet.
+     */
+    public double getFiringRate()
+    {
+        long queries = this.queries.get();
+        return queries > 0 ? (double) this.fired.get() / queries : 0.0;
+    }
+
+    /**
+     * Clears the query counters.
+     */
+    public void resetCounters()
+    {
+        this.queries.set(0);
+        this.fired.set(0);
+    }
+}
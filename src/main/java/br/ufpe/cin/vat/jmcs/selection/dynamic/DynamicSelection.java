@@ -17,6 +17,7 @@
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
 import weka.classifiers.Classifier;
+import weka.core.Instances;
 
 /**
  * Interface for all Dynamic Selection techniques.
@@ -40,4 +41,70 @@ public interface DynamicSelection extends Classifier
      * @since 0.1
      */
     Classifier[] getClassifiers();
+
+    /**
+     * Retrieves the gate which decides whether the pool agrees enough on a
+     * test instance to skip the selection stage (e.g., the region of
+     * competence search) and answer with its consensus instead. By default,
+     * there is none.
+     * @return The consensus gate, or null if the selection stage always runs.
+     * @since 0.1
+     */
+    default ConsensusGate getConsensusGate()
+    {
+        return null;
+    }
+
+    /**
+     * Configures the gate which decides whether the pool agrees enough on a
+     * test instance to skip the selection stage and answer with its consensus
+     * instead. Checking the gate runs every member of the pool on the test
+     * instance. Techniques without a selection stage do not support it.
+     * @param gate - The consensus gate, or null to always run the selection
+     * stage.
+     * @since 0.1
+     */
+    default void setConsensusGate(ConsensusGate gate)
+    {
+        throw new UnsupportedOperationException(
+                "There is no selection stage to be skipped in " +
+                this.getClass().getName());
+    }
+
+    /**
+     * Classifies every instance of a batch. Techniques which can share work
+     * among the instances of a batch should override this method; by default,
+     * each instance is classified on its own.
+     * @param instances - The instances to be classified.
+     * @return The predicted class value of each instance, in the same order.
+     * @throws Exception - In case any of the instances cannot be classified.
+     * @since 0.1
+     */
+    default double[] classifyInstances(Instances instances) throws Exception
+    {
+        double[] labels = new double[instances.size()];
+        for (int i = 0; i < instances.size(); i++) {
+            labels[i] = this.classifyInstance(instances.get(i));
+        }
+        return labels;
+    }
+
+    /**
+     * Computes the class distribution of every instance of a batch.
+     * Techniques which can share work among the instances of a batch should
+     * override this method; by default, each instance is handled on its own.
+     * @param instances - The instances to be classified.
+     * @return The class distribution of each instance, in the same order.
+     * @throws Exception - In case any of the instances cannot be classified.
+     * @since 0.1
+     */
+    default double[][] distributionsForInstances(Instances instances)
+            throws Exception
+    {
+        double[][] distributions = new double[instances.size()][];
+        for (int i = 0; i < instances.size(); i++) {
+            distributions[i] = this.distributionForInstance(instances.get(i));
+        }
+        return distributions;
+    }
 }
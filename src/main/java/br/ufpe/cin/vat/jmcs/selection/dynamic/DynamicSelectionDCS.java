@@ -16,11 +16,10 @@
 
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
+import br.ufpe.cin.vat.jmcs.neighbors.Neighborhood;
 import br.ufpe.cin.vat.jmcs.utils.Enumerables;
-import br.ufpe.cin.vat.jmcs.utils.Labels;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
 import weka.classifiers.Classifier;
-import weka.core.Instance;
-import weka.core.Instances;
 
 /**
  * Implementation of <b>the</b> Dynamic Selection algorithm proposed by Puuronen
@@ -31,27 +30,39 @@ import weka.core.Instances;
  */
 public class DynamicSelectionDCS extends KnnAccuracyBasedDCS
 {
+    /**
+     * Buffer for the weighted error of each classifier in each thread.
+     */
+    private final ThreadLocal<double[]> errors = new ThreadLocal<double[]>();
+
+    @Override
+    protected boolean usesTestOutputs()
+    {
+        return false;
+    }
+
     @Override
-    protected int selectClassifier(Instance testInstance,
-            Classifier[] classifiers) throws Exception
+    protected int selectClassifier(QueryContext context,
+            Neighborhood neighbors) throws Exception
     {
+        Classifier[] classifiers = context.getClassifiers();
         int n_neighbors = this.getKNeighbors();
-        Instances neighbors = this.getKnnAlgorithm()
-                                  .kNearestNeighbours(testInstance,
-                                                      n_neighbors);
-        double[] distances = this.getKnnAlgorithm().getDistances();
-        Double[] weightedErrors = new Double[classifiers.length];
+        OracleMatrix oracle = this.getOracle();
+        double[] weightedErrors = this.errors.get();
+        if (weightedErrors == null ||
+            weightedErrors.length < classifiers.length) {
+            weightedErrors = new double[classifiers.length];
+            this.errors.set(weightedErrors);
+        }
         for (int j = 0; j < classifiers.length; j++) {
-            weightedErrors[j] = new Double(0.0);
-            for (int i = 0; i < n_neighbors; i++) {
-                Instance neighbor = neighbors.get(i);
-                double answer = classifiers[j].classifyInstance(neighbor);
-                double error = Labels.Equals(answer, neighbor.classValue()) ?
+            weightedErrors[j] = 0.0;
+            for (int i = 0; i < neighbors.size; i++) {
+                double error = oracle.isCorrect(neighbors.indexes[i], j) ?
                                0.0 : 1.0;
-                weightedErrors[j] += distances[i] * error;
+                weightedErrors[j] += neighbors.distances[i] * error;
             }
             weightedErrors[j] /= n_neighbors > 0 ? n_neighbors : 1.0;
         }
-        return Enumerables.MinIndex(weightedErrors);
+        return Enumerables.MinIndex(weightedErrors, classifiers.length);
     }
 }
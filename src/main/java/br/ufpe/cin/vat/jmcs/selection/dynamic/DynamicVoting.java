@@ -17,11 +17,10 @@
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
 import br.ufpe.cin.vat.jmcs.combination.WeightedVote;
-import br.ufpe.cin.vat.jmcs.utils.Labels;
+import br.ufpe.cin.vat.jmcs.neighbors.Neighborhood;
 import weka.classifiers.Classifier;
 import weka.classifiers.MultipleClassifiersCombiner;
 import weka.core.Instance;
-import weka.core.Instances;
 import weka.core.Utils;
 
 /**
@@ -34,8 +33,7 @@ import weka.core.Utils;
  * @since 0.1
  *
  */
-public class DynamicVoting extends NearestNeighborsBasedDS
-        implements DynamicEnsembleSelection
+public class DynamicVoting extends NearestNeighborsBasedDES
 {
     protected WeightedVote combiner;
 
@@ -71,18 +69,17 @@ public class DynamicVoting extends NearestNeighborsBasedDS
     }
 
     protected SelectionResult calculateErrorWeights(Classifier[] pool,
-            Instances neighbors, int n_neighbors) throws Exception
+            Neighborhood neighbors, int n_neighbors) throws Exception
     {
+        OracleMatrix oracle = this.getOracle();
         SelectionResult result = new SelectionResult();
-        result.distances = this.getKnnAlgorithm().getDistances();
+        result.distances = neighbors.distances;
         result.weightedErrors = new double[pool.length];
         result.sum = 0.0;
         for (int j = 0; j < pool.length; j++) {
             result.weightedErrors[j] = 0.0;
-            for (int i = 0; i < n_neighbors; i++) {
-                Instance neighbor = neighbors.get(i);
-                double answer = pool[j].classifyInstance(neighbor);
-                double error = Labels.Equals(answer, neighbor.classValue()) ?
+            for (int i = 0; i < neighbors.size; i++) {
+                double error = oracle.isCorrect(neighbors.indexes[i], j) ?
                                0.0 : 1.0;
                 result.weightedErrors[j] += result.distances[i] * error;
             }
@@ -92,41 +89,71 @@ public class DynamicVoting extends NearestNeighborsBasedDS
         return result;
     }
 
-    @Override
-    public Classifier[] selectClassifiers(Instance testInstance)
-            throws Exception
+    /**
+     * Selects the sub ensemble given the weighted errors of the pool in the
+     * region of competence. Dynamic Voting keeps the entire pool.
+     * @param result - The weighted errors of each classifier in the pool.
+     * @param selected - Output array which will hold the indexes of the
+     * selected classifiers.
+     * @return How many classifiers were selected.
+     */
+    protected int selectIndexes(SelectionResult result, int[] selected)
     {
-        Classifier[] pool = this.getClassifiers();
-        int n_neighbors = this.getKNeighbors();
-        Instances neighbors = this.getKnnAlgorithm()
-                                  .kNearestNeighbours(testInstance,
-                                                      n_neighbors);
-        SelectionResult result = this.calculateErrorWeights(pool, neighbors,
-                                                            n_neighbors);
-        if (result.sum > 0) {
-            Utils.normalize(result.weightedErrors, result.sum);
+        for (int j = 0; j < result.weightedErrors.length; j++) selected[j] = j;
+        return result.weightedErrors.length;
+    }
+
+    /**
+     * Weights each selected classifier by one minus its share of the weighted
+     * errors made by the selected classifiers.
+     * @param result - The weighted errors of each classifier in the pool.
+     * @param selected - The indexes of the selected classifiers.
+     * @param size - How many classifiers were selected.
+     * @return The weight of each selected classifier, in selection order.
+     */
+    protected double[] calculateClassifierWeights(SelectionResult result,
+            int[] selected, int size)
+    {
+        double[] weightedErrors = new double[size];
+        double sum = 0.0;
+        for (int j = 0; j < size; j++) {
+            weightedErrors[j] = result.weightedErrors[selected[j]];
+            sum += weightedErrors[j];
         }
-        double[] classifierWeights = new double[pool.length];
-        for (int j = 0; j < pool.length; j++) {
-            classifierWeights[j] = 1 - result.weightedErrors[j];
+        if (sum > 0) {
+            Utils.normalize(weightedErrors, sum);
+        }
+        double[] classifierWeights = new double[size];
+        for (int j = 0; j < size; j++) {
+            classifierWeights[j] = 1 - weightedErrors[j];
         }
-        this.combiner.setClassifiersWeights(classifierWeights);
-        return pool;
+        return classifierWeights;
     }
 
     @Override
-    public double classifyInstance(Instance testInstance) throws Exception
+    protected int selectIndexes(Instance testInstance, Neighborhood neighbors,
+            int[] selected) throws Exception
     {
-        this.combiner.setClassifiers(this.selectClassifiers(testInstance));
-        return this.combiner.classifyInstance(testInstance);
+        Selection selection = this.select(testInstance, neighbors);
+        System.arraycopy(selection.indexes, 0, selected, 0, selection.size);
+        return selection.size;
     }
 
+    /**
+     * Estimates the weighted errors of the pool in the region of competence
+     * once, and derives both the selection and the weights from them.
+     */
     @Override
-    public double[] distributionForInstance(Instance testInstance)
+    protected Selection select(Instance testInstance, Neighborhood neighbors)
             throws Exception
     {
-        this.combiner.setClassifiers(this.selectClassifiers(testInstance));
-        return this.combiner.distributionForInstance(testInstance);
+        Classifier[] pool = this.getClassifiers();
+        SelectionResult result = this.calculateErrorWeights(
+                pool, neighbors, this.getKNeighbors());
+        Selection selection = new Selection(pool.length);
+        selection.size = this.selectIndexes(result, selection.indexes);
+        selection.weights = this.calculateClassifierWeights(
+                result, selection.indexes, selection.size);
+        return selection;
     }
-
 }
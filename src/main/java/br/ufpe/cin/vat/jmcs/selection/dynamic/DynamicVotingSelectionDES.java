@@ -17,10 +17,6 @@
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
 import br.ufpe.cin.vat.jmcs.utils.Enumerables;
-import weka.classifiers.Classifier;
-import weka.core.Instance;
-import weka.core.Instances;
-import weka.core.Utils;
 
 /**
  * Implementation of the Dynamic Voting with Selection (DVS) for dynamically
@@ -32,39 +28,11 @@ import weka.core.Utils;
 public class DynamicVotingSelectionDES extends DynamicVoting
 {
     @Override
-    public Classifier[] selectClassifiers(Instance testInstance)
-            throws Exception
+    protected int selectIndexes(SelectionResult result, int[] selected)
     {
-        Classifier[] pool = this.getClassifiers();
-        int n_neighbors = this.getKNeighbors();
-        Instances neighbors = this.getKnnAlgorithm()
-                                  .kNearestNeighbours(testInstance,
-                                                      n_neighbors);
-        SelectionResult result = this.calculateErrorWeights(pool, neighbors,
-                                                            n_neighbors);
-        Double[] weights = new Double[pool.length];
-        for (int j = 0; j < pool.length; j++) {
-            weights[j] = result.weightedErrors[j];
-        }
         // Get the lower half with the least error
-        int[] indexes = Enumerables.SortIndexes(weights);
-        int halfSize = pool.length / 2;
-        double[] weightedErrors = new double[halfSize];
-        double sum = 0.0;
-        Classifier[] ensemble = new Classifier[halfSize];
-        for (int j = 0; j < halfSize; j++) {
-            weightedErrors[j] = result.weightedErrors[indexes[j]];
-            ensemble[j] = pool[indexes[j]];
-            sum += weightedErrors[j];
-        }
-        if (sum > 0) {
-            Utils.normalize(weightedErrors, sum);
-        }
-        double[] classifierWeights = new double[halfSize];
-        for (int j = 0; j < halfSize; j++) {
-            classifierWeights[j] = 1 - weightedErrors[j];
-        }
-        this.combiner.setClassifiersWeights(classifierWeights);
-        return ensemble;
+        int poolSize = result.weightedErrors.length;
+        return Enumerables.MinIndexes(result.weightedErrors, poolSize,
+                                      poolSize / 2, selected);
     }
 }
@@ -0,0 +1,355 @@
+/* IndexedMLkNN.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import br.ufpe.cin.vat.jmcs.neighbors.NeighborIndex;
+import br.ufpe.cin.vat.jmcs.neighbors.Neighborhood;
+import br.ufpe.cin.vat.jmcs.neighbors.SharedNeighborIndex;
+import br.ufpe.cin.vat.jmcs.neighbors.WekaNeighborIndex;
+import mulan.classifier.MultiLabelLearnerBase;
+import mulan.classifier.MultiLabelOutput;
+import mulan.classifier.lazy.MLkNN;
+import mulan.data.MultiLabelInstances;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.TechnicalInformation;
+import weka.core.neighboursearch.LinearNNSearch;
+
+/**
+ * The ML-kNN algorithm of Mulan's <code>MLkNN</code>, with the same
+ * parameters and estimates, whose neighbors are searched in a
+ * {@link SharedNeighborIndex}. When {@link MultiLabelDES} is trained with it
+ * on a meta-data set built from the same selection data set (DSEL) the index
+ * holds, the meta-learner and the region of competence selectors sharing the
+ * index search each test instance once. The meta-instances have the
+ * attributes of DSEL, in the same order, so the index is used as is. If the
+ * index does not hold the features of the training set (e.g., after the
+ * selection data set is updated), a private linear search over them is built
+ * instead, just as <code>MLkNN</code> does. Unlike <code>MLkNN</code>, a
+ * label whose posterior probabilities tie is predicted as relevant, rather
+ * than at random.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class IndexedMLkNN extends MultiLabelLearnerBase
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The index shared with other selectors, or null to always search
+     * privately.
+     */
+    private transient SharedNeighborIndex shared;
+
+    /**
+     * The number of neighbors used in the estimates.
+     */
+    private final int numOfNeighbors;
+
+    /**
+     * The smoothing added to the counts of the estimates.
+     */
+    private final double smooth;
+
+    /**
+     * The index searched by the current model.
+     */
+    private transient NeighborIndex index;
+
+    /**
+     * The data set the shared index held when the model was built, or null
+     * if the model searches privately.
+     */
+    private transient Instances sharedInstances;
+
+    /**
+     * Empty data set with the attributes of the searched instances.
+     */
+    private transient Instances searchHeader;
+
+    /**
+     * The attribute of the searched instances which holds each feature.
+     */
+    private int[] searchPositions;
+
+    /**
+     * Whether each label is relevant to each training instance.
+     */
+    private boolean[][] relevant;
+
+    /**
+     * The prior probability of each label being relevant, and not being.
+     */
+    private double[] priors, priorsN;
+
+    /**
+     * The probability of each number of relevant neighbors given that the
+     * label is relevant, and given that it is not.
+     */
+    private double[][] conds, condsN;
+
+    /**
+     * Creates an ML-kNN which always searches its own neighbors, with 10
+     * neighbors and a smoothing of 1.
+     * @since 0.1
+     */
+    public IndexedMLkNN()
+    {
+        this(null, 10, 1.0);
+    }
+
+    /**
+     * Creates an ML-kNN which searches the neighbors in the given index.
+     * @param shared - The index built over the selection data set, or null
+     * to always search privately.
+     * @param numOfNeighbors - The number of neighbors used in the estimates.
+     * @param smooth - The smoothing added to the counts of the estimates.
+     * @since 0.1
+     */
+    public IndexedMLkNN(SharedNeighborIndex shared, int numOfNeighbors,
+            double smooth)
+    {
+        this.shared = shared;
+        this.numOfNeighbors = numOfNeighbors;
+        this.smooth = smooth;
+    }
+
+    /**
+     * Retrieves the index shared with other selectors.
+     * @return The shared index, or null.
+     * @since 0.1
+     */
+    public SharedNeighborIndex getSharedIndex()
+    {
+        return this.shared;
+    }
+
+    /**
+     * Checks whether the current model searches the shared index.
+     * @return Whether the shared index held the features of the training set
+     * when the model was built.
+     * @since 0.1
+     */
+    public boolean isUsingSharedIndex()
+    {
+        return this.sharedInstances != null;
+    }
+
+    @Override
+    protected void buildInternal(MultiLabelInstances trainingSet)
+            throws Exception
+    {
+        Instances data = trainingSet.getDataSet();
+        int size = data.size();
+        int k = this.numOfNeighbors;
+        if (size < k) {
+            throw new IllegalArgumentException("The number of training " +
+                "instances is less than the number of requested nearest " +
+                "neighbours");
+        }
+        Instances searched = this.prepareIndex(data);
+        this.relevant = new boolean[size][this.numLabels];
+        int[] positives = new int[this.numLabels];
+        for (int l = 0; l < this.numLabels; l++) {
+            int label = this.labelIndices[l];
+            double one = data.attribute(label).indexOfValue("1");
+            for (int n = 0; n < size; n++) {
+                this.relevant[n][l] = data.get(n).value(label) == one;
+                if (this.relevant[n][l]) positives[l]++;
+            }
+        }
+        this.priors = new double[this.numLabels];
+        this.priorsN = new double[this.numLabels];
+        for (int l = 0; l < this.numLabels; l++) {
+            this.priors[l] = (this.smooth + positives[l]) /
+                             (this.smooth * 2 + size);
+            this.priorsN[l] = 1 - this.priors[l];
+        }
+        // leave-one-out neighbors of every training instance, searched in a
+        // single batch which bypasses the memory of the shared index
+        Neighborhood[] neighborhoods = new Neighborhood[size];
+        for (int n = 0; n < size; n++) {
+            neighborhoods[n] = new Neighborhood(k + 1);
+        }
+        NeighborIndex direct = this.sharedInstances != null ?
+                this.shared.getIndex() : this.index;
+        direct.search(searched, k + 1, neighborhoods);
+        int[][] counts = new int[this.numLabels][k + 1];
+        int[][] countsN = new int[this.numLabels][k + 1];
+        int[] aces = new int[this.numLabels];
+        for (int n = 0; n < size; n++) {
+            this.count(neighborhoods[n], n, aces);
+            for (int l = 0; l < this.numLabels; l++) {
+                if (this.relevant[n][l]) counts[l][aces[l]]++;
+                else countsN[l][aces[l]]++;
+            }
+        }
+        this.conds = new double[this.numLabels][k + 1];
+        this.condsN = new double[this.numLabels][k + 1];
+        for (int l = 0; l < this.numLabels; l++) {
+            int total = 0, totalN = 0;
+            for (int a = 0; a <= k; a++) {
+                total += counts[l][a];
+                totalN += countsN[l][a];
+            }
+            for (int a = 0; a <= k; a++) {
+                this.conds[l][a] = (this.smooth + counts[l][a]) /
+                                   (this.smooth * (k + 1) + total);
+                this.condsN[l][a] = (this.smooth + countsN[l][a]) /
+                                    (this.smooth * (k + 1) + totalN);
+            }
+        }
+    }
+
+    /**
+     * Picks the shared index if it holds the features of the given training
+     * set, at the same positions and with the same values, or builds a
+     * private linear search over them otherwise.
+     * @return The indexed data set.
+     */
+    private Instances prepareIndex(Instances data) throws Exception
+    {
+        int numFeatures = this.featureIndices.length;
+        Instances held = this.shared == null ? null :
+                         this.shared.getInstances();
+        boolean covers = held != null && held.size() == data.size() &&
+                         this.shared.size() == data.size() &&
+                         held.numAttributes() -
+                         (held.classIndex() < 0 ? 0 : 1) == numFeatures;
+        int[] positions = new int[numFeatures];
+        if (covers) {
+            int f = 0;
+            for (int a = 0; a < held.numAttributes(); a++) {
+                if (a != held.classIndex()) positions[f++] = a;
+            }
+            for (int n = 0; covers && n < data.size(); n++) {
+                for (f = 0; covers && f < numFeatures; f++) {
+                    covers = Double.compare(
+                            held.get(n).value(positions[f]),
+                            data.get(n).value(this.featureIndices[f])) == 0;
+                }
+            }
+        }
+        if (!covers) {
+            for (int f = 0; f < numFeatures; f++) positions[f] = f;
+            held = this.project(data);
+            this.index = new WekaNeighborIndex(new LinearNNSearch());
+            this.index.build(held);
+            this.sharedInstances = null;
+        } else {
+            this.index = this.shared;
+            this.sharedInstances = held;
+        }
+        this.searchHeader = new Instances(held, 0);
+        this.searchPositions = positions;
+        return held;
+    }
+
+    /**
+     * Copies the features of the given data set into a data set with
+     * nothing else, for the private search.
+     */
+    private Instances project(Instances data)
+    {
+        int numFeatures = this.featureIndices.length;
+        ArrayList<Attribute> attributes =
+                new ArrayList<Attribute>(numFeatures);
+        for (int f = 0; f < numFeatures; f++) {
+            attributes.add(data.attribute(this.featureIndices[f]));
+        }
+        Instances features = new Instances("Features", attributes,
+                                           data.size());
+        for (int n = 0; n < data.size(); n++) {
+            double[] values = new double[numFeatures];
+            for (int f = 0; f < numFeatures; f++) {
+                values[f] = data.get(n).value(this.featureIndices[f]);
+            }
+            features.add(new DenseInstance(1.0, values));
+        }
+        return features;
+    }
+
+    /**
+     * Counts, for each label, how many of the first k neighbors other than
+     * the given training instance have it as relevant.
+     */
+    private void count(Neighborhood neighborhood, int self, int[] aces)
+    {
+        Arrays.fill(aces, 0);
+        int taken = 0;
+        for (int i = 0; i < neighborhood.size &&
+                        taken < this.numOfNeighbors; i++) {
+            int neighbor = neighborhood.indexes[i];
+            if (neighbor == self) continue;
+            taken++;
+            for (int l = 0; l < this.numLabels; l++) {
+                if (this.relevant[neighbor][l]) aces[l]++;
+            }
+        }
+    }
+
+    @Override
+    protected MultiLabelOutput makePredictionInternal(Instance instance)
+            throws Exception
+    {
+        if (this.sharedInstances != null &&
+            this.shared.getInstances() != this.sharedInstances) {
+            throw new IllegalStateException("The shared neighbor index was " +
+                "built again over another data set.");
+        }
+        double[] values = new double[this.searchHeader.numAttributes()];
+        for (int f = 0; f < this.featureIndices.length; f++) {
+            values[this.searchPositions[f]] =
+                    instance.value(this.featureIndices[f]);
+        }
+        Instance query = new DenseInstance(1.0, values);
+        query.setDataset(this.searchHeader);
+        if (this.searchHeader.classIndex() >= 0) query.setClassMissing();
+        Neighborhood neighborhood = new Neighborhood(this.numOfNeighbors);
+        this.index.search(query, this.numOfNeighbors, neighborhood);
+        int[] aces = new int[this.numLabels];
+        this.count(neighborhood, -1, aces);
+        boolean[] bipartition = new boolean[this.numLabels];
+        double[] confidences = new double[this.numLabels];
+        for (int l = 0; l < this.numLabels; l++) {
+            double in = this.priors[l] * this.conds[l][aces[l]];
+            double out = this.priorsN[l] * this.condsN[l][aces[l]];
+            bipartition[l] = in >= out;
+            confidences[l] = in / (in + out);
+        }
+        return new MultiLabelOutput(bipartition, confidences);
+    }
+
+    @Override
+    public TechnicalInformation getTechnicalInformation()
+    {
+        return new MLkNN().getTechnicalInformation();
+    }
+
+    @Override
+    public String globalInfo()
+    {
+        return "ML-kNN whose neighbors are searched in a neighbor index " +
+               "shared with other selectors.";
+    }
+}
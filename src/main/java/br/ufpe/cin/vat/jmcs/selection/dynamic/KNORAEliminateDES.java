@@ -16,14 +16,10 @@
 
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import weka.classifiers.Classifier;
+import br.ufpe.cin.vat.jmcs.neighbors.Neighborhood;
 import weka.classifiers.MultipleClassifiersCombiner;
 import weka.classifiers.meta.Vote;
 import weka.core.Instance;
-import weka.core.Instances;
 
 /**
  * Implementation of the KNORA Eliminate approach for dynamically selecting a
@@ -32,8 +28,7 @@ import weka.core.Instances;
  * @since 0.1
  *
  */
-public class KNORAEliminateDES extends NearestNeighborsBasedDS
-    implements DynamicEnsembleSelection
+public class KNORAEliminateDES extends NearestNeighborsBasedDES
 {
     /**
      * The way the selected sub ensemble should be combined to form the final
@@ -98,42 +93,33 @@ public class KNORAEliminateDES extends NearestNeighborsBasedDS
     }
 
     @Override
-    public Classifier[] selectClassifiers(Instance testInstance)
-            throws Exception {
-        Classifier[] pool = this.getClassifiers();
-        List<Classifier> selected = new ArrayList<Classifier>();
-        for (int k = this.getKNeighbors(); k > 0; k--) {
-            Instances neighbors = this.getKnnAlgorithm()
-                                      .kNearestNeighbours(testInstance, k);
-            for (int i = 0; i < pool.length; i++) {
-                boolean toAdd = true;
-                for (Instance neighbor : neighbors) {
-                    if (pool[i].classifyInstance(neighbor) !=
-                        neighbor.classValue()) {
-                        toAdd = false;
-                        break;
-                    }
-                }
-                if (toAdd) selected.add(pool[i]);
+    protected int selectIndexes(Instance testInstance, Neighborhood neighbors,
+            int[] selected) throws Exception {
+        OracleMatrix oracle = this.getOracle();
+        // The classifiers correct on every neighbor of the largest region of
+        // competence, grown from the nearest neighbor, where there is any.
+        long[] mask = new long[oracle.wordsPerRow()];
+        long[] candidates = new long[oracle.wordsPerRow()];
+        oracle.selectAll(mask);
+        int regionSize = 0;
+        for (int n = 0; n < neighbors.size; n++) {
+            if (!oracle.intersect(neighbors.indexes[n], mask, candidates)) {
+                break;
             }
-            if (!selected.isEmpty()) break;
+            long[] aux = mask;
+            mask = candidates;
+            candidates = aux;
+            regionSize++;
         }
-        Classifier[] aux = new Classifier[selected.size()];
-        return selected.toArray(aux);
-    }
-
-    @Override
-    public double classifyInstance(Instance testInstance) throws Exception
-    {
-        this.combiner.setClassifiers(this.selectClassifiers(testInstance));
-        return this.combiner.classifyInstance(testInstance);
-    }
-
-    @Override
-    public double[] distributionForInstance(Instance testInstance)
-            throws Exception
-    {
-        this.combiner.setClassifiers(this.selectClassifiers(testInstance));
-        return this.combiner.distributionForInstance(testInstance);
+        if (regionSize == 0) return 0;
+        int size = 0;
+        for (int w = 0; w < mask.length; w++) {
+            long bits = mask[w];
+            while (bits != 0) {
+                selected[size++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return size;
     }
 }
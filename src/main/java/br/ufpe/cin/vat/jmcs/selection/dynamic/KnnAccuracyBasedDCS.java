@@ -16,14 +16,20 @@
 
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
-import br.ufpe.cin.vat.jmcs.utils.Labels;
+import br.ufpe.cin.vat.jmcs.neighbors.Neighborhood;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
 import weka.classifiers.Classifier;
 import weka.core.Instance;
+import weka.core.Instances;
 
 /**
  * Abstract class with the common methods for the Dynamic Classifier Selection
  * approaches that are based on nearest neighbor search and accuracy, such as
- * Overall Local Accuracy (OLA) and Local Class Accuracy (LCA).
+ * Overall Local Accuracy (OLA) and Local Class Accuracy (LCA). The consensus
+ * gate only shortcuts the labels: when it fires, the label of the consensus
+ * is returned without searching the region of competence. Distributions
+ * always go through the selection, since the distribution of the selected
+ * classifier may differ from the one of the consensus.
  * @author vitordeatorreao
  * @since 0.1
  *
@@ -31,56 +37,207 @@ import weka.core.Instance;
 public abstract class KnnAccuracyBasedDCS extends NearestNeighborsBasedDS
     implements DynamicClassifierSelection
 {
+    /**
+     * Whether the consensus gate is skipped by the approaches whose competence
+     * does not depend on the test outputs of the pool.
+     */
+    private boolean competenceFirst;
+
+    /**
+     * Constructs a new instance with a unanimous consensus gate, so the labels
+     * the whole pool agrees on are returned without searching the region of
+     * competence. Any classifier selected would give the same label.
+     * @since 0.1
+     */
+    public KnnAccuracyBasedDCS()
+    {
+        super();
+        this.setConsensusGate(new ConsensusGate());
+        this.competenceFirst = false;
+    }
+
+    /**
+     * Checks whether the approach ranks the classifiers from the region of
+     * competence before running any of them on the test instance.
+     * @return Whether the competence-first mode is on.
+     * @since 0.1
+     */
+    public boolean isCompetenceFirst()
+    {
+        return this.competenceFirst;
+    }
+
+    /**
+     * Configures whether the approach ranks the classifiers from the region of
+     * competence before running any of them on the test instance. Checking
+     * the consensus gate, which is on by default, runs the whole pool on each
+     * label query. In this mode, approaches whose competence only depends on
+     * the selection data set (such as OLA and DS) skip the gate and run the
+     * winner alone, so each query costs one classifier call instead of one
+     * per member of the pool. Approaches which compare the test outputs of
+     * the pool with the selection data set (such as LCA and MCB) must run the
+     * whole pool anyway, so they keep checking the gate. Without a gate, the
+     * mode changes nothing, as distributions are never gated.
+     * @param competenceFirst - Whether the competence-first mode is on.
+     * @since 0.1
+     */
+    public void setCompetenceFirst(boolean competenceFirst)
+    {
+        this.competenceFirst = competenceFirst;
+    }
+
+    /**
+     * Checks whether the selection rule reads the classes the pool predicts
+     * for the test instance. By default, it is assumed to do so.
+     * @return Whether the competence depends on the test outputs of the pool.
+     * @since 0.1
+     */
+    protected boolean usesTestOutputs()
+    {
+        return true;
+    }
+
     /**
      * Selects a classifier to label the test instance according to specific
      * selection approach.
-     * @param testInstance - The instance to be labeled.
-     * @param classifiers - The original pool of classifiers from which to
-     * select one.
+     * @param context - The answers of the original pool of classifiers, from
+     * which to select one, for the instance to be labeled. Any answer the
+     * approach needs is computed at most once per query.
+     * @param neighbors - The region of competence of the test instance.
      * @return The index of the best classifier according to the selection rule.
      * @throws Exception - In case any of the classifiers in the pool have any
-     * trouble classifying the nearest neighbors instances or the test instance.
+     * trouble classifying the test instance.
      * @since 0.1 
      */
-    protected abstract int selectClassifier(
-            Instance testInstance, Classifier[] classifiers) throws Exception;
-    
+    protected abstract int selectClassifier(QueryContext context,
+            Neighborhood neighbors) throws Exception;
+
+    /**
+     * Searches the region of competence of the test instance and selects a
+     * classifier to label it according to specific selection approach.
+     * @param context - The answers of the original pool of classifiers, from
+     * which to select one, for the instance to be labeled.
+     * @return The index of the best classifier according to the selection rule.
+     * @throws Exception - In case any of the classifiers in the pool have any
+     * trouble classifying the test instance.
+     * @since 0.1 
+     */
+    protected int selectClassifier(QueryContext context) throws Exception
+    {
+        Neighborhood neighbors = this.getNeighborhood(context.getInstance(),
+                                                      this.getKNeighbors());
+        return this.selectClassifier(context, neighbors);
+    }
+
     @Override
     public Classifier selectClassifier(Instance testInstance) throws Exception
     {
-        Classifier[] classifiers = this.getClassifiers();
-        int index = this.selectClassifier(testInstance, classifiers);
-        return classifiers[index];
+        QueryContext context = this.newContext(testInstance);
+        return context.getClassifiers()[this.selectClassifier(context)];
     }
 
     @Override
     public double classifyInstance(Instance testInstance) throws Exception
     {
-        Classifier[] classifiers = this.getClassifiers();
-        if (classifiers.length < 1) {
+        QueryContext context = this.newContext(testInstance);
+        if (context.getClassifiers().length < 1) {
             throw new UnsupportedOperationException(
                 "Cannot classify this instance with an empty pool.");
         }
-        double[] labels = new double[classifiers.length];
-        labels[0] = classifiers[0].classifyInstance(testInstance);
-        boolean unanimous = true;
-        for (int i = 1; i < classifiers.length; i++) {
-            labels[i] = classifiers[i].classifyInstance(testInstance);
-            if (!Labels.Equals(labels[i], labels[i - 1])) unanimous = false;
-        }
-        // if all the classifiers agree, then return the label
-        if (unanimous) return labels[0];
+        // if the classifiers agree, then return their label
+        int agreeing = Consensus(this.getActiveGate(), context);
+        if (agreeing >= 0) return context.label(agreeing);
         // else, get the k nearest neighbors
-        int chosenIndex = this.selectClassifier(testInstance, classifiers);
-        return labels[chosenIndex];
+        int chosenIndex = this.selectClassifier(context);
+        return context.label(chosenIndex);
+    }
+
+    @Override
+    public double[] classifyInstances(Instances testInstances)
+            throws Exception
+    {
+        if (this.getClassifiers().length < 1) {
+            throw new UnsupportedOperationException(
+                "Cannot classify these instances with an empty pool.");
+        }
+        QueryContext[] contexts = new QueryContext[testInstances.size()];
+        int[] chosen = this.selectClassifiers(testInstances, contexts,
+                                              this.getActiveGate());
+        double[] answers = new double[contexts.length];
+        for (int i = 0; i < contexts.length; i++) {
+            answers[i] = contexts[i].label(chosen[i]);
+        }
+        return answers;
     }
 
     @Override
     public double[] distributionForInstance(Instance testInstance)
             throws Exception
     {
-        Classifier[] classifiers = this.getClassifiers();
-        int chosenIndex = this.selectClassifier(testInstance, classifiers);
-        return classifiers[chosenIndex].distributionForInstance(testInstance);
+        QueryContext context = this.newContext(testInstance);
+        int chosenIndex = this.selectClassifier(context);
+        return context.distribution(chosenIndex);
+    }
+
+    @Override
+    public double[][] distributionsForInstances(Instances testInstances)
+            throws Exception
+    {
+        QueryContext[] contexts = new QueryContext[testInstances.size()];
+        int[] chosen = this.selectClassifiers(testInstances, contexts, null);
+        double[][] distributions = new double[contexts.length][];
+        for (int i = 0; i < contexts.length; i++) {
+            distributions[i] = contexts[i].distribution(chosen[i]);
+        }
+        return distributions;
+    }
+
+    /**
+     * Selects the classifier which labels each instance of a batch. Whenever
+     * the pool has to be run on the whole batch, each classifier labels it in
+     * a single pass, and only the instances the pool disagrees on get a
+     * region of competence.
+     * @param testInstances - The instances to be labeled.
+     * @param contexts - Output array which will hold the answers of the pool
+     * for each instance.
+     * @param gate - The consensus gate to be checked, or null.
+     * @return The index of the selected classifier for each instance.
+     */
+    private int[] selectClassifiers(Instances testInstances,
+            QueryContext[] contexts, ConsensusGate gate) throws Exception
+    {
+        int size = testInstances.size();
+        int[] chosen = new int[size];
+        boolean[] disputed = new boolean[size];
+        double[][] labels = null;
+        if (gate != null || this.usesTestOutputs()) {
+            labels = this.getPoolLabels(testInstances);
+        }
+        for (int i = 0; i < size; i++) {
+            contexts[i] = labels == null ?
+                    this.newContext(testInstances.get(i)) :
+                    this.newContext(testInstances.get(i), labels[i]);
+            chosen[i] = gate == null ? -1 : gate.consensus(labels[i]);
+            disputed[i] = chosen[i] < 0;
+        }
+        Neighborhood[] neighborhoods = this.getNeighborhoods(
+                testInstances, this.getKNeighbors(), disputed);
+        for (int i = 0; i < size; i++) {
+            if (disputed[i]) {
+                chosen[i] = this.selectClassifier(contexts[i],
+                                                  neighborhoods[i]);
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Retrieves the consensus gate, unless the competence-first mode makes
+     * checking it cost more than the selection.
+     */
+    private ConsensusGate getActiveGate()
+    {
+        if (this.competenceFirst && !this.usesTestOutputs()) return null;
+        return this.getConsensusGate();
     }
 }
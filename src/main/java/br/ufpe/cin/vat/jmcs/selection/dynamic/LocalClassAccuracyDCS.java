@@ -16,11 +16,11 @@
 
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
+import br.ufpe.cin.vat.jmcs.neighbors.Neighborhood;
 import br.ufpe.cin.vat.jmcs.utils.Enumerables;
 import br.ufpe.cin.vat.jmcs.utils.Labels;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
 import weka.classifiers.Classifier;
-import weka.core.Instance;
-import weka.core.Instances;
 
 /**
  * Implementation of the Local Class Accuracy (LCA) approach for dynamically
@@ -31,31 +31,41 @@ import weka.core.Instances;
  */
 public class LocalClassAccuracyDCS extends KnnAccuracyBasedDCS
 {
+    /**
+     * Buffer for the class accuracy of each classifier in each thread.
+     */
+    private final ThreadLocal<double[]> accuracies =
+            new ThreadLocal<double[]>();
+
     @Override
-    protected int selectClassifier(Instance testInstance,
-            Classifier[] classifiers) throws Exception
+    protected int selectClassifier(QueryContext context,
+            Neighborhood neighbors) throws Exception
     {
-        int n_neighbors = this.getKNeighbors(); 
-        Instances neighbors = this.getKnnAlgorithm()
-                                  .kNearestNeighbours(testInstance,
-                                                      n_neighbors);
-        double[] testLabels = new double[classifiers.length];
-        Double[] classAccuracy = new Double[classifiers.length];
+        Classifier[] classifiers = context.getClassifiers();
+        double[] testLabels = context.labels();
+        PredictionMatrix predictions = this.getPredictions();
+        OracleMatrix oracle = this.getOracle();
+        double[] classAccuracy = this.accuracies.get();
+        if (classAccuracy == null ||
+            classAccuracy.length < classifiers.length) {
+            classAccuracy = new double[classifiers.length];
+            this.accuracies.set(classAccuracy);
+        }
         for (int i = 0; i < classifiers.length; i++) {
-            testLabels[i] = classifiers[i].classifyInstance(testInstance);
             int total = 0;
             int corrects = 0;
-            for (Instance neighbor : neighbors) {
-                double predicted = classifiers[i].classifyInstance(neighbor);
+            for (int n = 0; n < neighbors.size; n++) {
+                int neighbor = neighbors.indexes[n];
+                double predicted = predictions.label(neighbor, i);
                 if (Labels.Equals(testLabels[i], predicted)) {
                     total++;
-                    if (Labels.Equals(predicted, neighbor.classValue())) {
+                    if (oracle.isCorrect(neighbor, i)) {
                         corrects++;
                     }
                 }
             }
             classAccuracy[i] = total > 0 ? corrects / total : 0.0; 
         }
-        return Enumerables.MaxIndex(classAccuracy);
+        return Enumerables.MaxIndex(classAccuracy, classifiers.length);
     }
 }
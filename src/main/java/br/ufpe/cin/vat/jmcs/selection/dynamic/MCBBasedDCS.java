@@ -16,14 +16,11 @@
 
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
-import java.util.ArrayList;
-import java.util.List;
-
+import br.ufpe.cin.vat.jmcs.neighbors.Neighborhood;
 import br.ufpe.cin.vat.jmcs.utils.Enumerables;
 import br.ufpe.cin.vat.jmcs.utils.Labels;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
 import weka.classifiers.Classifier;
-import weka.core.Instance;
-import weka.core.Instances;
 
 /**
  * Implementation of the MCB based dynamic classifier selection technique
@@ -40,6 +37,19 @@ public class MCBBasedDCS extends KnnAccuracyBasedDCS
      */
     private double similarityThreshold;
 
+    /**
+     * Buffer for the final neighborhood found in each thread.
+     */
+    private final ThreadLocal<int[]> finalNeighborhoods =
+            new ThreadLocal<int[]>();
+
+    /**
+     * Buffer for the number of correct answers of each classifier in each
+     * thread.
+     */
+    private final ThreadLocal<int[]> correctAnswerCounts =
+            new ThreadLocal<int[]>();
+
     /**
      * Creates a new instance of the MCB based DCS technique with default value
      * for the similarity threshold.
@@ -82,38 +92,35 @@ public class MCBBasedDCS extends KnnAccuracyBasedDCS
     }
 
     @Override
-    protected int selectClassifier(Instance testInstance,
-            Classifier[] classifiers) throws Exception
+    protected int selectClassifier(QueryContext context,
+            Neighborhood neighbors) throws Exception
     {
-        int n_neighbors = this.getKNeighbors(); 
-        Instances neighbors = this.getKnnAlgorithm()
-                                  .kNearestNeighbours(testInstance,
-                                                      n_neighbors);
-        double[] testMCB = new double[classifiers.length];
-        for (int j = 0; j < classifiers.length; j++) {
-            testMCB[j] = classifiers[j].classifyInstance(testInstance);
+        Classifier[] classifiers = context.getClassifiers();
+        double[] testMCB = context.labels();
+        PredictionMatrix predictions = this.getPredictions();
+        int[] finalNeighborhood = this.finalNeighborhoods.get();
+        if (finalNeighborhood == null ||
+            finalNeighborhood.length < neighbors.size) {
+            finalNeighborhood = new int[neighbors.size];
+            this.finalNeighborhoods.set(finalNeighborhood);
         }
-        List<Instance> finalNeighborhood = new ArrayList<Instance>();
-        for (Instance neighbor : neighbors) {
-            double[] neighborMCB = new double[classifiers.length];
-            for (int j = 0; j < classifiers.length; j++) {
-                neighborMCB[j] = classifiers[j].classifyInstance(neighbor);
-            }
-            if (similarity(testMCB, neighborMCB) > this.similarityThreshold) {
-                finalNeighborhood.add(neighbor);
+        int finalSize = 0;
+        for (int n = 0; n < neighbors.size; n++) {
+            int neighbor = neighbors.indexes[n];
+            if (similarity(testMCB, predictions, neighbor) >
+                this.similarityThreshold) {
+                finalNeighborhood[finalSize++] = neighbor;
             }
         }
-        Integer[] correctAnswerCount = new Integer[classifiers.length];
-        for (int i = 0; i < classifiers.length; i++) {
-            correctAnswerCount[i] = new Integer(0);
-            for (Instance neighbor : finalNeighborhood) {
-                double answer = classifiers[i].classifyInstance(neighbor);
-                if (Labels.Equals(answer, neighbor.classValue())) {
-                    correctAnswerCount[i]++;
-                }
-            }
+        int[] correctAnswerCount = this.correctAnswerCounts.get();
+        if (correctAnswerCount == null ||
+            correctAnswerCount.length < classifiers.length) {
+            correctAnswerCount = new int[classifiers.length];
+            this.correctAnswerCounts.set(correctAnswerCount);
         }
-        return Enumerables.MaxIndex(correctAnswerCount);
+        this.getOracle().countCorrect(finalNeighborhood, finalSize,
+                                      correctAnswerCount);
+        return Enumerables.MaxIndex(correctAnswerCount, classifiers.length);
     }
 
     /**
@@ -136,5 +143,31 @@ public class MCBBasedDCS extends KnnAccuracyBasedDCS
         }
         return sum / mcb1.length;
     }
+
+    /**
+     * Calculates the similarity between a test instance and a selection
+     * instance based on their Multiple Classifier Behavior (MCB), reading the
+     * selection instance's MCB from the recorded predictions.
+     * @param testMCB - The test instance's MCB.
+     * @param predictions - The classes predicted by the pool for the selection
+     * data set.
+     * @param neighbor - The position of the selection instance.
+     * @return The value of the similarity between the two MCBs as defined in
+     * Giacinto & Roli (2000).
+     */
+    protected double similarity(double[] testMCB, PredictionMatrix predictions,
+            int neighbor)
+    {
+        if (testMCB.length != predictions.numClassifiers()) {
+            throw new IllegalArgumentException("Both MCBs must have the same " +
+                                               "length.");
+        }
+        double sum = 0.0;
+        for (int i = 0; i < testMCB.length; i++) {
+            sum += Labels.Equals(testMCB[i], predictions.label(neighbor, i)) ?
+                   1.0 : 0.0;
+        }
+        return sum / testMCB.length;
+    }
     
 }
@@ -16,32 +16,34 @@
 
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
-import br.ufpe.cin.vat.jmcs.utils.MultiLabel;
+import br.ufpe.cin.vat.jmcs.combination.Combiners;
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
 import mulan.classifier.MultiLabelLearner;
 import mulan.classifier.MultiLabelOutput;
-import mulan.data.LabelsMetaData;
 import mulan.data.MultiLabelInstances;
 import weka.classifiers.Classifier;
 import weka.classifiers.MultipleClassifiersCombiner;
 import weka.classifiers.meta.Vote;
-import weka.core.Attribute;
 import weka.core.Capabilities;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Utils;
 
 /**
  * Utility class for handling settings common to Dynamic Ensemble
  * Selection techniques based on the use of multi-label classifiers as
- * meta-classifiers.
+ * meta-classifiers. When a consensus gate fires, the multi-label classifier
+ * is skipped and the whole pool is combined.
  * @author vitordeatorreao
  * @since 0.1
  *
  */
-public class MultiLabelDES implements DynamicEnsembleSelection
+public class MultiLabelDES extends AbstractDynamicSelection
+    implements DynamicEnsembleSelection
 {
     /**
      * The set of classifiers in the original pool. 
@@ -71,9 +73,68 @@ public class MultiLabelDES implements DynamicEnsembleSelection
     private Double threshold;
 
     /**
-     * Holds the attribute information for the current multilabel problem
+     * Runs the members of the pool for each query.
      */
-    private ArrayList<Attribute> attributeInfo;
+    private PoolEvaluator poolEvaluator;
+
+    /**
+     * Whether the members of the pool which behave identically on the
+     * selection data set are run only once per query.
+     */
+    private boolean deduplicatePool;
+
+    /**
+     * The groups of identical members found when the approach was built, or
+     * null if the pool was not deduplicated.
+     */
+    private PoolDeduplication deduplication;
+
+    /**
+     * The meta-instances added through <code>update</code> since the last
+     * build, along with the retained ones, or null if there were no updates.
+     * The multi-label algorithm is always trained on a copy.
+     */
+    private Instances updatedDataSet;
+
+    /**
+     * The number of evicted meta-instances still at the first positions of
+     * the updated data set. They are dropped in batches, so evictions do not
+     * copy the retained ones every time.
+     */
+    private int evicted;
+
+    /**
+     * Decides which meta-instances are evicted as new ones arrive.
+     */
+    private SelectionWindow window;
+
+    /**
+     * After how many updates the multi-label algorithm is trained again.
+     */
+    private int refreshInterval;
+
+    /**
+     * How many updates the multi-label algorithm has not seen yet.
+     */
+    private int pendingUpdates;
+
+    /**
+     * The meta-data set the multi-label algorithm was last trained on, or
+     * the one configured to be reused by the next build.
+     */
+    private MultiLabelMetaDataSet metaDataSet;
+
+    /**
+     * Empty data set with the attributes of the multi-label problem, shared
+     * by the meta-instances built for classification.
+     */
+    private Instances metaHeader;
+
+    /**
+     * Buffers reused by the queries made in each thread.
+     */
+    private final ThreadLocal<QueryBuffers> queryBuffers =
+            new ThreadLocal<QueryBuffers>();
 
     /**
      * Constructs a new instance of MultiLabelDynamicEnsembleSelection with
@@ -85,6 +146,9 @@ public class MultiLabelDES implements DynamicEnsembleSelection
         this.threshold = null;
         this.classifiers = new Classifier[0];
         this.combiner = new Vote();
+        this.poolEvaluator = new PoolEvaluator();
+        this.window = new SelectionWindow();
+        this.refreshInterval = 100;
     }
 
     /**
@@ -176,6 +240,123 @@ public class MultiLabelDES implements DynamicEnsembleSelection
         this.threshold = threshold;
     }
 
+    /**
+     * Retrieves the evaluator which runs the members of the pool for each
+     * query.
+     * @return The pool evaluator.
+     * @since 0.1
+     */
+    public PoolEvaluator getPoolEvaluator()
+    {
+        return this.poolEvaluator;
+    }
+
+    /**
+     * Configures the evaluator which runs the members of the pool for each
+     * query, such as one which fans large pools out to an executor. By
+     * default, the pool runs serially.
+     * @param evaluator - The pool evaluator.
+     * @since 0.1
+     */
+    public void setPoolEvaluator(PoolEvaluator evaluator)
+    {
+        this.poolEvaluator = evaluator;
+    }
+
+    /**
+     * Checks whether the members of the pool which behave identically on the
+     * selection data set are run only once per query.
+     * @return Whether the pool is deduplicated when the approach is built.
+     * @since 0.1
+     */
+    public boolean isDeduplicatePool()
+    {
+        return this.deduplicatePool;
+    }
+
+    /**
+     * Configures whether the members of the pool which behave identically on
+     * the selection data set are run only once per query, the first of them
+     * answering for the others. Every member keeps its label in the
+     * meta-data set, so the multi-label algorithm selects from the same pool.
+     * It only takes effect on the next call to <code>buildClassifier</code>.
+     * @param deduplicate - Whether the pool should be deduplicated.
+     * @since 0.1
+     * @see NearestNeighborsBasedDS#setDeduplicatePool(boolean)
+     */
+    public void setDeduplicatePool(boolean deduplicate)
+    {
+        this.deduplicatePool = deduplicate;
+    }
+
+    /**
+     * Retrieves the groups of identical members of the pool found when the
+     * approach was built.
+     * @return The pool deduplication, or null if the pool was not
+     * deduplicated.
+     * @since 0.1
+     */
+    public PoolDeduplication getPoolDeduplication()
+    {
+        return this.deduplication;
+    }
+
+    /**
+     * Retrieves the sliding window which decides which meta-instances are
+     * evicted as new ones arrive through <code>update</code>.
+     * @return The selection window.
+     * @since 0.1
+     */
+    public SelectionWindow getSelectionWindow()
+    {
+        return this.window;
+    }
+
+    /**
+     * Configures the sliding window which decides which meta-instances are
+     * evicted as new ones arrive through <code>update</code>. By default, no
+     * meta-instance is ever evicted.
+     * @param window - The selection window.
+     * @since 0.1
+     */
+    public void setSelectionWindow(SelectionWindow window)
+    {
+        this.window = window;
+    }
+
+    /**
+     * Retrieves after how many updates the multi-label algorithm is trained
+     * again.
+     * @return The refresh interval.
+     * @since 0.1
+     */
+    public int getRefreshInterval()
+    {
+        return this.refreshInterval;
+    }
+
+    /**
+     * Configures after how many updates the multi-label algorithm is trained
+     * again. Multi-label algorithms cannot learn one instance at a time, so
+     * each refresh trains them on the whole meta data set (e.g., Calibrated
+     * Label Ranking trains a model for every pair of classifiers in the
+     * pool); larger intervals amortize that cost, at the price of selecting
+     * with a slightly outdated model in between. By default, the multi-label
+     * algorithm is trained again after every 100 updates.
+     * @param interval - The refresh interval, at least 1.
+     * @since 0.1
+     */
+    public void setRefreshInterval(int interval)
+    {
+        if (interval < 1)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "The refresh interval must be positive. (%d < 1)",
+                    interval));
+        }
+        this.refreshInterval = interval;
+    }
+
     @Override
     public Classifier[] getClassifiers()
     {
@@ -186,6 +367,7 @@ public class MultiLabelDES implements DynamicEnsembleSelection
     public void setClassifiers(Classifier[] classifiers)
     {
         this.classifiers = classifiers;
+        this.deduplication = null;
     }
 
     @Override
@@ -200,6 +382,32 @@ public class MultiLabelDES implements DynamicEnsembleSelection
         this.combiner = combiner;
     }
 
+    /**
+     * Retrieves the meta-data set the multi-label algorithm was last trained
+     * on, which may be handed to other instances built over the same pool
+     * and selection data set.
+     * @return The meta-data set, or null if the approach was not built yet.
+     * @since 0.1
+     */
+    public MultiLabelMetaDataSet getMetaDataSet()
+    {
+        return this.metaDataSet;
+    }
+
+    /**
+     * Configures a meta-data set to be reused by the next call to
+     * <code>buildClassifier</code>, instead of running the pool over the
+     * selection data set again. It is only reused if it was built for the
+     * configured pool and the given selection data set.
+     * @param metaDataSet - The meta-data set, or null to always build one.
+     * @since 0.1
+     * @see MultiLabelMetaDataSet#isFor(Classifier[], Instances)
+     */
+    public void setMetaDataSet(MultiLabelMetaDataSet metaDataSet)
+    {
+        this.metaDataSet = metaDataSet;
+    }
+
     /**
      * Constructs a new data set by adding the classifiers' outputs as new
      * columns. 
@@ -214,54 +422,10 @@ public class MultiLabelDES implements DynamicEnsembleSelection
     public Instances getMultiLabelDataSet(Instances selectionDataSet)
             throws Exception
     {
-        int numAttributes = selectionDataSet.numAttributes();
-        int numLabels = this.classifiers.length;
-        int numInstances = selectionDataSet.size();
-        // -1 due to the class label
-        int initialCapacity = numAttributes - 1 + numLabels;
-        this.attributeInfo = new ArrayList<Attribute>(initialCapacity);
-        for (int i = 0; i < numAttributes; i++)
-        {
-            if (i == selectionDataSet.classIndex()) continue;
-            this.attributeInfo.add(selectionDataSet.attribute(i));
-        }
-        List<String> multiLabelOutput = new ArrayList<String>(2);
-        multiLabelOutput.add("0");
-        multiLabelOutput.add("1");
-        for (int c = 0; c < numLabels; c++)
-        {
-            this.attributeInfo.add(
-                    new Attribute("Classifier" + c, multiLabelOutput));
-        }
-        Instances aux = new Instances(
-                "Selection", this.attributeInfo, numInstances);
-        for (int n = 0; n < numInstances; n++)
-        {
-            Instance data = new DenseInstance(initialCapacity);
-            for (int a = 0; a < numAttributes - 1; a++)
-            {
-                data.setValue(aux.attribute(a),
-                              selectionDataSet.get(n).value(a));
-            }
-            int start = numAttributes - 1;
-            for (int c = 0; c < numLabels; c++)
-            {
-                Instance instance = selectionDataSet.get(n);
-                double correct = instance.classValue();
-                double actual = this.classifiers[c].classifyInstance(instance);
-                double delta = Math.abs(actual - correct); 
-                if (delta < 0.0001)
-                {
-                    data.setValue(aux.attribute(c + start), "1");
-                }
-                else
-                {
-                    data.setValue(aux.attribute(c + start), "0");
-                }
-            }
-            aux.add(data);
-        }
-        return aux;
+        MultiLabelMetaDataSet metaDataSet = new MultiLabelMetaDataSet(
+                this.classifiers, selectionDataSet, this.poolEvaluator);
+        this.metaHeader = metaDataSet.getHeader();
+        return metaDataSet.getDataSet().getDataSet();
     }
 
     /**
@@ -277,8 +441,7 @@ public class MultiLabelDES implements DynamicEnsembleSelection
      */
     public boolean[] getBipartition(Instance instance) throws Exception
     {
-        instance = this.getMultiLabelInstanceForClassification(instance);
-        MultiLabelOutput output = this.mlAlgorithm.makePrediction(instance);
+        MultiLabelOutput output = this.makePrediction(instance);
 		boolean[] bipartition;
 		// use default, or OneThreshold strategy to form a bipartition
 		if (output.hasConfidences() && this.threshold != null)
@@ -301,10 +464,77 @@ public class MultiLabelDES implements DynamicEnsembleSelection
     @Override
 	public double classifyInstance(Instance instance) throws Exception
 	{
-		this.configureCombiner(instance);
-		return this.combiner.classifyInstance(instance);
+		QueryContext context = this.newContext(instance, null);
+		int[] selected = this.getQueryBuffers().selected;
+		int size = this.select(context, selected);
+		return Combiners.Classify(this.combiner, context, selected, size,
+		                          null);
 	}
 
+    /**
+     * Classifies a batch of instances once for each of the given thresholds,
+     * as if by a copy of this instance configured with each threshold, in a
+     * single pass. The multi-label algorithm runs once per instance and each
+     * member of the pool at most once per instance, so only the bipartition
+     * and the combination are repeated for every threshold.
+     * @param instances - The instances to be classified.
+     * @param thresholds - The thresholds to be evaluated, where null stands
+     * for the multi-label algorithm's default bipartition strategy.
+     * @return The predicted class values, indexed by threshold and then by
+     * instance.
+     * @throws Exception - In case the multi-label algorithm or any of the
+     * classifiers cannot classify one of the instances.
+     * @since 0.1
+     */
+    public double[][] sweepThresholds(Instances instances,
+            Double[] thresholds) throws Exception
+    {
+        double[][] labels = new double[thresholds.length][instances.size()];
+        int[] selected = this.getQueryBuffers().selected;
+        for (int i = 0; i < instances.size(); i++)
+        {
+            QueryContext context = this.newContext(instances.get(i), null);
+            MultiLabelOutput output = null;
+            if (Consensus(this.getConsensusGate(), context) < 0)
+            {
+                output = this.makePrediction(instances.get(i));
+            }
+            for (int t = 0; t < thresholds.length; t++)
+            {
+                int size = output == null ? 0 :
+                           this.selectCompetent(output, thresholds[t],
+                                                selected);
+                if (size == 0)
+                {
+                    for (int c = 0; c < this.classifiers.length; c++)
+                    {
+                        selected[c] = c;
+                    }
+                    size = this.classifiers.length;
+                }
+                labels[t][i] = Combiners.Classify(this.combiner, context,
+                                                  selected, size, null);
+            }
+        }
+        return labels;
+    }
+
+    @Override
+    public double[] classifyInstances(Instances instances) throws Exception
+    {
+        if (!this.canCombineInBatch(instances))
+        {
+            return DynamicEnsembleSelection.super.classifyInstances(instances);
+        }
+        double[][] distributions = this.distributionsForInstances(instances);
+        double[] labels = new double[distributions.length];
+        for (int i = 0; i < distributions.length; i++)
+        {
+            labels[i] = Combiners.Classify(distributions[i]);
+        }
+        return labels;
+    }
+
     @Override
     public void buildClassifier(Instances selectionDataSet) throws Exception
     {
@@ -318,27 +548,166 @@ public class MultiLabelDES implements DynamicEnsembleSelection
             throw new IllegalArgumentException("The provided selection data "+
                 "must have a class label configured.");
         }
-        int numAttributes = selectionDataSet.numAttributes();
-        // discount for the class
-        if (selectionDataSet.classIndex() >= 0) numAttributes--;
-        Instances multiLabelDataSet = getMultiLabelDataSet(selectionDataSet);
-        int[] labelsIndexes = new int[this.classifiers.length];
-        for (int c = 0; c < this.classifiers.length; c++)
+        if (this.metaDataSet == null ||
+            !this.metaDataSet.isFor(this.classifiers, selectionDataSet))
+        {
+            this.metaDataSet = new MultiLabelMetaDataSet(
+                    this.classifiers, selectionDataSet, this.poolEvaluator);
+        }
+        this.deduplication = null;
+        if (this.deduplicatePool)
         {
-            labelsIndexes[c] = c + numAttributes;
+            this.deduplication = PoolDeduplication.Find(
+                    this.classifiers, selectionDataSet,
+                    this.metaDataSet.getPredictions(), this.poolEvaluator);
         }
-        LabelsMetaData metaData =
-                MultiLabel.getLabelsMetaData(multiLabelDataSet, labelsIndexes);
-        this.selectionDataSet = new MultiLabelInstances(multiLabelDataSet,
-                                                        metaData);
+        this.metaHeader = this.metaDataSet.getHeader();
+        this.selectionDataSet = this.metaDataSet.getDataSet();
         this.mlAlgorithm.build(this.selectionDataSet);
+        this.updatedDataSet = null;
+        this.pendingUpdates = 0;
+        this.window.reset(this.selectionDataSet.getNumInstances(),
+                          System.currentTimeMillis());
+    }
+
+    /**
+     * Adds a labeled instance to the selection data set, stamped with the
+     * current time in milliseconds.
+     * @param labeled - The new selection instance, with its class value set.
+     * @throws Exception - In case any of the classifiers in the pool cannot
+     * classify the instance, or the multi-label algorithm cannot be trained.
+     * @since 0.1
+     * @see #update(Instance, long)
+     */
+    public void update(Instance labeled) throws Exception
+    {
+        this.update(labeled, System.currentTimeMillis());
+    }
+
+    /**
+     * Adds a labeled instance to the selection data set without building the
+     * approach again. The pool runs only on the new instance to form its
+     * meta-instance, the meta-instances which fall out of the selection
+     * window are evicted and, once every refresh interval, the multi-label
+     * algorithm is trained again on the retained ones. Most updates thus
+     * cost one run of the pool, but every refresh costs as much as training
+     * the multi-label algorithm from scratch on the whole selection data set,
+     * which is why refreshes are batched (see
+     * {@link #setRefreshInterval(int)}). Until then, the selection uses the
+     * model trained before the updates. Updates must not run while other
+     * threads are classifying with this instance.
+     * @param labeled - The new selection instance, with its class value set.
+     * @param timestamp - When the instance arrived, in the same unit as the
+     * maximum age of the selection window.
+     * @throws Exception - In case any of the classifiers in the pool cannot
+     * classify the instance, or the multi-label algorithm cannot be trained.
+     * @since 0.1
+     */
+    public void update(Instance labeled, long timestamp) throws Exception
+    {
+        if (this.selectionDataSet == null)
+        {
+            throw new IllegalStateException("You can't call update before " +
+                "buildClassifier.");
+        }
+        if (this.updatedDataSet == null)
+        {
+            this.updatedDataSet = new Instances(
+                    this.selectionDataSet.getDataSet());
+            this.evicted = 0;
+        }
+        int size = this.updatedDataSet.size() - this.evicted;
+        if (this.window.size() != size) this.window.reset(size, timestamp);
+        double correct = labeled.classValue();
+        double[] answers = this.poolEvaluator.labels(
+                this.classifiers, this.getRepresentatives(), labeled);
+        double[] values = new double[this.metaHeader.numAttributes()];
+        int start = values.length - this.classifiers.length;
+        for (int a = 0; a < start; a++)
+        {
+            values[a] = labeled.value(a);
+        }
+        for (int c = 0; c < this.classifiers.length; c++)
+        {
+            values[c + start] = MultiLabelMetaDataSet.Competence(answers[c],
+                                                                 correct);
+        }
+        this.updatedDataSet.add(new DenseInstance(1.0, values));
+        this.window.add(timestamp);
+        int expired = this.window.expired(timestamp);
+        if (expired > 0)
+        {
+            this.evicted += expired;
+            this.window.removeFirst(expired);
+            int retained = this.updatedDataSet.size() - this.evicted;
+            if (this.evicted >= retained)
+            {
+                this.updatedDataSet = new Instances(this.updatedDataSet,
+                        this.evicted, retained);
+                this.evicted = 0;
+            }
+        }
+        this.pendingUpdates++;
+        if (this.pendingUpdates >= this.refreshInterval)
+        {
+            this.refresh();
+        }
+    }
+
+    /**
+     * Trains the multi-label algorithm again on a copy of the retained
+     * meta-instances.
+     */
+    private void refresh() throws Exception
+    {
+        MultiLabelInstances dataSet = new MultiLabelInstances(
+                new Instances(this.updatedDataSet, this.evicted,
+                              this.updatedDataSet.size() - this.evicted),
+                this.selectionDataSet.getLabelsMetaData());
+        synchronized (this.mlAlgorithm)
+        {
+            this.mlAlgorithm.build(dataSet);
+        }
+        this.selectionDataSet = dataSet;
+        this.pendingUpdates = 0;
     }
 
     @Override
     public double[] distributionForInstance(Instance instance) throws Exception
     {
-        this.configureCombiner(instance);
-        return this.combiner.distributionForInstance(instance);
+        QueryContext context = this.newContext(instance, null);
+        int[] selected = this.getQueryBuffers().selected;
+        int size = this.select(context, selected);
+        return Combiners.Distribution(this.combiner, context, selected, size,
+                                      null);
+    }
+
+    @Override
+    public double[][] distributionsForInstances(Instances instances)
+            throws Exception
+    {
+        if (!this.canCombineInBatch(instances))
+        {
+            return DynamicEnsembleSelection.super.distributionsForInstances(
+                    instances);
+        }
+        double[][] labels = null;
+        if (this.getConsensusGate() != null)
+        {
+            labels = this.poolEvaluator.labels(
+                    this.classifiers, this.getRepresentatives(), instances);
+        }
+        int[][] selections = new int[instances.size()][this.classifiers.length];
+        int[] sizes = new int[instances.size()];
+        for (int i = 0; i < instances.size(); i++)
+        {
+            QueryContext context = this.newContext(
+                    instances.get(i), labels == null ? null : labels[i]);
+            sizes[i] = this.select(context, selections[i]);
+        }
+        return Combiners.Average(this.classifiers, instances, selections,
+                                 sizes, this.getRepresentatives(),
+                                 this.poolEvaluator);
     }
 
     @Override
@@ -353,53 +722,203 @@ public class MultiLabelDES implements DynamicEnsembleSelection
     public Classifier[] selectClassifiers(Instance testInstance)
             throws Exception
     {
-        boolean[] bipartition = this.getBipartition(testInstance);
-        List<Classifier> classifiers = new ArrayList<Classifier>();
-        for (int c = 0; c < this.classifiers.length; c++)
+        int[] selected = this.getQueryBuffers().selected;
+        int size = this.selectCompetent(testInstance, selected);
+        Classifier[] ensemble = new Classifier[size];
+        for (int s = 0; s < size; s++)
         {
-            if (bipartition[c]) classifiers.add(this.classifiers[c]);
+            ensemble[s] = this.classifiers[selected[s]];
         }
-        Classifier[] aux = new Classifier[classifiers.size()];
-        return classifiers.toArray(aux);
+        return ensemble;
     }
 
     /**
-     * Calls the combiner's setClassifiers with a list of classifiers in the
-     * MultiLabel algorithm's bipartition.
-     * @param instance - The instance being classified. It is used to get the
-     * bipartition.
-     * @throws Exception - Thrown by getBipartition.
+     * Selects the classifiers in the MultiLabel algorithm's bipartition, or
+     * the entire pool if the bipartition is empty or the consensus gate fires.
+     * They are handed to the combiner along with the instance, so concurrent
+     * classifications do not interfere with each other.
+     * @param context - The answers of the pool for the instance being
+     * classified. The instance is used to get the bipartition.
+     * @param selected - Output array, with one position per classifier in the
+     * pool, which will hold the indexes of the selected classifiers.
+     * @return How many classifiers were selected.
+     * @throws Exception - Thrown by the multi-label algorithm.
      * @since 0.1
      */
-    private void configureCombiner(Instance instance) throws Exception
+    private int select(QueryContext context, int[] selected) throws Exception
     {
-        Classifier[] selectedClassifiers = this.selectClassifiers(instance);
-        if (selectedClassifiers.length > 0) {
-            this.combiner.setClassifiers(selectedClassifiers);
-        } else {
-            this.combiner.setClassifiers(this.classifiers);
+        int size = 0;
+        if (Consensus(this.getConsensusGate(), context) < 0)
+        {
+            size = this.selectCompetent(context.getInstance(), selected);
         }
+        if (size > 0) return size;
+        for (int c = 0; c < this.classifiers.length; c++) selected[c] = c;
+        return this.classifiers.length;
+    }
+
+    /**
+     * Creates the context which remembers the answers of the pool for a
+     * single query, running each group of identical members once.
+     */
+    private QueryContext newContext(Instance instance, double[] labels)
+    {
+        return new QueryContext(instance, this.classifiers,
+                                this.poolEvaluator, this.getRepresentatives(),
+                                labels);
+    }
+
+    /**
+     * Retrieves the position of the member which answers for each member of
+     * the pool, or null if every member answers for itself.
+     */
+    private int[] getRepresentatives()
+    {
+        return this.deduplication == null ? null :
+               this.deduplication.getRepresentatives();
+    }
+
+    /**
+     * Checks whether the configured combiner can be replaced by the batch
+     * kernel for the given instances. Otherwise, they are classified one at a
+     * time.
+     */
+    private boolean canCombineInBatch(Instances instances)
+    {
+        return instances.classAttribute().isNominal() &&
+               Combiners.IsAverageVote(this.combiner);
+    }
+
+    /**
+     * Writes the indexes of the classifiers in the bipartition of the given
+     * instance, reading the multi-label output directly instead of building
+     * the bipartition.
+     * @return How many classifiers are in the bipartition.
+     */
+    private int selectCompetent(Instance instance, int[] selected)
+            throws Exception
+    {
+        return this.selectCompetent(this.makePrediction(instance),
+                                    this.threshold, selected);
+    }
+
+    /**
+     * Writes the indexes of the classifiers in the bipartition formed from
+     * the given multi-label output with the given threshold.
+     * @return How many classifiers are in the bipartition.
+     */
+    private int selectCompetent(MultiLabelOutput output, Double threshold,
+            int[] selected)
+    {
+        int size = 0;
+        if (output.hasConfidences() && threshold != null)
+        {
+            double[] confidence = output.getConfidences();
+            double cut = threshold;
+            for (int c = 0; c < this.classifiers.length; c++)
+            {
+                if (confidence[c] > cut) selected[size++] = c;
+            }
+        }
+        else
+        {
+            boolean[] bipartition = output.getBipartition();
+            for (int c = 0; c < this.classifiers.length; c++)
+            {
+                if (bipartition[c]) selected[size++] = c;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Runs the multi-label algorithm over the meta-instance of the given
+     * instance.
+     */
+    private MultiLabelOutput makePrediction(Instance instance)
+            throws Exception
+    {
+        Instance data = this.getMultiLabelInstanceForClassification(instance);
+        // multi-label learners keep per-query state (e.g., MLkNN's search)
+        synchronized (this.mlAlgorithm)
+        {
+            return this.mlAlgorithm.makePrediction(data);
+        }
+    }
+
+    /**
+     * Retrieves the buffers of the current thread, replacing them if the
+     * approach was built again with a different shape.
+     */
+    private QueryBuffers getQueryBuffers()
+    {
+        QueryBuffers buffers = this.queryBuffers.get();
+        if (buffers == null || buffers.header != this.metaHeader ||
+            buffers.selected.length != this.classifiers.length)
+        {
+            buffers = new QueryBuffers(this.metaHeader,
+                                       this.classifiers.length);
+            this.queryBuffers.set(buffers);
+        }
+        return buffers;
     }
 
     /**
      * When the instance comes in for classification, it doesn't have all the
      * needed attributes, since it lacks the multiple labels. This helper
-     * method adds those attributes, so you can pass the instance to the
-     * multilabel algorithm's makePrediction method.
+     * method copies the instance's attributes into the meta-instance of the
+     * current thread, whose labels stay missing, so you can pass it to the
+     * multilabel algorithm's makePrediction method. The meta-instance is
+     * overwritten by the next query made in the same thread.
      * @param instance - The instance being classified.
      * @return The Instance ready for use in makePrediction.
      * @since 0.1
      */
     private Instance getMultiLabelInstanceForClassification(Instance instance)
     {
-        Instances aux = new Instances("Phony", this.attributeInfo, 1);
-        Instance data = new DenseInstance(this.attributeInfo.size());
-        int numAttrs = this.attributeInfo.size() - this.classifiers.length;
+        QueryBuffers buffers = this.getQueryBuffers();
+        int numAttrs = this.metaHeader.numAttributes() -
+                       this.classifiers.length;
         for (int a = 0; a < numAttrs; a++)
         {
-            data.setValue(aux.attribute(a),
-                          instance.value(a));
+            buffers.values[a] = instance.value(a);
+        }
+        return buffers.metaInstance;
+    }
+
+    /**
+     * Meta-instance and selection buffer reused by the queries of a thread.
+     */
+    private static class QueryBuffers
+    {
+        /**
+         * The header the meta-instance was built for.
+         */
+        final Instances header;
+
+        /**
+         * The values of the meta-instance, which it reads without copying.
+         */
+        final double[] values;
+
+        /**
+         * The meta-instance handed to the multi-label algorithm.
+         */
+        final Instance metaInstance;
+
+        /**
+         * The indexes of the selected classifiers.
+         */
+        final int[] selected;
+
+        QueryBuffers(Instances header, int poolSize)
+        {
+            this.header = header;
+            this.values = new double[header.numAttributes()];
+            Arrays.fill(this.values, Utils.missingValue());
+            this.metaInstance = new DenseInstance(1.0, this.values);
+            this.metaInstance.setDataset(header);
+            this.selected = new int[poolSize];
         }
-        return data;
     }
 }
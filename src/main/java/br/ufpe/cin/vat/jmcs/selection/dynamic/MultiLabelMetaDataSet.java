@@ -0,0 +1,238 @@
+/* MultiLabelMetaDataSet.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import br.ufpe.cin.vat.jmcs.utils.MultiLabel;
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import mulan.data.LabelsMetaData;
+import mulan.data.MultiLabelInstances;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Meta-data set on which the multi-label approaches to Dynamic Ensemble
+ * Selection are trained: the attributes of each selection instance followed
+ * by one binary label per member of the pool, telling whether the member got
+ * the instance right. Building it runs the whole pool over the selection data
+ * set, so a single meta-data set can be handed to every
+ * {@link MultiLabelDES} built over the same pool and selection data set,
+ * such as when tuning the threshold or the multi-label algorithm. The
+ * meta-data set must not be changed by the multi-label algorithms it is
+ * shared with.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class MultiLabelMetaDataSet
+{
+    /**
+     * Value of the label of a member which got the instance right.
+     */
+    public static final double COMPETENT = 1.0;
+
+    /**
+     * Value of the label of a member which got the instance wrong.
+     */
+    public static final double INCOMPETENT = 0.0;
+
+    /**
+     * The members of the pool, in the order of their labels.
+     */
+    private final Classifier[] classifiers;
+
+    /**
+     * The selection data set the meta-data set was built from.
+     */
+    private final Instances selectionData;
+
+    /**
+     * The classes predicted by the pool for each selection instance.
+     */
+    private final PredictionMatrix predictions;
+
+    /**
+     * Empty data set with the attributes of the meta-data set.
+     */
+    private final Instances header;
+
+    /**
+     * The meta-instances, along with the description of their labels.
+     */
+    private final MultiLabelInstances dataSet;
+
+    /**
+     * Runs the pool over the selection data set and builds the meta-data set
+     * from its answers.
+     * @param classifiers - The pool of classifiers.
+     * @param selectionData - The selection data set (DSEL), whose class
+     * attribute must be nominal.
+     * @param evaluator - Runs the members of the pool, and then builds the
+     * meta-instances, concurrently if it has an executor.
+     * @throws Exception - In case any of the classifiers cannot classify one
+     * of the instances, or the labels cannot be described.
+     * @since 0.1
+     */
+    public MultiLabelMetaDataSet(Classifier[] classifiers,
+            Instances selectionData, PoolEvaluator evaluator) throws Exception
+    {
+        this(classifiers, selectionData,
+             PredictionMatrix.build(classifiers, selectionData, evaluator),
+             evaluator);
+    }
+
+    /**
+     * Builds the meta-data set from answers the pool already gave over the
+     * selection data set.
+     * @param classifiers - The pool of classifiers.
+     * @param selectionData - The selection data set (DSEL).
+     * @param predictions - The classes predicted by the pool for the
+     * selection data set.
+     * @param evaluator - Builds the meta-instances, concurrently if it has an
+     * executor.
+     * @throws Exception - In case the labels cannot be described.
+     * @since 0.1
+     */
+    public MultiLabelMetaDataSet(Classifier[] classifiers,
+            final Instances selectionData, final PredictionMatrix predictions,
+            PoolEvaluator evaluator) throws Exception
+    {
+        this.classifiers = classifiers.clone();
+        this.selectionData = selectionData;
+        this.predictions = predictions;
+        final int numLabels = classifiers.length;
+        // -1 due to the class label
+        final int numFeatures = selectionData.numAttributes() - 1;
+        ArrayList<Attribute> attributeInfo =
+                new ArrayList<Attribute>(numFeatures + numLabels);
+        for (int i = 0; i < selectionData.numAttributes(); i++) {
+            if (i == selectionData.classIndex()) continue;
+            attributeInfo.add(selectionData.attribute(i));
+        }
+        List<String> multiLabelOutput = new ArrayList<String>(2);
+        multiLabelOutput.add("0");
+        multiLabelOutput.add("1");
+        for (int c = 0; c < numLabels; c++) {
+            attributeInfo.add(
+                    new Attribute("Classifier" + c, multiLabelOutput));
+        }
+        this.header = new Instances("Phony", attributeInfo, 0);
+        final double[][] rows = new double[selectionData.size()][];
+        // one block over the whole data set, split by the evaluator
+        evaluator.forEachBlock(1, rows.length, new PoolEvaluator.BlockTask() {
+            @Override
+            public void run(int unused, int from, int to) {
+                for (int n = from; n < to; n++) {
+                    Instance instance = selectionData.get(n);
+                    double correct = instance.classValue();
+                    double[] row = new double[numFeatures + numLabels];
+                    for (int a = 0; a < numFeatures; a++) {
+                        row[a] = instance.value(a);
+                    }
+                    for (int c = 0; c < numLabels; c++) {
+                        row[numFeatures + c] = Competence(
+                                predictions.label(n, c), correct);
+                    }
+                    rows[n] = row;
+                }
+            }
+        });
+        Instances data = new Instances("Selection", attributeInfo,
+                                       rows.length);
+        for (double[] row : rows) data.add(new DenseInstance(1.0, row));
+        int[] labelsIndexes = new int[numLabels];
+        for (int c = 0; c < numLabels; c++) {
+            labelsIndexes[c] = numFeatures + c;
+        }
+        LabelsMetaData metaData =
+                MultiLabel.getLabelsMetaData(data, labelsIndexes);
+        this.dataSet = new MultiLabelInstances(data, metaData);
+    }
+
+    /**
+     * Calculates the label of a member of the pool on a selection instance.
+     * @param answer - The class the member predicted, or a missing value.
+     * @param correct - The true class of the instance.
+     * @return {@link #COMPETENT} if the member got the instance right, and
+     * {@link #INCOMPETENT} otherwise.
+     * @since 0.1
+     */
+    public static double Competence(double answer, double correct)
+    {
+        return Math.abs(answer - correct) < 0.0001 ? COMPETENT : INCOMPETENT;
+    }
+
+    /**
+     * Checks whether this meta-data set was built for the given pool and
+     * selection data set. The members and the data set are compared by
+     * reference, so retrained members or changed instances must be given a
+     * new meta-data set.
+     * @param classifiers - The pool of classifiers.
+     * @param selectionData - The selection data set (DSEL).
+     * @return Whether the meta-data set describes the given pool over the
+     * given selection data set.
+     * @since 0.1
+     */
+    public boolean isFor(Classifier[] classifiers, Instances selectionData)
+    {
+        if (selectionData != this.selectionData ||
+            classifiers.length != this.classifiers.length) {
+            return false;
+        }
+        for (int c = 0; c < classifiers.length; c++) {
+            if (classifiers[c] != this.classifiers[c]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the classes predicted by the pool for the selection data set.
+     * @return The record of the class each classifier predicted for each
+     * selection instance.
+     * @since 0.1
+     */
+    public PredictionMatrix getPredictions()
+    {
+        return this.predictions;
+    }
+
+    /**
+     * Retrieves an empty data set with the attributes of the meta-data set.
+     * @return The header of the meta-instances.
+     * @since 0.1
+     */
+    public Instances getHeader()
+    {
+        return this.header;
+    }
+
+    /**
+     * Retrieves the meta-instances along with the description of their
+     * labels.
+     * @return The multi-label data set.
+     * @since 0.1
+     */
+    public MultiLabelInstances getDataSet()
+    {
+        return this.dataSet;
+    }
+}
@@ -0,0 +1,296 @@
+/* NearestNeighborsBasedDES.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.Arrays;
+
+import br.ufpe.cin.vat.jmcs.combination.Combiners;
+import br.ufpe.cin.vat.jmcs.neighbors.Neighborhood;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Abstract class with the common methods for the Dynamic Ensemble Selection
+ * approaches that pick their sub ensemble from the region of competence of
+ * the test instance, such as KNORA Eliminate and Dynamic Voting. The selected
+ * sub ensemble and its weights are handed to the combination step along with
+ * each query, so a built instance may be shared by several threads. When a
+ * consensus gate is configured and the pool agrees on the test instance, the
+ * whole pool is combined instead.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public abstract class NearestNeighborsBasedDES extends NearestNeighborsBasedDS
+    implements DynamicEnsembleSelection
+{
+    /**
+     * Constructs a new instance with the default parameters.
+     * @since 0.1
+     */
+    public NearestNeighborsBasedDES()
+    {
+        super();
+    }
+
+    /**
+     * Creates a new instance with the given number of nearest neighbors
+     * configured.
+     * @param kNeighbors - Number of nearest neighbors to be searched.
+     * @since 0.1
+     */
+    public NearestNeighborsBasedDES(int kNeighbors)
+    {
+        super(kNeighbors);
+    }
+
+    /**
+     * Selects the sub ensemble which should best classify the test instance.
+     * @param testInstance - The instance to be classified.
+     * @param neighbors - The region of competence of the test instance.
+     * @param selected - Output array, with one position per classifier in the
+     * pool, which will hold the indexes of the selected classifiers in the
+     * order they should be combined.
+     * @return How many classifiers were selected.
+     * @throws Exception - In case any of the classifiers in the pool have any
+     * trouble classifying the test instance.
+     * @since 0.1
+     */
+    protected abstract int selectIndexes(Instance testInstance,
+            Neighborhood neighbors, int[] selected) throws Exception;
+
+    /**
+     * Weights the selected classifiers for their combination. By default, the
+     * selection is not weighted.
+     * @param testInstance - The instance to be classified.
+     * @param neighbors - The region of competence of the test instance.
+     * @param selected - The indexes of the selected classifiers.
+     * @param size - How many classifiers were selected.
+     * @return The weight of each selected classifier, in selection order, or
+     * null if the selection is not weighted.
+     * @throws Exception - In case any of the classifiers in the pool have any
+     * trouble classifying the test instance.
+     * @since 0.1
+     */
+    protected double[] selectionWeights(Instance testInstance,
+            Neighborhood neighbors, int[] selected, int size) throws Exception
+    {
+        return null;
+    }
+
+    /**
+     * Selects the sub ensemble which should best classify the test instance
+     * and weights it for the combination. By default, it asks
+     * {@link #selectIndexes(Instance, Neighborhood, int[])} and then
+     * {@link #selectionWeights(Instance, Neighborhood, int[], int)};
+     * approaches which derive both from the same competence estimates
+     * override it to estimate them once per query.
+     * @param testInstance - The instance to be classified.
+     * @param neighbors - The region of competence of the test instance.
+     * @return The selected classifiers and their weights.
+     * @throws Exception - In case any of the classifiers in the pool have any
+     * trouble classifying the test instance.
+     * @since 0.1
+     */
+    protected Selection select(Instance testInstance, Neighborhood neighbors)
+            throws Exception
+    {
+        Selection selection = new Selection(this.getClassifiers().length);
+        selection.size = this.selectIndexes(testInstance, neighbors,
+                                            selection.indexes);
+        selection.weights = this.selectionWeights(testInstance, neighbors,
+                selection.indexes, selection.size);
+        return selection;
+    }
+
+    @Override
+    public Classifier[] selectClassifiers(Instance testInstance)
+            throws Exception
+    {
+        Neighborhood neighbors = this.getNeighborhood(testInstance,
+                                                      this.getKNeighbors());
+        int[] selected = new int[this.getClassifiers().length];
+        int size = this.selectIndexes(testInstance, neighbors, selected);
+        return this.getEnsemble(selected, size);
+    }
+
+    @Override
+    public double classifyInstance(Instance testInstance) throws Exception
+    {
+        QueryContext context = this.newContext(testInstance);
+        if (this.isConsensus(context)) {
+            int[] pool = this.wholePool();
+            return Combiners.Classify(this.getCombiner(), context, pool,
+                                      pool.length, null);
+        }
+        Neighborhood neighbors = this.getNeighborhood(testInstance,
+                                                      this.getKNeighbors());
+        Selection selection = this.select(testInstance, neighbors);
+        return Combiners.Classify(this.getCombiner(), context,
+                                  selection.indexes, selection.size,
+                                  selection.weights);
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance testInstance)
+            throws Exception
+    {
+        QueryContext context = this.newContext(testInstance);
+        if (this.isConsensus(context)) {
+            int[] pool = this.wholePool();
+            return Combiners.Distribution(this.getCombiner(), context, pool,
+                                          pool.length, null);
+        }
+        Neighborhood neighbors = this.getNeighborhood(testInstance,
+                                                      this.getKNeighbors());
+        Selection selection = this.select(testInstance, neighbors);
+        return Combiners.Distribution(this.getCombiner(), context,
+                                      selection.indexes, selection.size,
+                                      selection.weights);
+    }
+
+    @Override
+    public double[] classifyInstances(Instances testInstances)
+            throws Exception
+    {
+        if (!this.canCombineInBatch(testInstances)) {
+            return super.classifyInstances(testInstances);
+        }
+        double[][] distributions = this.distributionsForInstances(
+                testInstances);
+        double[] labels = new double[distributions.length];
+        for (int i = 0; i < distributions.length; i++) {
+            labels[i] = Combiners.Classify(distributions[i]);
+        }
+        return labels;
+    }
+
+    @Override
+    public double[][] distributionsForInstances(Instances testInstances)
+            throws Exception
+    {
+        if (!this.canCombineInBatch(testInstances)) {
+            return super.distributionsForInstances(testInstances);
+        }
+        Classifier[] pool = this.getClassifiers();
+        int size = testInstances.size();
+        boolean[] disputed = new boolean[size];
+        Arrays.fill(disputed, true);
+        ConsensusGate gate = this.getConsensusGate();
+        if (gate != null) {
+            double[][] labels = this.getPoolLabels(testInstances);
+            for (int i = 0; i < size; i++) {
+                disputed[i] = gate.consensus(labels[i]) < 0;
+            }
+        }
+        Neighborhood[] neighborhoods = this.getNeighborhoods(
+                testInstances, this.getKNeighbors(), disputed);
+        int[][] selections = new int[size][];
+        int[] sizes = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (disputed[i]) {
+                selections[i] = new int[pool.length];
+                sizes[i] = this.selectIndexes(testInstances.get(i),
+                                              neighborhoods[i], selections[i]);
+            } else {
+                selections[i] = this.wholePool();
+                sizes[i] = pool.length;
+            }
+        }
+        return Combiners.Average(pool, testInstances, selections, sizes,
+                                 this.getRepresentatives(),
+                                 this.getPoolEvaluator());
+    }
+
+    /**
+     * Checks whether the consensus gate lets the query skip the region of
+     * competence, in which case the whole pool is combined.
+     */
+    private boolean isConsensus(QueryContext context) throws Exception
+    {
+        return Consensus(this.getConsensusGate(), context) >= 0;
+    }
+
+    /**
+     * Selects every classifier of the pool, in pool order.
+     */
+    private int[] wholePool()
+    {
+        int[] selected = new int[this.getClassifiers().length];
+        for (int s = 0; s < selected.length; s++) selected[s] = s;
+        return selected;
+    }
+
+    /**
+     * Retrieves the selected classifiers of the pool.
+     */
+    private Classifier[] getEnsemble(int[] selected, int size)
+    {
+        Classifier[] pool = this.getClassifiers();
+        Classifier[] ensemble = new Classifier[size];
+        for (int s = 0; s < size; s++) ensemble[s] = pool[selected[s]];
+        return ensemble;
+    }
+
+    /**
+     * Checks whether the configured combiner can be replaced by the batch
+     * kernel for the given instances. Otherwise, they are classified one at a
+     * time.
+     */
+    private boolean canCombineInBatch(Instances testInstances)
+    {
+        return testInstances.classAttribute().isNominal() &&
+               Combiners.IsAverageVote(this.getCombiner());
+    }
+
+    /**
+     * The sub ensemble selected for a test instance, along with the weight of
+     * each of its members.
+     */
+    protected static class Selection
+    {
+        /**
+         * The indexes of the selected classifiers, in the order they should
+         * be combined, with one position per classifier in the pool.
+         */
+        public final int[] indexes;
+
+        /**
+         * How many classifiers were selected.
+         */
+        public int size;
+
+        /**
+         * The weight of each selected classifier, in selection order, or
+         * null if the selection is not weighted.
+         */
+        public double[] weights;
+
+        /**
+         * Creates an empty selection out of a pool of the given size.
+         * @param poolSize - The number of classifiers in the pool.
+         */
+        public Selection(int poolSize)
+        {
+            this.indexes = new int[poolSize];
+            this.size = 0;
+            this.weights = null;
+        }
+    }
+}
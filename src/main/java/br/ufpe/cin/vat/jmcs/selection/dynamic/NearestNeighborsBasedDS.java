@@ -16,10 +16,20 @@
 
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
+import java.util.Arrays;
+
+import br.ufpe.cin.vat.jmcs.neighbors.NeighborIndex;
+import br.ufpe.cin.vat.jmcs.neighbors.Neighborhood;
+import br.ufpe.cin.vat.jmcs.neighbors.WekaNeighborIndex;
+import br.ufpe.cin.vat.jmcs.utils.AtomicBitSet;
+import br.ufpe.cin.vat.jmcs.utils.Labels;
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
 import weka.classifiers.Classifier;
 import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Utils;
 import weka.core.neighboursearch.BallTree;
 import weka.core.neighboursearch.NearestNeighbourSearch;
 
@@ -31,7 +41,7 @@ import weka.core.neighboursearch.NearestNeighbourSearch;
  *
  */
 public abstract class NearestNeighborsBasedDS
-    implements DynamicSelection
+    extends AbstractDynamicSelection
 {
     /**
      * The number of nearest neighbors to be considered by the approach.
@@ -43,8 +53,97 @@ public abstract class NearestNeighborsBasedDS
      * The set of classifiers in the original pool.
      */
     private Classifier[] classifiers;
-    
-    private NearestNeighbourSearch knn;
+
+    /**
+     * The structure used to search the region of competence.
+     */
+    private NeighborIndex neighborIndex;
+
+    /**
+     * Buffer for the region of competence found in each thread.
+     */
+    private final ThreadLocal<Neighborhood> neighborhoods =
+            new ThreadLocal<Neighborhood>();
+
+    /**
+     * Runs the members of the pool for each query.
+     */
+    private PoolEvaluator poolEvaluator;
+
+    /**
+     * Whether the members of the pool which behave identically on the
+     * selection data set are run only once per query.
+     */
+    private boolean deduplicatePool;
+
+    /**
+     * The groups of identical members found when the approach was built, or
+     * null if the pool was not deduplicated.
+     */
+    private PoolDeduplication deduplication;
+
+    /**
+     * Whether the rows of the prediction and oracle matrices are only
+     * computed the first time they are part of a region of competence.
+     */
+    private boolean lazyCompetence;
+
+    /**
+     * Which rows of the prediction and oracle matrices were computed, by
+     * position in the selection data set, or null if all of them were
+     * computed when the approach was built.
+     */
+    private AtomicBitSet computedRows;
+
+    /**
+     * The classes predicted by the pool for each selection instance.
+     */
+    private PredictionMatrix predictions;
+
+    /**
+     * Which classifiers of the pool got each selection instance right.
+     */
+    private OracleMatrix oracle;
+
+    /**
+     * The class values of the selection instances, by position in the
+     * selection data set.
+     */
+    private double[] selectionLabels;
+
+    /**
+     * The selection data set, kept for rebuilding the region of competence
+     * index when it cannot be updated in place. It holds the same instances
+     * as the index, so the retired ones come first.
+     */
+    private Instances selectionData;
+
+    /**
+     * Whether the selection data set is a private copy, which may be changed
+     * by the updates.
+     */
+    private boolean ownsSelectionData;
+
+    /**
+     * Decides which selection instances are evicted as new ones arrive.
+     */
+    private SelectionWindow window;
+
+    /**
+     * The number of evicted selection instances the region of competence
+     * index and the selection data set still hold at their first positions.
+     * The searches skip them, and they are only dropped when the index is
+     * rebuilt, once they are too many.
+     */
+    private int retired;
+
+    /**
+     * The lowest and highest value of each numeric feature among the
+     * instances the region of competence index holds, which set the scale of
+     * its distances. Instances are only retired while they leave the scale
+     * as it is, so the neighbors found are the same as after a rebuild.
+     */
+    private double[] minimums, maximums;
 
     /**
      * Constructs a new instance with the default parameters.
@@ -53,6 +152,9 @@ public abstract class NearestNeighborsBasedDS
     public NearestNeighborsBasedDS() {
         this.kNeighbors = 10;
         this.classifiers = new Classifier[0];
+        this.neighborIndex = new WekaNeighborIndex(new BallTree());
+        this.poolEvaluator = new PoolEvaluator();
+        this.window = new SelectionWindow();
     }
 
     /**
@@ -64,6 +166,9 @@ public abstract class NearestNeighborsBasedDS
     public NearestNeighborsBasedDS(int kNeighbors) {
         this.kNeighbors = kNeighbors;
         this.classifiers = new Classifier[0];
+        this.neighborIndex = new WekaNeighborIndex(new BallTree());
+        this.poolEvaluator = new PoolEvaluator();
+        this.window = new SelectionWindow();
     }
 
     /**
@@ -84,14 +189,195 @@ public abstract class NearestNeighborsBasedDS
     public void setKNeighbors(int k) {
         this.kNeighbors = k;
     }
-    
+
+
+    /**
+     * Retrieves the WEKA algorithm used to search the region of competence.
+     * @return The WEKA search algorithm, or null if the configured neighbor
+     * index is not backed by one.
+     * @since 0.1
+     */
     public NearestNeighbourSearch getKnnAlgorithm() {
-        return this.knn;
+        if (this.neighborIndex instanceof WekaNeighborIndex) {
+            return ((WekaNeighborIndex) this.neighborIndex).getSearch();
+        }
+        return null;
+    }
+
+    /**
+     * Configures the WEKA algorithm used to search the region of competence
+     * (e.g., <code>LinearNNSearch</code>, <code>KDTree</code>,
+     * <code>CoverTree</code> or <code>BallTree</code>). It only takes effect
+     * on the next call to <code>buildClassifier</code>.
+     * @param knn - The WEKA search algorithm.
+     * @since 0.1
+     */
+    public void setKnnAlgorithm(NearestNeighbourSearch knn) {
+        this.neighborIndex = new WekaNeighborIndex(knn);
+    }
+
+    /**
+     * Retrieves the structure used to search the region of competence.
+     * @return The neighbor index.
+     * @since 0.1
+     */
+    public NeighborIndex getNeighborIndex() {
+        return this.neighborIndex;
+    }
+
+    /**
+     * Configures the structure used to search the region of competence, such
+     * as an <code>AutoNeighborIndex</code> that picks the search algorithm
+     * from the selection data set. It only takes effect on the next call to
+     * <code>buildClassifier</code>. The default is a WEKA BallTree.
+     * @param index - The neighbor index.
+     * @since 0.1
+     */
+    public void setNeighborIndex(NeighborIndex index) {
+        this.neighborIndex = index;
+    }
+
+    /**
+     * Retrieves the evaluator which runs the members of the pool for each
+     * query.
+     * @return The pool evaluator.
+     * @since 0.1
+     */
+    public PoolEvaluator getPoolEvaluator() {
+        return this.poolEvaluator;
+    }
+
+    /**
+     * Configures the evaluator which runs the members of the pool for each
+     * query, such as one which fans large pools out to an executor. By
+     * default, the pool runs serially.
+     * @param evaluator - The pool evaluator.
+     * @since 0.1
+     */
+    public void setPoolEvaluator(PoolEvaluator evaluator) {
+        this.poolEvaluator = evaluator;
+    }
+
+    /**
+     * Checks whether the members of the pool which behave identically on the
+     * selection data set are run only once per query.
+     * @return Whether the pool is deduplicated when the approach is built.
+     * @since 0.1
+     */
+    public boolean isDeduplicatePool() {
+        return this.deduplicatePool;
+    }
+
+    /**
+     * Configures whether the members of the pool which behave identically on
+     * the selection data set (the same class and distribution for every
+     * selection instance) are run only once per query, the first of them
+     * answering for the others. The pool keeps its members and their order,
+     * so the selection and combination give the same answers as long as the
+     * identical members keep agreeing on the test instances. It only takes
+     * effect on the next call to <code>buildClassifier</code>, which runs the
+     * suspected duplicates once more on the selection data set. It cannot be
+     * combined with the lazy competence, since finding the duplicates needs
+     * every row of the prediction matrix.
+     * @param deduplicate - Whether the pool should be deduplicated.
+     * @throws IllegalStateException - In case the competence is computed on
+     * demand.
+     * @since 0.1
+     * @see #setLazyCompetence(boolean)
+     */
+    public void setDeduplicatePool(boolean deduplicate) {
+        if (deduplicate && this.lazyCompetence) {
+            throw new IllegalStateException("The pool cannot be deduplicated " +
+                "while the competence is computed on demand.");
+        }
+        this.deduplicatePool = deduplicate;
+    }
+
+    /**
+     * Retrieves the groups of identical members of the pool found when the
+     * approach was built.
+     * @return The pool deduplication, or null if the pool was not
+     * deduplicated.
+     * @since 0.1
+     */
+    public PoolDeduplication getPoolDeduplication() {
+        return this.deduplication;
+    }
+
+    /**
+     * Checks whether the competence of the pool on each selection instance is
+     * only computed the first time the instance is part of a region of
+     * competence.
+     * @return Whether the competence is computed on demand.
+     * @since 0.1
+     */
+    public boolean isLazyCompetence() {
+        return this.lazyCompetence;
+    }
+
+    /**
+     * Configures whether the competence of the pool on each selection
+     * instance (its rows in the prediction and oracle matrices) is only
+     * computed the first time the instance is part of a region of competence,
+     * instead of running the whole pool over the whole selection data set
+     * when the approach is built. Building becomes as cheap as indexing the
+     * selection data set, the first queries pay for the neighbors nobody
+     * touched yet, and the answers are the same. Concurrent queries may fill
+     * rows at the same time. Only the runs of the pool are deferred: both
+     * matrices are still allocated for the whole selection data set when the
+     * approach is built, which takes one byte (two beyond 256 classes) plus
+     * one bit per classifier and selection instance. It only takes effect on
+     * the next call to <code>buildClassifier</code>, and it cannot be
+     * combined with the deduplication of the pool, which needs every row.
+     * @param lazy - Whether the competence should be computed on demand.
+     * @throws IllegalStateException - In case the pool is deduplicated.
+     * @since 0.1
+     * @see #setDeduplicatePool(boolean)
+     */
+    public void setLazyCompetence(boolean lazy) {
+        if (lazy && this.deduplicatePool) {
+            throw new IllegalStateException("The competence cannot be " +
+                "computed on demand while the pool is deduplicated.");
+        }
+        this.lazyCompetence = lazy;
+    }
+
+    /**
+     * Retrieves how many selection instances have their competence computed.
+     * @return The number of computed rows of the prediction and oracle
+     * matrices.
+     * @since 0.1
+     */
+    public int numComputedRows() {
+        if (this.computedRows != null) return this.computedRows.cardinality();
+        return this.predictions == null ? 0 : this.predictions.numInstances();
+    }
+
+    /**
+     * Retrieves the sliding window which decides which selection instances
+     * are evicted as new ones arrive through <code>update</code>.
+     * @return The selection window.
+     * @since 0.1
+     */
+    public SelectionWindow getSelectionWindow() {
+        return this.window;
+    }
+
+    /**
+     * Configures the sliding window which decides which selection instances
+     * are evicted as new ones arrive through <code>update</code>. By default,
+     * no instance is ever evicted.
+     * @param window - The selection window.
+     * @since 0.1
+     */
+    public void setSelectionWindow(SelectionWindow window) {
+        this.window = window;
     }
 
     @Override
     public void setClassifiers(Classifier[] classifiers) {
         this.classifiers = classifiers;
+        this.deduplication = null;
     }
 
     @Override
@@ -99,11 +385,429 @@ public abstract class NearestNeighborsBasedDS
         return this.classifiers;
     }
 
+    /**
+     * Retrieves the classes predicted by the pool for the selection data set
+     * when the approach was built. When the competence is computed on demand,
+     * only the rows of the instances already part of a region of competence
+     * are filled; the others are {@link PredictionMatrix#MISSING}.
+     * @return The record of the class each classifier predicted for each
+     * selection instance.
+     * @since 0.1
+     */
+    public PredictionMatrix getPredictions() {
+        return this.predictions;
+    }
+
+    /**
+     * Retrieves the oracle matrix computed over the selection data set when
+     * the approach was built. When the competence is computed on demand, only
+     * the rows of the instances already part of a region of competence are
+     * filled; the others are all incorrect.
+     * @return The record of which classifiers got each selection instance
+     * right.
+     * @since 0.1
+     */
+    public OracleMatrix getOracle() {
+        return this.oracle;
+    }
+
+    /**
+     * Retrieves the class value of an instance of the selection data set.
+     * @param index - The position of the instance in the selection data set.
+     * @return The class value of the instance.
+     * @since 0.1
+     */
+    protected double getSelectionLabel(int index) {
+        return this.selectionLabels[this.retired + index];
+    }
+
+    /**
+     * Creates the context which remembers the answers of the pool for a
+     * single query, running each group of identical members once.
+     * @param testInstance - The instance to be labeled.
+     * @return An empty query context over the original pool.
+     * @since 0.1
+     */
+    protected QueryContext newContext(Instance testInstance) {
+        return new QueryContext(testInstance, this.classifiers,
+                                this.poolEvaluator, this.getRepresentatives(),
+                                null);
+    }
+
+    /**
+     * Creates the context for a query whose labels were already computed,
+     * such as when a whole batch was labeled at once.
+     * @param testInstance - The instance to be labeled.
+     * @param labels - The class predicted by each member, in pool order.
+     * @return A query context over the original pool.
+     * @since 0.1
+     */
+    protected QueryContext newContext(Instance testInstance, double[] labels) {
+        return new QueryContext(testInstance, this.classifiers,
+                                this.poolEvaluator, this.getRepresentatives(),
+                                labels);
+    }
+
+    /**
+     * Retrieves the class each member of the pool predicts for each instance
+     * of a batch, running each group of identical members once.
+     * @param testInstances - The batch of instances.
+     * @return The predicted class values, indexed by instance and then by
+     * classifier.
+     * @throws Exception - In case any of the classifiers cannot classify one
+     * of the instances.
+     * @since 0.1
+     */
+    protected double[][] getPoolLabels(Instances testInstances)
+            throws Exception
+    {
+        return this.poolEvaluator.labels(this.classifiers,
+                                         this.getRepresentatives(),
+                                         testInstances);
+    }
+
+    /**
+     * Retrieves the position of the member which answers for each member of
+     * the pool.
+     * @return The representatives, or null if every member answers for
+     * itself.
+     * @since 0.1
+     */
+    protected int[] getRepresentatives() {
+        return this.deduplication == null ? null :
+               this.deduplication.getRepresentatives();
+    }
+
+    /**
+     * Searches the k nearest neighbors of the given instance in the selection
+     * data set.
+     * @param testInstance - The instance whose region of competence is needed.
+     * @param k - The number of neighbors to search for.
+     * @return The positions of the neighbors in the selection data set,
+     * nearest first, and their distances to the test instance. The returned
+     * object is reused by the next search made in the same thread.
+     * @throws Exception - In case the search algorithm fails.
+     * @since 0.1
+     */
+    protected Neighborhood getNeighborhood(Instance testInstance, int k)
+            throws Exception
+    {
+        Neighborhood neighborhood = this.neighborhoods.get();
+        int retired = this.retired;
+        if (neighborhood == null || neighborhood.indexes.length < k + retired) {
+            neighborhood = new Neighborhood(k + retired);
+            this.neighborhoods.set(neighborhood);
+        }
+        this.neighborIndex.search(testInstance, k + retired, neighborhood);
+        SkipRetired(neighborhood, k, retired);
+        this.computeRows(neighborhood);
+        return neighborhood;
+    }
+
+    /**
+     * Searches, in a single batch, the k nearest neighbors of the given
+     * instances in the selection data set.
+     * @param testInstances - The instances whose regions of competence are
+     * needed.
+     * @param k - The number of neighbors to search for.
+     * @param needed - Which instances should be searched, or null to search
+     * all of them.
+     * @return The region of competence of each instance, in the same order,
+     * or null for the instances that were not needed.
+     * @throws Exception - In case the search algorithm fails.
+     * @since 0.1
+     */
+    protected Neighborhood[] getNeighborhoods(Instances testInstances, int k,
+            boolean[] needed) throws Exception
+    {
+        Neighborhood[] neighborhoods = new Neighborhood[testInstances.size()];
+        for (int i = 0; i < neighborhoods.length; i++) {
+            if (needed == null || needed[i]) {
+                neighborhoods[i] = new Neighborhood(k + this.retired);
+            }
+        }
+        this.neighborIndex.search(testInstances, k + this.retired,
+                                  neighborhoods);
+        for (Neighborhood neighborhood : neighborhoods) {
+            if (neighborhood == null) continue;
+            SkipRetired(neighborhood, k, this.retired);
+            this.computeRows(neighborhood);
+        }
+        return neighborhoods;
+    }
+
     @Override
     public void buildClassifier(Instances selectionInstances) throws Exception
     {
-        this.knn = new BallTree();
-        this.knn.setInstances(selectionInstances);
+        this.selectionLabels = new double[selectionInstances.size()];
+        for (int n = 0; n < selectionInstances.size(); n++) {
+            this.selectionLabels[n] = selectionInstances.get(n).classValue();
+        }
+        this.neighborIndex.build(selectionInstances);
+        if (this.lazyCompetence) {
+            if (!selectionInstances.classAttribute().isNominal()) {
+                throw new IllegalArgumentException("The provided selection " +
+                    "data must have a nominal class label.");
+            }
+            this.predictions = new PredictionMatrix(
+                    selectionInstances.size(), this.classifiers.length,
+                    selectionInstances.numClasses());
+            this.oracle = new OracleMatrix(selectionInstances.size(),
+                                           this.classifiers.length);
+            this.computedRows = new AtomicBitSet(selectionInstances.size());
+        } else {
+            this.predictions = PredictionMatrix.build(
+                    this.classifiers, selectionInstances, this.poolEvaluator);
+            this.oracle = OracleMatrix.build(this.predictions,
+                                             this.selectionLabels);
+            this.computedRows = null;
+        }
+        this.deduplication = !this.deduplicatePool ? null :
+                PoolDeduplication.Find(this.classifiers, selectionInstances,
+                                       this.predictions, this.poolEvaluator);
+        this.selectionData = selectionInstances;
+        this.ownsSelectionData = false;
+        this.retired = 0;
+        this.measureRanges();
+        this.window.reset(selectionInstances.size(),
+                          System.currentTimeMillis());
+    }
+
+    /**
+     * Adds a labeled instance to the selection data set, stamped with the
+     * current time in milliseconds.
+     * @param labeled - The new selection instance, with its class value set.
+     * @throws Exception - In case any of the classifiers in the pool cannot
+     * classify the instance, or the region of competence cannot be indexed.
+     * @since 0.1
+     * @see #update(Instance, long)
+     */
+    public void update(Instance labeled) throws Exception
+    {
+        this.update(labeled, System.currentTimeMillis());
+    }
+
+    /**
+     * Adds a labeled instance to the selection data set without building the
+     * approach again. The pool runs only on the new instance, whose row is
+     * appended to the prediction and oracle matrices, and the region of
+     * competence index takes it in place whenever it can (otherwise, it is
+     * rebuilt). The instances which fall out of the selection window are
+     * then evicted without copying the others: the matrices only move their
+     * first row, and the index keeps them, skipping them in the searches. It
+     * is only rebuilt once they outnumber an eighth of the selection data set
+     * (or the number of neighbors), or when one of them held the lowest or
+     * highest value of a numeric feature, which scales the distances. An
+     * update thus costs one run of the pool, plus a rebuild of the index
+     * every so often. Updates must not run while other threads are
+     * classifying with this instance.
+     * @param labeled - The new selection instance, with its class value set.
+     * @param timestamp - When the instance arrived, in the same unit as the
+     * maximum age of the selection window.
+     * @throws Exception - In case any of the classifiers in the pool cannot
+     * classify the instance, or the region of competence cannot be indexed.
+     * @since 0.1
+     */
+    public void update(Instance labeled, long timestamp) throws Exception
+    {
+        if (this.predictions == null) {
+            throw new IllegalStateException("You can't call update before " +
+                "buildClassifier.");
+        }
+        if (!this.ownsSelectionData) {
+            this.selectionData = new Instances(this.selectionData);
+            this.ownsSelectionData = true;
+        }
+        int size = this.predictions.numInstances();
+        if (this.window.size() != size) this.window.reset(size, timestamp);
+        double label = labeled.classValue();
+        double[] answers = this.poolEvaluator.labels(
+                this.classifiers, this.getRepresentatives(), labeled);
+        int row = this.predictions.addInstance();
+        this.oracle.addInstance();
+        int position = this.retired + row;
+        if (position == this.selectionLabels.length) {
+            this.selectionLabels = Arrays.copyOf(this.selectionLabels,
+                                                 Math.max(2 * position, 16));
+        }
+        this.selectionLabels[position] = label;
+        this.fillRow(row, answers);
+        if (this.computedRows != null) {
+            if (position >= this.computedRows.size()) {
+                this.computedRows = this.computedRows.copy(
+                        0, Math.max(2 * position, 16));
+            }
+            this.computedRows.set(position);
+        }
+        this.selectionData.add(labeled);
+        this.window.add(timestamp);
+        int expired = this.window.expired(timestamp);
+        boolean rescaled = expired > 0 && this.evict(expired);
+        int remaining = this.predictions.numInstances();
+        if (rescaled ||
+            this.retired > Math.max(this.kNeighbors, remaining / 8) ||
+            !this.neighborIndex.add(labeled)) {
+            this.dropRetired();
+            this.neighborIndex.build(this.selectionData);
+            this.measureRanges();
+        } else {
+            this.widenRanges(labeled);
+        }
+    }
+
+    /**
+     * Drops the oldest selection instances from the matrices, which only
+     * move their first row. The selection data set and the region of
+     * competence index keep them as retired positions until it is rebuilt.
+     * @return Whether any of the evicted instances held the lowest or highest
+     * value of a numeric feature, in which case the index must be rebuilt.
+     */
+    private boolean evict(int count) throws Exception
+    {
+        boolean rescaled = false;
+        for (int n = 0; n < count && !rescaled; n++) {
+            rescaled = this.touchesRanges(
+                    this.selectionData.get(this.retired + n));
+        }
+        this.predictions.removeFirst(count);
+        this.oracle.removeFirst(count);
+        if (this.computedRows != null) {
+            for (int n = 0; n < count; n++) {
+                this.computedRows.clear(this.retired + n);
+            }
+        }
+        this.window.removeFirst(count);
+        this.retired += count;
+        return rescaled;
+    }
+
+    /**
+     * Drops the retired instances from the selection data set, before the
+     * region of competence index is rebuilt over it.
+     */
+    private void dropRetired()
+    {
+        int retired = this.retired;
+        if (retired == 0) return;
+        int remaining = this.selectionData.size() - retired;
+        this.selectionData = new Instances(this.selectionData, retired,
+                                           remaining);
+        System.arraycopy(this.selectionLabels, retired, this.selectionLabels,
+                         0, remaining);
+        if (this.computedRows != null) {
+            this.computedRows = this.computedRows.copy(
+                    retired, this.computedRows.size());
+        }
+        this.retired = 0;
+    }
+
+    /**
+     * Finds the range of each numeric feature among the instances held by
+     * the region of competence index which are not retired.
+     */
+    private void measureRanges()
+    {
+        int numAttributes = this.selectionData.numAttributes();
+        this.minimums = new double[numAttributes];
+        this.maximums = new double[numAttributes];
+        Arrays.fill(this.minimums, Double.NaN);
+        Arrays.fill(this.maximums, Double.NaN);
+        for (int n = this.retired; n < this.selectionData.size(); n++) {
+            this.widenRanges(this.selectionData.get(n));
+        }
+    }
+
+    /**
+     * Widens the range of each numeric feature to cover the given instance.
+     */
+    private void widenRanges(Instance instance)
+    {
+        Instances data = this.selectionData;
+        for (int a = 0; a < this.minimums.length; a++) {
+            if (a == data.classIndex() || !data.attribute(a).isNumeric()) {
+                continue;
+            }
+            double value = instance.value(a);
+            if (Utils.isMissingValue(value)) continue;
+            if (!(value >= this.minimums[a])) this.minimums[a] = value;
+            if (!(value <= this.maximums[a])) this.maximums[a] = value;
+        }
+    }
+
+    /**
+     * Checks whether an instance holds the lowest or highest value of any
+     * numeric feature, so that dropping it may narrow the range.
+     */
+    private boolean touchesRanges(Instance instance)
+    {
+        Instances data = this.selectionData;
+        for (int a = 0; a < this.minimums.length; a++) {
+            if (a == data.classIndex() || !data.attribute(a).isNumeric()) {
+                continue;
+            }
+            double value = instance.value(a);
+            if (value == this.minimums[a] || value == this.maximums[a]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the retired positions of the region of competence index from a
+     * neighborhood searched with that many extra neighbors, and turns the
+     * remaining positions into rows of the current selection data set.
+     */
+    private static void SkipRetired(Neighborhood neighborhood, int k,
+            int retired)
+    {
+        if (retired == 0) return;
+        int size = 0;
+        for (int i = 0; i < neighborhood.size && size < k; i++) {
+            if (neighborhood.indexes[i] < retired) continue;
+            neighborhood.indexes[size] = neighborhood.indexes[i] - retired;
+            neighborhood.distances[size] = neighborhood.distances[i];
+            size++;
+        }
+        neighborhood.size = size;
+    }
+
+    /**
+     * Computes the rows of the neighbors which were never part of a region
+     * of competence, when the competence is computed on demand. Two threads
+     * may compute the same row at once; both write the same values, and the
+     * row is only flagged as computed after it is complete.
+     */
+    private void computeRows(Neighborhood neighborhood) throws Exception
+    {
+        AtomicBitSet computed = this.computedRows;
+        if (computed == null) return;
+        for (int i = 0; i < neighborhood.size; i++) {
+            int row = neighborhood.indexes[i];
+            int position = this.retired + row;
+            if (computed.get(position)) continue;
+            double[] answers = this.poolEvaluator.labels(
+                    this.classifiers, this.selectionData.get(position));
+            this.fillRow(row, answers);
+            computed.set(position);
+        }
+    }
+
+    /**
+     * Records the answers of the pool for a selection instance in its rows
+     * of the prediction and oracle matrices.
+     */
+    private void fillRow(int row, double[] answers)
+    {
+        long[] correct = new long[this.oracle.wordsPerRow()];
+        for (int c = 0; c < answers.length; c++) {
+            if (Utils.isMissingValue(answers[c])) continue;
+            this.predictions.set(row, c, (int) answers[c]);
+            if (Labels.Equals(answers[c], this.getSelectionLabel(row))) {
+                correct[c >>> 6] |= 1L << c;
+            }
+        }
+        this.oracle.setRow(row, correct);
     }
 
     @Override
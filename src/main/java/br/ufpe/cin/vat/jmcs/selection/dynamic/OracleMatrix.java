@@ -0,0 +1,282 @@
+/* OracleMatrix.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.Arrays;
+
+import br.ufpe.cin.vat.jmcs.utils.Labels;
+
+/**
+ * Bit-packed record of which classifiers of the pool correctly label each
+ * instance of the selection data set (DSEL). Each DSEL instance owns a row of
+ * 64-bit words, where the bit <code>c</code> is set whenever the classifier
+ * <code>c</code> labels the instance correctly. The oldest rows can be
+ * dropped without moving the others, which are only shifted back once the
+ * dropped ones outnumber them.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class OracleMatrix
+{
+    /**
+     * Number of instances (rows) in the matrix.
+     */
+    private int numInstances;
+
+    /**
+     * Number of classifiers (columns) in the matrix.
+     */
+    private final int numClassifiers;
+
+    /**
+     * Number of 64-bit words used to store a single row.
+     */
+    private final int wordsPerRow;
+
+    /**
+     * The rows of the matrix, one after the other.
+     */
+    private long[] words;
+
+    /**
+     * Position, in the words, of the row of the first instance. The
+     * positions before it belong to dropped instances.
+     */
+    private int offset;
+
+    /**
+     * Creates a new matrix with every entry set to incorrect.
+     * @param numInstances - The number of instances in the selection data set.
+     * @param numClassifiers - The number of classifiers in the pool.
+     * @since 0.1
+     */
+    public OracleMatrix(int numInstances, int numClassifiers)
+    {
+        this.numInstances = numInstances;
+        this.numClassifiers = numClassifiers;
+        this.wordsPerRow = numWords(numClassifiers);
+        this.words = new long[numInstances * this.wordsPerRow];
+    }
+
+    /**
+     * Compares the recorded predictions of the pool with the true class of
+     * each instance of the selection data set.
+     * @param predictions - The classes predicted by the pool for the selection
+     * data set.
+     * @param labels - The true class of each instance of the selection data
+     * set.
+     * @return The oracle matrix for the given predictions.
+     * @since 0.1
+     */
+    public static OracleMatrix build(PredictionMatrix predictions,
+            double[] labels)
+    {
+        OracleMatrix oracle = new OracleMatrix(predictions.numInstances(),
+                                               predictions.numClassifiers());
+        for (int n = 0; n < predictions.numInstances(); n++) {
+            for (int c = 0; c < predictions.numClassifiers(); c++) {
+                if (Labels.Equals(predictions.label(n, c), labels[n])) {
+                    oracle.set(n, c);
+                }
+            }
+        }
+        return oracle;
+    }
+
+    /**
+     * Calculates how many 64-bit words are needed to hold the given number of
+     * bits.
+     * @param bits - The number of bits to be stored.
+     * @return The number of words needed.
+     */
+    public static int numWords(int bits)
+    {
+        return (bits + 63) >>> 6;
+    }
+
+    /**
+     * Appends a row for a new instance of the selection data set, with every
+     * entry set to incorrect. Rows are allocated in chunks, and the rows of
+     * dropped instances are reclaimed once they outnumber the kept ones, so
+     * appending many instances takes linear time.
+     * @return The index of the new instance.
+     * @since 0.1
+     */
+    public int addInstance()
+    {
+        int used = this.numInstances * this.wordsPerRow;
+        int end = this.offset + used + this.wordsPerRow;
+        if (end > this.words.length) {
+            if (this.offset > 0 && this.offset >= used) {
+                System.arraycopy(this.words, this.offset, this.words, 0,
+                                 used);
+                this.offset = 0;
+                end = used + this.wordsPerRow;
+            } else {
+                this.words = Arrays.copyOf(this.words,
+                        Math.max(2 * this.words.length, end));
+            }
+        }
+        Arrays.fill(this.words, end - this.wordsPerRow, end, 0L);
+        return this.numInstances++;
+    }
+
+    /**
+     * Drops the rows of the oldest instances of the selection data set, so
+     * the instance which was at position <code>count</code> moves to
+     * position 0. No row is moved.
+     * @param count - How many instances to drop.
+     * @since 0.1
+     */
+    public void removeFirst(int count)
+    {
+        this.offset += count * this.wordsPerRow;
+        this.numInstances -= count;
+    }
+
+    /**
+     * Marks the given classifier as correct on the given instance.
+     * @param instance - The index of the instance in the selection data set.
+     * @param classifier - The index of the classifier in the pool.
+     */
+    public void set(int instance, int classifier)
+    {
+        this.words[this.offset + instance * this.wordsPerRow +
+                   (classifier >>> 6)] |= 1L << classifier;
+    }
+
+    /**
+     * Overwrites the whole row of an instance.
+     * @param instance - The index of the instance in the selection data set.
+     * @param row - The bits of the row, with {@link #wordsPerRow()}
+     * positions.
+     */
+    public void setRow(int instance, long[] row)
+    {
+        System.arraycopy(row, 0, this.words,
+                         this.offset + instance * this.wordsPerRow,
+                         this.wordsPerRow);
+    }
+
+    /**
+     * Checks whether the given classifier correctly labels the given instance.
+     * @param instance - The index of the instance in the selection data set.
+     * @param classifier - The index of the classifier in the pool.
+     * @return Whether or not the classifier got the instance right.
+     */
+    public boolean isCorrect(int instance, int classifier)
+    {
+        long word = this.words[this.offset + instance * this.wordsPerRow +
+                               (classifier >>> 6)];
+        return (word & (1L << classifier)) != 0;
+    }
+
+    /**
+     * Retrieves one of the words of an instance's row.
+     * @param instance - The index of the instance in the selection data set.
+     * @param word - The index of the word inside the row.
+     * @return The bits of the classifiers <code>64 * word</code> up to
+     * <code>64 * word + 63</code>.
+     */
+    public long word(int instance, int word)
+    {
+        return this.words[this.offset + instance * this.wordsPerRow + word];
+    }
+
+    /**
+     * Sets, in the given mask, the bits of every classifier in the pool.
+     * @param mask - Output array, with {@link #wordsPerRow()} positions.
+     */
+    public void selectAll(long[] mask)
+    {
+        for (int w = 0; w < this.wordsPerRow; w++) mask[w] = -1L;
+        int remainder = this.numClassifiers & 63;
+        if (remainder != 0) mask[this.wordsPerRow - 1] = (1L << remainder) - 1;
+    }
+
+    /**
+     * Keeps, out of the classifiers in <code>source</code>, only the ones that
+     * are correct on the given instance.
+     * @param instance - The index of the instance in the selection data set.
+     * @param source - Mask of the classifiers to be intersected.
+     * @param target - Output array which will hold the intersection. It may
+     * be the same array as <code>source</code>.
+     * @return Whether any classifier is left in the intersection.
+     */
+    public boolean intersect(int instance, long[] source, long[] target)
+    {
+        int offset = this.offset + instance * this.wordsPerRow;
+        long any = 0L;
+        for (int w = 0; w < this.wordsPerRow; w++) {
+            target[w] = source[w] & this.words[offset + w];
+            any |= target[w];
+        }
+        return any != 0L;
+    }
+
+    /**
+     * Counts, for every classifier, on how many of the given instances it
+     * was correct.
+     * @param instances - The indexes of the instances in the selection data
+     * set.
+     * @param count - How many entries of <code>instances</code> to consider.
+     * @param counts - Output array, with one position per classifier, which
+     * will be overwritten with the counts.
+     */
+    public void countCorrect(int[] instances, int count, int[] counts)
+    {
+        for (int c = 0; c < this.numClassifiers; c++) counts[c] = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = this.offset + instances[i] * this.wordsPerRow;
+            for (int w = 0; w < this.wordsPerRow; w++) {
+                long bits = this.words[offset + w];
+                while (bits != 0) {
+                    counts[(w << 6) + Long.numberOfTrailingZeros(bits)]++;
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of instances (rows) in the matrix.
+     * @return The number of instances in the selection data set.
+     */
+    public int numInstances()
+    {
+        return this.numInstances;
+    }
+
+    /**
+     * Retrieves the number of classifiers (columns) in the matrix.
+     * @return The number of classifiers in the pool.
+     */
+    public int numClassifiers()
+    {
+        return this.numClassifiers;
+    }
+
+    /**
+     * Retrieves the number of 64-bit words used by each row.
+     * @return The number of words per row.
+     */
+    public int wordsPerRow()
+    {
+        return this.wordsPerRow;
+    }
+}
@@ -16,11 +16,10 @@
 
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
+import br.ufpe.cin.vat.jmcs.neighbors.Neighborhood;
 import br.ufpe.cin.vat.jmcs.utils.Enumerables;
-import br.ufpe.cin.vat.jmcs.utils.Labels;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
 import weka.classifiers.Classifier;
-import weka.core.Instance;
-import weka.core.Instances;
 
 /**
  * Implementation of the Overall Local Accuracy (OLA) approach for dynamically
@@ -31,25 +30,32 @@ import weka.core.Instances;
  */
 public class OverallLocalAccuracyDCS extends KnnAccuracyBasedDCS
 {
+    /**
+     * Buffer for the number of correct answers of each classifier in each
+     * thread.
+     */
+    private final ThreadLocal<int[]> correctAnswerCounts =
+            new ThreadLocal<int[]>();
+
     @Override
-    protected int selectClassifier(Instance testInstance,
-            Classifier[] classifiers) throws Exception
+    protected boolean usesTestOutputs()
+    {
+        return false;
+    }
 
+    @Override
+    protected int selectClassifier(QueryContext context,
+            Neighborhood neighbors) throws Exception
     {
-        int n_neighbors = this.getKNeighbors(); 
-        Instances neighbors = this.getKnnAlgorithm()
-                                  .kNearestNeighbours(testInstance,
-                                                      n_neighbors);
-        Integer[] correctAnswerCount = new Integer[classifiers.length];
-        for (int i = 0; i < classifiers.length; i++) {
-            correctAnswerCount[i] = new Integer(0);
-            for (Instance neighbor : neighbors) {
-                double answer = classifiers[i].classifyInstance(neighbor);
-                if (Labels.Equals(answer, neighbor.classValue())) {
-                    correctAnswerCount[i]++;
-                }
-            }
+        Classifier[] classifiers = context.getClassifiers();
+        int[] correctAnswerCount = this.correctAnswerCounts.get();
+        if (correctAnswerCount == null ||
+            correctAnswerCount.length < classifiers.length) {
+            correctAnswerCount = new int[classifiers.length];
+            this.correctAnswerCounts.set(correctAnswerCount);
         }
-        return Enumerables.MaxIndex(correctAnswerCount);
+        this.getOracle().countCorrect(neighbors.indexes, neighbors.size,
+                                      correctAnswerCount);
+        return Enumerables.MaxIndex(correctAnswerCount, classifiers.length);
     }
 }
@@ -0,0 +1,452 @@
+/* OverproduceAndSelect.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import weka.classifiers.Classifier;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Wrapper around any Dynamic Selection technique which statically prunes the
+ * overproduced pool before the technique is built, so each query only pays
+ * for the retained members. The members are picked greedily over the
+ * selection data set (DSEL): first the most accurate one, then, one at a
+ * time, the member which best trades its accuracy for its disagreement with
+ * the ones already picked, until the target size is reached or no remaining
+ * member fits the inference cost budget.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class OverproduceAndSelect implements DynamicSelection
+{
+    /**
+     * The wrapped Dynamic Selection technique.
+     */
+    private final DynamicSelection selector;
+
+    /**
+     * The overproduced pool of classifiers.
+     */
+    private Classifier[] classifiers;
+
+    /**
+     * The maximum number of retained members, or 0 if unbounded.
+     */
+    private int targetSize;
+
+    /**
+     * The maximum share of the whole pool's inference cost spent by the
+     * retained members.
+     */
+    private double costBudget;
+
+    /**
+     * How much the disagreement with the retained members counts, against
+     * the accuracy, when picking the next one.
+     */
+    private double diversityWeight;
+
+    /**
+     * The inference cost of each member of the pool, or null to measure it
+     * over the selection data set.
+     */
+    private double[] costs;
+
+    /**
+     * The inference cost of each member of the pool used by the last
+     * pruning.
+     */
+    private double[] prunedCosts;
+
+    /**
+     * The positions, in the overproduced pool, of the retained members, in
+     * the order they were picked.
+     */
+    private int[] selected;
+
+    /**
+     * Runs the members of the pool over the selection data set.
+     */
+    private PoolEvaluator poolEvaluator;
+
+    /**
+     * Wraps the given technique with a pruning stage which keeps the whole
+     * pool until a target size or a cost budget is configured.
+     * @param selector - The Dynamic Selection technique built over the pruned
+     * pool.
+     * @since 0.1
+     */
+    public OverproduceAndSelect(DynamicSelection selector)
+    {
+        this(selector, 0);
+    }
+
+    /**
+     * Wraps the given technique with a pruning stage which keeps at most the
+     * given number of members.
+     * @param selector - The Dynamic Selection technique built over the pruned
+     * pool.
+     * @param targetSize - The maximum number of retained members, or 0 if
+     * unbounded.
+     * @since 0.1
+     */
+    public OverproduceAndSelect(DynamicSelection selector, int targetSize)
+    {
+        this.selector = selector;
+        this.classifiers = new Classifier[0];
+        this.setTargetSize(targetSize);
+        this.costBudget = 1.0;
+        this.diversityWeight = 0.5;
+        this.poolEvaluator = new PoolEvaluator();
+    }
+
+    /**
+     * Retrieves the wrapped Dynamic Selection technique.
+     * @return The technique built over the pruned pool.
+     * @since 0.1
+     */
+    public DynamicSelection getSelector()
+    {
+        return this.selector;
+    }
+
+    /**
+     * Retrieves the maximum number of retained members.
+     * @return The target size, or 0 if unbounded.
+     * @since 0.1
+     */
+    public int getTargetSize()
+    {
+        return this.targetSize;
+    }
+
+    /**
+     * Configures the maximum number of retained members. It only takes
+     * effect on the next call to <code>buildClassifier</code>.
+     * @param targetSize - The target size, or 0 if unbounded.
+     * @since 0.1
+     */
+    public void setTargetSize(int targetSize)
+    {
+        if (targetSize < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "The target size cannot be negative. (%d < 0)",
+                    targetSize));
+        }
+        this.targetSize = targetSize;
+    }
+
+    /**
+     * Retrieves the maximum share of the whole pool's inference cost spent by
+     * the retained members.
+     * @return The cost budget, in (0, 1].
+     * @since 0.1
+     */
+    public double getCostBudget()
+    {
+        return this.costBudget;
+    }
+
+    /**
+     * Configures the maximum share of the whole pool's inference cost spent
+     * by the retained members; the most accurate member is always retained.
+     * It only takes effect on the next call to <code>buildClassifier</code>.
+     * @param budget - The cost budget, greater than 0 and at most 1.
+     * @since 0.1
+     */
+    public void setCostBudget(double budget)
+    {
+        if (!(budget > 0.0 && budget <= 1.0)) {
+            throw new IllegalArgumentException(String.format(
+                    "The cost budget must be in (0, 1]. (%f)", budget));
+        }
+        this.costBudget = budget;
+    }
+
+    /**
+     * Retrieves how much the disagreement with the retained members counts
+     * when picking the next one.
+     * @return The diversity weight, in [0, 1].
+     * @since 0.1
+     */
+    public double getDiversityWeight()
+    {
+        return this.diversityWeight;
+    }
+
+    /**
+     * Configures how much the disagreement with the retained members counts
+     * when picking the next one: each candidate scores
+     * <code>(1 - weight) * accuracy + weight * disagreement</code>, both
+     * measured over the selection data set. A weight of 0 keeps the most
+     * accurate members.
+     * @param weight - The diversity weight, in [0, 1].
+     * @since 0.1
+     */
+    public void setDiversityWeight(double weight)
+    {
+        if (!(weight >= 0.0 && weight <= 1.0)) {
+            throw new IllegalArgumentException(String.format(
+                    "The diversity weight must be in [0, 1]. (%f)", weight));
+        }
+        this.diversityWeight = weight;
+    }
+
+    /**
+     * Retrieves the inference cost of each member of the pool.
+     * @return The configured costs or, if there are none, the ones measured
+     * by the last build, which may be null.
+     * @since 0.1
+     */
+    public double[] getCosts()
+    {
+        return this.costs != null ? this.costs : this.prunedCosts;
+    }
+
+    /**
+     * Configures the inference cost of each member of the pool, in any unit,
+     * such as its measured latency or its number of parameters. By default,
+     * the time each member takes to label the selection data set is measured
+     * when the approach is built, after a first pass over it has warmed the
+     * member up.
+     * @param costs - The cost of each member, in pool order, or null to
+     * measure them.
+     * @since 0.1
+     */
+    public void setCosts(double[] costs)
+    {
+        this.costs = costs;
+    }
+
+    /**
+     * Retrieves the evaluator which runs the members of the pool over the
+     * selection data set.
+     * @return The pool evaluator.
+     * @since 0.1
+     */
+    public PoolEvaluator getPoolEvaluator()
+    {
+        return this.poolEvaluator;
+    }
+
+    /**
+     * Configures the evaluator which runs the members of the pool over the
+     * selection data set when the approach is built. The measured costs are
+     * always timed in the calling thread, one member at a time.
+     * @param evaluator - The pool evaluator.
+     * @since 0.1
+     */
+    public void setPoolEvaluator(PoolEvaluator evaluator)
+    {
+        this.poolEvaluator = evaluator;
+    }
+
+    /**
+     * Retrieves the positions, in the overproduced pool, of the retained
+     * members.
+     * @return The retained members, in the order they were picked, or null
+     * if the approach was not built yet.
+     * @since 0.1
+     */
+    public int[] getSelected()
+    {
+        return this.selected;
+    }
+
+    @Override
+    public void setClassifiers(Classifier[] classifiers)
+    {
+        this.classifiers = classifiers;
+        this.selected = null;
+        this.prunedCosts = null;
+    }
+
+    /**
+     * Retrieves the consensus gate of the wrapped technique, which checks
+     * the agreement of the pruned pool.
+     */
+    @Override
+    public ConsensusGate getConsensusGate()
+    {
+        return this.selector.getConsensusGate();
+    }
+
+    /**
+     * Configures the consensus gate of the wrapped technique, which checks
+     * the agreement of the pruned pool.
+     */
+    @Override
+    public void setConsensusGate(ConsensusGate gate)
+    {
+        this.selector.setConsensusGate(gate);
+    }
+
+    /**
+     * Retrieves the overproduced pool. The pruned pool is the one configured
+     * in the wrapped technique.
+     * @return The classifiers that compose the original pool.
+     */
+    @Override
+    public Classifier[] getClassifiers()
+    {
+        return this.classifiers;
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception
+    {
+        if (this.costs != null &&
+            this.costs.length != this.classifiers.length) {
+            throw new IllegalArgumentException(String.format(
+                    "There must be one cost per classifier. (%d != %d)",
+                    this.costs.length, this.classifiers.length));
+        }
+        PredictionMatrix predictions = PredictionMatrix.build(
+                this.classifiers, data, this.poolEvaluator);
+        this.prunedCosts = this.costs != null ? this.costs :
+                           this.measureCosts(data);
+        double[] labels = new double[data.size()];
+        for (int n = 0; n < data.size(); n++) {
+            labels[n] = data.get(n).classValue();
+        }
+        OracleMatrix oracle = OracleMatrix.build(predictions, labels);
+        this.selected = this.prune(oracle);
+        Classifier[] pruned = new Classifier[this.selected.length];
+        for (int s = 0; s < pruned.length; s++) {
+            pruned[s] = this.classifiers[this.selected[s]];
+        }
+        this.selector.setClassifiers(pruned);
+        this.selector.buildClassifier(data);
+    }
+
+    @Override
+    public double classifyInstance(Instance instance) throws Exception
+    {
+        return this.selector.classifyInstance(instance);
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception
+    {
+        return this.selector.distributionForInstance(instance);
+    }
+
+    @Override
+    public double[] classifyInstances(Instances instances) throws Exception
+    {
+        return this.selector.classifyInstances(instances);
+    }
+
+    @Override
+    public double[][] distributionsForInstances(Instances instances)
+            throws Exception
+    {
+        return this.selector.distributionsForInstances(instances);
+    }
+
+    @Override
+    public Capabilities getCapabilities()
+    {
+        return this.selector.getCapabilities();
+    }
+
+    /**
+     * Times each member of the pool labeling the selection data set. The
+     * prediction matrix was built by running every member over it, so the
+     * timed pass does not pay for their first, cold run.
+     */
+    private double[] measureCosts(Instances data) throws Exception
+    {
+        double[] measured = new double[this.classifiers.length];
+        for (int c = 0; c < this.classifiers.length; c++) {
+            long start = System.nanoTime();
+            for (int n = 0; n < data.size(); n++) {
+                this.classifiers[c].classifyInstance(data.get(n));
+            }
+            measured[c] = System.nanoTime() - start;
+        }
+        return measured;
+    }
+
+    /**
+     * Picks the retained members greedily.
+     * @return Their positions in the pool, in the order they were picked.
+     */
+    private int[] prune(OracleMatrix oracle)
+    {
+        int poolSize = this.classifiers.length;
+        int numInstances = oracle.numInstances();
+        double[] accuracies = new double[poolSize];
+        double totalCost = 0;
+        for (int c = 0; c < poolSize; c++) {
+            int correct = 0;
+            for (int n = 0; n < numInstances; n++) {
+                if (oracle.isCorrect(n, c)) correct++;
+            }
+            accuracies[c] = numInstances > 0 ?
+                            (double) correct / numInstances : 0.0;
+            totalCost += this.prunedCosts[c];
+        }
+        int limit = this.targetSize > 0 ? Math.min(this.targetSize, poolSize) :
+                    poolSize;
+        double budget = this.costBudget * totalCost;
+        boolean[] taken = new boolean[poolSize];
+        // disagreements of each candidate with the retained members
+        double[] disagreements = new double[poolSize];
+        int[] picked = new int[limit];
+        int size = 0;
+        double spent = 0;
+        while (size < limit) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < poolSize; c++) {
+                if (taken[c]) continue;
+                if (size > 0 && spent + this.prunedCosts[c] > budget) continue;
+                double score = accuracies[c];
+                if (size > 0) {
+                    score = (1 - this.diversityWeight) * accuracies[c] +
+                            this.diversityWeight * disagreements[c] / size;
+                }
+                if (score > bestScore) {
+                    best = c;
+                    bestScore = score;
+                }
+            }
+            if (best < 0) break;
+            taken[best] = true;
+            picked[size++] = best;
+            spent += this.prunedCosts[best];
+            for (int c = 0; c < poolSize; c++) {
+                if (taken[c]) continue;
+                int differ = 0;
+                for (int n = 0; n < numInstances; n++) {
+                    if (oracle.isCorrect(n, c) != oracle.isCorrect(n, best)) {
+                        differ++;
+                    }
+                }
+                disagreements[c] += numInstances > 0 ?
+                                    (double) differ / numInstances : 0.0;
+            }
+        }
+        int[] result = new int[size];
+        System.arraycopy(picked, 0, result, 0, size);
+        return result;
+    }
+}
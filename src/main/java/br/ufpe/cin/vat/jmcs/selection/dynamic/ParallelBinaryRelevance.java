@@ -0,0 +1,190 @@
+/* ParallelBinaryRelevance.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import mulan.classifier.MultiLabelOutput;
+import mulan.classifier.transformation.TransformationBasedMultiLabelLearner;
+import mulan.data.MultiLabelInstances;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Binary relevance meta-learner for {@link MultiLabelDES}: one copy of the
+ * base classifier per label, each trained over the same features to tell
+ * whether its member of the pool is competent. With a pool of L members it
+ * trains L models and runs L models per query, against the L(L+1)/2 of
+ * Calibrated Label Ranking, and the models are trained concurrently when an
+ * evaluator with an executor is given. Labels which are constant over the
+ * training set get no model: their confidence is the constant itself, or 0
+ * for a label missing on every training instance. The
+ * confidence of each label is the probability its model gives the competent
+ * value, and the bipartition keeps the labels whose confidence is at least
+ * 0.5.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class ParallelBinaryRelevance
+    extends TransformationBasedMultiLabelLearner
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Trains the models of the labels, or null to train them serially.
+     */
+    private transient PoolEvaluator evaluator;
+
+    /**
+     * The model of each label, or null for the constant labels.
+     */
+    private Classifier[] models;
+
+    /**
+     * The confidence of each constant label, unused for the others.
+     */
+    private double[] constants;
+
+    /**
+     * Empty data set with the features and the binary class of the models.
+     */
+    private Instances header;
+
+    /**
+     * Creates a learner which trains its models serially.
+     * @param baseClassifier - The classifier copied for each label. It must
+     * handle a binary nominal class.
+     * @since 0.1
+     */
+    public ParallelBinaryRelevance(Classifier baseClassifier)
+    {
+        this(baseClassifier, null);
+    }
+
+    /**
+     * Creates a learner which trains its models through the given evaluator.
+     * @param baseClassifier - The classifier copied for each label. It must
+     * handle a binary nominal class.
+     * @param evaluator - Trains the models, concurrently if it has an
+     * executor, or null to train them serially.
+     * @since 0.1
+     */
+    public ParallelBinaryRelevance(Classifier baseClassifier,
+            PoolEvaluator evaluator)
+    {
+        super(baseClassifier);
+        this.evaluator = evaluator;
+    }
+
+    @Override
+    protected void buildInternal(MultiLabelInstances trainingSet)
+            throws Exception
+    {
+        final Instances data = trainingSet.getDataSet();
+        final int numFeatures = this.featureIndices.length;
+        ArrayList<Attribute> attributes =
+                new ArrayList<Attribute>(numFeatures + 1);
+        for (int f = 0; f < numFeatures; f++) {
+            attributes.add(data.attribute(this.featureIndices[f]));
+        }
+        List<String> competence = new ArrayList<String>(2);
+        competence.add("0");
+        competence.add("1");
+        attributes.add(new Attribute("competent", competence));
+        final Instances header = new Instances("BinaryRelevance", attributes,
+                                               0);
+        header.setClassIndex(numFeatures);
+        // the features are shared by every label's training set
+        final double[][] features = new double[data.size()][];
+        for (int n = 0; n < data.size(); n++) {
+            features[n] = new double[numFeatures];
+            for (int f = 0; f < numFeatures; f++) {
+                features[n][f] = data.get(n).value(this.featureIndices[f]);
+            }
+        }
+        final Classifier[] models = AbstractClassifier.makeCopies(
+                this.baseClassifier, this.numLabels);
+        final double[] constants = new double[this.numLabels];
+        final int[] labelIndices = this.labelIndices;
+        PoolEvaluator evaluator = this.evaluator != null ? this.evaluator :
+                                  new PoolEvaluator();
+        // a single block per label, so every label trains in one task
+        evaluator.forEachBlock(this.numLabels, 1,
+                new PoolEvaluator.BlockTask() {
+            @Override
+            public void run(int l, int from, int to) throws Exception {
+                int label = labelIndices[l];
+                Instances train = new Instances(header, features.length);
+                boolean[] seen = new boolean[2];
+                for (int n = 0; n < features.length; n++) {
+                    double value = data.get(n).value(label);
+                    if (value == 0.0 || value == 1.0) seen[(int) value] = true;
+                    double[] row = new double[numFeatures + 1];
+                    System.arraycopy(features[n], 0, row, 0, numFeatures);
+                    row[numFeatures] = value;
+                    train.add(new DenseInstance(1.0, row));
+                }
+                if (seen[0] && seen[1]) {
+                    models[l].buildClassifier(train);
+                } else {
+                    // never relevant when the label is always missing
+                    models[l] = null;
+                    constants[l] = seen[1] ? 1.0 : 0.0;
+                }
+            }
+        });
+        this.header = header;
+        this.models = models;
+        this.constants = constants;
+    }
+
+    @Override
+    protected MultiLabelOutput makePredictionInternal(Instance instance)
+            throws Exception
+    {
+        int numFeatures = this.featureIndices.length;
+        double[] values = new double[numFeatures + 1];
+        for (int f = 0; f < numFeatures; f++) {
+            values[f] = instance.value(this.featureIndices[f]);
+        }
+        Instance query = new DenseInstance(1.0, values);
+        query.setDataset(this.header);
+        query.setClassMissing();
+        boolean[] bipartition = new boolean[this.numLabels];
+        double[] confidences = new double[this.numLabels];
+        for (int l = 0; l < this.numLabels; l++) {
+            confidences[l] = this.models[l] == null ? this.constants[l] :
+                    this.models[l].distributionForInstance(query)[1];
+            bipartition[l] = confidences[l] >= 0.5;
+        }
+        return new MultiLabelOutput(bipartition, confidences);
+    }
+
+    @Override
+    public String globalInfo()
+    {
+        return "Binary relevance which trains one model per label, " +
+               "concurrently when an executor is available.";
+    }
+}
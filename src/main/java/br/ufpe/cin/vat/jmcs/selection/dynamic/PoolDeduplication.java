@@ -0,0 +1,232 @@
+/* PoolDeduplication.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+/**
+ * Groups of members of a pool which behave identically on the selection data
+ * set (DSEL): they predict the same class and give the same class
+ * distribution for every selection instance. Each group keeps its first
+ * member as the representative, which answers for the whole group, and the
+ * representative's multiplicity is the size of the group. The other members
+ * keep their positions in the pool, so the selection rules and combiners see
+ * the pool they were built with, but they are never run on a test instance:
+ * their answers are read from the representative.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class PoolDeduplication
+{
+    /**
+     * The position of the representative of each member of the pool.
+     */
+    private final int[] representatives;
+
+    /**
+     * The size of the group of each representative, or 0 for the members
+     * answered by another one.
+     */
+    private final int[] multiplicities;
+
+    /**
+     * Number of distinct behaviors in the pool.
+     */
+    private final int numRepresentatives;
+
+    /**
+     * Creates the deduplication of a pool from the representative of each of
+     * its members.
+     * @param representatives - The position of the representative of each
+     * member, which must be the first member of its group.
+     * @since 0.1
+     */
+    public PoolDeduplication(int[] representatives)
+    {
+        this.representatives = representatives;
+        this.multiplicities = new int[representatives.length];
+        int count = 0;
+        for (int c = 0; c < representatives.length; c++) {
+            if (representatives[c] > c) {
+                throw new IllegalArgumentException(String.format(
+                        "The representative of member %d comes after it. " +
+                        "(%d > %d)", c, representatives[c], c));
+            }
+            if (representatives[c] == c) count++;
+            this.multiplicities[representatives[c]]++;
+        }
+        this.numRepresentatives = count;
+    }
+
+    /**
+     * Finds the members of the pool which behave identically on the selection
+     * data set. Members whose recorded predictions differ are told apart
+     * without running them again; the others are run once more on the
+     * selection data set to compare their class distributions.
+     * @param classifiers - The pool of classifiers.
+     * @param selectionInstances - The selection data set (DSEL).
+     * @param predictions - The classes predicted by the pool for the
+     * selection data set.
+     * @return The groups of identical members.
+     * @throws Exception - In case any of the classifiers cannot classify one
+     * of the instances.
+     * @since 0.1
+     */
+    public static PoolDeduplication Find(Classifier[] classifiers,
+            Instances selectionInstances, PredictionMatrix predictions)
+            throws Exception
+    {
+        return Find(classifiers, selectionInstances, predictions,
+                    new PoolEvaluator());
+    }
+
+    /**
+     * Finds the members of the pool which behave identically on the selection
+     * data set, running the suspected duplicates through the given evaluator.
+     * @param classifiers - The pool of classifiers.
+     * @param selectionInstances - The selection data set (DSEL).
+     * @param predictions - The classes predicted by the pool for the
+     * selection data set.
+     * @param evaluator - Runs the suspected duplicates, concurrently if it has
+     * an executor.
+     * @return The groups of identical members.
+     * @throws Exception - In case any of the classifiers cannot classify one
+     * of the instances.
+     * @since 0.1
+     * @see #Find(Classifier[], Instances, PredictionMatrix)
+     */
+    public static PoolDeduplication Find(Classifier[] classifiers,
+            Instances selectionInstances, PredictionMatrix predictions,
+            PoolEvaluator evaluator) throws Exception
+    {
+        Map<Integer, List<Integer>> candidates =
+                new HashMap<Integer, List<Integer>>();
+        boolean[] suspects = new boolean[classifiers.length];
+        boolean any = false;
+        for (int c = 0; c < classifiers.length; c++) {
+            int hash = 1;
+            for (int n = 0; n < predictions.numInstances(); n++) {
+                hash = 31 * hash + predictions.get(n, c);
+            }
+            List<Integer> sameHash = candidates.get(hash);
+            if (sameHash == null) {
+                sameHash = new ArrayList<Integer>();
+                candidates.put(hash, sameHash);
+            }
+            for (int r : sameHash) {
+                if (SamePredictions(predictions, r, c)) {
+                    suspects[r] = true;
+                    suspects[c] = true;
+                    any = true;
+                }
+            }
+            sameHash.add(c);
+        }
+        int[] representatives = new int[classifiers.length];
+        for (int c = 0; c < classifiers.length; c++) representatives[c] = c;
+        if (!any) return new PoolDeduplication(representatives);
+        double[][][] distributions = evaluator.distributions(
+                classifiers, suspects, selectionInstances);
+        for (List<Integer> sameHash : candidates.values()) {
+            for (int i = 0; i < sameHash.size(); i++) {
+                int c = sameHash.get(i);
+                if (!suspects[c]) continue;
+                for (int j = 0; j < i; j++) {
+                    int r = sameHash.get(j);
+                    if (representatives[r] != r) continue;
+                    if (!SamePredictions(predictions, r, c)) continue;
+                    if (Arrays.deepEquals(distributions[r],
+                                          distributions[c])) {
+                        representatives[c] = r;
+                        break;
+                    }
+                }
+            }
+        }
+        return new PoolDeduplication(representatives);
+    }
+
+    /**
+     * Retrieves the position of the representative of each member of the
+     * pool.
+     * @return The representatives, indexed by member. The array belongs to
+     * the deduplication and must not be modified.
+     * @since 0.1
+     */
+    public int[] getRepresentatives()
+    {
+        return this.representatives;
+    }
+
+    /**
+     * Retrieves the representative of a member of the pool.
+     * @param member - The position of the member in the pool.
+     * @return The position of the member which answers for it.
+     * @since 0.1
+     */
+    public int representative(int member)
+    {
+        return this.representatives[member];
+    }
+
+    /**
+     * Retrieves how many members of the pool a member answers for.
+     * @param member - The position of the member in the pool.
+     * @return The size of its group if the member is a representative, or 0
+     * otherwise.
+     * @since 0.1
+     */
+    public int multiplicity(int member)
+    {
+        return this.multiplicities[member];
+    }
+
+    /**
+     * Retrieves the number of members which are actually run on a test
+     * instance.
+     * @return The number of distinct behaviors in the pool.
+     * @since 0.1
+     */
+    public int numRepresentatives()
+    {
+        return this.numRepresentatives;
+    }
+
+    /**
+     * Checks whether two members predicted the same class for every
+     * selection instance.
+     */
+    private static boolean SamePredictions(PredictionMatrix predictions,
+            int first, int second)
+    {
+        for (int n = 0; n < predictions.numInstances(); n++) {
+            if (predictions.get(n, first) != predictions.get(n, second)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
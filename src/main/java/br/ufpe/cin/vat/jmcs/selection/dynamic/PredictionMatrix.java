@@ -0,0 +1,291 @@
+/* PredictionMatrix.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.Arrays;
+
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Record of the class each classifier of the pool predicted for each instance
+ * of the selection data set (DSEL). The predictions are stored as class
+ * indexes, in one column per classifier, using bytes whenever the number of
+ * classes allows it and shorts otherwise. The oldest rows can be dropped
+ * without moving the others, which are only shifted back once the dropped
+ * ones outnumber them.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class PredictionMatrix
+{
+    /**
+     * Value stored when a classifier gives no prediction for an instance.
+     */
+    public static final int MISSING = -1;
+
+    /**
+     * Number of instances (rows) in the matrix.
+     */
+    private int numInstances;
+
+    /**
+     * Position, in the columns, of the row of the first instance. The
+     * positions before it belong to dropped instances.
+     */
+    private int first;
+
+    /**
+     * Number of rows each column has room for.
+     */
+    private int capacity;
+
+    /**
+     * Number of classifiers (columns) in the matrix.
+     */
+    private final int numClassifiers;
+
+    /**
+     * The predictions of each classifier when there are few enough classes
+     * to fit a byte, null otherwise.
+     */
+    private final byte[][] byteColumns;
+
+    /**
+     * The predictions of each classifier when there are too many classes to
+     * fit a byte, null otherwise.
+     */
+    private final short[][] shortColumns;
+
+    /**
+     * Creates a new matrix with every entry set to {@link #MISSING}.
+     * @param numInstances - The number of instances in the selection data set.
+     * @param numClassifiers - The number of classifiers in the pool.
+     * @param numClasses - The number of classes in the problem.
+     * @since 0.1
+     */
+    public PredictionMatrix(int numInstances, int numClassifiers,
+            int numClasses)
+    {
+        if (numClasses > Short.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                    "Too many classes to be stored (%d > %d).", numClasses,
+                    Short.MAX_VALUE));
+        }
+        this.numInstances = numInstances;
+        this.numClassifiers = numClassifiers;
+        this.capacity = numInstances;
+        if (numClasses <= Byte.MAX_VALUE) {
+            this.byteColumns = new byte[numClassifiers][numInstances];
+            this.shortColumns = null;
+            for (byte[] column : this.byteColumns) {
+                Arrays.fill(column, (byte) MISSING);
+            }
+        } else {
+            this.byteColumns = null;
+            this.shortColumns = new short[numClassifiers][numInstances];
+            for (short[] column : this.shortColumns) {
+                Arrays.fill(column, (short) MISSING);
+            }
+        }
+    }
+
+    /**
+     * Runs every classifier in the pool over every instance of the selection
+     * data set, recording the predicted classes.
+     * @param classifiers - The pool of classifiers.
+     * @param selectionInstances - The selection data set (DSEL). Its class
+     * attribute must be nominal.
+     * @return The prediction matrix for the given pool and data set.
+     * @throws Exception - In case any of the classifiers cannot classify one
+     * of the instances.
+     * @since 0.1
+     */
+    public static PredictionMatrix build(Classifier[] classifiers,
+            Instances selectionInstances) throws Exception
+    {
+        return build(classifiers, selectionInstances, new PoolEvaluator());
+    }
+
+    /**
+     * Runs every classifier in the pool over every instance of the selection
+     * data set, recording the predicted classes. The work is split by the
+     * given evaluator over both the pool and the selection data set, and the
+     * matrix is the same whichever way it is split.
+     * @param classifiers - The pool of classifiers.
+     * @param selectionInstances - The selection data set (DSEL). Its class
+     * attribute must be nominal.
+     * @param evaluator - Runs the members of the pool, concurrently if it has
+     * an executor.
+     * @return The prediction matrix for the given pool and data set.
+     * @throws Exception - In case any of the classifiers cannot classify one
+     * of the instances.
+     * @since 0.1
+     */
+    public static PredictionMatrix build(final Classifier[] classifiers,
+            final Instances selectionInstances, PoolEvaluator evaluator)
+            throws Exception
+    {
+        if (!selectionInstances.classAttribute().isNominal()) {
+            throw new IllegalArgumentException("The provided selection data " +
+                "must have a nominal class label.");
+        }
+        final PredictionMatrix predictions = new PredictionMatrix(
+                selectionInstances.size(), classifiers.length,
+                selectionInstances.numClasses());
+        // each block writes its own entries, so no two threads share one
+        evaluator.forEachBlock(classifiers.length, selectionInstances.size(),
+                new PoolEvaluator.BlockTask() {
+            @Override
+            public void run(int c, int from, int to) throws Exception {
+                Classifier classifier = classifiers[c];
+                for (int n = from; n < to; n++) {
+                    double answer = classifier.classifyInstance(
+                            selectionInstances.get(n));
+                    if (!Utils.isMissingValue(answer)) {
+                        predictions.set(n, c, (int) answer);
+                    }
+                }
+            }
+        });
+        return predictions;
+    }
+
+    /**
+     * Appends a row for a new instance of the selection data set, with every
+     * entry set to {@link #MISSING}. Rows are allocated in chunks, and the
+     * rows of dropped instances are reclaimed once they outnumber the kept
+     * ones, so appending many instances takes linear time.
+     * @return The index of the new instance.
+     * @since 0.1
+     */
+    public int addInstance()
+    {
+        int end = this.first + this.numInstances;
+        boolean full = end == this.capacity;
+        boolean compact = full && this.first > 0 &&
+                          this.first >= this.numInstances;
+        if (full && !compact) this.capacity = Math.max(2 * end, 16);
+        int row = compact ? this.numInstances : end;
+        for (int c = 0; c < this.numClassifiers; c++) {
+            if (this.byteColumns != null) {
+                byte[] column = this.byteColumns[c];
+                if (compact) {
+                    System.arraycopy(column, this.first, column, 0,
+                                     this.numInstances);
+                } else if (full) {
+                    column = Arrays.copyOf(column, this.capacity);
+                    this.byteColumns[c] = column;
+                }
+                column[row] = (byte) MISSING;
+            } else {
+                short[] column = this.shortColumns[c];
+                if (compact) {
+                    System.arraycopy(column, this.first, column, 0,
+                                     this.numInstances);
+                } else if (full) {
+                    column = Arrays.copyOf(column, this.capacity);
+                    this.shortColumns[c] = column;
+                }
+                column[row] = (short) MISSING;
+            }
+        }
+        if (compact) this.first = 0;
+        return this.numInstances++;
+    }
+
+    /**
+     * Drops the rows of the oldest instances of the selection data set, so
+     * the instance which was at position <code>count</code> moves to
+     * position 0. No row is moved.
+     * @param count - How many instances to drop.
+     * @since 0.1
+     */
+    public void removeFirst(int count)
+    {
+        this.first += count;
+        this.numInstances -= count;
+    }
+
+    /**
+     * Records the class predicted by a classifier for an instance.
+     * @param instance - The index of the instance in the selection data set.
+     * @param classifier - The index of the classifier in the pool.
+     * @param classIndex - The index of the predicted class, or
+     * {@link #MISSING}.
+     */
+    public void set(int instance, int classifier, int classIndex)
+    {
+        int row = this.first + instance;
+        if (this.byteColumns != null) {
+            this.byteColumns[classifier][row] = (byte) classIndex;
+        } else {
+            this.shortColumns[classifier][row] = (short) classIndex;
+        }
+    }
+
+    /**
+     * Retrieves the class predicted by a classifier for an instance.
+     * @param instance - The index of the instance in the selection data set.
+     * @param classifier - The index of the classifier in the pool.
+     * @return The index of the predicted class, or {@link #MISSING} if the
+     * classifier gave no prediction.
+     */
+    public int get(int instance, int classifier)
+    {
+        int row = this.first + instance;
+        if (this.byteColumns != null) {
+            return this.byteColumns[classifier][row];
+        }
+        return this.shortColumns[classifier][row];
+    }
+
+    /**
+     * Retrieves the class predicted by a classifier for an instance in the
+     * same format returned by <code>classifyInstance</code>.
+     * @param instance - The index of the instance in the selection data set.
+     * @param classifier - The index of the classifier in the pool.
+     * @return The predicted class value, or a missing value if the classifier
+     * gave no prediction.
+     */
+    public double label(int instance, int classifier)
+    {
+        int classIndex = this.get(instance, classifier);
+        return classIndex == MISSING ? Utils.missingValue() : classIndex;
+    }
+
+    /**
+     * Retrieves the number of instances (rows) in the matrix.
+     * @return The number of instances in the selection data set.
+     */
+    public int numInstances()
+    {
+        return this.numInstances;
+    }
+
+    /**
+     * Retrieves the number of classifiers (columns) in the matrix.
+     * @return The number of classifiers in the pool.
+     */
+    public int numClassifiers()
+    {
+        return this.numClassifiers;
+    }
+}
@@ -0,0 +1,249 @@
+/* SelectionWindow.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window over the selection data set (DSEL) of a technique which
+ * keeps learning from labeled instances as they arrive. It remembers when
+ * each instance entered the data set, oldest first, and decides how many of
+ * the oldest ones must be evicted, either because the data set holds more
+ * than a maximum number of instances (FIFO) or because they are older than a
+ * maximum age. Evictions may be deferred until a batch of them is due, since
+ * each eviction rebuilds the structures which cannot forget instances one at
+ * a time; the data set then holds at most
+ * <code>maxSize + evictionBatch - 1</code> instances.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class SelectionWindow
+{
+    /**
+     * The maximum number of instances, or 0 if unbounded.
+     */
+    private int maxSize;
+
+    /**
+     * The maximum age of an instance, or 0 if instances never expire.
+     */
+    private long maxAge;
+
+    /**
+     * How many evictions must be due before they are carried out.
+     */
+    private int evictionBatch;
+
+    /**
+     * When each instance entered the data set, oldest first, starting at
+     * the position of the oldest instance.
+     */
+    private long[] timestamps;
+
+    /**
+     * Position of the oldest instance in the timestamps. The positions
+     * before it belong to forgotten instances.
+     */
+    private int first;
+
+    /**
+     * Number of instances in the data set.
+     */
+    private int size;
+
+    /**
+     * Creates a window which never evicts any instance.
+     * @since 0.1
+     */
+    public SelectionWindow()
+    {
+        this(0, 0);
+    }
+
+    /**
+     * Creates a window with the given bounds, evicting instances as soon as
+     * they fall out of it.
+     * @param maxSize - The maximum number of instances, or 0 if unbounded.
+     * @param maxAge - The maximum age of an instance, in the unit of the
+     * timestamps (milliseconds, by default), or 0 if instances never expire.
+     * @since 0.1
+     */
+    public SelectionWindow(int maxSize, long maxAge)
+    {
+        this.setMaxSize(maxSize);
+        this.setMaxAge(maxAge);
+        this.evictionBatch = 1;
+        this.timestamps = new long[0];
+        this.size = 0;
+    }
+
+    /**
+     * Retrieves the maximum number of instances.
+     * @return The maximum size, or 0 if unbounded.
+     * @since 0.1
+     */
+    public int getMaxSize()
+    {
+        return this.maxSize;
+    }
+
+    /**
+     * Configures the maximum number of instances. Whenever a new instance
+     * would exceed it, the oldest one is evicted.
+     * @param maxSize - The maximum size, or 0 if unbounded.
+     * @since 0.1
+     */
+    public void setMaxSize(int maxSize)
+    {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "The maximum size cannot be negative. (%d < 0)", maxSize));
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Retrieves the maximum age of an instance.
+     * @return The maximum age, or 0 if instances never expire.
+     * @since 0.1
+     */
+    public long getMaxAge()
+    {
+        return this.maxAge;
+    }
+
+    /**
+     * Configures the maximum age of an instance, in the unit of the
+     * timestamps given to the updates (milliseconds, by default).
+     * @param maxAge - The maximum age, or 0 if instances never expire.
+     * @since 0.1
+     */
+    public void setMaxAge(long maxAge)
+    {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "The maximum age cannot be negative. (%d < 0)", maxAge));
+        }
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Retrieves how many evictions must be due before they are carried out.
+     * @return The eviction batch.
+     * @since 0.1
+     */
+    public int getEvictionBatch()
+    {
+        return this.evictionBatch;
+    }
+
+    /**
+     * Configures how many evictions must be due before they are carried out.
+     * Larger batches rebuild the structures less often, at the cost of
+     * keeping a few stale instances for longer.
+     * @param batch - The eviction batch, at least 1.
+     * @since 0.1
+     */
+    public void setEvictionBatch(int batch)
+    {
+        if (batch < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "The eviction batch must be positive. (%d < 1)", batch));
+        }
+        this.evictionBatch = batch;
+    }
+
+    /**
+     * Retrieves the number of instances in the data set.
+     * @return The size of the window's contents.
+     * @since 0.1
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Forgets every instance and records a new data set whose instances all
+     * entered it at the same time.
+     * @param size - The number of instances in the data set.
+     * @param timestamp - When the instances entered the data set.
+     * @since 0.1
+     */
+    public void reset(int size, long timestamp)
+    {
+        this.timestamps = new long[Math.max(size, 16)];
+        Arrays.fill(this.timestamps, 0, size, timestamp);
+        this.first = 0;
+        this.size = size;
+    }
+
+    /**
+     * Records a new instance, which becomes the newest one.
+     * @param timestamp - When the instance entered the data set.
+     * @since 0.1
+     */
+    public void add(long timestamp)
+    {
+        if (this.first + this.size == this.timestamps.length) {
+            if (this.first > 0 && this.first >= this.size) {
+                System.arraycopy(this.timestamps, this.first, this.timestamps,
+                                 0, this.size);
+                this.first = 0;
+            } else {
+                this.timestamps = Arrays.copyOf(this.timestamps,
+                                                Math.max(2 * this.size, 16));
+            }
+        }
+        this.timestamps[this.first + this.size++] = timestamp;
+    }
+
+    /**
+     * Counts how many of the oldest instances must be evicted now.
+     * @param now - The current time.
+     * @return How many instances to evict, which is 0 until the number of
+     * due evictions reaches the eviction batch.
+     * @since 0.1
+     */
+    public int expired(long now)
+    {
+        int expired = 0;
+        if (this.maxSize > 0 && this.size > this.maxSize) {
+            expired = this.size - this.maxSize;
+        }
+        if (this.maxAge > 0) {
+            while (expired < this.size &&
+                   this.timestamps[this.first + expired] <
+                   now - this.maxAge) {
+                expired++;
+            }
+        }
+        return expired >= this.evictionBatch ? expired : 0;
+    }
+
+    /**
+     * Forgets the oldest instances, without moving the others.
+     * @param count - How many instances to forget.
+     * @since 0.1
+     */
+    public void removeFirst(int count)
+    {
+        this.first += count;
+        this.size -= count;
+    }
+}
@@ -0,0 +1,142 @@
+/* AtomicBitSet.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size set of bits which several threads may set concurrently without
+ * locking. Setting a bit publishes every write the setting thread made
+ * before it to any thread which later sees the bit set, so a bit can flag
+ * data as ready to be read.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class AtomicBitSet
+{
+    /**
+     * The bits, 64 per word.
+     */
+    private final AtomicLongArray words;
+
+    /**
+     * The number of bits in the set.
+     */
+    private final int size;
+
+    /**
+     * Creates a set with every bit cleared.
+     * @param size - The number of bits in the set.
+     * @since 0.1
+     */
+    public AtomicBitSet(int size)
+    {
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+        this.size = size;
+    }
+
+    /**
+     * Checks whether a bit is set.
+     * @param index - The position of the bit.
+     * @return Whether the bit is set.
+     * @since 0.1
+     */
+    public boolean get(int index)
+    {
+        return (this.words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Sets a bit.
+     * @param index - The position of the bit.
+     * @return Whether this call set the bit, which is false if it was
+     * already set.
+     * @since 0.1
+     */
+    public boolean set(int index)
+    {
+        int w = index >>> 6;
+        long bit = 1L << index;
+        while (true) {
+            long word = this.words.get(w);
+            if ((word & bit) != 0) return false;
+            if (this.words.compareAndSet(w, word, word | bit)) return true;
+        }
+    }
+
+    /**
+     * Clears a bit.
+     * @param index - The position of the bit.
+     * @return Whether this call cleared the bit, which is false if it was
+     * not set.
+     * @since 0.1
+     */
+    public boolean clear(int index)
+    {
+        int w = index >>> 6;
+        long bit = 1L << index;
+        while (true) {
+            long word = this.words.get(w);
+            if ((word & bit) == 0) return false;
+            if (this.words.compareAndSet(w, word, word & ~bit)) return true;
+        }
+    }
+
+    /**
+     * Counts the set bits.
+     * @return The number of set bits.
+     * @since 0.1
+     */
+    public int cardinality()
+    {
+        int count = 0;
+        for (int w = 0; w < this.words.length(); w++) {
+            count += Long.bitCount(this.words.get(w));
+        }
+        return count;
+    }
+
+    /**
+     * Retrieves the number of bits in the set.
+     * @return The size of the set.
+     * @since 0.1
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Copies a range of this set into a new one, which may be larger.
+     * @param from - The position of the first copied bit, which becomes the
+     * bit 0 of the copy.
+     * @param size - The number of bits in the copy. Bits past the end of this
+     * set are cleared.
+     * @return The copy.
+     * @since 0.1
+     */
+    public AtomicBitSet copy(int from, int size)
+    {
+        AtomicBitSet copy = new AtomicBitSet(size);
+        int end = Math.min(size, this.size - from);
+        for (int i = 0; i < end; i++) {
+            if (this.get(from + i)) copy.set(i);
+        }
+        return copy;
+    }
+}
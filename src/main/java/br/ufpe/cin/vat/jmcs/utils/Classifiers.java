@@ -0,0 +1,150 @@
+/* Classifiers.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.utils;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.BatchPredictor;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Utility class for running a classifier over a whole batch of instances.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public final class Classifiers
+{
+    /**
+     * Whether each type of classifier labels instances with the rule
+     * inherited from {@link AbstractClassifier}.
+     */
+    private static final ClassValue<Boolean> DERIVES_LABEL =
+            new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            if (!AbstractClassifier.class.isAssignableFrom(type)) return false;
+            try {
+                return type.getMethod("classifyInstance", Instance.class)
+                           .getDeclaringClass() == AbstractClassifier.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    /**
+     * Checks whether the class the given classifier predicts is, by
+     * construction, the one {@link #Label(Instance, double[])} reads from its
+     * class distribution, so running <code>classifyInstance</code> as well
+     * would only repeat the work.
+     * @param classifier - A classifier of the pool.
+     * @return Whether the classifier does not override the labeling rule of
+     * {@link AbstractClassifier}.
+     * @since 0.1
+     */
+    public static boolean DerivesLabel(Classifier classifier)
+    {
+        return DERIVES_LABEL.get(classifier.getClass());
+    }
+
+    /**
+     * Picks the class of a distribution the same way
+     * {@link AbstractClassifier#classifyInstance(Instance)} does.
+     * @param instance - The classified instance.
+     * @param distribution - The class distribution given to the instance.
+     * @return The predicted class value, or a missing value if no class got
+     * any support.
+     * @throws Exception - In case the distribution is null.
+     * @since 0.1
+     */
+    public static double Label(Instance instance, double[] distribution)
+            throws Exception
+    {
+        if (distribution == null) {
+            throw new Exception("Null distribution predicted");
+        }
+        switch (instance.classAttribute().type()) {
+        case Attribute.NOMINAL:
+            double max = 0;
+            int maxIndex = 0;
+            for (int i = 0; i < distribution.length; i++) {
+                if (distribution[i] > max) {
+                    maxIndex = i;
+                    max = distribution[i];
+                }
+            }
+            return max > 0 ? maxIndex : Utils.missingValue();
+        case Attribute.NUMERIC:
+        case Attribute.DATE:
+            return distribution[0];
+        default:
+            return Utils.missingValue();
+        }
+    }
+
+    /**
+     * Retrieves the class predicted by the given classifier for each instance
+     * of the batch.
+     * @param classifier - The classifier to be run.
+     * @param instances - The batch of instances.
+     * @return The predicted class value of each instance, in the same order.
+     * @throws Exception - In case the classifier cannot classify one of the
+     * instances.
+     * @since 0.1
+     */
+    public static double[] Labels(Classifier classifier, Instances instances)
+            throws Exception
+    {
+        double[] labels = new double[instances.size()];
+        for (int i = 0; i < instances.size(); i++) {
+            labels[i] = classifier.classifyInstance(instances.get(i));
+        }
+        return labels;
+    }
+
+    /**
+     * Retrieves the class distribution given by the classifier for each
+     * instance of the batch, using WEKA's batch prediction whenever the
+     * classifier implements it more efficiently than one instance at a time.
+     * @param classifier - The classifier to be run.
+     * @param instances - The batch of instances.
+     * @return The class distribution of each instance, in the same order.
+     * @throws Exception - In case the classifier cannot classify one of the
+     * instances.
+     * @since 0.1
+     */
+    public static double[][] Distributions(Classifier classifier,
+            Instances instances) throws Exception
+    {
+        if (classifier instanceof BatchPredictor &&
+            ((BatchPredictor) classifier)
+                .implementsMoreEfficientBatchPrediction()) {
+            return ((BatchPredictor) classifier)
+                .distributionsForInstances(instances);
+        }
+        double[][] distributions = new double[instances.size()][];
+        for (int i = 0; i < instances.size(); i++) {
+            distributions[i] = classifier.distributionForInstance(
+                    instances.get(i));
+        }
+        return distributions;
+    }
+}
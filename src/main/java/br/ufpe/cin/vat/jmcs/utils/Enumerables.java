@@ -74,6 +74,88 @@ public final class Enumerables
         return min;
     }
 
+    /**
+     * Retrieves the position of the element with the greatest value among the
+     * first <code>length</code> elements of the given array.
+     * @param array - The array where the search will be carried.
+     * @param length - How many elements, from the start, should be searched.
+     * @return The position of the greatest element in the array.
+     */
+    public static int MaxIndex(int[] array, int length)
+    {
+        if (array == null) return -1;
+        int max = -1;
+        for (int i = 0; i < length; i++) {
+            if (max < 0 || array[max] < array[i]) max = i;
+        }
+        return max;
+    }
+
+    /**
+     * Retrieves the position of the element with the greatest value among the
+     * first <code>length</code> elements of the given array.
+     * @param array - The array where the search will be carried.
+     * @param length - How many elements, from the start, should be searched.
+     * @return The position of the greatest element in the array.
+     */
+    public static int MaxIndex(double[] array, int length)
+    {
+        if (array == null) return -1;
+        int max = -1;
+        for (int i = 0; i < length; i++) {
+            if (max < 0 || array[max] < array[i]) max = i;
+        }
+        return max;
+    }
+
+    /**
+     * Retrieves the position of the element with the least value among the
+     * first <code>length</code> elements of the given array.
+     * @param array - The array where the search will be carried.
+     * @param length - How many elements, from the start, should be searched.
+     * @return The position of the least element in the array.
+     */
+    public static int MinIndex(double[] array, int length)
+    {
+        if (array == null) return -1;
+        int min = -1;
+        for (int i = 0; i < length; i++) {
+            if (min < 0 || array[min] > array[i]) min = i;
+        }
+        return min;
+    }
+
+    /**
+     * Retrieves the positions of the <code>count</code> elements with the
+     * least values among the first <code>length</code> elements of the given
+     * array, in ascending order of value. Ties keep the order of their
+     * positions, as in <code>SortIndexes</code>.
+     * @param array - The array where the search will be carried.
+     * @param length - How many elements, from the start, should be searched.
+     * @param count - How many positions should be retrieved.
+     * @param indexes - Output array which will hold the positions found.
+     * @return How many positions were written, which is less than
+     * <code>count</code> only if the array has fewer elements.
+     */
+    public static int MinIndexes(double[] array, int length, int count,
+            int[] indexes)
+    {
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            int pos = size;
+            while (pos > 0 &&
+                   Double.compare(array[indexes[pos - 1]], array[i]) > 0) {
+                if (pos < count) indexes[pos] = indexes[pos - 1];
+                pos--;
+            }
+            if (pos < count) {
+                indexes[pos] = i;
+                if (size < count) size++;
+            }
+        }
+        return size;
+    }
+
     /**
      * Sorts the given array, but instead of returning the sorted array, returns
      * an array of the indexes of the elements in their sorted order.
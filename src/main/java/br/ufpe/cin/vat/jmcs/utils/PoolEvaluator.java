@@ -0,0 +1,473 @@
+/* PoolEvaluator.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Runs the members of a pool of classifiers and gathers their answers into
+ * primitive arrays. When an executor is configured and the pool is large
+ * enough, the members are split in chunks which run concurrently, the first
+ * one in the calling thread; otherwise they run one after the other. The
+ * classifiers must then be safe for concurrent use.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class PoolEvaluator
+{
+    /**
+     * Default smallest pool evaluated concurrently.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 32;
+
+    /**
+     * The executor which runs the chunks of the pool, or null to always run
+     * the pool serially.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The smallest pool evaluated concurrently.
+     */
+    private int parallelThreshold;
+
+    /**
+     * In how many chunks the pool is split.
+     */
+    private int numChunks;
+
+    /**
+     * Creates a new evaluator which always runs the pool serially.
+     * @since 0.1
+     */
+    public PoolEvaluator()
+    {
+        this(null);
+    }
+
+    /**
+     * Creates a new evaluator which fans the pool out to the given executor,
+     * such as a <code>ForkJoinPool</code>, in as many chunks as there are
+     * processors.
+     * @param executor - The executor which runs the chunks of the pool, or
+     * null to always run the pool serially.
+     * @since 0.1
+     */
+    public PoolEvaluator(ExecutorService executor)
+    {
+        this.executor = executor;
+        this.parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+        this.numChunks = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Retrieves the executor which runs the chunks of the pool.
+     * @return The executor, or null if the pool always runs serially.
+     * @since 0.1
+     */
+    public ExecutorService getExecutor()
+    {
+        return this.executor;
+    }
+
+    /**
+     * Configures the executor which runs the chunks of the pool.
+     * @param executor - The executor, or null to always run the pool
+     * serially.
+     * @since 0.1
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Retrieves the smallest pool evaluated concurrently.
+     * @return The parallel threshold.
+     * @since 0.1
+     */
+    public int getParallelThreshold()
+    {
+        return this.parallelThreshold;
+    }
+
+    /**
+     * Configures the smallest pool evaluated concurrently. Smaller pools run
+     * serially, since handing them to other threads costs more than it saves.
+     * @param threshold - The parallel threshold.
+     * @since 0.1
+     */
+    public void setParallelThreshold(int threshold)
+    {
+        this.parallelThreshold = threshold;
+    }
+
+    /**
+     * Retrieves in how many chunks the pool is split.
+     * @return The number of chunks.
+     * @since 0.1
+     */
+    public int getNumChunks()
+    {
+        return this.numChunks;
+    }
+
+    /**
+     * Configures in how many chunks the pool is split when it is evaluated
+     * concurrently.
+     * @param chunks - The number of chunks, at least 1.
+     * @since 0.1
+     */
+    public void setNumChunks(int chunks)
+    {
+        if (chunks < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "There must be at least one chunk. (%d < 1)", chunks));
+        }
+        this.numChunks = chunks;
+    }
+
+    /**
+     * Retrieves the class each classifier predicts for the instance.
+     * @param classifiers - The pool of classifiers.
+     * @param instance - The instance to be classified.
+     * @return The predicted class value of each classifier, in pool order.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public double[] labels(final Classifier[] classifiers,
+            final Instance instance) throws Exception
+    {
+        final double[] labels = new double[classifiers.length];
+        this.forEach(classifiers.length, new Task() {
+            @Override
+            public void run(int c) throws Exception {
+                labels[c] = classifiers[c].classifyInstance(instance);
+            }
+        });
+        return labels;
+    }
+
+    /**
+     * Retrieves the class each classifier predicts for the instance, running
+     * only the members which answer for themselves.
+     * @param classifiers - The pool of classifiers.
+     * @param representatives - The position of the member which answers for
+     * each member of the pool, or null if every member answers for itself.
+     * @param instance - The instance to be classified.
+     * @return The predicted class value of each classifier, in pool order.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public double[] labels(Classifier[] classifiers, int[] representatives,
+            Instance instance) throws Exception
+    {
+        if (representatives == null) return this.labels(classifiers, instance);
+        double[] distinct = this.labels(Distinct(classifiers, representatives),
+                                        instance);
+        int[] positions = Positions(representatives);
+        double[] labels = new double[classifiers.length];
+        for (int c = 0; c < classifiers.length; c++) {
+            labels[c] = distinct[positions[representatives[c]]];
+        }
+        return labels;
+    }
+
+    /**
+     * Retrieves the class distribution each classifier gives the instance.
+     * @param classifiers - The pool of classifiers.
+     * @param instance - The instance to be classified.
+     * @return The class distribution of each classifier, in pool order.
+     * @throws Exception - In case any of the classifiers cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public double[][] distributions(final Classifier[] classifiers,
+            final Instance instance) throws Exception
+    {
+        final double[][] distributions = new double[classifiers.length][];
+        this.forEach(classifiers.length, new Task() {
+            @Override
+            public void run(int c) throws Exception {
+                distributions[c] = classifiers[c].distributionForInstance(
+                        instance);
+            }
+        });
+        return distributions;
+    }
+
+    /**
+     * Retrieves the class each classifier predicts for each instance of a
+     * batch. Each classifier labels the whole batch in a single pass.
+     * @param classifiers - The pool of classifiers.
+     * @param instances - The batch of instances.
+     * @return The predicted class values, indexed by instance and then by
+     * classifier.
+     * @throws Exception - In case any of the classifiers cannot classify one
+     * of the instances.
+     * @since 0.1
+     */
+    public double[][] labels(final Classifier[] classifiers,
+            final Instances instances) throws Exception
+    {
+        final double[][] labels = new double[instances.size()]
+                                            [classifiers.length];
+        this.forEach(classifiers.length, new Task() {
+            @Override
+            public void run(int c) throws Exception {
+                for (int i = 0; i < instances.size(); i++) {
+                    labels[i][c] = classifiers[c].classifyInstance(
+                            instances.get(i));
+                }
+            }
+        });
+        return labels;
+    }
+
+    /**
+     * Retrieves the class each classifier predicts for each instance of a
+     * batch, running only the members which answer for themselves.
+     * @param classifiers - The pool of classifiers.
+     * @param representatives - The position of the member which answers for
+     * each member of the pool, or null if every member answers for itself.
+     * @param instances - The batch of instances.
+     * @return The predicted class values, indexed by instance and then by
+     * classifier.
+     * @throws Exception - In case any of the classifiers cannot classify one
+     * of the instances.
+     * @since 0.1
+     */
+    public double[][] labels(Classifier[] classifiers, int[] representatives,
+            Instances instances) throws Exception
+    {
+        if (representatives == null) {
+            return this.labels(classifiers, instances);
+        }
+        double[][] distinct = this.labels(
+                Distinct(classifiers, representatives), instances);
+        int[] positions = Positions(representatives);
+        double[][] labels = new double[instances.size()][classifiers.length];
+        for (int i = 0; i < instances.size(); i++) {
+            for (int c = 0; c < classifiers.length; c++) {
+                labels[i][c] = distinct[i][positions[representatives[c]]];
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Retrieves the class distribution each of the needed classifiers gives
+     * each instance of a batch, through
+     * {@link Classifiers#Distributions(Classifier, Instances)}.
+     * @param classifiers - The pool of classifiers.
+     * @param needed - Which classifiers should be run, or null to run all of
+     * them.
+     * @param instances - The batch of instances.
+     * @return The class distributions, indexed by classifier and then by
+     * instance, or null for the classifiers that were not needed.
+     * @throws Exception - In case any of the classifiers cannot classify one
+     * of the instances.
+     * @since 0.1
+     */
+    public double[][][] distributions(final Classifier[] classifiers,
+            final boolean[] needed, final Instances instances) throws Exception
+    {
+        final double[][][] distributions =
+                new double[classifiers.length][][];
+        this.forEach(classifiers.length, new Task() {
+            @Override
+            public void run(int c) throws Exception {
+                if (needed == null || needed[c]) {
+                    distributions[c] = Classifiers.Distributions(
+                            classifiers[c], instances);
+                }
+            }
+        });
+        return distributions;
+    }
+
+    /**
+     * Retrieves the members of the pool which answer for themselves, in pool
+     * order.
+     */
+    private static Classifier[] Distinct(Classifier[] classifiers,
+            int[] representatives)
+    {
+        List<Classifier> distinct = new ArrayList<Classifier>();
+        for (int c = 0; c < classifiers.length; c++) {
+            if (representatives[c] == c) distinct.add(classifiers[c]);
+        }
+        return distinct.toArray(new Classifier[distinct.size()]);
+    }
+
+    /**
+     * Maps each member which answers for itself to its position among the
+     * distinct members.
+     */
+    private static int[] Positions(int[] representatives)
+    {
+        int[] positions = new int[representatives.length];
+        int count = 0;
+        for (int c = 0; c < representatives.length; c++) {
+            if (representatives[c] == c) positions[c] = count++;
+        }
+        return positions;
+    }
+
+    /**
+     * Work done for a single member of the pool.
+     */
+    interface Task
+    {
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * Work done by a single member of the pool over a contiguous range of
+     * instances.
+     * @author vitordeatorreao
+     * @since 0.1
+     *
+     */
+    public interface BlockTask
+    {
+        /**
+         * Runs a member of the pool over a range of instances.
+         * @param classifier - The position of the member in the pool.
+         * @param from - The first instance of the range.
+         * @param to - The end of the range, exclusive.
+         * @throws Exception - In case the member fails on any instance.
+         */
+        void run(int classifier, int from, int to) throws Exception;
+    }
+
+    /**
+     * Runs the task over every pair of member of the pool and instance of a
+     * data set, such as when building a selector over its selection data set.
+     * The pairs are taken member by member and split in as many equal chunks
+     * as configured, regardless of the size of the pool, so both large pools
+     * and large data sets use every chunk. Each pair is visited exactly
+     * once, so the outcome does not depend on how the chunks are scheduled.
+     * Without an executor, each member runs over the whole data set in turn.
+     * @param numClassifiers - The size of the pool.
+     * @param numInstances - The size of the data set.
+     * @param task - The work done by a member over a range of instances.
+     * @throws Exception - In case the task fails.
+     * @since 0.1
+     */
+    public void forEachBlock(int numClassifiers, final int numInstances,
+            final BlockTask task) throws Exception
+    {
+        long count = (long) numClassifiers * numInstances;
+        int chunks = (int) Math.min(this.numChunks, count);
+        if (this.executor == null || chunks < 2) {
+            for (int c = 0; c < numClassifiers; c++) {
+                task.run(c, 0, numInstances);
+            }
+            return;
+        }
+        this.split(count, chunks, new Range() {
+            @Override
+            public void run(long from, long to) throws Exception {
+                while (from < to) {
+                    int c = (int) (from / numInstances);
+                    int first = (int) (from % numInstances);
+                    int last = (int) Math.min(numInstances,
+                                              first + (to - from));
+                    task.run(c, first, last);
+                    from += last - first;
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the task for every member of a pool of the given size.
+     */
+    void forEach(int count, final Task task) throws Exception
+    {
+        int chunks = Math.min(this.numChunks, count);
+        if (this.executor == null || count < this.parallelThreshold ||
+            chunks < 2) {
+            for (int i = 0; i < count; i++) task.run(i);
+            return;
+        }
+        this.split(count, chunks, new Range() {
+            @Override
+            public void run(long from, long to) throws Exception {
+                for (int i = (int) from; i < to; i++) task.run(i);
+            }
+        });
+    }
+
+    /**
+     * Work done over a contiguous range of positions.
+     */
+    private interface Range
+    {
+        void run(long from, long to) throws Exception;
+    }
+
+    /**
+     * Splits the positions in equal chunks which run concurrently, the first
+     * one in the calling thread.
+     */
+    private void split(long count, int chunks, final Range range)
+            throws Exception
+    {
+        ExecutorService executor = this.executor;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(chunks - 1);
+        try {
+            for (int k = 1; k < chunks; k++) {
+                final long from = count * k / chunks;
+                final long to = count * (k + 1) / chunks;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        range.run(from, to);
+                        return null;
+                    }
+                }));
+            }
+            range.run(0, count / chunks);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) throw (Exception) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw e;
+                }
+            }
+        } finally {
+            for (Future<Void> future : futures) future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/* QueryContext.java
+ * Copyright (C) 2017  Vitor de Albuquerque Torreao
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package br.ufpe.cin.vat.jmcs.utils;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+
+/**
+ * The answers the members of a pool give to a single test instance, computed
+ * on demand and remembered for the rest of the query, so the selection and
+ * the combination steps run each member at most once. Whenever a member
+ * labels instances with the rule inherited from WEKA's
+ * <code>AbstractClassifier</code>, its label is read from its distribution
+ * instead of running it twice, and members known to behave as another one
+ * of the pool read their answers from it. A context belongs to a single query
+ * and must not be shared by several threads.
+ * @author vitordeatorreao
+ * @since 0.1
+ *
+ */
+public class QueryContext
+{
+    /**
+     * The instance being classified.
+     */
+    private final Instance instance;
+
+    /**
+     * The pool of classifiers.
+     */
+    private final Classifier[] classifiers;
+
+    /**
+     * Runs the members of the pool whose answers are missing.
+     */
+    private final PoolEvaluator evaluator;
+
+    /**
+     * The position of the member which answers for each member of the pool,
+     * or null if every member answers for itself.
+     */
+    private final int[] representatives;
+
+    /**
+     * The class predicted by each member, valid where <code>known</code> is
+     * set.
+     */
+    private final double[] labels;
+
+    /**
+     * Which labels were already computed.
+     */
+    private final boolean[] known;
+
+    /**
+     * The class distribution given by each member, or null if it was not
+     * computed yet.
+     */
+    private final double[][] distributions;
+
+    /**
+     * Creates an empty context for the given query.
+     * @param instance - The instance being classified.
+     * @param classifiers - The pool of classifiers.
+     * @param evaluator - Runs the members of the pool whose answers are
+     * missing.
+     * @since 0.1
+     */
+    public QueryContext(Instance instance, Classifier[] classifiers,
+            PoolEvaluator evaluator)
+    {
+        this(instance, classifiers, evaluator, null, null);
+    }
+
+    /**
+     * Creates a context for the given query whose labels were already
+     * computed, such as when a whole batch was labeled at once.
+     * @param instance - The instance being classified.
+     * @param classifiers - The pool of classifiers.
+     * @param evaluator - Runs the members of the pool whose answers are
+     * missing.
+     * @param labels - The class predicted by each member, in pool order.
+     * @since 0.1
+     */
+    public QueryContext(Instance instance, Classifier[] classifiers,
+            PoolEvaluator evaluator, double[] labels)
+    {
+        this(instance, classifiers, evaluator, null, labels);
+    }
+
+    /**
+     * Creates a context for the given query over a pool whose members may be
+     * answered by others which behave identically.
+     * @param instance - The instance being classified.
+     * @param classifiers - The pool of classifiers.
+     * @param evaluator - Runs the members of the pool whose answers are
+     * missing.
+     * @param representatives - The position of the member which answers for
+     * each member of the pool, never after it, or null if every member
+     * answers for itself.
+     * @param labels - The class predicted by each member, in pool order, or
+     * null if they were not computed yet.
+     * @since 0.1
+     */
+    public QueryContext(Instance instance, Classifier[] classifiers,
+            PoolEvaluator evaluator, int[] representatives, double[] labels)
+    {
+        this.instance = instance;
+        this.classifiers = classifiers;
+        this.evaluator = evaluator;
+        this.representatives = representatives;
+        this.labels = new double[classifiers.length];
+        this.known = new boolean[classifiers.length];
+        this.distributions = new double[classifiers.length][];
+        if (labels != null) {
+            System.arraycopy(labels, 0, this.labels, 0, classifiers.length);
+            for (int c = 0; c < classifiers.length; c++) this.known[c] = true;
+        }
+    }
+
+    /**
+     * Retrieves the instance being classified.
+     * @return The test instance.
+     * @since 0.1
+     */
+    public Instance getInstance()
+    {
+        return this.instance;
+    }
+
+    /**
+     * Retrieves the pool of classifiers.
+     * @return The classifiers whose answers are remembered.
+     * @since 0.1
+     */
+    public Classifier[] getClassifiers()
+    {
+        return this.classifiers;
+    }
+
+    /**
+     * Retrieves the class a member of the pool predicts for the instance.
+     * @param index - The position of the member in the pool.
+     * @return The predicted class value.
+     * @throws Exception - In case the member cannot classify the instance.
+     * @since 0.1
+     */
+    public double label(int index) throws Exception
+    {
+        if (!this.known[index]) this.computeLabel(index);
+        return this.labels[index];
+    }
+
+    /**
+     * Retrieves the class each member of the pool predicts for the instance,
+     * running the missing ones through the evaluator.
+     * @return The predicted class value of each member, in pool order. The
+     * array belongs to the context and must not be modified.
+     * @throws Exception - In case any of the members cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public double[] labels() throws Exception
+    {
+        final int[] missing = new int[this.classifiers.length];
+        int size = 0;
+        for (int c = 0; c < this.classifiers.length; c++) {
+            if (!this.known[c] && this.representative(c) == c) {
+                missing[size++] = c;
+            }
+        }
+        this.evaluator.forEach(size, new PoolEvaluator.Task() {
+            @Override
+            public void run(int m) throws Exception {
+                if (!known[missing[m]]) computeLabel(missing[m]);
+            }
+        });
+        for (int c = 0; c < this.classifiers.length; c++) {
+            if (!this.known[c]) this.computeLabel(c);
+        }
+        return this.labels;
+    }
+
+    /**
+     * Retrieves the class distribution a member of the pool gives the
+     * instance.
+     * @param index - The position of the member in the pool.
+     * @return The class distribution, as returned by the member.
+     * @throws Exception - In case the member cannot classify the instance.
+     * @since 0.1
+     */
+    public double[] distribution(int index) throws Exception
+    {
+        if (this.distributions[index] == null) {
+            int representative = this.representative(index);
+            this.distributions[index] = representative != index ?
+                    this.distribution(representative) :
+                    this.classifiers[index].distributionForInstance(
+                            this.instance);
+        }
+        return this.distributions[index];
+    }
+
+    /**
+     * Retrieves the class distributions the selected members of the pool give
+     * the instance, running the missing ones through the evaluator.
+     * @param selected - The positions of the selected members in the pool.
+     * @param size - How many entries of <code>selected</code> are used.
+     * @return The class distribution of each selected member, in selection
+     * order.
+     * @throws Exception - In case any of the members cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public double[][] distributions(int[] selected, int size)
+            throws Exception
+    {
+        this.compute(selected, size);
+        double[][] result = new double[size][];
+        for (int s = 0; s < size; s++) {
+            result[s] = this.distribution(selected[s]);
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the class distributions of the whole pool, indexed by the
+     * position of each member, after running the selected members whose
+     * distributions are missing. Nothing is copied: the members which were
+     * neither selected nor run before have no distribution (null), and the
+     * matrix belongs to the context, so it must not be changed.
+     * @param selected - The positions of the selected members in the pool.
+     * @param size - How many entries of <code>selected</code> are used.
+     * @return The class distribution of each member of the pool, or null.
+     * @throws Exception - In case any of the members cannot classify the
+     * instance.
+     * @since 0.1
+     */
+    public double[][] distributionMatrix(int[] selected, int size)
+            throws Exception
+    {
+        this.compute(selected, size);
+        for (int s = 0; s < size; s++) this.distribution(selected[s]);
+        return this.distributions;
+    }
+
+    /**
+     * Runs, through the evaluator, the representatives of the selected
+     * members whose distributions are missing.
+     */
+    private void compute(int[] selected, int size) throws Exception
+    {
+        // each missing distribution is computed by a single task
+        final int[] missing = new int[size];
+        boolean[] pending = new boolean[this.classifiers.length];
+        int count = 0;
+        for (int s = 0; s < size; s++) {
+            int representative = this.representative(selected[s]);
+            if (this.distributions[representative] == null &&
+                !pending[representative]) {
+                pending[representative] = true;
+                missing[count++] = representative;
+            }
+        }
+        this.evaluator.forEach(count, new PoolEvaluator.Task() {
+            @Override
+            public void run(int m) throws Exception {
+                distribution(missing[m]);
+            }
+        });
+    }
+
+    /**
+     * Computes the label of a member, reading it from the member's
+     * distribution whenever that gives the same answer.
+     */
+    private void computeLabel(int index) throws Exception
+    {
+        Classifier classifier = this.classifiers[index];
+        int representative = this.representative(index);
+        if (representative != index) {
+            this.labels[index] = this.label(representative);
+        } else if (Classifiers.DerivesLabel(classifier)) {
+            this.labels[index] = Classifiers.Label(this.instance,
+                                                   this.distribution(index));
+        } else {
+            this.labels[index] = classifier.classifyInstance(this.instance);
+        }
+        this.known[index] = true;
+    }
+
+    /**
+     * Retrieves the position of the member which answers for the given one.
+     */
+    private int representative(int index)
+    {
+        return this.representatives == null ? index :
+               this.representatives[index];
+    }
+}
@@ -0,0 +1,106 @@
+package br.ufpe.cin.vat.jmcs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.DecisionStump;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Synthetic data sets and pools shared by the tests.
+ */
+public final class TestData
+{
+    private TestData()
+    {
+    }
+
+    /**
+     * Generates gaussian blobs: attribute <code>a</code> of an instance of
+     * class <code>c</code> is drawn from a unit gaussian centered at 1 when
+     * <code>a % numClasses == c</code>, and at 0 otherwise.
+     */
+    public static Instances Blobs(int size, int numAttributes, int numClasses,
+            long seed)
+    {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int a = 0; a < numAttributes; a++) {
+            attributes.add(new Attribute("a" + a));
+        }
+        ArrayList<String> classes = new ArrayList<>();
+        for (int c = 0; c < numClasses; c++) {
+            classes.add(String.valueOf((char) ('a' + c)));
+        }
+        attributes.add(new Attribute("class", classes));
+        Instances data = new Instances("test", attributes, size);
+        data.setClassIndex(numAttributes);
+        Random random = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            int label = random.nextInt(numClasses);
+            double[] values = new double[numAttributes + 1];
+            for (int a = 0; a < numAttributes; a++) {
+                values[a] = random.nextGaussian() +
+                            (a % numClasses == label ? 1 : 0);
+            }
+            values[numAttributes] = label;
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    /**
+     * Generates points for the neighbor searches: gaussian numeric features
+     * and a random binary class.
+     */
+    public static Instances Points(int size, int dimensions, long seed)
+    {
+        ArrayList<Attribute> attrInfo = new ArrayList<Attribute>();
+        for (int a = 0; a < dimensions; a++) {
+            attrInfo.add(new Attribute("numeric" + a));
+        }
+        List<String> labels = new ArrayList<String>(2);
+        labels.add("0");
+        labels.add("1");
+        attrInfo.add(new Attribute("class", labels));
+        Instances dataset = new Instances("Rel", attrInfo, size);
+        dataset.setClassIndex(dimensions);
+        Random random = new Random(seed);
+        for (int n = 0; n < size; n++) {
+            double[] values = new double[dimensions + 1];
+            for (int a = 0; a < dimensions; a++) {
+                values[a] = random.nextGaussian();
+            }
+            values[dimensions] = random.nextInt(2);
+            dataset.add(new DenseInstance(1.0, values));
+        }
+        return dataset;
+    }
+
+    /**
+     * Trains a pool made of a naive Bayes, a J48 tree, a decision stump and
+     * the given number of random trees of depth 3, seeded 1, 2, and so on.
+     */
+    public static Classifier[] Pool(Instances train, int numTrees)
+            throws Exception
+    {
+        Classifier[] pool = new Classifier[3 + numTrees];
+        pool[0] = new NaiveBayes();
+        pool[1] = new J48();
+        pool[2] = new DecisionStump();
+        for (int t = 0; t < numTrees; t++) {
+            RandomTree tree = new RandomTree();
+            tree.setSeed(t + 1);
+            tree.setMaxDepth(3);
+            pool[3 + t] = tree;
+        }
+        for (Classifier classifier : pool) classifier.buildClassifier(train);
+        return pool;
+    }
+}
@@ -0,0 +1,268 @@
+package br.ufpe.cin.vat.jmcs.combination;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import br.ufpe.cin.vat.jmcs.utils.QueryContext;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.meta.Vote;
+import weka.classifiers.rules.ZeroR;
+import weka.classifiers.trees.DecisionStump;
+import weka.classifiers.trees.J48;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+
+public class CombinersTest
+{
+    private static class FixedClassifier extends AbstractClassifier
+    {
+        private static final long serialVersionUID = 1L;
+        private final double[] distribution;
+
+        FixedClassifier(double... distribution)
+        {
+            this.distribution = distribution;
+        }
+
+        @Override
+        public void buildClassifier(Instances data)
+        {
+        }
+
+        @Override
+        public double[] distributionForInstance(Instance instance)
+        {
+            return this.distribution.clone();
+        }
+    }
+
+    @Test
+    public void testIsAverageVote()
+    {
+        assertTrue(Combiners.IsAverageVote(new Vote()));
+        // a weighted vote cannot be replaced by the unweighted average
+        assertFalse(Combiners.IsAverageVote(new WeightedVote()));
+        assertEquals(Vote.AVERAGE_RULE,
+                     Combiners.VoteRule(new WeightedVote()));
+        Vote majority = new Vote();
+        majority.setCombinationRule(new SelectedTag(Vote.MAJORITY_VOTING_RULE,
+                                                    Vote.TAGS_RULES));
+        assertFalse(Combiners.IsAverageVote(majority));
+        assertFalse(Combiners.IsAverageVote(null));
+    }
+
+    @Test
+    public void testAverageMatchesVote() throws Exception
+    {
+        Instances train = TestData.Blobs(100, 2, 3, 1);
+        Instances test = TestData.Blobs(30, 2, 3, 2);
+        Classifier[] pool = TestData.Pool(train, 0);
+        int[][] selections = new int[test.size()][pool.length];
+        int[] sizes = new int[test.size()];
+        for (int i = 0; i < test.size(); i++) {
+            for (int c = 0; c < pool.length; c++) {
+                if ((i + c) % 3 != 0) selections[i][sizes[i]++] = c;
+            }
+        }
+        double[][] combined = Combiners.Average(pool, test, selections, sizes);
+        Vote vote = new Vote();
+        for (int i = 0; i < test.size(); i++) {
+            Classifier[] ensemble = new Classifier[sizes[i]];
+            for (int s = 0; s < sizes[i]; s++) {
+                ensemble[s] = pool[selections[i][s]];
+            }
+            vote.setClassifiers(ensemble);
+            assertArrayEquals(vote.distributionForInstance(test.get(i)),
+                              combined[i], 0.0);
+            assertEquals(vote.classifyInstance(test.get(i)),
+                         Combiners.Classify(combined[i]), 0.0);
+        }
+    }
+
+    @Test
+    public void testEmptySelection() throws Exception
+    {
+        Instances test = TestData.Blobs(1, 2, 3, 3);
+        double[][] combined = Combiners.Average(new Classifier[0], test,
+                                                new int[1][0], new int[1]);
+        assertArrayEquals(new double[3], combined[0], 0.0);
+        assertTrue(Double.isNaN(Combiners.Classify(combined[0])));
+    }
+
+    @Test
+    public void testExplicitWeightsMatchConfiguredWeightedVote()
+            throws Exception
+    {
+        Instances train = TestData.Blobs(100, 2, 3, 1);
+        Instances test = TestData.Blobs(10, 2, 3, 4);
+        Classifier[] pool = { new NaiveBayes(), new J48() };
+        for (Classifier classifier : pool) classifier.buildClassifier(train);
+        double[] weights = { 0.2, 0.7 };
+        WeightedVote configured = new WeightedVote();
+        configured.setClassifiers(pool);
+        configured.setClassifiersWeights(weights);
+        WeightedVote shared = new WeightedVote();
+        for (int i = 0; i < test.size(); i++) {
+            assertArrayEquals(configured.distributionForInstance(test.get(i)),
+                    shared.distributionForInstance(test.get(i), pool,
+                                                   weights), 0.0);
+            assertEquals(configured.classifyInstance(test.get(i)),
+                    Combiners.Classify(shared, test.get(i), pool, weights),
+                    0.0);
+        }
+        assertEquals(0, shared.getClassifiersWeights().length);
+    }
+
+    @Test
+    public void testRulesMatchVote() throws Exception
+    {
+        Instances train = TestData.Blobs(100, 2, 3, 1);
+        Instances test = TestData.Blobs(30, 2, 3, 5);
+        Classifier[] pool = { new NaiveBayes(), new J48(),
+                              new DecisionStump(), new ZeroR() };
+        for (Classifier classifier : pool) classifier.buildClassifier(train);
+        int[] rules = { Vote.AVERAGE_RULE, Vote.PRODUCT_RULE,
+                        Vote.MAJORITY_VOTING_RULE, Vote.MIN_RULE,
+                        Vote.MAX_RULE };
+        double[][] distributions = new double[pool.length][];
+        double[] result = new double[3];
+        for (int rule : rules) {
+            Vote vote = new Vote();
+            vote.setCombinationRule(new SelectedTag(rule, Vote.TAGS_RULES));
+            for (int i = 0; i < test.size(); i++) {
+                int[] selected = new int[pool.length];
+                ArrayList<Classifier> ensemble = new ArrayList<>();
+                // selected in reverse, as the combination order matters
+                for (int c = pool.length - 1; c >= 0; c--) {
+                    distributions[c] = pool[c].distributionForInstance(
+                            test.get(i));
+                    if ((i + c) % 4 == 0) continue;
+                    selected[ensemble.size()] = c;
+                    ensemble.add(pool[c]);
+                }
+                vote.setClassifiers(ensemble.toArray(new Classifier[0]));
+                Combiners.Combine(rule, distributions, selected,
+                                  ensemble.size(), null, result);
+                assertArrayEquals(vote.distributionForInstance(test.get(i)),
+                                  result, 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testWeightsCountAsCopies() throws Exception
+    {
+        Instances train = TestData.Blobs(100, 2, 3, 1);
+        Instances test = TestData.Blobs(20, 2, 3, 6);
+        Classifier[] pool = TestData.Pool(train, 0);
+        int[] selected = { 0, 1, 2 };
+        double[] weights = { 2, 1, 1 };
+        Classifier[] copies = { pool[0], pool[0], pool[1], pool[2] };
+        double[][] distributions = new double[pool.length][];
+        double[] result = new double[3];
+        for (int rule : new int[] { Vote.AVERAGE_RULE, Vote.PRODUCT_RULE,
+                                    Vote.MAJORITY_VOTING_RULE }) {
+            Vote vote = new Vote();
+            vote.setCombinationRule(new SelectedTag(rule, Vote.TAGS_RULES));
+            vote.setClassifiers(copies);
+            for (int i = 0; i < test.size(); i++) {
+                for (int c = 0; c < pool.length; c++) {
+                    distributions[c] = pool[c].distributionForInstance(
+                            test.get(i));
+                }
+                Combiners.Combine(rule, distributions, selected, 3, weights,
+                                  result);
+                assertArrayEquals(vote.distributionForInstance(test.get(i)),
+                                  result, 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testMedianOfEachClass()
+    {
+        double[][] distributions = { { 0.6, 0.3, 0.1 }, { 0.2, 0.2, 0.6 },
+                                     { 0.5, 0.4, 0.1 }, null };
+        double[] result = new double[3];
+        int[] selected = { 0, 1, 2 };
+        Combiners.Combine(Vote.MEDIAN_RULE, distributions, selected, 3, null,
+                          result);
+        assertArrayEquals(new double[] { 0.5 / 0.9, 0.3 / 0.9, 0.1 / 0.9 },
+                          result, 1e-12);
+        Combiners.Combine(Vote.MEDIAN_RULE, distributions, selected, 2, null,
+                          result);
+        assertArrayEquals(new double[] { 0.4, 0.25, 0.35 }, result, 1e-12);
+        // the heavier member holds more than half the weight
+        Combiners.Combine(Vote.MEDIAN_RULE, distributions, selected, 3,
+                          new double[] { 0, 3, 1 }, result);
+        assertArrayEquals(new double[] { 0.2, 0.2, 0.6 }, result, 1e-12);
+    }
+
+    @Test
+    public void testUnequalWeightsChangeTheCombination() throws Exception
+    {
+        Instances train = TestData.Blobs(100, 2, 3, 1);
+        Instances test = TestData.Blobs(30, 2, 3, 7);
+        Classifier[] pool = TestData.Pool(train, 0);
+        double[] weights = { 0.0, 9.0, 0.5 };
+        WeightedVote configured = new WeightedVote();
+        configured.setClassifiers(pool);
+        configured.setClassifiersWeights(weights);
+        WeightedVote shared = new WeightedVote();
+        int[] selected = { 0, 1, 2 };
+        boolean changed = false;
+        for (int i = 0; i < test.size(); i++) {
+            QueryContext context = new QueryContext(test.get(i), pool,
+                                                    new PoolEvaluator());
+            double[] weighted = Combiners.Distribution(shared, context,
+                    selected, pool.length, weights);
+            assertArrayEquals(configured.distributionForInstance(test.get(i)),
+                              weighted, 1e-12);
+            double[] unweighted = Combiners.Distribution(shared, context,
+                    selected, pool.length, null);
+            changed |= !Arrays.equals(weighted, unweighted);
+        }
+        assertTrue(changed);
+    }
+
+    @Test
+    public void testWeightedVoteScalesEachMember() throws Exception
+    {
+        Instance instance = TestData.Points(1, 2, 1).get(0);
+        Classifier[] pool = { new FixedClassifier(0.9, 0.1),
+                              new FixedClassifier(0.2, 0.8) };
+        // the weights are shifted to 1 and 3, so the second member counts
+        // three times; unweighted, the first member would win (0.55, 0.45)
+        double[] weights = { 0.0, 2.0 };
+        double[] expected = { 0.375, 0.625 };
+        WeightedVote configured = new WeightedVote();
+        configured.setClassifiers(pool);
+        configured.setClassifiersWeights(weights);
+        assertArrayEquals(expected, configured.distributionForInstance(
+                instance), 1e-12);
+        assertEquals(1.0, configured.classifyInstance(instance), 0.0);
+        WeightedVote shared = new WeightedVote();
+        assertArrayEquals(expected, shared.distributionForInstance(
+                instance, pool, weights), 1e-12);
+        QueryContext context = new QueryContext(instance, pool,
+                                                new PoolEvaluator());
+        assertArrayEquals(expected, Combiners.Distribution(shared, context,
+                new int[] { 0, 1 }, 2, weights), 1e-12);
+        assertArrayEquals(new double[] { 0.55, 0.45 },
+                Combiners.Distribution(shared, context, new int[] { 0, 1 },
+                                       2, null), 1e-12);
+    }
+}
@@ -0,0 +1,46 @@
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+
+import weka.core.Instances;
+import weka.core.neighboursearch.LinearNNSearch;
+
+public class AutoNeighborIndexTest
+{
+    @Test
+    public void testSmallDataSetUsesLinearSearch() throws Exception
+    {
+        AutoNeighborIndex index = new AutoNeighborIndex();
+        index.build(TestData.Points(50, 3, 1));
+        assertEquals(50, index.size());
+        assertTrue(index.getChosen() instanceof FlatNeighborIndex);
+    }
+
+    @Test
+    public void testCalibratedSearchMatchesLinearSearch() throws Exception
+    {
+        Instances dataset = TestData.Points(600, 3, 2);
+        Instances queries = TestData.Points(20, 3, 3);
+        AutoNeighborIndex index = new AutoNeighborIndex();
+        index.build(dataset);
+        assertNotNull(index.getChosen());
+        WekaNeighborIndex linear = new WekaNeighborIndex(new LinearNNSearch());
+        linear.build(dataset);
+        Neighborhood expected = new Neighborhood(5);
+        Neighborhood actual = new Neighborhood(5);
+        for (int q = 0; q < queries.size(); q++) {
+            linear.search(queries.get(q), 5, expected);
+            index.search(queries.get(q), 5, actual);
+            assertEquals(expected.size, actual.size);
+            assertArrayEquals(expected.indexes, actual.indexes);
+            assertArrayEquals(expected.distances, actual.distances, 1e-9);
+        }
+    }
+}
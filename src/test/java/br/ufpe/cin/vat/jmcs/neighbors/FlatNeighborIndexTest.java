@@ -0,0 +1,102 @@
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.neighboursearch.LinearNNSearch;
+
+public class FlatNeighborIndexTest
+{
+    private static Instances randomDataSet(int size, long seed,
+            boolean withMissing)
+    {
+        ArrayList<Attribute> attrInfo = new ArrayList<Attribute>(7);
+        List<String> colors = new ArrayList<String>(3);
+        colors.add("red");
+        colors.add("green");
+        colors.add("blue");
+        for (int a = 0; a < 5; a++) {
+            attrInfo.add(new Attribute("numeric" + a));
+        }
+        attrInfo.add(new Attribute("color", colors));
+        List<String> labels = new ArrayList<String>(2);
+        labels.add("0");
+        labels.add("1");
+        attrInfo.add(new Attribute("class", labels));
+        Instances dataset = new Instances("Rel", attrInfo, size);
+        dataset.setClassIndex(6);
+        Random random = new Random(seed);
+        for (int n = 0; n < size; n++) {
+            double[] values = new double[7];
+            for (int a = 0; a < 5; a++) values[a] = random.nextGaussian();
+            values[5] = random.nextInt(3);
+            values[6] = random.nextInt(2);
+            if (withMissing && random.nextInt(10) == 0) {
+                values[random.nextInt(6)] = Utils.missingValue();
+            }
+            dataset.add(new DenseInstance(1.0, values));
+        }
+        return dataset;
+    }
+
+    private static void assertSameNeighbors(Instances dataset,
+            Instances queries, int k) throws Exception
+    {
+        WekaNeighborIndex linear = new WekaNeighborIndex(new LinearNNSearch());
+        linear.build(dataset);
+        FlatNeighborIndex flat = new FlatNeighborIndex();
+        flat.build(dataset);
+        assertEquals(dataset.size(), flat.size());
+        Neighborhood expected = new Neighborhood(k);
+        Neighborhood actual = new Neighborhood(k);
+        for (Instance query : queries) {
+            linear.search(query, k, expected);
+            flat.search(query, k, actual);
+            assertEquals(expected.size, actual.size);
+            assertArrayEquals(expected.distances, actual.distances, 1e-9);
+        }
+    }
+
+    @Test
+    public void testMatchesWekaEuclideanDistance() throws Exception
+    {
+        assertSameNeighbors(randomDataSet(300, 1, false),
+                            randomDataSet(30, 2, false), 7);
+    }
+
+    @Test
+    public void testMatchesWekaWithMissingValues() throws Exception
+    {
+        assertSameNeighbors(randomDataSet(300, 3, true),
+                            randomDataSet(30, 4, true), 7);
+    }
+
+    @Test
+    public void testNeighborsAreSortedAndBounded() throws Exception
+    {
+        Instances dataset = randomDataSet(5, 5, false);
+        FlatNeighborIndex flat = new FlatNeighborIndex();
+        flat.build(dataset);
+        Neighborhood result = new Neighborhood(10);
+        flat.search(dataset.get(2), 10, result);
+        assertEquals(5, result.size);
+        assertEquals(2, result.indexes[0]);
+        assertEquals(0.0, result.distances[0], 1e-12);
+        for (int i = 1; i < result.size; i++) {
+            assertEquals(true, result.distances[i - 1] <= result.distances[i]);
+        }
+        flat.search(dataset.get(2), 0, result);
+        assertEquals(0, result.size);
+    }
+}
@@ -0,0 +1,116 @@
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+
+import weka.core.Instances;
+
+public class HnswNeighborIndexTest
+{
+    private static double recall(HnswNeighborIndex index, Instances dataset,
+            Instances queries, int k) throws Exception
+    {
+        FlatNeighborIndex exact = new FlatNeighborIndex();
+        exact.build(dataset);
+        index.build(dataset);
+        assertEquals(dataset.size(), index.size());
+        Neighborhood expected = new Neighborhood(k);
+        Neighborhood actual = new Neighborhood(k);
+        int hits = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            exact.search(queries.get(q), k, expected);
+            index.search(queries.get(q), k, actual);
+            assertEquals(expected.size, actual.size);
+            for (int i = 1; i < actual.size; i++) {
+                assertTrue(actual.distances[i - 1] <= actual.distances[i]);
+            }
+            for (int i = 0; i < expected.size; i++) {
+                for (int j = 0; j < actual.size; j++) {
+                    if (expected.indexes[i] == actual.indexes[j]) hits++;
+                }
+            }
+        }
+        return hits / (double) (queries.size() * k);
+    }
+
+    @Test
+    public void testSingleThreadRecall() throws Exception
+    {
+        HnswNeighborIndex index = new HnswNeighborIndex();
+        index.setNumThreads(1);
+        double recall = recall(index, TestData.Points(2000, 8, 1),
+                               TestData.Points(50, 8, 2), 10);
+        assertTrue("recall " + recall, recall > 0.9);
+    }
+
+    @Test
+    public void testParallelBuildRecall() throws Exception
+    {
+        HnswNeighborIndex index = new HnswNeighborIndex();
+        index.setNumThreads(4);
+        double recall = recall(index, TestData.Points(2000, 8, 3),
+                               TestData.Points(50, 8, 4), 10);
+        assertTrue("recall " + recall, recall > 0.9);
+    }
+
+    @Test
+    public void testSingleThreadBuildIsReproducible() throws Exception
+    {
+        Instances dataset = TestData.Points(500, 4, 5);
+        Instances queries = TestData.Points(10, 4, 6);
+        HnswNeighborIndex first = new HnswNeighborIndex();
+        first.setNumThreads(1);
+        first.build(dataset);
+        HnswNeighborIndex second = new HnswNeighborIndex();
+        second.setNumThreads(1);
+        second.build(dataset);
+        Neighborhood expected = new Neighborhood(5);
+        Neighborhood actual = new Neighborhood(5);
+        for (int q = 0; q < queries.size(); q++) {
+            first.search(queries.get(q), 5, expected);
+            second.search(queries.get(q), 5, actual);
+            assertArrayEquals(expected.indexes, actual.indexes);
+        }
+    }
+
+    @Test
+    public void testAddedInstancesAreFound() throws Exception
+    {
+        Instances dataset = TestData.Points(2000, 8, 7);
+        Instances queries = TestData.Points(50, 8, 8);
+        HnswNeighborIndex index = new HnswNeighborIndex();
+        index.setNumThreads(1);
+        index.build(new Instances(dataset, 0, 1000));
+        int added = 0;
+        for (int n = 1000; n < dataset.size(); n++) {
+            if (index.add(dataset.get(n))) {
+                added++;
+            } else {
+                index.build(new Instances(dataset, 0, n + 1));
+            }
+            assertEquals(n + 1, index.size());
+        }
+        assertTrue(added > 900);
+        FlatNeighborIndex exact = new FlatNeighborIndex();
+        exact.build(dataset);
+        Neighborhood expected = new Neighborhood(10);
+        Neighborhood actual = new Neighborhood(10);
+        int hits = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            exact.search(queries.get(q), 10, expected);
+            index.search(queries.get(q), 10, actual);
+            for (int i = 0; i < expected.size; i++) {
+                for (int j = 0; j < actual.size; j++) {
+                    if (expected.indexes[i] == actual.indexes[j]) hits++;
+                }
+            }
+        }
+        double recall = hits / (double) (queries.size() * 10);
+        assertTrue("recall " + recall, recall > 0.9);
+    }
+}
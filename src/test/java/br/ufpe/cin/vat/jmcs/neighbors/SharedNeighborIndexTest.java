@@ -0,0 +1,83 @@
+package br.ufpe.cin.vat.jmcs.neighbors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.neighboursearch.LinearNNSearch;
+
+public class SharedNeighborIndexTest
+{
+    /**
+     * Counts the builds and searches which reach the wrapped index.
+     */
+    private static class CountingIndex extends FlatNeighborIndex
+    {
+        int builds;
+
+        int searches;
+
+        @Override
+        public void build(Instances instances) throws Exception
+        {
+            this.builds++;
+            super.build(instances);
+        }
+
+        @Override
+        public void search(Instance target, int k, Neighborhood result)
+                throws Exception
+        {
+            this.searches++;
+            super.search(target, k, result);
+        }
+    }
+
+    @Test
+    public void testEachQuerySearchedOncePerK() throws Exception
+    {
+        Instances dataset = TestData.Points(200, 3, 1);
+        Instances queries = TestData.Points(20, 3, 2);
+        CountingIndex counting = new CountingIndex();
+        SharedNeighborIndex shared = new SharedNeighborIndex(counting);
+        shared.build(dataset);
+        shared.build(dataset);
+        assertEquals(1, counting.builds);
+        WekaNeighborIndex linear = new WekaNeighborIndex(new LinearNNSearch());
+        linear.build(dataset);
+        for (int round = 0; round < 3; round++) {
+            for (int q = 0; q < queries.size(); q++) {
+                // the class is left out, so a relabeled copy is the same
+                Instance query = (Instance) queries.get(q).copy();
+                query.setClassValue(round % 2);
+                for (int k : new int[] { 5, 7 }) {
+                    Neighborhood expected = new Neighborhood(k);
+                    Neighborhood actual = new Neighborhood(k);
+                    linear.search(query, k, expected);
+                    shared.search(query, k, actual);
+                    assertEquals(expected.size, actual.size);
+                    assertArrayEquals(expected.indexes, actual.indexes);
+                }
+            }
+        }
+        assertEquals(2 * queries.size(), counting.searches);
+        assertEquals(2 * queries.size(), shared.numRemembered());
+        // the batch search only reaches the index for unknown queries
+        Neighborhood[] results = new Neighborhood[queries.size()];
+        for (int q = 0; q < results.length; q++) {
+            results[q] = new Neighborhood(9);
+        }
+        shared.search(queries, 9, results);
+        shared.search(queries, 9, results);
+        assertEquals(3 * queries.size(), counting.searches);
+        // another data set builds the index again and forgets the queries
+        shared.build(new Instances(dataset));
+        assertEquals(2, counting.builds);
+        assertEquals(0, shared.numRemembered());
+    }
+}
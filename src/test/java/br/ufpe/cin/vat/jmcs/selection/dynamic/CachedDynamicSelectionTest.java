@@ -0,0 +1,143 @@
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Capabilities;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+public class CachedDynamicSelectionTest
+{
+    private static class CountingSelection implements DynamicSelection
+    {
+        private int calls;
+
+        @Override
+        public void buildClassifier(Instances data) throws Exception
+        {
+        }
+
+        @Override
+        public double classifyInstance(Instance instance) throws Exception
+        {
+            this.calls++;
+            return instance.value(0) > 0 ? 1.0 : 0.0;
+        }
+
+        @Override
+        public double[] distributionForInstance(Instance instance)
+                throws Exception
+        {
+            this.calls++;
+            return instance.value(0) > 0 ? new double[] { 0.0, 1.0 } :
+                                           new double[] { 1.0, 0.0 };
+        }
+
+        @Override
+        public Capabilities getCapabilities()
+        {
+            return null;
+        }
+
+        @Override
+        public void setClassifiers(Classifier[] classifiers)
+        {
+        }
+
+        @Override
+        public Classifier[] getClassifiers()
+        {
+            return new Classifier[0];
+        }
+    }
+
+    private static Instances dataset()
+    {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute("x"));
+        ArrayList<String> classes = new ArrayList<>();
+        classes.add("no");
+        classes.add("yes");
+        attributes.add(new Attribute("class", classes));
+        Instances data = new Instances("test", attributes, 0);
+        data.setClassIndex(1);
+        return data;
+    }
+
+    private static Instance instance(Instances data, double x, double label)
+    {
+        Instance instance = new DenseInstance(1.0, new double[] { x, label });
+        instance.setDataset(data);
+        return instance;
+    }
+
+    @Test
+    public void testDuplicatesAreServedFromCache() throws Exception
+    {
+        Instances data = dataset();
+        CountingSelection counting = new CountingSelection();
+        CachedDynamicSelection cached = new CachedDynamicSelection(counting,
+                                                                   64);
+        assertEquals(1.0, cached.classifyInstance(instance(data, 2.0, 0)), 0);
+        // the class value is not part of the key
+        assertEquals(1.0, cached.classifyInstance(instance(data, 2.0, 1)), 0);
+        assertEquals(1, counting.calls);
+        assertArrayEquals(new double[] { 0.0, 1.0 },
+                cached.distributionForInstance(instance(data, 2.0, 0)), 0);
+        double[] distribution = cached.distributionForInstance(
+                instance(data, 2.0, 0));
+        distribution[0] = 5.0;
+        assertArrayEquals(new double[] { 0.0, 1.0 },
+                cached.distributionForInstance(instance(data, 2.0, 0)), 0);
+        assertEquals(0.0, cached.classifyInstance(instance(data, -1.0, 0)), 0);
+        assertEquals(3, counting.calls);
+        assertEquals(3, cached.getHits());
+        assertEquals(3, cached.getMisses());
+        assertEquals(2, cached.size());
+
+        cached.buildClassifier(data);
+        assertEquals(0, cached.size());
+        cached.classifyInstance(instance(data, 2.0, 0));
+        assertEquals(4, counting.calls);
+        cached.setClassifiers(new Classifier[0]);
+        cached.classifyInstance(instance(data, 2.0, 0));
+        assertEquals(5, counting.calls);
+    }
+
+    @Test
+    public void testCapacityIsBounded() throws Exception
+    {
+        Instances data = dataset();
+        CachedDynamicSelection cached = new CachedDynamicSelection(
+                new CountingSelection(), 16);
+        for (int i = 0; i < 100; i++) {
+            cached.classifyInstance(instance(data, i, 0));
+        }
+        assertTrue(cached.size() <= 16);
+        assertEquals(100 - cached.size(), cached.getEvictions());
+    }
+
+    @Test
+    public void testCapacityIsNotRoundedUp() throws Exception
+    {
+        Instances data = dataset();
+        for (int capacity : new int[] { 1, 3, 20 }) {
+            CachedDynamicSelection cached = new CachedDynamicSelection(
+                    new CountingSelection(), capacity);
+            for (int i = 0; i < 100; i++) {
+                cached.classifyInstance(instance(data, i, 0));
+                assertTrue(cached.size() <= capacity);
+            }
+            assertEquals(100 - cached.size(), cached.getEvictions());
+        }
+    }
+}
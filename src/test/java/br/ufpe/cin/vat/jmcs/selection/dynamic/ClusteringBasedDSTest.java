@@ -0,0 +1,88 @@
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+public class ClusteringBasedDSTest
+{
+    @Test
+    public void testSingleClusterPicksMostAccurate() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 1);
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        ClusteringBasedDS selector = new ClusteringBasedDS(
+                ClusteringBasedDS.Rule.OLA, 1);
+        selector.setClassifiers(pool);
+        selector.buildClassifier(validation);
+        int[] correct = new int[pool.length];
+        for (int n = 0; n < validation.size(); n++) {
+            for (int c = 0; c < pool.length; c++) {
+                double answer = pool[c].classifyInstance(validation.get(n));
+                if (answer == validation.get(n).classValue()) correct[c]++;
+            }
+        }
+        int best = selector.getSelection(0)[0];
+        for (int c = 0; c < pool.length; c++) {
+            assertTrue(correct[best] >= correct[c]);
+        }
+    }
+
+    @Test
+    public void testQueriesRunThePrecomputedSelection() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 1);
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        Instances test = TestData.Blobs(40, 4, 3, 3);
+        ClusteringBasedDS.Rule[] rules = ClusteringBasedDS.Rule.values();
+        for (ClusteringBasedDS.Rule rule : rules) {
+            ClusteringBasedDS selector = new ClusteringBasedDS(rule, 5);
+            selector.setClassifiers(pool);
+            selector.buildClassifier(validation);
+            for (int i = 0; i < test.size(); i++) {
+                Classifier[] ensemble = selector.selectClassifiers(
+                        test.get(i));
+                assertTrue(ensemble.length > 0);
+                if (rule == ClusteringBasedDS.Rule.KNORAE) continue;
+                assertEquals(1, ensemble.length);
+                assertEquals(ensemble[0].classifyInstance(test.get(i)),
+                             selector.classifyInstance(test.get(i)), 0.0);
+                assertArrayEquals(
+                        ensemble[0].distributionForInstance(test.get(i)),
+                        selector.distributionForInstance(test.get(i)), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testConsensusGateKeepsUnanimousLabels() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 1);
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        Instances test = TestData.Blobs(40, 4, 3, 3);
+        ClusteringBasedDS selector = new ClusteringBasedDS(
+                ClusteringBasedDS.Rule.OLA, 5);
+        selector.setClassifiers(pool);
+        selector.setConsensusGate(new ConsensusGate());
+        selector.buildClassifier(validation);
+        int unanimous = 0;
+        for (int i = 0; i < test.size(); i++) {
+            double first = pool[0].classifyInstance(test.get(i));
+            boolean agree = true;
+            for (int c = 1; c < pool.length; c++) {
+                agree &= pool[c].classifyInstance(test.get(i)) == first;
+            }
+            if (!agree) continue;
+            unanimous++;
+            assertEquals(first, selector.classifyInstance(test.get(i)), 0.0);
+        }
+        assertTrue(unanimous > 0);
+    }
+}
@@ -0,0 +1,52 @@
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConsensusGateTest
+{
+    @Test
+    public void testUnanimous()
+    {
+        ConsensusGate gate = new ConsensusGate();
+        assertTrue(gate.isUnanimous());
+        assertEquals(0, gate.consensus(new double[] { 2, 2, 2 }));
+        assertEquals(-1, gate.consensus(new double[] { 2, 2, 1 }));
+        assertEquals(2, gate.getQueries());
+        assertEquals(1, gate.getFired());
+        assertEquals(0.5, gate.getFiringRate(), 0.0);
+    }
+
+    @Test
+    public void testFraction()
+    {
+        ConsensusGate gate = new ConsensusGate(0.6);
+        assertEquals(1, gate.consensus(new double[] { 0, 1, 2, 1, 1 }));
+        assertEquals(-1, gate.consensus(new double[] { 0, 1, 2, 1, 0 }));
+        assertEquals(0, gate.consensus(new double[] { 1, 1, 0 }));
+        gate.resetCounters();
+        assertEquals(0, gate.getQueries());
+        assertEquals(0.0, gate.getFiringRate(), 0.0);
+    }
+
+    @Test
+    public void testPluralityOnly()
+    {
+        ConsensusGate gate = new ConsensusGate(0.4);
+        // class 0 reaches the fraction, but class 1 has more votes
+        assertEquals(2, gate.consensus(new double[] { 0, 0, 1, 1, 1 }));
+        // no class has more votes than every other
+        assertEquals(-1, gate.consensus(new double[] { 0, 0, 1, 1 }));
+        assertEquals(-1, gate.consensus(new double[0]));
+        assertEquals(3, gate.getQueries());
+        assertEquals(1, gate.getFired());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFraction()
+    {
+        new ConsensusGate(1.5);
+    }
+}
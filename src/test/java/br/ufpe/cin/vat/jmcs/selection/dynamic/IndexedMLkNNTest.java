@@ -0,0 +1,92 @@
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+import br.ufpe.cin.vat.jmcs.neighbors.SharedNeighborIndex;
+import br.ufpe.cin.vat.jmcs.neighbors.WekaNeighborIndex;
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import mulan.classifier.MultiLabelOutput;
+import mulan.classifier.lazy.MLkNN;
+import mulan.data.MultiLabelInstances;
+import weka.classifiers.Classifier;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.neighboursearch.KDTree;
+
+public class IndexedMLkNNTest
+{
+    @Test
+    public void testMatchesMLkNN() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(100, 3, 2, 1), 0);
+        Instances validation = TestData.Blobs(80, 3, 2, 2);
+        Instances test = TestData.Blobs(30, 3, 2, 3);
+        MultiLabelMetaDataSet metaDataSet = new MultiLabelMetaDataSet(
+                pool, validation, new PoolEvaluator());
+        MultiLabelInstances data = metaDataSet.getDataSet();
+        MLkNN expected = new MLkNN(5, 1);
+        expected.build(data);
+        SharedNeighborIndex shared = new SharedNeighborIndex(
+                new WekaNeighborIndex(new KDTree()));
+        shared.build(validation);
+        IndexedMLkNN indexed = new IndexedMLkNN(shared, 5, 1);
+        indexed.build(data);
+        assertTrue(indexed.isUsingSharedIndex());
+        IndexedMLkNN own = new IndexedMLkNN(null, 5, 1);
+        own.build(data);
+        assertFalse(own.isUsingSharedIndex());
+        Instances meta = new Instances(metaDataSet.getHeader(), 1);
+        for (int i = 0; i < test.size(); i++) {
+            double[] values = new double[meta.numAttributes()];
+            for (int a = 0; a < 3; a++) values[a] = test.get(i).value(a);
+            meta.add(new DenseInstance(1.0, values));
+            MultiLabelOutput reference = expected.makePrediction(
+                    meta.lastInstance());
+            assertArrayEquals(reference.getConfidences(), indexed
+                    .makePrediction(meta.lastInstance()).getConfidences(),
+                    1e-12);
+            assertArrayEquals(reference.getConfidences(), own
+                    .makePrediction(meta.lastInstance()).getConfidences(),
+                    1e-12);
+        }
+        assertEquals(test.size(), shared.numRemembered());
+    }
+
+    @Test
+    public void testSharedWithRegionOfCompetence() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(100, 3, 2, 1), 0);
+        Instances validation = TestData.Blobs(80, 3, 2, 2);
+        Instances test = TestData.Blobs(30, 3, 2, 3);
+        SharedNeighborIndex shared = new SharedNeighborIndex(
+                new WekaNeighborIndex(new KDTree()));
+        shared.build(validation);
+        MultiLabelDES des = new MultiLabelDES();
+        des.setClassifiers(pool);
+        des.setMultiLabelAlgorithm(new IndexedMLkNN(shared, 7, 1));
+        des.buildClassifier(validation);
+        KNORAEliminateDES knora = new KNORAEliminateDES();
+        knora.setKNeighbors(7);
+        knora.setClassifiers(pool);
+        knora.setNeighborIndex(shared);
+        knora.buildClassifier(validation);
+        KNORAEliminateDES reference = new KNORAEliminateDES();
+        reference.setKNeighbors(7);
+        reference.setClassifiers(pool);
+        reference.buildClassifier(validation);
+        for (int i = 0; i < test.size(); i++) {
+            des.classifyInstance(test.get(i));
+            assertArrayEquals(
+                    reference.distributionForInstance(test.get(i)),
+                    knora.distributionForInstance(test.get(i)), 0.0);
+        }
+        // both selectors found the same neighbors in a single search
+        assertEquals(test.size(), shared.numRemembered());
+    }
+}
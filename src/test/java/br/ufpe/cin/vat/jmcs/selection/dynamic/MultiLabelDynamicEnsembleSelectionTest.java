@@ -1,21 +1,31 @@
 package br.ufpe.cin.vat.jmcs.selection.dynamic;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import br.ufpe.cin.vat.jmcs.TestData;
+
+import mulan.classifier.lazy.MLkNN;
 import weka.classifiers.Classifier;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Utils;
 
 @RunWith(MockitoJUnitRunner.class)
 public class MultiLabelDynamicEnsembleSelectionTest {
@@ -81,4 +91,115 @@ public class MultiLabelDynamicEnsembleSelectionTest {
         assertEquals("1", multiLabelinst2.stringValue(3));
     }
 
+    @Test
+    public void testSweepMatchesEachThreshold() throws Exception {
+        Instances train = TestData.Blobs(100, 3, 2, 1);
+        Instances validation = TestData.Blobs(60, 3, 2, 2);
+        Instances test = TestData.Blobs(30, 3, 2, 3);
+        Classifier[] classifiers = TestData.Pool(train, 0);
+        Double[] thresholds = { null, 0.3, 0.5, 0.7 };
+        MultiLabelDES sweeper = new MultiLabelDES(classifiers);
+        sweeper.setMultiLabelAlgorithm(new MLkNN(5, 1));
+        sweeper.buildClassifier(validation);
+        double[][] swept = sweeper.sweepThresholds(test, thresholds);
+        for (int t = 0; t < thresholds.length; t++) {
+            MultiLabelDES selector = new MultiLabelDES(classifiers);
+            selector.setMultiLabelAlgorithm(new MLkNN(5, 1));
+            if (thresholds[t] != null) selector.setThreshold(thresholds[t]);
+            selector.buildClassifier(validation);
+            for (int i = 0; i < test.size(); i++) {
+                assertEquals(selector.classifyInstance(test.get(i)),
+                             swept[t][i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testReusedMetaInstancesMatchFreshOnes() throws Exception {
+        Instances train = TestData.Blobs(100, 3, 2, 1);
+        Instances validation = TestData.Blobs(60, 3, 2, 2);
+        final Instances test = TestData.Blobs(40, 3, 2, 3);
+        Classifier[] classifiers = TestData.Pool(train, 2);
+        final MultiLabelDES selector = new MultiLabelDES(classifiers);
+        // ties are broken deterministically, so answers can be compared
+        selector.setMultiLabelAlgorithm(new IndexedMLkNN(null, 5, 1));
+        selector.buildClassifier(validation);
+        Instances header = selector.getMetaDataSet().getHeader();
+        final boolean[][] expected = new boolean[test.size()][];
+        final double[] labels = new double[test.size()];
+        for (int i = 0; i < test.size(); i++) {
+            // a fresh meta-instance for every query
+            double[] values = new double[header.numAttributes()];
+            Arrays.fill(values, Utils.missingValue());
+            for (int a = 0; a < 3; a++) values[a] = test.get(i).value(a);
+            Instance meta = new DenseInstance(1.0, values);
+            meta.setDataset(header);
+            expected[i] = selector.getMultiLabelAlgorithm()
+                                  .makePrediction(meta).getBipartition();
+            labels[i] = selector.classifyInstance(test.get(i));
+        }
+        // repeated queries, in another order, in the same thread
+        for (int r = 0; r < 2; r++) {
+            for (int i = test.size() - 1; i >= 0; i--) {
+                assertArrayEquals(expected[i],
+                                  selector.getBipartition(test.get(i)));
+                assertEquals(labels[i],
+                             selector.classifyInstance(test.get(i)), 0.0);
+            }
+        }
+        // concurrent queries, each thread starting at another instance
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    boolean same = true;
+                    for (int r = 0; r < 5; r++) {
+                        for (int i = 0; i < test.size(); i++) {
+                            int j = (i + offset * 10) % test.size();
+                            same &= Arrays.equals(expected[j],
+                                    selector.getBipartition(test.get(j)));
+                            same &= labels[j] ==
+                                    selector.classifyInstance(test.get(j));
+                        }
+                    }
+                    return same;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) assertTrue(result.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testUpdatesMatchRebuildOverWindow() throws Exception {
+        Instances train = TestData.Blobs(100, 3, 2, 1);
+        Instances validation = TestData.Blobs(60, 3, 2, 2);
+        Instances stream = TestData.Blobs(90, 3, 2, 4);
+        Instances test = TestData.Blobs(30, 3, 2, 3);
+        Classifier[] classifiers = TestData.Pool(train, 2);
+        MultiLabelDES updated = new MultiLabelDES(classifiers);
+        updated.setMultiLabelAlgorithm(new IndexedMLkNN(null, 5, 1));
+        updated.setSelectionWindow(new SelectionWindow(40, 0));
+        updated.setRefreshInterval(7);
+        updated.buildClassifier(validation);
+        Instances all = new Instances(validation);
+        for (int n = 0; n < stream.size(); n++) {
+            updated.update(stream.get(n));
+            all.add(stream.get(n));
+            if ((n + 1) % 7 != 0) continue;
+            // right after a refresh, the model matches one built from scratch
+            MultiLabelDES rebuilt = new MultiLabelDES(classifiers);
+            rebuilt.setMultiLabelAlgorithm(new IndexedMLkNN(null, 5, 1));
+            rebuilt.buildClassifier(
+                    new Instances(all, all.size() - 40, 40));
+            for (int i = 0; i < test.size(); i++) {
+                assertArrayEquals(rebuilt.getBipartition(test.get(i)),
+                                  updated.getBipartition(test.get(i)));
+            }
+        }
+    }
 }
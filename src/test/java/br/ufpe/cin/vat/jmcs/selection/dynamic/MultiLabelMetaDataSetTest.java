@@ -0,0 +1,83 @@
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import mulan.classifier.lazy.MLkNN;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+public class MultiLabelMetaDataSetTest
+{
+    @Test
+    public void testLabelsTellWhichMembersAreRight() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(100, 3, 2, 1), 0);
+        Instances validation = TestData.Blobs(60, 3, 2, 2);
+        ExecutorService executor = new ForkJoinPool(3);
+        PoolEvaluator evaluator = new PoolEvaluator(executor);
+        evaluator.setNumChunks(4);
+        try {
+            MultiLabelMetaDataSet metaDataSet = new MultiLabelMetaDataSet(
+                    pool, validation, evaluator);
+            Instances data = metaDataSet.getDataSet().getDataSet();
+            assertEquals(validation.size(), data.size());
+            assertEquals(3 + pool.length, data.numAttributes());
+            assertEquals(pool.length, metaDataSet.getDataSet().getNumLabels());
+            for (int n = 0; n < validation.size(); n++) {
+                for (int a = 0; a < 3; a++) {
+                    assertEquals(validation.get(n).value(a),
+                                 data.get(n).value(a), 0.0);
+                }
+                for (int c = 0; c < pool.length; c++) {
+                    boolean right = pool[c].classifyInstance(
+                            validation.get(n)) == validation.get(n)
+                                                            .classValue();
+                    assertEquals(right ? "1" : "0",
+                                 data.get(n).stringValue(3 + c));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedAcrossSelectors() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(100, 3, 2, 1), 0);
+        Instances validation = TestData.Blobs(60, 3, 2, 2);
+        Instances test = TestData.Blobs(30, 3, 2, 3);
+        MultiLabelDES first = new MultiLabelDES();
+        first.setClassifiers(pool);
+        first.setMultiLabelAlgorithm(new MLkNN(5, 1));
+        first.buildClassifier(validation);
+        MultiLabelMetaDataSet metaDataSet = first.getMetaDataSet();
+        assertTrue(metaDataSet.isFor(pool, validation));
+        assertFalse(metaDataSet.isFor(pool, new Instances(validation)));
+        MultiLabelDES second = new MultiLabelDES();
+        second.setClassifiers(pool);
+        second.setMultiLabelAlgorithm(new MLkNN(5, 1));
+        second.setMetaDataSet(metaDataSet);
+        second.buildClassifier(validation);
+        assertSame(metaDataSet, second.getMetaDataSet());
+        for (int i = 0; i < test.size(); i++) {
+            assertArrayEquals(first.distributionForInstance(test.get(i)),
+                              second.distributionForInstance(test.get(i)),
+                              0.0);
+        }
+        // a meta-data set built for other data is not reused
+        second.buildClassifier(new Instances(validation));
+        assertTrue(second.getMetaDataSet() != metaDataSet);
+    }
+}
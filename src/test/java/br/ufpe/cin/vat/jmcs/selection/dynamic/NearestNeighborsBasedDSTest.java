@@ -0,0 +1,561 @@
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+import br.ufpe.cin.vat.jmcs.neighbors.FlatNeighborIndex;
+import br.ufpe.cin.vat.jmcs.neighbors.NeighborIndex;
+import br.ufpe.cin.vat.jmcs.neighbors.WekaNeighborIndex;
+import br.ufpe.cin.vat.jmcs.utils.Labels;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.neighboursearch.BallTree;
+import weka.core.neighboursearch.LinearNNSearch;
+
+public class NearestNeighborsBasedDSTest
+{
+    private static class CountingClassifier extends AbstractClassifier
+    {
+        private static final long serialVersionUID = 1L;
+        private final Classifier classifier;
+        int runs;
+
+        CountingClassifier(Classifier classifier)
+        {
+            this.classifier = classifier;
+        }
+
+        @Override
+        public void buildClassifier(Instances data) throws Exception
+        {
+            this.classifier.buildClassifier(data);
+        }
+
+        @Override
+        public double[] distributionForInstance(Instance instance)
+                throws Exception
+        {
+            this.runs++;
+            return this.classifier.distributionForInstance(instance);
+        }
+    }
+
+    private static void assertBatchMatches(DynamicSelection selector,
+            Instances test) throws Exception
+    {
+        double[] labels = selector.classifyInstances(test);
+        double[][] distributions = selector.distributionsForInstances(test);
+        assertEquals(test.size(), labels.length);
+        for (int i = 0; i < test.size(); i++) {
+            assertEquals(selector.classifyInstance(test.get(i)), labels[i],
+                         0.0);
+            assertArrayEquals(selector.distributionForInstance(test.get(i)),
+                              distributions[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testBatchMatchesSingleInstance() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 2);
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        Instances test = TestData.Blobs(40, 4, 3, 3);
+        NearestNeighborsBasedDS[] selectors = {
+                new OverallLocalAccuracyDCS(), new LocalClassAccuracyDCS(),
+                new DynamicSelectionDCS(), new MCBBasedDCS(),
+                new KNORAEliminateDES(), new DynamicVoting(),
+                new DynamicVotingSelectionDES() };
+        for (NearestNeighborsBasedDS selector : selectors) {
+            selector.setClassifiers(pool);
+            selector.buildClassifier(validation);
+            assertBatchMatches(selector, test);
+        }
+    }
+
+    /**
+     * Selects the classifiers of the pool for the test instance the way the
+     * selectors did before the oracle matrix: the neighbors come straight out
+     * of a BallTree over the selection data set, and each classifier labels
+     * each of them at query time.
+     */
+    private static int[] ReferenceSelection(NearestNeighborsBasedDS selector,
+            Classifier[] pool, BallTree tree, Instance testInstance)
+            throws Exception
+    {
+        int k = selector.getKNeighbors();
+        Instances neighbors = tree.kNearestNeighbours(testInstance, k);
+        double[] distances = tree.getDistances().clone();
+        boolean[][] correct = new boolean[pool.length][neighbors.size()];
+        double[] testLabels = new double[pool.length];
+        for (int c = 0; c < pool.length; c++) {
+            testLabels[c] = pool[c].classifyInstance(testInstance);
+            for (int n = 0; n < neighbors.size(); n++) {
+                Instance neighbor = neighbors.get(n);
+                correct[c][n] = Labels.Equals(
+                        pool[c].classifyInstance(neighbor),
+                        neighbor.classValue());
+            }
+        }
+        double[] scores = new double[pool.length];
+        if (selector instanceof OverallLocalAccuracyDCS) {
+            for (int c = 0; c < pool.length; c++) {
+                for (int n = 0; n < neighbors.size(); n++) {
+                    if (correct[c][n]) scores[c]++;
+                }
+            }
+            return new int[] { ReferenceMax(scores) };
+        }
+        if (selector instanceof LocalClassAccuracyDCS) {
+            for (int c = 0; c < pool.length; c++) {
+                int total = 0;
+                int corrects = 0;
+                for (int n = 0; n < neighbors.size(); n++) {
+                    double predicted = pool[c].classifyInstance(
+                            neighbors.get(n));
+                    if (Labels.Equals(testLabels[c], predicted)) {
+                        total++;
+                        if (correct[c][n]) corrects++;
+                    }
+                }
+                scores[c] = total > 0 ? corrects / total : 0.0;
+            }
+            return new int[] { ReferenceMax(scores) };
+        }
+        if (selector instanceof MCBBasedDCS) {
+            double threshold = ((MCBBasedDCS) selector)
+                    .getSimilarityThreshold();
+            for (int n = 0; n < neighbors.size(); n++) {
+                double similarity = 0.0;
+                for (int c = 0; c < pool.length; c++) {
+                    double predicted = pool[c].classifyInstance(
+                            neighbors.get(n));
+                    if (Labels.Equals(testLabels[c], predicted)) similarity++;
+                }
+                if (similarity / pool.length <= threshold) continue;
+                for (int c = 0; c < pool.length; c++) {
+                    if (correct[c][n]) scores[c]++;
+                }
+            }
+            return new int[] { ReferenceMax(scores) };
+        }
+        if (selector instanceof KNORAEliminateDES) {
+            for (int region = k; region > 0; region--) {
+                int size = 0;
+                int[] selected = new int[pool.length];
+                for (int c = 0; c < pool.length; c++) {
+                    boolean all = true;
+                    for (int n = 0; n < region; n++) all &= correct[c][n];
+                    if (all) selected[size++] = c;
+                }
+                if (size > 0) return Arrays.copyOf(selected, size);
+            }
+            return new int[0];
+        }
+        // DS, DV and DVS weigh each error by the distance to the neighbor
+        for (int c = 0; c < pool.length; c++) {
+            for (int n = 0; n < k; n++) {
+                if (!correct[c][n]) scores[c] += distances[n];
+            }
+            scores[c] /= k;
+        }
+        if (selector instanceof DynamicSelectionDCS) {
+            for (int c = 0; c < pool.length; c++) scores[c] = -scores[c];
+            return new int[] { ReferenceMax(scores) };
+        }
+        Integer[] order = new Integer[pool.length];
+        for (int c = 0; c < pool.length; c++) order[c] = c;
+        if (selector instanceof DynamicVotingSelectionDES) {
+            final double[] errors = scores;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer c1, Integer c2)
+                {
+                    return Double.compare(errors[c1], errors[c2]);
+                }
+            });
+            order = Arrays.copyOf(order, pool.length / 2);
+        }
+        int[] selected = new int[order.length];
+        for (int s = 0; s < order.length; s++) selected[s] = order[s];
+        return selected;
+    }
+
+    /**
+     * Finds the first classifier with the highest score.
+     */
+    private static int ReferenceMax(double[] scores)
+    {
+        int best = 0;
+        for (int c = 1; c < scores.length; c++) {
+            if (scores[c] > scores[best]) best = c;
+        }
+        return best;
+    }
+
+    @Test
+    public void testSelectionsMatchReference() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 4);
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        Instances test = TestData.Blobs(60, 4, 3, 3);
+        BallTree tree = new BallTree();
+        tree.setInstances(validation);
+        NearestNeighborsBasedDS[] selectors = {
+                new OverallLocalAccuracyDCS(), new LocalClassAccuracyDCS(),
+                new MCBBasedDCS(), new DynamicSelectionDCS(),
+                new KNORAEliminateDES(), new DynamicVoting(),
+                new DynamicVotingSelectionDES() };
+        for (NearestNeighborsBasedDS selector : selectors) {
+            selector.setClassifiers(pool);
+            selector.buildClassifier(validation);
+            for (int i = 0; i < test.size(); i++) {
+                Instance instance = test.get(i);
+                int[] expected = ReferenceSelection(selector, pool, tree,
+                                                    instance);
+                if (selector instanceof KnnAccuracyBasedDCS) {
+                    assertSame(pool[expected[0]], ((KnnAccuracyBasedDCS)
+                            selector).selectClassifier(instance));
+                    continue;
+                }
+                Classifier[] ensemble = ((NearestNeighborsBasedDES) selector)
+                        .selectClassifiers(instance);
+                assertEquals(expected.length, ensemble.length);
+                for (int s = 0; s < expected.length; s++) {
+                    assertSame(pool[expected[s]], ensemble[s]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGatedBatchMatchesSingleInstance() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 2);
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        Instances test = TestData.Blobs(40, 4, 3, 3);
+        NearestNeighborsBasedDS[] selectors = {
+                new OverallLocalAccuracyDCS(), new MCBBasedDCS(),
+                new KNORAEliminateDES(), new DynamicVoting() };
+        for (NearestNeighborsBasedDS selector : selectors) {
+            ConsensusGate gate = new ConsensusGate(0.6);
+            selector.setConsensusGate(gate);
+            selector.setClassifiers(pool);
+            selector.buildClassifier(validation);
+            assertBatchMatches(selector, test);
+            // DCS distributions always go through the selection
+            int gated = selector instanceof KnnAccuracyBasedDCS ? 2 : 4;
+            assertEquals(gated * test.size(), gate.getQueries());
+            assertTrue(gate.getFired() > 0);
+            assertTrue(gate.getFired() < gate.getQueries());
+        }
+    }
+
+    @Test
+    public void testCompetenceFirstRunsOnlyTheWinner() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 2);
+        CountingClassifier[] counted = new CountingClassifier[pool.length];
+        for (int c = 0; c < pool.length; c++) {
+            counted[c] = new CountingClassifier(pool[c]);
+        }
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        Instances test = TestData.Blobs(40, 4, 3, 3);
+        KnnAccuracyBasedDCS[][] selectors = {
+                { new OverallLocalAccuracyDCS(),
+                  new OverallLocalAccuracyDCS() },
+                { new DynamicSelectionDCS(), new DynamicSelectionDCS() } };
+        for (KnnAccuracyBasedDCS[] pair : selectors) {
+            KnnAccuracyBasedDCS exhaustive = pair[0];
+            KnnAccuracyBasedDCS competenceFirst = pair[1];
+            exhaustive.setConsensusGate(null);
+            exhaustive.setClassifiers(pool);
+            exhaustive.buildClassifier(validation);
+            competenceFirst.setCompetenceFirst(true);
+            competenceFirst.setClassifiers(counted);
+            competenceFirst.buildClassifier(validation);
+            for (CountingClassifier classifier : counted) classifier.runs = 0;
+            double[] labels = competenceFirst.classifyInstances(test);
+            for (int i = 0; i < test.size(); i++) {
+                assertEquals(exhaustive.classifyInstance(test.get(i)),
+                             labels[i], 0.0);
+                assertEquals(exhaustive.classifyInstance(test.get(i)),
+                             competenceFirst.classifyInstance(test.get(i)),
+                             0.0);
+            }
+            int runs = 0;
+            for (CountingClassifier classifier : counted) {
+                runs += classifier.runs;
+            }
+            assertEquals(2 * test.size(), runs);
+            // the default gate runs the whole pool on each label query
+            competenceFirst.setCompetenceFirst(false);
+            for (CountingClassifier classifier : counted) classifier.runs = 0;
+            competenceFirst.classifyInstances(test);
+            runs = 0;
+            for (CountingClassifier classifier : counted) {
+                runs += classifier.runs;
+            }
+            assertEquals(counted.length * test.size(), runs);
+        }
+    }
+
+    @Test
+    public void testDeduplicatedPoolGivesSameAnswers() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 2);
+        // the copies wrap the same trained members, so they never disagree
+        CountingClassifier[] counted = {
+                new CountingClassifier(pool[0]),
+                new CountingClassifier(pool[1]),
+                new CountingClassifier(pool[0]),
+                new CountingClassifier(pool[2]),
+                new CountingClassifier(pool[1]),
+                new CountingClassifier(pool[0]) };
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        Instances test = TestData.Blobs(40, 4, 3, 3);
+        NearestNeighborsBasedDS[][] selectors = {
+                { new OverallLocalAccuracyDCS(),
+                  new OverallLocalAccuracyDCS() },
+                { new MCBBasedDCS(), new MCBBasedDCS() },
+                { new KNORAEliminateDES(), new KNORAEliminateDES() },
+                { new DynamicVotingSelectionDES(),
+                  new DynamicVotingSelectionDES() } };
+        for (NearestNeighborsBasedDS[] pair : selectors) {
+            pair[0].setClassifiers(counted);
+            pair[0].buildClassifier(validation);
+            pair[1].setDeduplicatePool(true);
+            pair[1].setClassifiers(counted);
+            pair[1].buildClassifier(validation);
+            PoolDeduplication deduplication = pair[1].getPoolDeduplication();
+            assertEquals(3, deduplication.numRepresentatives());
+            assertEquals(3, deduplication.multiplicity(0));
+            assertEquals(0, deduplication.representative(5));
+            assertEquals(1, deduplication.representative(4));
+            for (CountingClassifier classifier : counted) classifier.runs = 0;
+            assertBatchMatches(pair[1], test);
+            assertEquals(0, counted[2].runs + counted[4].runs +
+                            counted[5].runs);
+            assertSameAnswers(pair[0], pair[1], test);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLazyCompetenceRejectsDeduplication()
+    {
+        NearestNeighborsBasedDS selector = new LocalClassAccuracyDCS();
+        selector.setLazyCompetence(true);
+        selector.setDeduplicatePool(true);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDeduplicationRejectsLazyCompetence()
+    {
+        NearestNeighborsBasedDS selector = new LocalClassAccuracyDCS();
+        selector.setDeduplicatePool(true);
+        selector.setLazyCompetence(true);
+    }
+
+    @Test
+    public void testLazyCompetenceGivesSameAnswers() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 2);
+        Instances validation = TestData.Blobs(300, 4, 3, 2);
+        final Instances test = TestData.Blobs(20, 4, 3, 3);
+        NearestNeighborsBasedDS[][] selectors = {
+                { new LocalClassAccuracyDCS(), new LocalClassAccuracyDCS() },
+                { new MCBBasedDCS(), new MCBBasedDCS() },
+                { new KNORAEliminateDES(), new KNORAEliminateDES() },
+                { new DynamicVoting(), new DynamicVoting() } };
+        for (final NearestNeighborsBasedDS[] pair : selectors) {
+            pair[0].setClassifiers(pool);
+            pair[0].buildClassifier(validation);
+            pair[1].setLazyCompetence(true);
+            pair[1].setClassifiers(pool);
+            pair[1].buildClassifier(validation);
+            assertEquals(0, pair[1].numComputedRows());
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception
+                    {
+                        boolean same = true;
+                        for (int i = 0; i < test.size(); i++) {
+                            same &= Arrays.equals(
+                                pair[0].distributionForInstance(test.get(i)),
+                                pair[1].distributionForInstance(test.get(i)));
+                        }
+                        return same;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) assertTrue(result.get());
+            executor.shutdown();
+            int computed = pair[1].numComputedRows();
+            assertTrue(computed > 0 && computed < validation.size());
+            assertBatchMatches(pair[1], test);
+            assertSameAnswers(pair[0], pair[1], test);
+            for (int n = 0; n < 10; n++) pair[1].update(validation.get(n));
+            assertEquals(computed + 10, pair[1].numComputedRows());
+        }
+    }
+
+    private static void assertSameAnswers(DynamicSelection expected,
+            DynamicSelection actual, Instances test) throws Exception
+    {
+        for (int i = 0; i < test.size(); i++) {
+            assertEquals(expected.classifyInstance(test.get(i)),
+                         actual.classifyInstance(test.get(i)), 0.0);
+            assertArrayEquals(expected.distributionForInstance(test.get(i)),
+                              actual.distributionForInstance(test.get(i)),
+                              0.0);
+        }
+    }
+
+    @Test
+    public void testUpdatesMatchBuild() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 2);
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        Instances test = TestData.Blobs(40, 4, 3, 3);
+        NeighborIndex[][] indexes = {
+                { new WekaNeighborIndex(new LinearNNSearch()),
+                  new WekaNeighborIndex(new LinearNNSearch()) },
+                { new FlatNeighborIndex(), new FlatNeighborIndex() },
+                { new WekaNeighborIndex(new BallTree()),
+                  new WekaNeighborIndex(new BallTree()) } };
+        for (NeighborIndex[] pair : indexes) {
+            NearestNeighborsBasedDS built = new KNORAEliminateDES();
+            built.setNeighborIndex(pair[0]);
+            built.setClassifiers(pool);
+            built.buildClassifier(validation);
+            NearestNeighborsBasedDS updated = new KNORAEliminateDES();
+            updated.setNeighborIndex(pair[1]);
+            updated.setClassifiers(pool);
+            updated.buildClassifier(new Instances(validation, 0, 60));
+            for (int n = 60; n < validation.size(); n++) {
+                updated.update(validation.get(n));
+            }
+            assertEquals(validation.size(),
+                         updated.getPredictions().numInstances());
+            assertSameAnswers(built, updated, test);
+        }
+    }
+
+    @Test
+    public void testSlidingWindowEvictsOldest() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 2);
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        Instances test = TestData.Blobs(40, 4, 3, 3);
+        NearestNeighborsBasedDS built = new DynamicSelectionDCS();
+        built.setClassifiers(pool);
+        built.buildClassifier(new Instances(validation, 50, 50));
+        NearestNeighborsBasedDS updated = new DynamicSelectionDCS();
+        updated.setSelectionWindow(new SelectionWindow(50, 0));
+        updated.setClassifiers(pool);
+        updated.buildClassifier(new Instances(validation, 0, 60));
+        long start = System.currentTimeMillis() + 1000;
+        for (int n = 60; n < validation.size(); n++) {
+            updated.update(validation.get(n), start + n);
+            assertEquals(50, updated.getPredictions().numInstances());
+        }
+        assertSameAnswers(built, updated, test);
+        // instances older than the maximum age go at the next update
+        updated.getSelectionWindow().setMaxAge(10);
+        updated.update(validation.get(0), start + 100);
+        assertEquals(11, updated.getOracle().numInstances());
+    }
+
+    @Test
+    public void testEvictionsRebuildTheIndexRarely() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 2);
+        Instances validation = TestData.Blobs(1200, 4, 3, 2);
+        Instances test = TestData.Blobs(40, 4, 3, 3);
+        final int[] builds = new int[1];
+        NearestNeighborsBasedDS updated = new KNORAEliminateDES();
+        updated.setNeighborIndex(new FlatNeighborIndex() {
+            @Override
+            public void build(Instances instances) throws Exception
+            {
+                builds[0]++;
+                super.build(instances);
+            }
+        });
+        updated.setSelectionWindow(new SelectionWindow(400, 0));
+        updated.setClassifiers(pool);
+        updated.buildClassifier(new Instances(validation, 0, 400));
+        for (int n = 400; n < validation.size(); n++) {
+            updated.update(validation.get(n));
+            if (n % 97 == 0) {
+                NearestNeighborsBasedDS built = new KNORAEliminateDES();
+                built.setNeighborIndex(new FlatNeighborIndex());
+                built.setClassifiers(pool);
+                built.buildClassifier(new Instances(validation, n - 399, 400));
+                assertSameAnswers(built, updated, test);
+            }
+        }
+        assertTrue(builds[0] < 800 / 8);
+    }
+
+    @Test
+    public void testSharedAcrossThreads() throws Exception
+    {
+        Classifier[] pool = TestData.Pool(TestData.Blobs(150, 4, 3, 1), 2);
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        final Instances test = TestData.Blobs(200, 4, 3, 4);
+        NearestNeighborsBasedDS[] selectors = {
+                new OverallLocalAccuracyDCS(), new KNORAEliminateDES(),
+                new DynamicVoting(), new DynamicVotingSelectionDES() };
+        for (final NearestNeighborsBasedDS selector : selectors) {
+            selector.setClassifiers(pool);
+            selector.buildClassifier(validation);
+            final double[][] expected = new double[test.size()][];
+            for (int i = 0; i < test.size(); i++) {
+                expected[i] = selector.distributionForInstance(test.get(i));
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int offset = t;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception
+                    {
+                        boolean same = true;
+                        for (int r = 0; r < 5; r++) {
+                            for (int i = 0; i < test.size(); i++) {
+                                int j = (i + offset * 50) % test.size();
+                                double[] answer = selector
+                                    .distributionForInstance(test.get(j));
+                                same &= Arrays.equals(expected[j], answer);
+                            }
+                        }
+                        return same;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) assertTrue(result.get());
+            executor.shutdown();
+        }
+    }
+}
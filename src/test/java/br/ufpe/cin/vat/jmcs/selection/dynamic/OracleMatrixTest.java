@@ -0,0 +1,104 @@
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class OracleMatrixTest
+{
+    @Test
+    public void testSetAndIsCorrect()
+    {
+        OracleMatrix oracle = new OracleMatrix(3, 130);
+        assertEquals(3, oracle.wordsPerRow());
+        oracle.set(0, 0);
+        oracle.set(1, 64);
+        oracle.set(2, 129);
+        assertTrue(oracle.isCorrect(0, 0));
+        assertFalse(oracle.isCorrect(0, 64));
+        assertTrue(oracle.isCorrect(1, 64));
+        assertFalse(oracle.isCorrect(1, 0));
+        assertTrue(oracle.isCorrect(2, 129));
+        assertFalse(oracle.isCorrect(2, 1));
+        assertEquals(1L << 1, oracle.word(2, 2));
+    }
+
+    @Test
+    public void testCountCorrect()
+    {
+        OracleMatrix oracle = new OracleMatrix(4, 3);
+        oracle.set(0, 0);
+        oracle.set(0, 2);
+        oracle.set(1, 2);
+        oracle.set(3, 1);
+        int[] counts = new int[3];
+        oracle.countCorrect(new int[] { 0, 1, 3 }, 3, counts);
+        assertArrayEquals(new int[] { 1, 1, 2 }, counts);
+        oracle.countCorrect(new int[] { 0, 1, 3 }, 2, counts);
+        assertArrayEquals(new int[] { 1, 0, 2 }, counts);
+    }
+
+    @Test
+    public void testSelectAllAndIntersect()
+    {
+        OracleMatrix oracle = new OracleMatrix(2, 70);
+        long[] mask = new long[oracle.wordsPerRow()];
+        oracle.selectAll(mask);
+        assertEquals(-1L, mask[0]);
+        assertEquals((1L << 6) - 1, mask[1]);
+        oracle.set(0, 3);
+        oracle.set(0, 65);
+        oracle.set(1, 65);
+        long[] target = new long[oracle.wordsPerRow()];
+        assertTrue(oracle.intersect(0, mask, target));
+        assertArrayEquals(new long[] { 1L << 3, 1L << 1 }, target);
+        assertTrue(oracle.intersect(1, target, target));
+        assertArrayEquals(new long[] { 0L, 1L << 1 }, target);
+        assertFalse(oracle.intersect(0, new long[2], target));
+    }
+
+    @Test
+    public void testAddAndRemoveInstances()
+    {
+        OracleMatrix oracle = new OracleMatrix(1, 70);
+        oracle.set(0, 69);
+        for (int n = 1; n < 20; n++) {
+            assertEquals(n, oracle.addInstance());
+            assertFalse(oracle.isCorrect(n, n));
+            oracle.set(n, n);
+        }
+        assertEquals(20, oracle.numInstances());
+        oracle.removeFirst(5);
+        assertEquals(15, oracle.numInstances());
+        assertTrue(oracle.isCorrect(0, 5));
+        assertFalse(oracle.isCorrect(0, 69));
+        assertTrue(oracle.isCorrect(14, 19));
+    }
+
+    @Test
+    public void testSlidingWindowReclaimsDroppedRows()
+    {
+        OracleMatrix oracle = new OracleMatrix(5, 70);
+        for (int n = 0; n < 5; n++) oracle.set(n, n);
+        // one instance in and one out, as a full selection window does
+        for (int n = 5; n < 70; n++) {
+            assertEquals(5, oracle.addInstance());
+            assertFalse(oracle.isCorrect(5, n));
+            oracle.set(5, n);
+            oracle.removeFirst(1);
+            assertEquals(5, oracle.numInstances());
+            int[] counts = new int[70];
+            oracle.countCorrect(new int[] { 0, 1, 2, 3, 4 }, 5, counts);
+            for (int c = 0; c < 70; c++) {
+                boolean kept = c > n - 5 && c <= n;
+                assertEquals(kept ? 1 : 0, counts[c]);
+            }
+            for (int r = 0; r < 5; r++) {
+                assertTrue(oracle.isCorrect(r, n - 4 + r));
+            }
+        }
+    }
+}
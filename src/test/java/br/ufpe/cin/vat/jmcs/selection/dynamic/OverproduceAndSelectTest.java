@@ -0,0 +1,95 @@
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.rules.ZeroR;
+import weka.core.Instances;
+
+public class OverproduceAndSelectTest
+{
+    private static Classifier[] pool(Instances train) throws Exception
+    {
+        Classifier[] trained = TestData.Pool(train, 1);
+        Classifier[] pool = new Classifier[trained.length + 1];
+        pool[0] = new ZeroR();
+        pool[0].buildClassifier(train);
+        System.arraycopy(trained, 0, pool, 1, trained.length);
+        return pool;
+    }
+
+    @Test
+    public void testPrunesToTargetSize() throws Exception
+    {
+        Classifier[] pool = pool(TestData.Blobs(150, 4, 3, 1));
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        Instances test = TestData.Blobs(40, 4, 3, 3);
+        OverproduceAndSelect pruned = new OverproduceAndSelect(
+                new KNORAEliminateDES(), 3);
+        pruned.setClassifiers(pool);
+        pruned.buildClassifier(validation);
+        int[] selected = pruned.getSelected();
+        assertEquals(3, selected.length);
+        assertEquals(3, pruned.getSelector().getClassifiers().length);
+        assertEquals(pool.length, pruned.getCosts().length);
+        // the first pick is the most accurate member over DSEL
+        OracleMatrix oracle = OracleMatrix.build(
+                PredictionMatrix.build(pool, validation), labels(validation));
+        int[] correct = new int[pool.length];
+        for (int n = 0; n < validation.size(); n++) {
+            for (int c = 0; c < pool.length; c++) {
+                if (oracle.isCorrect(n, c)) correct[c]++;
+            }
+        }
+        for (int c = 0; c < pool.length; c++) {
+            assertTrue(correct[selected[0]] >= correct[c]);
+        }
+        KNORAEliminateDES expected = new KNORAEliminateDES();
+        Classifier[] members = new Classifier[selected.length];
+        for (int s = 0; s < selected.length; s++) {
+            members[s] = pool[selected[s]];
+        }
+        expected.setClassifiers(members);
+        expected.buildClassifier(validation);
+        for (int i = 0; i < test.size(); i++) {
+            assertArrayEquals(expected.distributionForInstance(test.get(i)),
+                              pruned.distributionForInstance(test.get(i)),
+                              0.0);
+        }
+    }
+
+    @Test
+    public void testRespectsCostBudget() throws Exception
+    {
+        Classifier[] pool = pool(TestData.Blobs(150, 4, 3, 1));
+        Instances validation = TestData.Blobs(100, 4, 3, 2);
+        OverproduceAndSelect pruned = new OverproduceAndSelect(
+                new OverallLocalAccuracyDCS());
+        double[] costs = { 1, 1, 1, 1, 1 };
+        pruned.setCosts(costs);
+        pruned.setCostBudget(0.4);
+        pruned.setClassifiers(pool);
+        pruned.buildClassifier(validation);
+        assertEquals(2, pruned.getSelected().length);
+        pruned.setCostBudget(1.0);
+        pruned.setDiversityWeight(0.0);
+        pruned.buildClassifier(validation);
+        assertEquals(pool.length, pruned.getSelected().length);
+        assertArrayEquals(costs, pruned.getCosts(), 0.0);
+    }
+
+    private static double[] labels(Instances data)
+    {
+        double[] labels = new double[data.size()];
+        for (int n = 0; n < data.size(); n++) {
+            labels[n] = data.get(n).classValue();
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,87 @@
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import mulan.classifier.MultiLabelOutput;
+import mulan.data.MultiLabelInstances;
+import weka.classifiers.Classifier;
+import weka.classifiers.functions.Logistic;
+import weka.classifiers.rules.ZeroR;
+import weka.classifiers.trees.DecisionStump;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+
+public class ParallelBinaryRelevanceTest
+{
+    @Test
+    public void testParallelMatchesSerial() throws Exception
+    {
+        Instances train = TestData.Blobs(100, 3, 2, 1);
+        Classifier[] pool = { new J48(), new DecisionStump(), new ZeroR() };
+        for (Classifier classifier : pool) classifier.buildClassifier(train);
+        Instances validation = TestData.Blobs(80, 3, 2, 2);
+        // a member which is always right gets a constant label
+        Instances constant = new Instances(validation);
+        for (int n = 0; n < constant.size(); n++) {
+            constant.get(n).setClassValue(0);
+        }
+        MultiLabelMetaDataSet metaDataSet = new MultiLabelMetaDataSet(
+                pool, constant, new PoolEvaluator());
+        ParallelBinaryRelevance serial = new ParallelBinaryRelevance(
+                new Logistic());
+        serial.build(metaDataSet.getDataSet());
+        ExecutorService executor = new ForkJoinPool(3);
+        PoolEvaluator evaluator = new PoolEvaluator(executor);
+        evaluator.setNumChunks(3);
+        try {
+            ParallelBinaryRelevance parallel = new ParallelBinaryRelevance(
+                    new Logistic(), evaluator);
+            parallel.build(metaDataSet.getDataSet());
+            Instances data = metaDataSet.getDataSet().getDataSet();
+            for (int n = 0; n < data.size(); n++) {
+                MultiLabelOutput expected = serial.makePrediction(data.get(n));
+                MultiLabelOutput actual = parallel.makePrediction(
+                        data.get(n));
+                assertArrayEquals(expected.getConfidences(),
+                                  actual.getConfidences(), 0.0);
+                assertEquals(1.0, actual.getConfidences()[2], 0.0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLabelMissingEverywhereIsIrrelevant() throws Exception
+    {
+        Instances train = TestData.Blobs(100, 3, 2, 1);
+        Classifier[] pool = TestData.Pool(train, 0);
+        MultiLabelMetaDataSet metaDataSet = new MultiLabelMetaDataSet(
+                pool, TestData.Blobs(80, 3, 2, 2), new PoolEvaluator());
+        MultiLabelInstances original = metaDataSet.getDataSet();
+        Instances data = new Instances(original.getDataSet());
+        int label = original.getLabelIndices()[0];
+        for (int n = 0; n < data.size(); n++) {
+            data.get(n).setMissing(label);
+        }
+        MultiLabelInstances missing = new MultiLabelInstances(data,
+                original.getLabelsMetaData());
+        ParallelBinaryRelevance learner = new ParallelBinaryRelevance(
+                new Logistic());
+        learner.build(missing);
+        for (int n = 0; n < data.size(); n++) {
+            MultiLabelOutput output = learner.makePrediction(data.get(n));
+            assertEquals(0.0, output.getConfidences()[0], 0.0);
+            assertFalse(output.getBipartition()[0]);
+        }
+    }
+}
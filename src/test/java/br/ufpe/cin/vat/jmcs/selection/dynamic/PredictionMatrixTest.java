@@ -0,0 +1,110 @@
+package br.ufpe.cin.vat.jmcs.selection.dynamic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+import br.ufpe.cin.vat.jmcs.utils.PoolEvaluator;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Instances;
+import weka.core.Utils;
+
+public class PredictionMatrixTest
+{
+    @Test
+    public void testByteColumns()
+    {
+        PredictionMatrix predictions = new PredictionMatrix(2, 3, 4);
+        assertEquals(PredictionMatrix.MISSING, predictions.get(1, 2));
+        assertTrue(Utils.isMissingValue(predictions.label(1, 2)));
+        predictions.set(1, 2, 3);
+        assertEquals(3, predictions.get(1, 2));
+        assertEquals(3.0, predictions.label(1, 2), 0.0001);
+    }
+
+    @Test
+    public void testShortColumns()
+    {
+        PredictionMatrix predictions = new PredictionMatrix(2, 1, 1000);
+        assertEquals(PredictionMatrix.MISSING, predictions.get(0, 0));
+        predictions.set(0, 0, 999);
+        assertEquals(999, predictions.get(0, 0));
+    }
+
+    @Test
+    public void testAddAndRemoveInstances()
+    {
+        PredictionMatrix predictions = new PredictionMatrix(1, 2, 4);
+        predictions.set(0, 1, 2);
+        for (int n = 1; n < 40; n++) {
+            assertEquals(n, predictions.addInstance());
+            assertEquals(PredictionMatrix.MISSING, predictions.get(n, 0));
+            predictions.set(n, 0, n % 4);
+        }
+        assertEquals(40, predictions.numInstances());
+        predictions.removeFirst(3);
+        assertEquals(37, predictions.numInstances());
+        assertEquals(3, predictions.get(0, 0));
+        assertEquals(3, predictions.get(36, 0));
+        assertEquals(PredictionMatrix.MISSING, predictions.get(0, 1));
+    }
+
+    @Test
+    public void testSlidingWindowReclaimsDroppedRows()
+    {
+        PredictionMatrix predictions = new PredictionMatrix(5, 2, 200);
+        for (int n = 0; n < 5; n++) predictions.set(n, 0, n);
+        // one instance in and one out, as a full selection window does
+        for (int n = 5; n < 100; n++) {
+            assertEquals(5, predictions.addInstance());
+            predictions.set(5, 0, n);
+            predictions.removeFirst(1);
+            assertEquals(5, predictions.numInstances());
+            for (int r = 0; r < 5; r++) {
+                assertEquals(n - 4 + r, predictions.get(r, 0));
+                assertEquals(PredictionMatrix.MISSING, predictions.get(r, 1));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBuildMatchesSerial() throws Exception
+    {
+        Instances train = TestData.Blobs(100, 1, 3, 1);
+        Instances selection = TestData.Blobs(73, 1, 3, 2);
+        Classifier[] pool = new Classifier[5];
+        for (int c = 0; c < pool.length; c++) {
+            RandomTree tree = new RandomTree();
+            tree.setSeed(c);
+            tree.buildClassifier(train);
+            pool[c] = tree;
+        }
+        PredictionMatrix expected = PredictionMatrix.build(pool, selection);
+        ExecutorService executor = new ForkJoinPool(4);
+        PoolEvaluator evaluator = new PoolEvaluator(executor);
+        evaluator.setNumChunks(11);
+        try {
+            PredictionMatrix actual = PredictionMatrix.build(pool, selection,
+                                                             evaluator);
+            for (int n = 0; n < selection.size(); n++) {
+                for (int c = 0; c < pool.length; c++) {
+                    assertEquals(expected.get(n, c), actual.get(n, c));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyClasses()
+    {
+        new PredictionMatrix(1, 1, Short.MAX_VALUE + 1);
+    }
+}
@@ -2,6 +2,8 @@ package br.ufpe.cin.vat.jmcs.utils;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
 public class EnumerablesTest
@@ -74,6 +76,54 @@ public class EnumerablesTest
         assertEquals(0, minIndex);
     }
 
+    @Test
+    public void testPrimitiveMaxIndex()
+    {
+        assertTrue(Enumerables.MaxIndex((int[]) null, 0) < 0);
+        assertTrue(Enumerables.MaxIndex(new int[0], 0) < 0);
+        assertEquals(4, Enumerables.MaxIndex(new int[] { 7, 5, 3, 2, 9 }, 5));
+        assertEquals(0, Enumerables.MaxIndex(new int[] { 7, 5, 3, 2, 9 }, 4));
+        assertEquals(0, Enumerables.MaxIndex(new int[] { 7, 7, 7 }, 3));
+
+        assertTrue(Enumerables.MaxIndex((double[]) null, 0) < 0);
+        assertEquals(2, Enumerables.MaxIndex(
+                new double[] { -2.0, -3.0, -1.0, -10.0 }, 4));
+        assertEquals(1, Enumerables.MaxIndex(
+                new double[] { 0.5, 0.7, 0.7 }, 3));
+    }
+
+    @Test
+    public void testPrimitiveMinIndex()
+    {
+        assertTrue(Enumerables.MinIndex((double[]) null, 0) < 0);
+        assertTrue(Enumerables.MinIndex(new double[0], 0) < 0);
+        assertEquals(3, Enumerables.MinIndex(
+                new double[] { -2.0, -3.0, -1.0, -10.0 }, 4));
+        assertEquals(1, Enumerables.MinIndex(
+                new double[] { -2.0, -3.0, -1.0, -10.0 }, 3));
+        assertEquals(0, Enumerables.MinIndex(
+                new double[] { 0.5, 0.5, 0.5 }, 3));
+    }
+
+    @Test
+    public void testMinIndexes()
+    {
+        int[] indexes = new int[4];
+        assertEquals(0, Enumerables.MinIndexes(new double[0], 0, 2, indexes));
+
+        double[] array = { 5.0, 2.0, 1.0, 2.0 };
+        assertEquals(2, Enumerables.MinIndexes(array, 4, 2, indexes));
+        assertArrayEquals(new int[] { 2, 1 }, Arrays.copyOf(indexes, 2));
+
+        assertEquals(4, Enumerables.MinIndexes(array, 4, 4, indexes));
+        assertArrayEquals(new int[] { 2, 1, 3, 0 }, indexes);
+
+        assertEquals(1, Enumerables.MinIndexes(array, 1, 3, indexes));
+        assertEquals(0, indexes[0]);
+
+        assertEquals(0, Enumerables.MinIndexes(array, 4, 0, indexes));
+    }
+
     @Test
     public void testSortIndexes()
     {
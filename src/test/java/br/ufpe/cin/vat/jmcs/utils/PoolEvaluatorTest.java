@@ -0,0 +1,139 @@
+package br.ufpe.cin.vat.jmcs.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import br.ufpe.cin.vat.jmcs.TestData;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Instance;
+import weka.core.Instances;
+
+public class PoolEvaluatorTest
+{
+    private static Classifier[] pool(Instances train, int size)
+            throws Exception
+    {
+        Classifier[] pool = new Classifier[size];
+        for (int c = 0; c < size; c++) {
+            RandomTree tree = new RandomTree();
+            tree.setSeed(c);
+            tree.setMaxDepth(3);
+            tree.buildClassifier(train);
+            pool[c] = tree;
+        }
+        return pool;
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws Exception
+    {
+        Classifier[] pool = pool(TestData.Blobs(100, 2, 2, 1), 37);
+        Instances test = TestData.Blobs(20, 2, 2, 2);
+        PoolEvaluator serial = new PoolEvaluator();
+        ExecutorService executor = new ForkJoinPool(3);
+        PoolEvaluator parallel = new PoolEvaluator(executor);
+        parallel.setParallelThreshold(8);
+        parallel.setNumChunks(5);
+        try {
+            for (Instance instance : test) {
+                assertArrayEquals(serial.labels(pool, instance),
+                                  parallel.labels(pool, instance), 0.0);
+                double[][] expected = serial.distributions(pool, instance);
+                double[][] actual = parallel.distributions(pool, instance);
+                for (int c = 0; c < pool.length; c++) {
+                    assertArrayEquals(expected[c], actual[c], 0.0);
+                }
+            }
+            double[][] expected = serial.labels(pool, test);
+            double[][] actual = parallel.labels(pool, test);
+            for (int i = 0; i < test.size(); i++) {
+                assertArrayEquals(expected[i], actual[i], 0.0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBlocksCoverEveryPairOnce() throws Exception
+    {
+        ExecutorService executor = new ForkJoinPool(3);
+        PoolEvaluator evaluator = new PoolEvaluator(executor);
+        evaluator.setNumChunks(7);
+        try {
+            // fewer members than chunks, so the instances must be split too
+            final AtomicIntegerArray visits = new AtomicIntegerArray(3 * 50);
+            evaluator.forEachBlock(3, 50, new PoolEvaluator.BlockTask() {
+                @Override
+                public void run(int c, int from, int to) {
+                    assertTrue(from < to && to - from < 50);
+                    for (int n = from; n < to; n++) {
+                        visits.incrementAndGet(c * 50 + n);
+                    }
+                }
+            });
+            for (int i = 0; i < visits.length(); i++) {
+                assertEquals(1, visits.get(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSmallPoolsRunSerially() throws Exception
+    {
+        Classifier[] pool = pool(TestData.Blobs(50, 2, 2, 3), 4);
+        ExecutorService executor = new ForkJoinPool(2);
+        executor.shutdown(); // any submission would be rejected
+        PoolEvaluator evaluator = new PoolEvaluator(executor);
+        evaluator.setParallelThreshold(5);
+        evaluator.setNumChunks(2);
+        double[] labels = evaluator.labels(pool,
+                TestData.Blobs(1, 2, 2, 4).get(0));
+        assertEquals(4, labels.length);
+    }
+
+    @Test
+    public void testFailuresArePropagated() throws Exception
+    {
+        Classifier failing = new AbstractClassifier() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void buildClassifier(Instances data) { }
+
+            @Override
+            public double classifyInstance(Instance instance)
+                    throws Exception
+            {
+                throw new IllegalStateException("failed");
+            }
+        };
+        Classifier[] pool = pool(TestData.Blobs(50, 2, 2, 5), 8);
+        pool[7] = failing;
+        ExecutorService executor = new ForkJoinPool(2);
+        PoolEvaluator evaluator = new PoolEvaluator(executor);
+        evaluator.setParallelThreshold(2);
+        evaluator.setNumChunks(2);
+        try {
+            evaluator.labels(pool, TestData.Blobs(1, 2, 2, 6).get(0));
+            fail("The failure of a pool member was swallowed.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().endsWith("failed"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package br.ufpe.cin.vat.jmcs.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+public class QueryContextTest
+{
+    private static class CountingClassifier extends AbstractClassifier
+    {
+        private static final long serialVersionUID = 1L;
+        private final double[] distribution;
+        int runs;
+
+        CountingClassifier(double... distribution)
+        {
+            this.distribution = distribution;
+        }
+
+        @Override
+        public void buildClassifier(Instances data) throws Exception
+        {
+            return;
+        }
+
+        @Override
+        public double[] distributionForInstance(Instance instance)
+                throws Exception
+        {
+            this.runs++;
+            return this.distribution.clone();
+        }
+    }
+
+    private static class LabelingClassifier extends CountingClassifier
+    {
+        private static final long serialVersionUID = 1L;
+        private final double label;
+
+        LabelingClassifier(double label, double... distribution)
+        {
+            super(distribution);
+            this.label = label;
+        }
+
+        @Override
+        public double classifyInstance(Instance instance) throws Exception
+        {
+            this.runs++;
+            return this.label;
+        }
+    }
+
+    private static Instance instance()
+    {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute("x"));
+        ArrayList<String> classes = new ArrayList<>();
+        classes.add("a");
+        classes.add("b");
+        classes.add("c");
+        attributes.add(new Attribute("class", classes));
+        Instances data = new Instances("test", attributes, 1);
+        data.setClassIndex(1);
+        data.add(new DenseInstance(1.0, new double[] { 0.5, 0 }));
+        return data.get(0);
+    }
+
+    @Test
+    public void testDerivesLabel()
+    {
+        assertTrue(Classifiers.DerivesLabel(new CountingClassifier()));
+        assertFalse(Classifiers.DerivesLabel(new LabelingClassifier(0)));
+        assertFalse(Classifiers.DerivesLabel(new J48()));
+    }
+
+    @Test
+    public void testLabelMatchesAbstractClassifier() throws Exception
+    {
+        Instance instance = instance();
+        double[][] distributions = new double[][] {
+            { 0.2, 0.5, 0.3 }, { 0.4, 0.4, 0.2 }, { 0, 0, 0 } };
+        for (double[] distribution : distributions) {
+            CountingClassifier classifier = new CountingClassifier(
+                    distribution);
+            assertEquals(classifier.classifyInstance(instance),
+                         Classifiers.Label(instance, distribution), 0.0);
+        }
+    }
+
+    @Test
+    public void testEachMemberRunsOnce() throws Exception
+    {
+        CountingClassifier first = new CountingClassifier(0.1, 0.7, 0.2);
+        CountingClassifier second = new CountingClassifier(0.6, 0.3, 0.1);
+        QueryContext context = new QueryContext(
+                instance(), new Classifier[] { first, second },
+                new PoolEvaluator());
+        assertArrayEquals(new double[] { 1, 0 }, context.labels(), 0.0);
+        assertEquals(1, context.label(0), 0.0);
+        assertArrayEquals(new double[] { 0.6, 0.3, 0.1 },
+                          context.distribution(1), 0.0);
+        double[][] selected = context.distributions(new int[] { 1, 0 }, 2);
+        assertArrayEquals(new double[] { 0.6, 0.3, 0.1 }, selected[0], 0.0);
+        assertArrayEquals(new double[] { 0.1, 0.7, 0.2 }, selected[1], 0.0);
+        assertEquals(1, first.runs);
+        assertEquals(1, second.runs);
+    }
+
+    @Test
+    public void testOverriddenLabelsAreNotDerived() throws Exception
+    {
+        LabelingClassifier classifier = new LabelingClassifier(2, 1, 0, 0);
+        QueryContext context = new QueryContext(
+                instance(), new Classifier[] { classifier },
+                new PoolEvaluator());
+        assertEquals(2, context.label(0), 0.0);
+        assertEquals(2, context.label(0), 0.0);
+        assertArrayEquals(new double[] { 1, 0, 0 }, context.distribution(0),
+                          0.0);
+        context.distribution(0);
+        assertEquals(2, classifier.runs);
+    }
+
+    @Test
+    public void testKnownLabelsAreNotRecomputed() throws Exception
+    {
+        CountingClassifier classifier = new CountingClassifier(0, 1, 0);
+        QueryContext context = new QueryContext(
+                instance(), new Classifier[] { classifier },
+                new PoolEvaluator(), new double[] { 1 });
+        assertArrayEquals(new double[] { 1 }, context.labels(), 0.0);
+        assertEquals(0, classifier.runs);
+    }
+}